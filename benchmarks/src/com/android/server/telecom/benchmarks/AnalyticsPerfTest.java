@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telecom.DisconnectCause;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.server.telecom.Analytics;
+import com.android.server.telecom.tests.TelecomTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Benchmarks encoding the analytics proto, which is done under the analytics lock while calls
+ * are being set up.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class AnalyticsPerfTest extends TelecomTestCase {
+    private static final int NUM_SESSION_TIMINGS = 100;
+
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Analytics.reset();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < Analytics.MAX_NUM_CALLS_TO_STORE; i++) {
+            Analytics.CallInfo callInfo = Analytics.initiateCallAnalytics(String.valueOf(i),
+                    i % 2 == 0 ? Analytics.INCOMING_DIRECTION : Analytics.OUTGOING_DIRECTION);
+            callInfo.setCallStartTime(startTime + i * 1000);
+            callInfo.setCallEndTime(startTime + i * 1000 + 60000);
+            callInfo.addCallTechnology(Analytics.CDMA_PHONE);
+            callInfo.setCallConnectionService("com.android.phone");
+            callInfo.addInCallService("com.android.dialer/.InCallServiceImpl",
+                    1 /* IN_CALL_SERVICE_TYPE_DIALER_UI */, 60000 /* boundDuration */,
+                    false /* isNullBinding */);
+            callInfo.setCallDisconnectCause(new DisconnectCause(DisconnectCause.REMOTE));
+        }
+        String sessionName = Analytics.sSessionIdToLogSession.values().iterator().next();
+        for (int i = 0; i < NUM_SESSION_TIMINGS; i++) {
+            Analytics.addSessionTiming(sessionName, i);
+        }
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        Analytics.reset();
+        super.tearDown();
+    }
+
+    @Test
+    public void timeDumpToEncodedProto() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        String[] args = new String[0];
+        while (state.keepRunning()) {
+            Analytics.dumpToEncodedProto(mContext, new PrintWriter(new StringWriter()), args);
+        }
+    }
+}
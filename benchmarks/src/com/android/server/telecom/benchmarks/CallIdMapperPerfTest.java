@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import static org.mockito.Mockito.mock;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallIdMapper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmarks {@link CallIdMapper}, which is consulted for every message to and from a
+ * ConnectionService or InCallService.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class CallIdMapperPerfTest {
+    private static final int NUM_CALLS = 8;
+
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final Map<Call, String> mCallIds = new HashMap<>();
+    private final Call[] mCalls = new Call[NUM_CALLS];
+    private CallIdMapper mCallIdMapper;
+
+    @Before
+    public void setUp() {
+        mCallIdMapper = new CallIdMapper(mCallIds::get);
+        for (int i = 0; i < NUM_CALLS; i++) {
+            mCalls[i] = mock(Call.class);
+            mCallIds.put(mCalls[i], "TC@" + i);
+            mCallIdMapper.addCall(mCalls[i]);
+        }
+    }
+
+    @Test
+    public void timeGetCall() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mCallIdMapper.getCall("TC@" + (i++ % NUM_CALLS));
+        }
+    }
+
+    @Test
+    public void timeGetCallId() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mCallIdMapper.getCallId(mCalls[i++ % NUM_CALLS]);
+        }
+    }
+
+    @Test
+    public void timeAddAndRemoveCall() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        Call call = mock(Call.class);
+        mCallIds.put(call, "TC@" + NUM_CALLS);
+        while (state.keepRunning()) {
+            mCallIdMapper.addCall(call);
+            mCallIdMapper.removeCall(call);
+        }
+    }
+}
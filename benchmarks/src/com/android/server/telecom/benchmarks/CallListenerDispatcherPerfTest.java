@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import android.os.Bundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallListenerDispatcher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmarks dispatching {@link Call.Listener} callbacks through {@link CallListenerDispatcher},
+ * against calling every listener as {@link Call} previously did.
+ *
+ * The listeners stand in for those registered on a call in practice: {@code CallsManager},
+ * {@code InCallController}'s call listener and {@code IncomingCallNotifier}'s call listener. Each
+ * overrides the same callbacks as the listener it stands in for.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class CallListenerDispatcherPerfTest {
+    // Consumes results so that the work being measured can't be optimized away.
+    private static int sSink;
+
+    private static class CallsManagerListener extends Call.ListenerBase {
+        @Override
+        public void onSuccessfulOutgoingCall(Call call, int callState) { sSink++; }
+        @Override
+        public void onFailedOutgoingCall(Call call, DisconnectCause disconnectCause) { sSink++; }
+        @Override
+        public void onSuccessfulIncomingCall(Call call) { sSink++; }
+        @Override
+        public void onFailedIncomingCall(Call call) { sSink++; }
+        @Override
+        public void onSuccessfulUnknownCall(Call call, int callState) { sSink++; }
+        @Override
+        public void onFailedUnknownCall(Call call) { sSink++; }
+        @Override
+        public void onRingbackRequested(Call call, boolean ringbackRequested) { sSink++; }
+        @Override
+        public void onPostDialWait(Call call, String remaining) { sSink++; }
+        @Override
+        public void onConnectionPropertiesChanged(Call call, boolean didRttChange) { sSink++; }
+        @Override
+        public void onParentChanged(Call call) { sSink++; }
+        @Override
+        public void onChildrenChanged(Call call) { sSink++; }
+        @Override
+        public void onVideoCallProviderChanged(Call call) { sSink++; }
+        @Override
+        public void onIsVoipAudioModeChanged(Call call) { sSink++; }
+        @Override
+        public void onExtrasChanged(Call c, int source, Bundle extras) { sSink++; }
+        @Override
+        public void onExtrasRemoved(Call c, int source, List<String> keys) { sSink++; }
+        @Override
+        public void onVideoStateChanged(Call call, int previousVideoState, int newVideoState) {
+            sSink++;
+        }
+        @Override
+        public void onConferenceStateChanged(Call call, boolean isConference) { sSink++; }
+        @Override
+        public void onCdmaConferenceSwap(Call call) { sSink++; }
+        @Override
+        public void onHoldToneRequested(Call call) { sSink++; }
+        @Override
+        public void onCallHoldFailed(Call call) { sSink++; }
+        @Override
+        public void onCallSwitchFailed(Call call) { sSink++; }
+        @Override
+        public void onExternalCallChanged(Call call, boolean isExternalCall) { sSink++; }
+        @Override
+        public void onHandoverRequested(Call call, PhoneAccountHandle handoverTo, int videoState,
+                Bundle extras, boolean isLegacy) {
+            sSink++;
+        }
+    }
+
+    private static class InCallControllerListener extends Call.ListenerBase {
+        @Override
+        public void onConnectionCapabilitiesChanged(Call call) { sSink++; }
+        @Override
+        public void onConnectionPropertiesChanged(Call call, boolean didRttChange) { sSink++; }
+        @Override
+        public void onCannedSmsResponsesLoaded(Call call) { sSink++; }
+        @Override
+        public void onVideoCallProviderChanged(Call call) { sSink++; }
+        @Override
+        public void onStatusHintsChanged(Call call) { sSink++; }
+        @Override
+        public void onExtrasChanged(Call c, int source, Bundle extras) { sSink++; }
+        @Override
+        public void onExtrasRemoved(Call c, int source, List<String> keys) { sSink++; }
+        @Override
+        public void onHandleChanged(Call call) { sSink++; }
+        @Override
+        public void onCallerDisplayNameChanged(Call call) { sSink++; }
+        @Override
+        public void onCallDirectionChanged(Call call) { sSink++; }
+        @Override
+        public void onVideoStateChanged(Call call, int previousVideoState, int newVideoState) {
+            sSink++;
+        }
+        @Override
+        public void onTargetPhoneAccountChanged(Call call) { sSink++; }
+        @Override
+        public void onConferenceableCallsChanged(Call call) { sSink++; }
+        @Override
+        public void onConnectionEvent(Call call, String event, Bundle extras) { sSink++; }
+        @Override
+        public void onRttInitiationFailure(Call call, int reason) { sSink++; }
+        @Override
+        public void onRemoteRttRequest(Call call, int requestId) { sSink++; }
+        @Override
+        public void onHandoverFailed(Call call, int error) { sSink++; }
+        @Override
+        public void onHandoverComplete(Call call) { sSink++; }
+    }
+
+    private static class IncomingCallNotifierListener extends Call.ListenerBase {
+        @Override
+        public void onCallerInfoChanged(Call call) { sSink++; }
+    }
+
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final Set<Call.Listener> mListenerSet = Collections.newSetFromMap(
+            new ConcurrentHashMap<Call.Listener, Boolean>(8, 0.9f, 1));
+    private final CallListenerDispatcher mDispatcher = new CallListenerDispatcher();
+    private final Bundle mExtras = new Bundle();
+
+    @Before
+    public void setUp() {
+        Call.Listener[] listeners = new Call.Listener[] {
+                new CallsManagerListener(),
+                new InCallControllerListener(),
+                new IncomingCallNotifierListener()
+        };
+        for (Call.Listener listener : listeners) {
+            mListenerSet.add(listener);
+            mDispatcher.add(listener);
+        }
+    }
+
+    @Test
+    public void timeStatusHintsChangedToAll() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (Call.Listener l : mListenerSet) {
+                l.onStatusHintsChanged(null);
+            }
+        }
+    }
+
+    @Test
+    public void timeStatusHintsChangedSelective() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (Call.Listener l : mDispatcher.get(
+                    CallListenerDispatcher.ON_STATUS_HINTS_CHANGED)) {
+                l.onStatusHintsChanged(null);
+            }
+        }
+    }
+
+    @Test
+    public void timeExtrasChangedToAll() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (Call.Listener l : mListenerSet) {
+                l.onExtrasChanged(null, Call.SOURCE_CONNECTION_SERVICE, mExtras);
+            }
+        }
+    }
+
+    @Test
+    public void timeExtrasChangedSelective() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (Call.Listener l : mDispatcher.get(CallListenerDispatcher.ON_EXTRAS_CHANGED)) {
+                l.onExtrasChanged(null, Call.SOURCE_CONNECTION_SERVICE, mExtras);
+            }
+        }
+    }
+
+    /**
+     * Cycles through the events which are dispatched most during a call.
+     */
+    @Test
+    public void timeMixedEventsToAll() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            for (Call.Listener l : mListenerSet) {
+                dispatch(l, i);
+            }
+            i++;
+        }
+    }
+
+    @Test
+    public void timeMixedEventsSelective() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            for (Call.Listener l : mDispatcher.get(getEvent(i))) {
+                dispatch(l, i);
+            }
+            i++;
+        }
+    }
+
+    private static int getEvent(int i) {
+        switch (i & 3) {
+            case 0:
+                return CallListenerDispatcher.ON_EXTRAS_CHANGED;
+            case 1:
+                return CallListenerDispatcher.ON_STATUS_HINTS_CHANGED;
+            case 2:
+                return CallListenerDispatcher.ON_CONNECTION_CAPABILITIES_CHANGED;
+            default:
+                return CallListenerDispatcher.ON_CALLER_INFO_CHANGED;
+        }
+    }
+
+    private void dispatch(Call.Listener l, int i) {
+        switch (i & 3) {
+            case 0:
+                l.onExtrasChanged(null, Call.SOURCE_CONNECTION_SERVICE, mExtras);
+                break;
+            case 1:
+                l.onStatusHintsChanged(null);
+                break;
+            case 2:
+                l.onConnectionCapabilitiesChanged(null);
+                break;
+            default:
+                l.onCallerInfoChanged(null);
+                break;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.server.telecom.AsyncRingtonePlayer;
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallAudioManager;
+import com.android.server.telecom.CallAudioModeStateMachine;
+import com.android.server.telecom.CallAudioRouteStateMachine;
+import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallerInfoLookupHelper;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ClockProxy;
+import com.android.server.telecom.ConnectionServiceFocusManager;
+import com.android.server.telecom.ConnectionServiceFocusManager.ConnectionServiceFocusManagerFactory;
+import com.android.server.telecom.DefaultDialerCache;
+import com.android.server.telecom.EmergencyCallHelper;
+import com.android.server.telecom.HeadsetMediaButton;
+import com.android.server.telecom.HeadsetMediaButtonFactory;
+import com.android.server.telecom.InCallController;
+import com.android.server.telecom.InCallControllerFactory;
+import com.android.server.telecom.InCallTonePlayer;
+import com.android.server.telecom.InCallWakeLockController;
+import com.android.server.telecom.InCallWakeLockControllerFactory;
+import com.android.server.telecom.MissedCallNotifier;
+import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.PhoneNumberUtilsAdapter;
+import com.android.server.telecom.ProximitySensorManager;
+import com.android.server.telecom.ProximitySensorManagerFactory;
+import com.android.server.telecom.RoleManagerAdapter;
+import com.android.server.telecom.SystemStateHelper;
+import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.Timeouts;
+import com.android.server.telecom.WiredHeadsetManager;
+import com.android.server.telecom.bluetooth.BluetoothRouteManager;
+import com.android.server.telecom.bluetooth.BluetoothStateReceiver;
+import com.android.server.telecom.callfiltering.IncomingCallFilter;
+import com.android.server.telecom.tests.TelecomTestCase;
+import com.android.server.telecom.ui.AudioProcessingNotification;
+import com.android.server.telecom.ui.DisconnectedCallNotifier;
+import com.android.server.telecom.ui.ToastFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+
+/**
+ * Benchmarks {@link CallsManager#getNumCallsWithState}, which is evaluated several times for
+ * every call which is placed or received.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class CallsManagerPerfTest extends TelecomTestCase {
+    private static final PhoneAccountHandle SIM_1_HANDLE = new PhoneAccountHandle(
+            ComponentName.unflattenFromString("com.foo/.Blah"), "Sim1");
+    private static final PhoneAccountHandle SIM_2_HANDLE = new PhoneAccountHandle(
+            ComponentName.unflattenFromString("com.foo/.Blah"), "Sim2");
+    private static final int[] CALL_STATES = new int[] {
+            CallState.ACTIVE, CallState.ON_HOLD, CallState.ON_HOLD, CallState.DIALING };
+
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    @Mock private CallerInfoLookupHelper mCallerInfoLookupHelper;
+    @Mock private MissedCallNotifier mMissedCallNotifier;
+    @Mock private DisconnectedCallNotifier.Factory mDisconnectedCallNotifierFactory;
+    @Mock private DisconnectedCallNotifier mDisconnectedCallNotifier;
+    @Mock private PhoneAccountRegistrar mPhoneAccountRegistrar;
+    @Mock private HeadsetMediaButton mHeadsetMediaButton;
+    @Mock private HeadsetMediaButtonFactory mHeadsetMediaButtonFactory;
+    @Mock private ProximitySensorManager mProximitySensorManager;
+    @Mock private ProximitySensorManagerFactory mProximitySensorManagerFactory;
+    @Mock private InCallWakeLockController mInCallWakeLockController;
+    @Mock private ConnectionServiceFocusManagerFactory mConnSvrFocusManagerFactory;
+    @Mock private InCallWakeLockControllerFactory mInCallWakeLockControllerFactory;
+    @Mock private CallAudioManager.AudioServiceFactory mAudioServiceFactory;
+    @Mock private BluetoothRouteManager mBluetoothRouteManager;
+    @Mock private WiredHeadsetManager mWiredHeadsetManager;
+    @Mock private SystemStateHelper mSystemStateHelper;
+    @Mock private DefaultDialerCache mDefaultDialerCache;
+    @Mock private Timeouts.Adapter mTimeoutsAdapter;
+    @Mock private AsyncRingtonePlayer mAsyncRingtonePlayer;
+    @Mock private PhoneNumberUtilsAdapter mPhoneNumberUtilsAdapter;
+    @Mock private EmergencyCallHelper mEmergencyCallHelper;
+    @Mock private InCallTonePlayer.ToneGeneratorFactory mToneGeneratorFactory;
+    @Mock private ClockProxy mClockProxy;
+    @Mock private AudioProcessingNotification mAudioProcessingNotification;
+    @Mock private InCallControllerFactory mInCallControllerFactory;
+    @Mock private InCallController mInCallController;
+    @Mock private ConnectionServiceFocusManager mConnectionSvrFocusMgr;
+    @Mock private CallAudioRouteStateMachine mCallAudioRouteStateMachine;
+    @Mock private CallAudioRouteStateMachine.Factory mCallAudioRouteStateMachineFactory;
+    @Mock private CallAudioModeStateMachine mCallAudioModeStateMachine;
+    @Mock private CallAudioModeStateMachine.Factory mCallAudioModeStateMachineFactory;
+    @Mock private BluetoothStateReceiver mBluetoothStateReceiver;
+    @Mock private RoleManagerAdapter mRoleManagerAdapter;
+    @Mock private IncomingCallFilter.Factory mIncomingCallFilterFactory;
+    @Mock private IncomingCallFilter mIncomingCallFilter;
+    @Mock private ToastFactory mToastFactory;
+
+    private CallsManager mCallsManager;
+    private Call mFirstCall;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        when(mInCallWakeLockControllerFactory.create(any(), any())).thenReturn(
+                mInCallWakeLockController);
+        when(mHeadsetMediaButtonFactory.create(any(), any(), any())).thenReturn(
+                mHeadsetMediaButton);
+        when(mProximitySensorManagerFactory.create(any(), any())).thenReturn(
+                mProximitySensorManager);
+        when(mInCallControllerFactory.create(any(), any(), any(), any(), any(), any(),
+                any())).thenReturn(mInCallController);
+        when(mCallAudioRouteStateMachineFactory.create(any(), any(), any(), any(), any(), any(),
+                anyInt())).thenReturn(mCallAudioRouteStateMachine);
+        when(mCallAudioModeStateMachineFactory.create(any(), any()))
+                .thenReturn(mCallAudioModeStateMachine);
+        when(mIncomingCallFilterFactory.create(any(), any(), any(), any(), any(), any()))
+                .thenReturn(mIncomingCallFilter);
+        when(mClockProxy.currentTimeMillis()).thenReturn(System.currentTimeMillis());
+        when(mClockProxy.elapsedRealtime()).thenReturn(SystemClock.elapsedRealtime());
+        when(mConnSvrFocusManagerFactory.create(any())).thenReturn(mConnectionSvrFocusMgr);
+        when(mDisconnectedCallNotifierFactory.create(any(Context.class), any(CallsManager.class)))
+                .thenReturn(mDisconnectedCallNotifier);
+        mCallsManager = new CallsManager(
+                mComponentContextFixture.getTestDouble().getApplicationContext(),
+                mLock,
+                mCallerInfoLookupHelper,
+                mMissedCallNotifier,
+                mDisconnectedCallNotifierFactory,
+                mPhoneAccountRegistrar,
+                mHeadsetMediaButtonFactory,
+                mProximitySensorManagerFactory,
+                mInCallWakeLockControllerFactory,
+                mConnSvrFocusManagerFactory,
+                mAudioServiceFactory,
+                mBluetoothRouteManager,
+                mWiredHeadsetManager,
+                mSystemStateHelper,
+                mDefaultDialerCache,
+                mTimeoutsAdapter,
+                mAsyncRingtonePlayer,
+                mPhoneNumberUtilsAdapter,
+                mEmergencyCallHelper,
+                mToneGeneratorFactory,
+                mClockProxy,
+                mAudioProcessingNotification,
+                mBluetoothStateReceiver,
+                mCallAudioRouteStateMachineFactory,
+                mCallAudioModeStateMachineFactory,
+                mInCallControllerFactory,
+                mRoleManagerAdapter,
+                mIncomingCallFilterFactory,
+                mToastFactory);
+
+        for (int i = 0; i < CALL_STATES.length; i++) {
+            Call call = new Call(
+                    String.valueOf(i) /* callId */,
+                    mContext,
+                    mCallsManager,
+                    mLock,
+                    null /* ConnectionServiceRepository */,
+                    mPhoneNumberUtilsAdapter,
+                    Uri.parse("tel:555-121" + i),
+                    null /* GatewayInfo */,
+                    null /* connectionManagerPhoneAccountHandle */,
+                    i % 2 == 0 ? SIM_1_HANDLE : SIM_2_HANDLE,
+                    Call.CALL_DIRECTION_OUTGOING,
+                    false /* shouldAttachToExistingConnection*/,
+                    false /* isConference */,
+                    mClockProxy,
+                    mToastFactory);
+            call.setState(CALL_STATES[i], "benchmark");
+            mCallsManager.addCall(call);
+            if (mFirstCall == null) {
+                mFirstCall = call;
+            }
+        }
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void timeGetNumCallsWithState() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mCallsManager.getNumCallsWithState(false /* isSelfManaged */, null /* excludeCall */,
+                    null /* phoneAccountHandle */, CallState.ACTIVE, CallState.ON_HOLD);
+        }
+    }
+
+    @Test
+    public void timeGetNumCallsWithStateExcludingCallAndAccount() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mCallsManager.getNumCallsWithState(false /* isSelfManaged */, mFirstCall,
+                    SIM_2_HANDLE, CallState.ACTIVE, CallState.ON_HOLD, CallState.DIALING);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telecom.Connection;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallerInfoLookupHelper;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ClockProxy;
+import com.android.server.telecom.ParcelableCallUtils;
+import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.PhoneNumberUtilsAdapter;
+import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.tests.TelecomTestCase;
+import com.android.server.telecom.ui.ToastFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link ParcelableCallUtils#toParcelableCall}, which runs for every InCallService on
+ * every call update, and the capability and property translation it does.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class ParcelableCallUtilsPerfTest extends TelecomTestCase {
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    @Mock private ClockProxy mClockProxy;
+    @Mock private ToastFactory mToastFactory;
+    @Mock private CallsManager mCallsManager;
+    @Mock private CallerInfoLookupHelper mCallerInfoLookupHelper;
+    @Mock private PhoneNumberUtilsAdapter mPhoneNumberUtilsAdapter;
+    @Mock private PhoneAccountRegistrar mPhoneAccountRegistrar;
+    private Call mCall;
+    private int[] mBits;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        when(mClockProxy.currentTimeMillis()).thenReturn(System.currentTimeMillis());
+        when(mClockProxy.elapsedRealtime()).thenReturn(SystemClock.elapsedRealtime());
+        when(mCallsManager.getCallerInfoLookupHelper()).thenReturn(mCallerInfoLookupHelper);
+        when(mCallsManager.getPhoneAccountRegistrar()).thenReturn(mPhoneAccountRegistrar);
+        when(mPhoneAccountRegistrar.getPhoneAccountUnchecked(any())).thenReturn(null);
+        when(mComponentContextFixture.getTelephonyManager().isEmergencyNumber(any()))
+                .thenReturn(false);
+        mCall = new Call("1",
+                mContext /* context */,
+                mCallsManager,
+                mLock,
+                null /* ConnectionServiceRepository */,
+                mPhoneNumberUtilsAdapter,
+                Uri.fromParts("tel", "6505551212", null),
+                null /* GatewayInfo */,
+                null /* connectionMgr */,
+                new PhoneAccountHandle(
+                        ComponentName.unflattenFromString("com.test/Class"), "test"),
+                Call.CALL_DIRECTION_INCOMING,
+                false /* shouldAttachToExistingConnection */,
+                false /* isConference */,
+                mClockProxy,
+                mToastFactory);
+        mCall.setState(CallState.ACTIVE, "benchmark");
+        mCall.setConnectionCapabilities(Connection.CAPABILITY_HOLD
+                | Connection.CAPABILITY_SUPPORT_HOLD | Connection.CAPABILITY_MUTE
+                | Connection.CAPABILITY_SUPPORTS_VT_LOCAL_BIDIRECTIONAL);
+        mCall.setConnectionProperties(Connection.PROPERTY_HIGH_DEF_AUDIO
+                | Connection.PROPERTY_WIFI);
+        Bundle extras = new Bundle();
+        extras.putString(Connection.EXTRA_CALL_SUBJECT, "subject");
+        extras.putString(Connection.EXTRA_SIP_INVITE, "invite");
+        for (int i = 0; i < 10; i++) {
+            extras.putString("android.telecom.extra.BENCHMARK_" + i, "value" + i);
+            extras.putString("com.example.extra.BENCHMARK_" + i, "value" + i);
+        }
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, extras);
+
+        Random random = new Random(0);
+        mBits = new int[1024];
+        for (int i = 0; i < mBits.length; i++) {
+            mBits[i] = random.nextInt();
+        }
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void timeToParcelableCallForSystemDialer() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            ParcelableCallUtils.toParcelableCall(mCall,
+                    false /* includeVideoProvider */,
+                    null /* phoneAccountRegistrar */,
+                    false /* supportsExternalCalls */,
+                    false /* includeRttCall */,
+                    true /* isForSystemDialer */);
+        }
+    }
+
+    @Test
+    public void timeToParcelableCallForNonSystemDialer() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            ParcelableCallUtils.toParcelableCall(mCall,
+                    false /* includeVideoProvider */,
+                    null /* phoneAccountRegistrar */,
+                    false /* supportsExternalCalls */,
+                    false /* includeRttCall */,
+                    false /* isForSystemDialer */);
+        }
+    }
+
+    /**
+     * Every conversion sees new extras, so the sanitized extras are never reused.
+     */
+    @Test
+    public void timeToParcelableCallForNonSystemDialerWithChangingExtras() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        Bundle extras = new Bundle();
+        int i = 0;
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            extras.putInt(Connection.EXTRA_CALL_SUBJECT, i++);
+            mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, extras);
+            state.resumeTiming();
+            ParcelableCallUtils.toParcelableCall(mCall,
+                    false /* includeVideoProvider */,
+                    null /* phoneAccountRegistrar */,
+                    false /* supportsExternalCalls */,
+                    false /* includeRttCall */,
+                    false /* isForSystemDialer */);
+        }
+    }
+
+    @Test
+    public void timeTranslateCapabilities() {
+        timeTranslate(ParcelableCallUtils.CAPABILITY_TRANSLATOR, false /* byScan */);
+    }
+
+    @Test
+    public void timeTranslateCapabilitiesByScan() {
+        timeTranslate(ParcelableCallUtils.CAPABILITY_TRANSLATOR, true /* byScan */);
+    }
+
+    @Test
+    public void timeTranslateProperties() {
+        timeTranslate(ParcelableCallUtils.PROPERTY_TRANSLATOR, false /* byScan */);
+    }
+
+    @Test
+    public void timeTranslatePropertiesByScan() {
+        timeTranslate(ParcelableCallUtils.PROPERTY_TRANSLATOR, true /* byScan */);
+    }
+
+    private void timeTranslate(ParcelableCallUtils.BitTranslator translator, boolean byScan) {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int bits = mBits[i++ & (mBits.length - 1)];
+            if (byScan) {
+                translator.translateByScan(bits);
+            } else {
+                translator.translate(bits);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.benchmarks;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.net.Uri;
+import android.os.Process;
+import android.os.UserManager;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Xml;
+
+import com.android.internal.telecom.IConnectionService;
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.telecom.AppLabelProxy;
+import com.android.server.telecom.DefaultDialerCache;
+import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.PhoneAccountStateSerializer;
+import com.android.server.telecom.tests.TelecomTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+/**
+ * Benchmarks {@link PhoneAccountRegistrar} lookups, which are made repeatedly while placing and
+ * receiving calls, and the serialization of its state.
+ */
+@RunWith(JUnit4.class)
+@LargeTest
+public class PhoneAccountRegistrarPerfTest extends TelecomTestCase {
+    private static final String FILE_NAME = "phone-account-registrar-benchmark.xml";
+    private static final int NUM_ACCOUNTS = 20;
+    private static final ComponentName CONNECTION_SERVICE = new ComponentName(
+            "com.android.server.telecom.benchmarks",
+            "com.android.server.telecom.benchmarks.MockConnectionService");
+
+    @Rule
+    public final PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Mock private DefaultDialerCache mDefaultDialerCache;
+    @Mock private AppLabelProxy mAppLabelProxy;
+    private PhoneAccountRegistrar mRegistrar;
+    private PhoneAccountRegistrar.State mState;
+    private PhoneAccountHandle mLastHandle;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        deleteStateFiles();
+        when(mDefaultDialerCache.getDefaultDialerApplication(anyInt()))
+                .thenReturn("com.android.dialer");
+        when(mAppLabelProxy.getAppLabel(anyString())).thenReturn("label");
+        when(UserManager.get(mContext).getSerialNumberForUser(Process.myUserHandle()))
+                .thenReturn(0L);
+        when(UserManager.get(mContext).getUserForSerialNumber(0L))
+                .thenReturn(Process.myUserHandle());
+        mComponentContextFixture.addConnectionService(CONNECTION_SERVICE,
+                mock(IConnectionService.class));
+
+        mRegistrar = new PhoneAccountRegistrar(mContext, FILE_NAME, mDefaultDialerCache,
+                mAppLabelProxy);
+        mState = new PhoneAccountRegistrar.State();
+        for (int i = 0; i < NUM_ACCOUNTS; i++) {
+            PhoneAccount account = new PhoneAccount.Builder(
+                    new PhoneAccountHandle(CONNECTION_SERVICE, "id" + i, Process.myUserHandle()),
+                    "label" + i)
+                    .setAddress(Uri.parse("tel:555-000" + i))
+                    .setSubscriptionAddress(Uri.parse("tel:555-000" + i))
+                    .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                    .addSupportedUriScheme(PhoneAccount.SCHEME_TEL)
+                    .setShortDescription("desc" + i)
+                    .setIsEnabled(true)
+                    .build();
+            mRegistrar.registerPhoneAccount(account);
+            mRegistrar.enablePhoneAccount(account.getAccountHandle(), true);
+            mState.accounts.add(account);
+            mLastHandle = account.getAccountHandle();
+        }
+        mRegistrar.flush();
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        mRegistrar = null;
+        deleteStateFiles();
+        super.tearDown();
+    }
+
+    private void deleteStateFiles() {
+        new File(mContext.getFilesDir(), FILE_NAME).delete();
+        new File(mContext.getFilesDir(), PhoneAccountRegistrar.getBinaryFileName(FILE_NAME))
+                .delete();
+    }
+
+    @Test
+    public void timeGetPhoneAccountUnchecked() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mRegistrar.getPhoneAccountUnchecked(mLastHandle);
+        }
+    }
+
+    @Test
+    public void timeGetPhoneAccountOfCurrentUser() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mRegistrar.getPhoneAccountOfCurrentUser(mLastHandle);
+        }
+    }
+
+    @Test
+    public void timeGetCallCapablePhoneAccountsOfCurrentUser() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mRegistrar.getCallCapablePhoneAccountsOfCurrentUser(PhoneAccount.SCHEME_TEL,
+                    false /* includeDisabledAccounts */);
+        }
+    }
+
+    @Test
+    public void timeWriteStateXml() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            writeStateXml();
+        }
+    }
+
+    @Test
+    public void timeReadStateXml() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        byte[] data = writeStateXml();
+        while (state.keepRunning()) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(new ByteArrayInputStream(data), null);
+            parser.nextTag();
+            PhoneAccountRegistrar.sStateXml.readFromXml(parser, Integer.MAX_VALUE, mContext);
+        }
+    }
+
+    @Test
+    public void timeWriteStateBinary() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            PhoneAccountStateSerializer.toBytes(mState, mContext);
+        }
+    }
+
+    @Test
+    public void timeReadStateBinary() throws Exception {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        byte[] data = PhoneAccountStateSerializer.toBytes(mState, mContext);
+        while (state.keepRunning()) {
+            PhoneAccountStateSerializer.fromBytes(data, mContext);
+        }
+    }
+
+    private byte[] writeStateXml() throws Exception {
+        XmlSerializer serializer = new FastXmlSerializer();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        serializer.setOutput(baos, "utf-8");
+        PhoneAccountRegistrar.sStateXml.writeToXml(mState, serializer, mContext);
+        serializer.flush();
+        return baos.toByteArray();
+    }
+}
@@ -208,6 +208,10 @@ public class Analytics {
 
         public void setCallSource(int callSource) {
         }
+
+        public void addConnectionAttempt(String connectionServiceName, long durationMillis,
+                boolean isPrepared, boolean isSuccessful) {
+        }
     }
 
     /**
@@ -240,6 +244,7 @@ public class Analytics {
         public boolean isVideo = false;
         public List<TelecomLogClass.VideoEvent> videoEvents;
         public List<TelecomLogClass.InCallServiceInfo> inCallServiceInfos;
+        public List<TelecomLogClass.ConnectionAttempt> connectionAttempts;
         public int callProperties = 0;
         public int callSource = CALL_SOURCE_UNSPECIFIED;
 
@@ -254,6 +259,7 @@ public class Analytics {
             connectionService = "";
             videoEvents = new LinkedList<>();
             inCallServiceInfos = new LinkedList<>();
+            connectionAttempts = new LinkedList<>();
         }
 
         CallInfoImpl(CallInfoImpl other) {
@@ -270,6 +276,7 @@ public class Analytics {
             this.callEvents = other.callEvents;
             this.isVideo = other.isVideo;
             this.videoEvents = other.videoEvents;
+            this.connectionAttempts = other.connectionAttempts;
             this.callProperties = other.callProperties;
             this.callSource = other.callSource;
 
@@ -388,6 +395,16 @@ public class Analytics {
             this.callSource = callSource;
         }
 
+        @Override
+        public void addConnectionAttempt(String connectionServiceName, long durationMillis,
+                boolean isPrepared, boolean isSuccessful) {
+            connectionAttempts.add(new TelecomLogClass.ConnectionAttempt()
+                    .setConnectionServiceName(connectionServiceName)
+                    .setDurationMillis(durationMillis)
+                    .setIsPrepared(isPrepared)
+                    .setIsSuccessful(isSuccessful));
+        }
+
         @Override
         public String toString() {
             return "{\n"
@@ -405,6 +422,7 @@ public class Analytics {
                     + "    callProperties: " + Connection.propertiesToStringShort(callProperties)
                     + '\n'
                     + "    callSource: " + getCallSourceString() + '\n'
+                    + "    connectionAttempts: " + getConnectionAttemptsString() + '\n'
                     + "}\n";
         }
 
@@ -489,6 +507,8 @@ public class Analytics {
                     videoEvents.toArray(new TelecomLogClass.VideoEvent[videoEvents.size()]);
             result.inCallServices = inCallServiceInfos.toArray(
                     new TelecomLogClass.InCallServiceInfo[inCallServiceInfos.size()]);
+            result.connectionAttempts = connectionAttempts.toArray(
+                    new TelecomLogClass.ConnectionAttempt[connectionAttempts.size()]);
 
             return result;
         }
@@ -545,6 +565,25 @@ public class Analytics {
             return s.toString();
         }
 
+        private String getConnectionAttemptsString() {
+            StringBuilder s = new StringBuilder();
+            s.append("[\n");
+            for (TelecomLogClass.ConnectionAttempt attempt : connectionAttempts) {
+                s.append("    ");
+                s.append("name: ");
+                s.append(attempt.getConnectionServiceName());
+                s.append(" duration in ms: ");
+                s.append(attempt.getDurationMillis());
+                s.append(" prepared: ");
+                s.append(attempt.getIsPrepared());
+                s.append(" successful: ");
+                s.append(attempt.getIsSuccessful());
+                s.append("\n");
+            }
+            s.append("]");
+            return s.toString();
+        }
+
         private String getCallSourceString() {
             switch (callSource) {
                 case CALL_SOURCE_UNSPECIFIED:
@@ -594,20 +633,92 @@ public class Analytics {
 
     public static final int MAX_NUM_CALLS_TO_STORE = 100;
     public static final int MAX_NUM_DUMP_TIMES_TO_STORE = 100;
+    public static final int MAX_NUM_SESSION_TIMINGS_TO_STORE = 1000;
+    public static final int MAX_NUM_MISSED_CALL_RELOADS_TO_STORE = 10;
+
+    /**
+     * Timing of a rebuild of the missed call notification from the call log, as done at boot and
+     * on user switch.
+     */
+    private static class MissedCallReload {
+        final long mTimestampMillis;
+        final int mNumMissedCalls;
+        final int mNumLookups;
+        final long mQueryTimeMillis;
+        final long mTotalTimeMillis;
+
+        MissedCallReload(int numMissedCalls, int numLookups, long queryTimeMillis,
+                long totalTimeMillis) {
+            mTimestampMillis = System.currentTimeMillis();
+            mNumMissedCalls = numMissedCalls;
+            mNumLookups = numLookups;
+            mQueryTimeMillis = queryTimeMillis;
+            mTotalTimeMillis = totalTimeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(mTimestampMillis).atZone(ZoneOffset.UTC)
+                    + ": missedCalls=" + mNumMissedCalls
+                    + ", lookups=" + mNumLookups
+                    + ", queryMillis=" + mQueryTimeMillis
+                    + ", totalMillis=" + mTotalTimeMillis;
+        }
+    }
 
     private static final Object sLock = new Object(); // Coarse lock for all of analytics
     private static final LinkedBlockingDeque<Long> sDumpTimes =
             new LinkedBlockingDeque<>(MAX_NUM_DUMP_TIMES_TO_STORE);
     private static final Map<String, CallInfoImpl> sCallIdToInfo = new HashMap<>();
     private static final LinkedList<String> sActiveCallIds = new LinkedList<>();
-    private static final List<SessionTiming> sSessionTimings = new LinkedList<>();
+    private static final SessionTimingBuffer sSessionTimings =
+            new SessionTimingBuffer(MAX_NUM_SESSION_TIMINGS_TO_STORE);
+    private static final LinkedList<MissedCallReload> sMissedCallReloads = new LinkedList<>();
+    private static final ListenerLatencyStats sListenerLatencyStats = new ListenerLatencyStats();
+    private static final CallSetupStats sCallSetupStats = new CallSetupStats();
+
+    /**
+     * @return The latencies of the {@link CallsManager} listeners, which are included in the
+     * analytics proto.
+     */
+    public static ListenerLatencyStats getListenerLatencyStats() {
+        return sListenerLatencyStats;
+    }
+
+    /**
+     * Adds the stage timings of a call which has been set up, or which ended before it was.
+     *
+     * @param direction The direction of the call, e.g. {@link #OUTGOING_DIRECTION}.
+     * @param timer The stage timings of the call.
+     */
+    public static void addCallSetupTimings(int direction, CallSetupTimer timer) {
+        sCallSetupStats.add(direction, timer);
+    }
 
     public static void addSessionTiming(String sessionName, long time) {
         if (sLogSessionToSessionId.containsKey(sessionName)) {
             synchronized (sLock) {
-                sSessionTimings.add(new SessionTiming(sLogSessionToSessionId.get(sessionName),
-                        time));
+                sSessionTimings.add(sLogSessionToSessionId.get(sessionName), time);
+            }
+        }
+    }
+
+    /**
+     * Records a rebuild of the missed call notification from the call log.
+     *
+     * @param numMissedCalls The number of unread missed calls found.
+     * @param numLookups The number of caller info lookups needed.
+     * @param queryTimeMillis The time taken to query the call log.
+     * @param totalTimeMillis The time from querying the call log to posting the notification.
+     */
+    public static void addMissedCallReload(int numMissedCalls, int numLookups,
+            long queryTimeMillis, long totalTimeMillis) {
+        synchronized (sLock) {
+            if (sMissedCallReloads.size() >= MAX_NUM_MISSED_CALL_RELOADS_TO_STORE) {
+                sMissedCallReloads.removeFirst();
             }
+            sMissedCallReloads.add(new MissedCallReload(numMissedCalls, numLookups,
+                    queryTimeMillis, totalTimeMillis));
         }
     }
 
@@ -632,7 +743,7 @@ public class Analytics {
             calls.addAll(sCallIdToInfo.values().stream()
                     .map(CallInfoImpl::toParcelableAnalytics)
                     .collect(Collectors.toList()));
-            sessionTimings.addAll(sSessionTimings);
+            sessionTimings.addAll(sSessionTimings.toSessionTimings());
             sCallIdToInfo.clear();
             sSessionTimings.clear();
         }
@@ -647,16 +758,21 @@ public class Analytics {
             result.callLogs = sCallIdToInfo.values().stream()
                     .map(CallInfoImpl::toProto)
                     .toArray(TelecomLogClass.CallLog[]::new);
-            result.sessionTimings = sSessionTimings.stream()
-                    .map(timing -> new TelecomLogClass.LogSessionTiming()
-                            .setSessionEntryPoint(timing.getKey())
-                            .setTimeMillis(timing.getTime()))
-                    .toArray(TelecomLogClass.LogSessionTiming[]::new);
+            result.sessionTimings = new TelecomLogClass.LogSessionTiming[sSessionTimings.size()];
+            for (int i = 0; i < sSessionTimings.size(); i++) {
+                result.sessionTimings[i] = new TelecomLogClass.LogSessionTiming()
+                        .setSessionEntryPoint(sSessionTimings.getSessionId(i))
+                        .setTimeMillis(sSessionTimings.getTime(i));
+            }
             result.setHardwareRevision(SystemProperties.get("ro.boot.revision", ""));
             result.setCarrierId(getCarrierId(context));
+            result.listenerLatencies = sListenerLatencyStats.toProto();
+            result.callSetupStages = sCallSetupStats.toProto();
             if (args.length > 1 && CLEAR_ANALYTICS_ARG.equals(args[1])) {
                 sCallIdToInfo.clear();
                 sSessionTimings.clear();
+                sListenerLatencyStats.clear();
+                sCallSetupStats.clear();
             }
         }
         String encodedProto = Base64.encodeToString(
@@ -717,11 +833,26 @@ public class Analytics {
                 writer.println(sCallIdToInfo.get(callId).toString());
             }
 
-            Map<Integer, Double> averageTimings = SessionTiming.averageTimings(sSessionTimings);
+            Map<Integer, Double> averageTimings = sSessionTimings.getAverageTimings();
             averageTimings.entrySet().stream()
                     .filter(e -> sSessionIdToLogSession.containsKey(e.getKey()))
-                    .forEach(e -> writer.printf("%s: %.2f\n",
-                            sSessionIdToLogSession.get(e.getKey()), e.getValue()));
+                    .forEach(e -> writer.printf("%s: %.2f (count=%d, p50<=%d, p90<=%d)\n",
+                            sSessionIdToLogSession.get(e.getKey()), e.getValue(),
+                            sSessionTimings.getCount(e.getKey()),
+                            sSessionTimings.getPercentile(e.getKey(), 50),
+                            sSessionTimings.getPercentile(e.getKey(), 90)));
+            writer.println("Session timings stored: " + sSessionTimings.size() + "/"
+                    + sSessionTimings.getCapacity());
+            writer.println("Call setup timings: ");
+            writer.increaseIndent();
+            sCallSetupStats.dump(writer);
+            writer.decreaseIndent();
+            writer.println("Missed call reloads: ");
+            writer.increaseIndent();
+            for (MissedCallReload reload : sMissedCallReloads) {
+                writer.println(reload);
+            }
+            writer.decreaseIndent();
             writer.println("Hardware Version: " + SystemProperties.get("ro.boot.revision", ""));
             writer.println("Past analytics dumps: ");
             writer.increaseIndent();
@@ -735,6 +866,9 @@ public class Analytics {
     public static void reset() {
         synchronized (sLock) {
             sCallIdToInfo.clear();
+            sMissedCallReloads.clear();
+            sListenerLatencyStats.clear();
+            sCallSetupStats.clear();
         }
     }
 
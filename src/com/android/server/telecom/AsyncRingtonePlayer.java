@@ -187,8 +187,9 @@ public class AsyncRingtonePlayer {
                     Uri ringtoneUri = incomingCall.getRingtone();
                     String ringtoneUriString = (ringtoneUri == null) ? "null" :
                             ringtoneUri.toSafeString();
-                    Log.addEvent(null, LogUtils.Events.ERROR_LOG, "Failed to get ringtone from " +
-                            "factory. Skipping ringing. Uri was: " + ringtoneUriString);
+                    LogUtils.addEvent(null, LogUtils.Events.ERROR_LOG,
+                            "Failed to get ringtone from factory. Skipping ringing. Uri was: "
+                                    + ringtoneUriString);
                     if (mHapticsFuture != null) {
                         mHapticsFuture.complete(false /* ringtoneHasHaptics */);
                         mHapticsFuture = null;
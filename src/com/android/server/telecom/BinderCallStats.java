@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.IBinder;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the binder transactions made to a service by each UID, along with the CPU and elapsed
+ * time spent serving them, so that apps which poll the service heavily show up in dumpsys.
+ */
+public class BinderCallStats {
+    /** Only the UIDs which have used the most CPU time are dumped. */
+    @VisibleForTesting
+    public static final int MAX_UIDS_TO_DUMP = 20;
+    private static final String TRANSACTION_PREFIX = "TRANSACTION_";
+
+    private static class MethodStats {
+        int mCount;
+        long mCpuNanos;
+        long mElapsedNanos;
+        long mMaxElapsedNanos;
+    }
+
+    private static class UidStats {
+        final int mUid;
+        final SparseArray<MethodStats> mMethods = new SparseArray<>();
+        int mCount;
+        long mCpuNanos;
+
+        UidStats(int uid) {
+            mUid = uid;
+        }
+    }
+
+    private final Class<?> mStubClass;
+    private final SparseArray<UidStats> mUidStats = new SparseArray<>();
+    private SparseArray<String> mTransactionNames;
+
+    /**
+     * @param stubClass The AIDL generated {@code Stub} class of the service, used to name the
+     *                  transaction codes in the dump.
+     */
+    public BinderCallStats(Class<?> stubClass) {
+        mStubClass = stubClass;
+    }
+
+    /**
+     * Records a transaction.
+     *
+     * @param uid The calling UID.
+     * @param code The transaction code.
+     * @param cpuNanos The CPU time spent serving the transaction, or a negative value if the
+     *                 thread CPU time isn't available.
+     * @param elapsedNanos The elapsed time spent serving the transaction.
+     */
+    public synchronized void record(int uid, int code, long cpuNanos, long elapsedNanos) {
+        UidStats uidStats = mUidStats.get(uid);
+        if (uidStats == null) {
+            uidStats = new UidStats(uid);
+            mUidStats.put(uid, uidStats);
+        }
+        MethodStats methodStats = uidStats.mMethods.get(code);
+        if (methodStats == null) {
+            methodStats = new MethodStats();
+            uidStats.mMethods.put(code, methodStats);
+        }
+        cpuNanos = Math.max(0, cpuNanos);
+        uidStats.mCount++;
+        uidStats.mCpuNanos += cpuNanos;
+        methodStats.mCount++;
+        methodStats.mCpuNanos += cpuNanos;
+        methodStats.mElapsedNanos += elapsedNanos;
+        methodStats.mMaxElapsedNanos = Math.max(methodStats.mMaxElapsedNanos, elapsedNanos);
+    }
+
+    /**
+     * @return The number of transactions recorded for a UID and transaction code.
+     */
+    @VisibleForTesting
+    public synchronized int getCount(int uid, int code) {
+        UidStats uidStats = mUidStats.get(uid);
+        MethodStats methodStats = uidStats == null ? null : uidStats.mMethods.get(code);
+        return methodStats == null ? 0 : methodStats.mCount;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        List<UidStats> uids = new ArrayList<>(mUidStats.size());
+        for (int i = 0; i < mUidStats.size(); i++) {
+            uids.add(mUidStats.valueAt(i));
+        }
+        uids.sort((a, b) -> Long.compare(b.mCpuNanos, a.mCpuNanos));
+        pw.println("uids: " + uids.size());
+        for (int i = 0; i < uids.size() && i < MAX_UIDS_TO_DUMP; i++) {
+            UidStats uidStats = uids.get(i);
+            pw.println("uid " + uidStats.mUid + ": calls=" + uidStats.mCount + ", cpuMs="
+                    + uidStats.mCpuNanos / 1000000);
+            pw.increaseIndent();
+            for (int j = 0; j < uidStats.mMethods.size(); j++) {
+                MethodStats methodStats = uidStats.mMethods.valueAt(j);
+                pw.println(getTransactionName(uidStats.mMethods.keyAt(j)) + ": calls="
+                        + methodStats.mCount
+                        + ", avgCpuUs=" + methodStats.mCpuNanos / methodStats.mCount / 1000
+                        + ", avgUs=" + methodStats.mElapsedNanos / methodStats.mCount / 1000
+                        + ", maxUs=" + methodStats.mMaxElapsedNanos / 1000);
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    private String getTransactionName(int code) {
+        if (mTransactionNames == null) {
+            mTransactionNames = getTransactionNames(mStubClass);
+        }
+        String name = mTransactionNames.get(code);
+        if (name != null) {
+            return name;
+        }
+        return code >= IBinder.FIRST_CALL_TRANSACTION && code <= IBinder.LAST_CALL_TRANSACTION
+                ? "transaction" + code : "system" + code;
+    }
+
+    /**
+     * Maps transaction codes to method names using the {@code TRANSACTION_} constants AIDL
+     * generates in a {@code Stub} class.
+     */
+    @VisibleForTesting
+    public static SparseArray<String> getTransactionNames(Class<?> stubClass) {
+        SparseArray<String> names = new SparseArray<>();
+        if (stubClass == null) {
+            return names;
+        }
+        for (Field field : stubClass.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (!Modifier.isStatic(modifiers) || field.getType() != int.class
+                    || !field.getName().startsWith(TRANSACTION_PREFIX)) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                names.put(field.getInt(null),
+                        field.getName().substring(TRANSACTION_PREFIX.length()));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Leave this code unnamed.
+            }
+        }
+        return names;
+    }
+}
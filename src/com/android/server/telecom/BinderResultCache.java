@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A short-lived cache of the results of binder queries, keyed on the calling UID and the query,
+ * so that an app repeating the same query in a tight loop is answered without the lookups behind
+ * it. Only the lookup is cached: callers must check permissions on every call, before consulting
+ * the cache, so that a revoked permission or app op takes effect immediately.
+ *
+ * Results are only ever reused for the UID which asked for them, and only for the time returned
+ * by the TTL supplier; the cache is disabled while that is not positive. Failed queries, which
+ * throw, are never cached.
+ */
+public class BinderResultCache {
+    @VisibleForTesting
+    public static final int MAX_ENTRIES = 256;
+
+    private static class Entry {
+        final Object mResult;
+        final long mExpiryTimeMillis;
+
+        Entry(Object result, long expiryTimeMillis) {
+            mResult = result;
+            mExpiryTimeMillis = expiryTimeMillis;
+        }
+    }
+
+    private final ClockProxy mClockProxy;
+    private final LongSupplier mTtlMillisSupplier;
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<Pair<Integer, String>, Entry> mEntries =
+            new LinkedHashMap<Pair<Integer, String>, Entry>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Pair<Integer, String>, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    // Guarded by this.
+    private int mHits;
+    private int mMisses;
+
+    public BinderResultCache(ClockProxy clockProxy, LongSupplier ttlMillisSupplier) {
+        mClockProxy = clockProxy;
+        mTtlMillisSupplier = ttlMillisSupplier;
+    }
+
+    /**
+     * Returns the cached result of a query, or runs the query and caches its result.
+     *
+     * @param uid The calling UID.
+     * @param method The name of the binder method.
+     * @param args The arguments of the query which can affect its result.
+     * @param query Runs the query; called without the cache locked.
+     * @return The result of the query.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(int uid, String method, Object[] args, Supplier<T> query) {
+        long ttlMillis = mTtlMillisSupplier.getAsLong();
+        if (ttlMillis <= 0) {
+            return query.get();
+        }
+        Pair<Integer, String> key = Pair.create(uid, getKey(method, args));
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && entry.mExpiryTimeMillis > mClockProxy.elapsedRealtime()) {
+                mHits++;
+                return (T) entry.mResult;
+            }
+            mMisses++;
+        }
+        T result = query.get();
+        synchronized (this) {
+            mEntries.put(key, new Entry(result, mClockProxy.elapsedRealtime() + ttlMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static String getKey(String method, Object[] args) {
+        StringBuilder key = new StringBuilder(method);
+        if (args != null) {
+            for (Object arg : args) {
+                key.append('\u0000').append(Objects.toString(arg));
+            }
+        }
+        return key.toString();
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        int lookups = mHits + mMisses;
+        pw.println("ttlMillis: " + mTtlMillisSupplier.getAsLong() + ", size: " + mEntries.size()
+                + ", hits: " + mHits + ", misses: " + mMisses + ", hitRate: "
+                + (lookups == 0 ? 0 : (100 * mHits / lookups)) + "%");
+    }
+}
@@ -59,6 +59,7 @@ import android.widget.Toast;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telecom.IVideoProvider;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.Preconditions;
 import com.android.server.telecom.ui.ToastFactory;
 
@@ -73,8 +74,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *  Encapsulates all aspects of a given phone call throughout its lifecycle, starting
@@ -399,14 +398,10 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     private Intent mOriginalCallIntent = null;
 
-    /** Set of listeners on this call.
-     *
-     * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
-     * load factor before resizing, 1 means we only expect a single thread to
-     * access the map so make only a single shard
+    /**
+     * Listeners on this call, grouped by the callbacks they handle.
      */
-    private final Set<Listener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
+    private final CallListenerDispatcher mListeners = new CallListenerDispatcher();
 
     private CreateConnectionProcessor mCreateConnectionProcessor;
 
@@ -452,7 +447,18 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     private boolean mIsVoipAudioMode;
     private StatusHints mStatusHints;
-    private Bundle mExtras;
+    /**
+     * The call's extras. Each change publishes a new snapshot with a new version, which is used to
+     * invalidate values derived from the extras.
+     */
+    private final CallExtrasStore mExtras = new CallExtrasStore();
+
+    /**
+     * The extras sanitized for non-system in-call services and the extras version they were
+     * derived from; see {@link ParcelableCallUtils}.
+     */
+    private Bundle mSanitizedExtras;
+    private int mSanitizedExtrasVersion = -1;
     private final ConnectionServiceRepository mRepository;
     private final Context mContext;
     private final CallsManager mCallsManager;
@@ -462,6 +468,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     private final String mId;
     private String mConnectionId;
     private Analytics.CallInfo mAnalytics = new Analytics.CallInfo();
+    private final CallSetupTimer mSetupTimer = new CallSetupTimer();
+    private boolean mSetupTimingsReported = false;
     private char mPlayingDtmfTone;
 
     private boolean mWasConferencePreviouslyMerged = false;
@@ -506,6 +514,12 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     private boolean mIsSelfManaged = false;
 
+    /**
+     * Counts this call while it is tracked by {@link CallsManager}; notified of changes to the
+     * state, parent, properties and target phone account of the call.
+     */
+    private CallStateCounter mCallStateCounter;
+
     /**
      * Indicates whether the {@link PhoneAccount} associated with this call supports video calling.
      * {@code True} if the phone account supports video calling, {@code false} otherwise.
@@ -755,39 +769,72 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     }
 
     public void initAnalytics(String callingPackage) {
-        int analyticsDirection;
+        mAnalytics = Analytics.initiateCallAnalytics(mId, getAnalyticsDirection());
+        mAnalytics.setCallIsEmergency(mIsEmergencyCall);
+        LogUtils.addEvent(this, LogUtils.Events.CREATED, callingPackage);
+    }
+
+    private int getAnalyticsDirection() {
         switch (mCallDirection) {
             case CALL_DIRECTION_OUTGOING:
-                analyticsDirection = Analytics.OUTGOING_DIRECTION;
-                break;
+                return Analytics.OUTGOING_DIRECTION;
             case CALL_DIRECTION_INCOMING:
-                analyticsDirection = Analytics.INCOMING_DIRECTION;
-                break;
+                return Analytics.INCOMING_DIRECTION;
             case CALL_DIRECTION_UNKNOWN:
             case CALL_DIRECTION_UNDEFINED:
             default:
-                analyticsDirection = Analytics.UNKNOWN_DIRECTION;
+                return Analytics.UNKNOWN_DIRECTION;
         }
-        mAnalytics = Analytics.initiateCallAnalytics(mId, analyticsDirection);
-        mAnalytics.setCallIsEmergency(mIsEmergencyCall);
-        Log.addEvent(this, LogUtils.Events.CREATED, callingPackage);
     }
 
     public Analytics.CallInfo getAnalytics() {
         return mAnalytics;
     }
 
+    /**
+     * Records that the call reached a stage of being set up, if it has not reached it before.
+     *
+     * @param stage The stage, e.g. {@link CallSetupTimer#DIALING}.
+     */
+    public void markSetupStage(int stage) {
+        markSetupStage(stage, mClockProxy.elapsedRealtime());
+    }
+
+    /**
+     * Records that the call reached a stage of being set up at an earlier time, if it has not
+     * reached it before.
+     *
+     * @param stage The stage, e.g. {@link CallSetupTimer#USER_INTENT_RECEIVED}.
+     * @param elapsedRealtimeMillis The time the stage was reached.
+     */
+    public void markSetupStage(int stage, long elapsedRealtimeMillis) {
+        if (mSetupTimer.mark(stage, elapsedRealtimeMillis) && CallSetupTimer.isFinalStage(stage)) {
+            reportSetupTimings();
+        }
+    }
+
+    public CallSetupTimer getSetupTimer() {
+        return mSetupTimer;
+    }
+
+    /**
+     * Adds the stage timings of the call to {@link Analytics} once the call has been set up, or
+     * has ended without being set up.
+     */
+    private void reportSetupTimings() {
+        if (!mSetupTimingsReported) {
+            mSetupTimingsReported = true;
+            Analytics.addCallSetupTimings(getAnalyticsDirection(), mSetupTimer);
+        }
+    }
+
     public void destroy() {
-        // We should not keep these bitmaps around because the Call objects may be held for logging
-        // purposes.
+        // The caller info is shared with the CallerInfoCache and other calls from the same number,
+        // so its photos are left for the cache to release rather than cleared here.
         // TODO: Make a container object that only stores the information we care about for Logging.
-        if (mCallerInfo != null) {
-            mCallerInfo.cachedPhotoIcon = null;
-            mCallerInfo.cachedPhoto = null;
-        }
         closeRttStreams();
 
-        Log.addEvent(this, LogUtils.Events.DESTROYED);
+        LogUtils.addEvent(this, LogUtils.Events.DESTROYED);
     }
 
     private void closeRttStreams() {
@@ -1065,6 +1112,10 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             updateVideoHistoryViaState(mState, newState);
 
             mState = newState;
+            if (mState == CallState.DIALING) {
+                markSetupStage(CallSetupTimer.DIALING);
+            }
+            notifyCallStateCounter();
             maybeLoadCannedSmsResponses();
 
             if (mState == CallState.ACTIVE || mState == CallState.ON_HOLD) {
@@ -1085,6 +1136,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 mDisconnectTimeMillis = mClockProxy.currentTimeMillis();
                 mDisconnectElapsedTimeMillis = mClockProxy.elapsedRealtime();
                 mAnalytics.setCallEndTime(mDisconnectTimeMillis);
+                reportSetupTimings();
                 setLocallyDisconnecting(false);
                 fixParentAfterDisconnect();
             }
@@ -1132,7 +1184,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                     // If data exists, add it to tag.  If no tag, just use data.toString().
                     stringData = stringData == null ? data.toString() : stringData + "> " + data;
                 }
-                Log.addEvent(this, event, stringData);
+                LogUtils.addEvent(this, event, stringData);
             }
             int statsdDisconnectCause = (newState == CallState.DISCONNECTED) ?
                     getDisconnectCause().getCode() : DisconnectCause.UNKNOWN;
@@ -1144,7 +1196,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     void setRingbackRequested(boolean ringbackRequested) {
         mRingbackRequested = ringbackRequested;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_RINGBACK_REQUESTED)) {
             l.onRingbackRequested(this, mRingbackRequested);
         }
     }
@@ -1261,7 +1313,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                         isTestEmergencyCall(mHandle.getSchemeSpecificPart());
             }
             startCallerInfoLookup();
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_HANDLE_CHANGED)) {
                 l.onHandleChanged(this);
             }
         }
@@ -1293,7 +1345,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 presentation != mCallerDisplayNamePresentation) {
             mCallerDisplayName = callerDisplayName;
             mCallerDisplayNamePresentation = presentation;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(
+                    CallListenerDispatcher.ON_CALLER_DISPLAY_NAME_CHANGED)) {
                 l.onCallerDisplayNameChanged(this);
             }
         }
@@ -1401,7 +1454,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     public void setConnectionManagerPhoneAccount(PhoneAccountHandle accountHandle) {
         if (!Objects.equals(mConnectionManagerPhoneAccountHandle, accountHandle)) {
             mConnectionManagerPhoneAccountHandle = accountHandle;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(
+                    CallListenerDispatcher.ON_CONNECTION_MANAGER_PHONE_ACCOUNT_CHANGED)) {
                 l.onConnectionManagerPhoneAccountChanged(this);
             }
         }
@@ -1456,7 +1510,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     public void setTargetPhoneAccount(PhoneAccountHandle accountHandle) {
         if (!Objects.equals(mTargetPhoneAccountHandle, accountHandle)) {
             mTargetPhoneAccountHandle = accountHandle;
-            for (Listener l : mListeners) {
+            notifyCallStateCounter();
+            for (Listener l : mListeners.get(
+                    CallListenerDispatcher.ON_TARGET_PHONE_ACCOUNT_CHANGED)) {
                 l.onTargetPhoneAccountChanged(this);
             }
             configureCallAttributes();
@@ -1590,6 +1646,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     public void setIsSelfManaged(boolean isSelfManaged) {
         mIsSelfManaged = isSelfManaged;
+        notifyCallStateCounter();
 
         // Connection properties will add/remove the PROPERTY_SELF_MANAGED.
         setConnectionProperties(getConnectionProperties());
@@ -1799,13 +1856,14 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (forceUpdate || mConnectionCapabilities != connectionCapabilities) {
             int previousCapabilities = mConnectionCapabilities;
             mConnectionCapabilities = connectionCapabilities;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(
+                    CallListenerDispatcher.ON_CONNECTION_CAPABILITIES_CHANGED)) {
                 l.onConnectionCapabilitiesChanged(this);
             }
 
             int strippedCaps = getConnectionCapabilities();
             int xorCaps = previousCapabilities ^ strippedCaps;
-            Log.addEvent(this, LogUtils.Events.CAPABILITY_CHANGE,
+            LogUtils.addEvent(this, LogUtils.Events.CAPABILITY_CHANGE,
                     "Current: [%s], Removed [%s], Added [%s]",
                     Connection.capabilitiesToStringShort(strippedCaps),
                     Connection.capabilitiesToStringShort(previousCapabilities & xorCaps),
@@ -1846,6 +1904,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (changedProperties != 0) {
             int previousProperties = mConnectionProperties;
             mConnectionProperties = connectionProperties;
+            notifyCallStateCounter();
             boolean didRttChange =
                     (changedProperties & Connection.PROPERTY_IS_RTT) == Connection.PROPERTY_IS_RTT;
             if (didRttChange) {
@@ -1869,7 +1928,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             mWasHighDefAudio = (connectionProperties & Connection.PROPERTY_HIGH_DEF_AUDIO) ==
                     Connection.PROPERTY_HIGH_DEF_AUDIO;
             mWasWifi = (connectionProperties & Connection.PROPERTY_WIFI) > 0;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(
+                    CallListenerDispatcher.ON_CONNECTION_PROPERTIES_CHANGED)) {
                 l.onConnectionPropertiesChanged(this, didRttChange);
             }
 
@@ -1880,14 +1940,14 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             if (wasExternal != isExternal) {
                 Log.v(this, "setConnectionProperties: external call changed isExternal = %b",
                         isExternal);
-                Log.addEvent(this, LogUtils.Events.IS_EXTERNAL, isExternal);
+                LogUtils.addEvent(this, LogUtils.Events.IS_EXTERNAL, isExternal);
                 if (isExternal) {
                     // If there is an ongoing emergency call, remove the ability for this call to
                     // be pulled.
                     boolean isInEmergencyCall = mCallsManager.isInEmergencyCall();
                     setIsPullExternalCallSupported(!isInEmergencyCall);
                 }
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(CallListenerDispatcher.ON_EXTERNAL_CALL_CHANGED)) {
                     l.onExternalCallChanged(this, isExternal);
                 }
             }
@@ -1895,7 +1955,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             mAnalytics.addCallProperties(mConnectionProperties);
 
             int xorProps = previousProperties ^ mConnectionProperties;
-            Log.addEvent(this, LogUtils.Events.PROPERTY_CHANGE,
+            LogUtils.addEvent(this, LogUtils.Events.PROPERTY_CHANGE,
                     "Current: [%s], Removed [%s], Added [%s]",
                     Connection.propertiesToStringShort(mConnectionProperties),
                     Connection.propertiesToStringShort(previousProperties & xorProps),
@@ -2058,12 +2118,14 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             case CALL_DIRECTION_INCOMING:
                 // Listeners (just CallsManager for now) will be responsible for checking whether
                 // the call should be blocked.
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(
+                        CallListenerDispatcher.ON_SUCCESSFUL_INCOMING_CALL)) {
                     l.onSuccessfulIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(
+                        CallListenerDispatcher.ON_SUCCESSFUL_OUTGOING_CALL)) {
                     l.onSuccessfulOutgoingCall(this,
                             getStateFromConnectionState(conference.getState()));
                 }
@@ -2076,6 +2138,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             CallIdMapper idMapper,
             ParcelableConnection connection) {
         Log.v(this, "handleCreateConnectionSuccessful %s", connection);
+        markSetupStage(CallSetupTimer.CONNECTION_CREATED);
         setTargetPhoneAccount(connection.getPhoneAccount());
         setHandle(connection.getHandle(), connection.getHandlePresentation());
         setCallerDisplayName(
@@ -2102,18 +2165,21 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
                 // Listeners (just CallsManager for now) will be responsible for checking whether
                 // the call should be blocked.
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(
+                        CallListenerDispatcher.ON_SUCCESSFUL_INCOMING_CALL)) {
                     l.onSuccessfulIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(
+                        CallListenerDispatcher.ON_SUCCESSFUL_OUTGOING_CALL)) {
                     l.onSuccessfulOutgoingCall(this,
                             getStateFromConnectionState(connection.getState()));
                 }
                 break;
             case CALL_DIRECTION_UNKNOWN:
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(
+                        CallListenerDispatcher.ON_SUCCESSFUL_UNKNOWN_CALL)) {
                     l.onSuccessfulUnknownCall(this, getStateFromConnectionState(connection
                             .getState()));
                 }
@@ -2129,12 +2195,14 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
         switch (mCallDirection) {
             case CALL_DIRECTION_INCOMING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_FAILED_INCOMING_CALL)) {
                     listener.onFailedIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_FAILED_OUTGOING_CALL)) {
                     listener.onFailedOutgoingCall(this, disconnectCause);
                 }
                 break;
@@ -2149,17 +2217,20 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
         switch (mCallDirection) {
             case CALL_DIRECTION_INCOMING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_FAILED_INCOMING_CALL)) {
                     listener.onFailedIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_FAILED_OUTGOING_CALL)) {
                     listener.onFailedOutgoingCall(this, disconnectCause);
                 }
                 break;
             case CALL_DIRECTION_UNKNOWN:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_FAILED_UNKNOWN_CALL)) {
                     listener.onFailedUnknownCall(this);
                 }
                 break;
@@ -2176,7 +2247,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         } else {
             Log.i(this, "Send playDtmfTone to connection service for call %s", this);
             mConnectionService.playDtmfTone(this, digit);
-            Log.addEvent(this, LogUtils.Events.START_DTMF, Log.pii(digit));
+            LogUtils.addEvent(this, LogUtils.Events.START_DTMF, Log.pii(digit));
         }
         mPlayingDtmfTone = digit;
     }
@@ -2190,7 +2261,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             Log.w(this, "stopDtmfTone() request on a call without a connection service.");
         } else {
             Log.i(this, "Send stopDtmfTone to connection service for call %s", this);
-            Log.addEvent(this, LogUtils.Events.STOP_DTMF);
+            LogUtils.addEvent(this, LogUtils.Events.STOP_DTMF);
             mConnectionService.stopDtmfTone(this);
         }
         mPlayingDtmfTone = NO_DTMF_TONE;
@@ -2212,7 +2283,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             Log.w(this, "silence() request on a call without a connection service.");
         } else {
             Log.i(this, "Send silence to connection service for call %s", this);
-            Log.addEvent(this, LogUtils.Events.SILENCE);
+            LogUtils.addEvent(this, LogUtils.Events.SILENCE);
             mConnectionService.silence(this);
         }
     }
@@ -2243,7 +2314,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     @VisibleForTesting
     public void disconnect(long disconnectionTimeout, String reason) {
-        Log.addEvent(this, LogUtils.Events.REQUEST_DISCONNECT, reason);
+        LogUtils.addEvent(this, LogUtils.Events.REQUEST_DISCONNECT, reason);
 
         // Track that the call is now locally disconnecting.
         setLocallyDisconnecting(true);
@@ -2292,7 +2363,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 // the second call so that in-call only ever sees a single call...eliminating the
                 // jank altogether. The app will also be able to set the timeout via an extra on
                 // the ordered broadcast.
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListenerDispatcher.ON_CANCELED_VIA_NEW_OUTGOING_CALL_BROADCAST)) {
                     if (listener.onCanceledViaNewOutgoingCallBroadcast(
                             this, disconnectionTimeout)) {
                         // The first listener to handle this wins. A return value of true means that
@@ -2335,7 +2407,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "answer call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_ACCEPT);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_ACCEPT);
         }
     }
 
@@ -2360,7 +2432,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                     "answer call (audio processing) failed due to null CS callId=%s", getId());
         }
 
-        Log.addEvent(this, LogUtils.Events.REQUEST_PICKUP_FOR_AUDIO_PROCESSING);
+        LogUtils.addEvent(this, LogUtils.Events.REQUEST_PICKUP_FOR_AUDIO_PROCESSING);
     }
 
     public void setAudioProcessingRequestingApp(CharSequence appName) {
@@ -2392,7 +2464,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "deflect call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_DEFLECT, Log.pii(address));
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_DEFLECT, Log.pii(address));
         }
     }
 
@@ -2428,7 +2500,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "reject call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_REJECT, reason);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_REJECT, reason);
         } else if (isRinging("reject")) {
             // Ensure video state history tracks video state at time of rejection.
             mVideoStateHistory |= mVideoState;
@@ -2439,7 +2511,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "reject call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_REJECT, reason);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_REJECT, reason);
         }
     }
 
@@ -2460,7 +2532,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "reject call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_REJECT);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_REJECT);
         } else if (isRinging("reject")) {
             // Ensure video state history tracks video state at time of rejection.
             mVideoStateHistory |= mVideoState;
@@ -2471,7 +2543,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "reject call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_REJECT, rejectReason);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_REJECT, rejectReason);
         }
     }
 
@@ -2490,7 +2562,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "transfer call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_TRANSFER, Log.pii(number));
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_TRANSFER, Log.pii(number));
         }
     }
 
@@ -2510,7 +2582,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "transfer call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_CONSULTATIVE_TRANSFER, otherCall);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_CONSULTATIVE_TRANSFER, otherCall);
         }
     }
 
@@ -2530,7 +2602,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "hold call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_HOLD, reason);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_HOLD, reason);
         }
     }
 
@@ -2550,7 +2622,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 Log.e(this, new NullPointerException(),
                         "unhold call failed due to null CS callId=%s", getId());
             }
-            Log.addEvent(this, LogUtils.Events.REQUEST_UNHOLD, reason);
+            LogUtils.addEvent(this, LogUtils.Events.REQUEST_UNHOLD, reason);
         }
     }
 
@@ -2574,8 +2646,45 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         return mState == CallState.ACTIVE;
     }
 
+    /**
+     * @return The call's extras. Shared with other readers, so must not be modified.
+     */
     Bundle getExtras() {
-        return mExtras;
+        return mExtras.getSnapshot();
+    }
+
+    /**
+     * @return A value which changes whenever the call's extras change.
+     */
+    int getExtrasVersion() {
+        return mExtras.getVersion();
+    }
+
+    void dumpExtras(IndentingPrintWriter pw) {
+        mExtras.dump(pw);
+    }
+
+    /**
+     * @return The sanitized extras stored by {@link #setSanitizedExtras(Bundle, int)} if they
+     *         were derived from the given extras version, otherwise {@code null}.
+     */
+    Bundle getSanitizedExtras(int extrasVersion) {
+        return extrasVersion == mSanitizedExtrasVersion ? mSanitizedExtras : null;
+    }
+
+    void setSanitizedExtras(Bundle sanitizedExtras, int extrasVersion) {
+        mSanitizedExtras = sanitizedExtras;
+        mSanitizedExtrasVersion = extrasVersion;
+    }
+
+    void setCallStateCounter(CallStateCounter callStateCounter) {
+        mCallStateCounter = callStateCounter;
+    }
+
+    private void notifyCallStateCounter() {
+        if (mCallStateCounter != null) {
+            mCallStateCounter.onCallChanged(this);
+        }
     }
 
     /**
@@ -2585,7 +2694,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      * {@link #SOURCE_CONNECTION_SERVICE}, {@link #SOURCE_INCALL_SERVICE}).  Extras changes which
      * originate from a connection service will only be notified to incall services.  Likewise,
      * changes originating from the incall services will only notify the connection service of the
-     * change.
+     * change.  Extras which the call already holds are ignored, and listeners are only told of the
+     * extras which actually changed.
      *
      * @param source The source of the extras addition.
      * @param extras The extras.
@@ -2594,18 +2704,20 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (extras == null) {
             return;
         }
-        if (mExtras == null) {
-            mExtras = new Bundle();
+        CallExtrasStore.Change change = mExtras.put(source, extras);
+        if (change == null) {
+            return;
         }
-        mExtras.putAll(extras);
+        extras = change.getChangedExtras();
+        Bundle allExtras = mExtras.getSnapshot();
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_EXTRAS_CHANGED)) {
             l.onExtrasChanged(this, source, extras);
         }
 
         // If mExtra shows that the call using Volte, record it with mWasVolte
-        if (mExtras.containsKey(TelecomManager.EXTRA_CALL_NETWORK_TYPE) &&
-            mExtras.get(TelecomManager.EXTRA_CALL_NETWORK_TYPE)
+        if (allExtras.containsKey(TelecomManager.EXTRA_CALL_NETWORK_TYPE) &&
+            allExtras.get(TelecomManager.EXTRA_CALL_NETWORK_TYPE)
                     .equals(TelephonyManager.NETWORK_TYPE_LTE)) {
             mWasVolte = true;
         }
@@ -2617,15 +2729,15 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         // The remote connection service API can track the phone account which was originally
         // requested to create a connection via the remote connection service API; we store that so
         // we have some visibility into how a call was actually placed.
-        if (mExtras.containsKey(Connection.EXTRA_REMOTE_PHONE_ACCOUNT_HANDLE)) {
-            setRemotePhoneAccountHandle(extras.getParcelable(
+        if (allExtras.containsKey(Connection.EXTRA_REMOTE_PHONE_ACCOUNT_HANDLE)) {
+            setRemotePhoneAccountHandle(allExtras.getParcelable(
                     Connection.EXTRA_REMOTE_PHONE_ACCOUNT_HANDLE));
         }
 
         // If the change originated from an InCallService, notify the connection service.
         if (source == SOURCE_INCALL_SERVICE) {
             if (mConnectionService != null) {
-                mConnectionService.onExtrasChanged(this, mExtras);
+                mConnectionService.onExtrasChanged(this, allExtras);
             } else {
                 Log.e(this, new NullPointerException(),
                         "putExtras failed due to null CS callId=%s", getId());
@@ -2640,27 +2752,27 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      * {@link #SOURCE_CONNECTION_SERVICE}, {@link #SOURCE_INCALL_SERVICE}).  Extras changes which
      * originate from a connection service will only be notified to incall services.  Likewise,
      * changes originating from the incall services will only notify the connection service of the
-     * change.
+     * change.  Keys which the call doesn't hold are ignored, and listeners are only told of the
+     * keys which were actually removed.
      *
      * @param source The source of the extras removal.
      * @param keys The extra keys to remove.
      */
     void removeExtras(int source, List<String> keys) {
-        if (mExtras == null) {
+        CallExtrasStore.Change change = mExtras.remove(source, keys);
+        if (change == null) {
             return;
         }
-        for (String key : keys) {
-            mExtras.remove(key);
-        }
+        keys = change.getRemovedKeys();
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_EXTRAS_REMOVED)) {
             l.onExtrasRemoved(this, source, keys);
         }
 
         // If the change originated from an InCallService, notify the connection service.
         if (source == SOURCE_INCALL_SERVICE) {
             if (mConnectionService != null) {
-                mConnectionService.onExtrasChanged(this, mExtras);
+                mConnectionService.onExtrasChanged(this, mExtras.getSnapshot());
             } else {
                 Log.e(this, new NullPointerException(),
                         "removeExtras failed due to null CS callId=%s", getId());
@@ -2701,13 +2813,13 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     }
 
     void onPostDialWait(String remaining) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_POST_DIAL_WAIT)) {
             l.onPostDialWait(this, remaining);
         }
     }
 
     void onPostDialChar(char nextChar) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_POST_DIAL_CHAR)) {
             l.onPostDialChar(this, nextChar);
         }
     }
@@ -2725,7 +2837,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService == null) {
             Log.w(this, "conference requested on a call without a connection service.");
         } else {
-            Log.addEvent(this, LogUtils.Events.CONFERENCE_WITH, otherCall);
+            LogUtils.addEvent(this, LogUtils.Events.CONFERENCE_WITH, otherCall);
             mConnectionService.conference(this, otherCall);
         }
     }
@@ -2734,7 +2846,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService == null) {
             Log.w(this, "splitting from conference call without a connection service");
         } else {
-            Log.addEvent(this, LogUtils.Events.SPLIT_FROM_CONFERENCE);
+            LogUtils.addEvent(this, LogUtils.Events.SPLIT_FROM_CONFERENCE);
             mConnectionService.splitFromConference(this);
         }
     }
@@ -2744,7 +2856,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService == null) {
             Log.w(this, "merging conference calls without a connection service.");
         } else if (can(Connection.CAPABILITY_MERGE_CONFERENCE)) {
-            Log.addEvent(this, LogUtils.Events.CONFERENCE_WITH);
+            LogUtils.addEvent(this, LogUtils.Events.CONFERENCE_WITH);
             mConnectionService.mergeConference(this);
             mWasConferencePreviouslyMerged = true;
         }
@@ -2755,7 +2867,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService == null) {
             Log.w(this, "swapping conference calls without a connection service.");
         } else if (can(Connection.CAPABILITY_SWAP_CONFERENCE)) {
-            Log.addEvent(this, LogUtils.Events.SWAP);
+            LogUtils.addEvent(this, LogUtils.Events.SWAP);
             mConnectionService.swapConference(this);
             switch (mChildCalls.size()) {
                 case 1:
@@ -2771,7 +2883,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                     mConferenceLevelActiveCall = null;
                     break;
             }
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CDMA_CONFERENCE_SWAP)) {
                 l.onCdmaConferenceSwap(this);
             }
         }
@@ -2781,7 +2893,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService == null) {
             Log.w(this, "adding conference participants without a connection service.");
         } else if (can(Connection.CAPABILITY_ADD_PARTICIPANT)) {
-            Log.addEvent(this, LogUtils.Events.ADD_PARTICIPANT);
+            LogUtils.addEvent(this, LogUtils.Events.ADD_PARTICIPANT);
             mConnectionService.addConferenceParticipants(this, participants);
         }
     }
@@ -2828,7 +2940,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             return;
         }
 
-        Log.addEvent(this, LogUtils.Events.REQUEST_PULL);
+        LogUtils.addEvent(this, LogUtils.Events.REQUEST_PULL);
         mConnectionService.pullExternalCall(this);
     }
 
@@ -2900,7 +3012,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                 }
                 requestHandover(phoneAccountHandle, videoState, handoverExtrasBundle, true);
             } else {
-                Log.addEvent(this, LogUtils.Events.CALL_EVENT, event);
+                LogUtils.addEvent(this, LogUtils.Events.CALL_EVENT, event);
                 mConnectionService.sendCallEvent(this, event, extras);
             }
         } else {
@@ -2940,8 +3052,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      * @param parentCall The new parent call for this call.
      */
     void notifyParentChanged(Call parentCall) {
-        Log.addEvent(this, LogUtils.Events.SET_PARENT, parentCall);
-        for (Listener l : mListeners) {
+        LogUtils.addEvent(this, LogUtils.Events.SET_PARENT, parentCall);
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_PARENT_CHANGED)) {
             l.onParentChanged(this);
         }
     }
@@ -2966,6 +3078,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             mParentCall.removeChildCall(this);
         }
         mParentCall = parentCall;
+        notifyCallStateCounter();
     }
 
     /**
@@ -2986,7 +3099,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         mConferenceableCalls.clear();
         mConferenceableCalls.addAll(conferenceableCalls);
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_CONFERENCEABLE_CALLS_CHANGED)) {
             l.onConferenceableCallsChanged(this);
         }
     }
@@ -3019,9 +3132,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
             // connect time reflective of all the children added.
             maybeAdjustConnectTime(call);
 
-            Log.addEvent(this, LogUtils.Events.ADD_CHILD, call);
+            LogUtils.addEvent(this, LogUtils.Events.ADD_CHILD, call);
 
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CHILDREN_CHANGED)) {
                 l.onChildrenChanged(this);
             }
         }
@@ -3053,8 +3166,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     private void removeChildCall(Call call) {
         if (mChildCalls.remove(call)) {
-            Log.addEvent(this, LogUtils.Events.REMOVE_CHILD, call);
-            for (Listener l : mListeners) {
+            LogUtils.addEvent(this, LogUtils.Events.REMOVE_CHILD, call);
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CHILDREN_CHANGED)) {
                 l.onChildrenChanged(this);
             }
         }
@@ -3180,7 +3293,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
         if (mCallerInfo.getContactDisplayPhotoUri() == null ||
                 mCallerInfo.cachedPhotoIcon != null || mCallerInfo.cachedPhoto != null) {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CALLER_INFO_CHANGED)) {
                 l.onCallerInfoChanged(this);
             }
         }
@@ -3205,7 +3318,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
                             if (result.length > 0) {
                                 Log.d(this, "maybeLoadCannedSmsResponses: got %s", result[0]);
                                 mCannedSmsResponses = result[0];
-                                for (Listener l : mListeners) {
+                                for (Listener l : mListeners.get(
+                                        CallListenerDispatcher.ON_CANNED_SMS_RESPONSES_LOADED)) {
                                     l.onCannedSmsResponsesLoaded(Call.this);
                                 }
                             }
@@ -3278,7 +3392,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     public void onRttConnectionFailure(int reason) {
         Log.i(this, "Got RTT initiation failure with reason %d", reason);
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_RTT_INITIATION_FAILURE)) {
             l.onRttInitiationFailure(this, reason);
         }
     }
@@ -3290,7 +3404,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         }
 
         mPendingRttRequestId = mCallsManager.getNextRttRequestId();
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_REMOTE_RTT_REQUEST)) {
             l.onRemoteRttRequest(this, mPendingRttRequestId);
         }
     }
@@ -3369,7 +3483,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
         mVideoProvider = videoProvider;
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_VIDEO_CALL_PROVIDER_CHANGED)) {
             l.onVideoCallProviderChanged(Call.this);
         }
     }
@@ -3441,9 +3555,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         int previousVideoState = mVideoState;
         mVideoState = videoState;
         if (mVideoState != previousVideoState) {
-            Log.addEvent(this, LogUtils.Events.VIDEO_STATE_CHANGED,
+            LogUtils.addEvent(this, LogUtils.Events.VIDEO_STATE_CHANGED,
                     VideoProfile.videoStateToString(videoState));
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_VIDEO_STATE_CHANGED)) {
                 l.onVideoStateChanged(this, previousVideoState, mVideoState);
             }
         }
@@ -3459,7 +3573,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     public void setIsVoipAudioMode(boolean audioModeIsVoip) {
         mIsVoipAudioMode = audioModeIsVoip;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_IS_VOIP_AUDIO_MODE_CHANGED)) {
             l.onIsVoipAudioModeChanged(this);
         }
     }
@@ -3470,7 +3584,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
 
     public void setStatusHints(StatusHints statusHints) {
         mStatusHints = statusHints;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_STATUS_HINTS_CHANGED)) {
             l.onStatusHintsChanged(this);
         }
     }
@@ -3604,31 +3718,31 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      * @param extras The extras.
      */
     public void onConnectionEvent(String event, Bundle extras) {
-        Log.addEvent(this, LogUtils.Events.CONNECTION_EVENT, event);
+        LogUtils.addEvent(this, LogUtils.Events.CONNECTION_EVENT, event);
         if (Connection.EVENT_ON_HOLD_TONE_START.equals(event)) {
             mIsRemotelyHeld = true;
-            Log.addEvent(this, LogUtils.Events.REMOTELY_HELD);
+            LogUtils.addEvent(this, LogUtils.Events.REMOTELY_HELD);
             // Inform listeners of the fact that a call hold tone was received.  This will trigger
             // the CallAudioManager to play a tone via the InCallTonePlayer.
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_HOLD_TONE_REQUESTED)) {
                 l.onHoldToneRequested(this);
             }
         } else if (Connection.EVENT_ON_HOLD_TONE_END.equals(event)) {
             mIsRemotelyHeld = false;
-            Log.addEvent(this, LogUtils.Events.REMOTELY_UNHELD);
-            for (Listener l : mListeners) {
+            LogUtils.addEvent(this, LogUtils.Events.REMOTELY_UNHELD);
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_HOLD_TONE_REQUESTED)) {
                 l.onHoldToneRequested(this);
             }
         } else if (Connection.EVENT_CALL_HOLD_FAILED.equals(event)) {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CALL_HOLD_FAILED)) {
                 l.onCallHoldFailed(this);
             }
         } else if (Connection.EVENT_CALL_SWITCH_FAILED.equals(event)) {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CALL_SWITCH_FAILED)) {
                 l.onCallSwitchFailed(this);
             }
         } else {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CONNECTION_EVENT)) {
                 l.onConnectionEvent(this, event, extras);
             }
         }
@@ -3647,14 +3761,14 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
         if (mConnectionService != null) {
             mConnectionService.handoverComplete(this);
         }
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_HANDOVER_COMPLETE)) {
             l.onHandoverComplete(this);
         }
     }
 
     public void onHandoverFailed(int handoverError) {
         Log.i(this, "onHandoverFailed; callId=%s, handoverError=%d", getId(), handoverError);
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_HANDOVER_FAILED)) {
             l.onHandoverFailed(this, handoverError);
         }
     }
@@ -3713,7 +3827,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     private void requestHandover(PhoneAccountHandle handoverToHandle, int videoState,
                                  Bundle extras, boolean isLegacy) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_HANDOVER_REQUESTED)) {
             l.onHandoverRequested(this, handoverToHandle, videoState, extras, isLegacy);
         }
     }
@@ -3728,10 +3842,10 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
      */
     public void setConferenceState(boolean isConference) {
         mIsConference = isConference;
-        Log.addEvent(this, LogUtils.Events.CONF_STATE_CHANGED, "isConference=" + isConference);
+        LogUtils.addEvent(this, LogUtils.Events.CONF_STATE_CHANGED, "isConference=" + isConference);
         // Ultimately CallsManager needs to know so it can update the "add call" state and inform
         // the UI to update itself.
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListenerDispatcher.ON_CONFERENCE_STATE_CHANGED)) {
             l.onConferenceStateChanged(this, isConference);
         }
     }
@@ -3744,10 +3858,10 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable,
     // Make sure the callDirection has been mapped to the Call definition correctly!
     public void setCallDirection(int callDirection) {
         if (mCallDirection != callDirection) {
-            Log.addEvent(this, LogUtils.Events.CALL_DIRECTION_CHANGED, "callDirection="
+            LogUtils.addEvent(this, LogUtils.Events.CALL_DIRECTION_CHANGED, "callDirection="
                     + callDirection);
             mCallDirection = callDirection;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListenerDispatcher.ON_CALL_DIRECTION_CHANGED)) {
                 // Update InCallService directly, do not notify CallsManager.
                 l.onCallDirectionChanged(this);
             }
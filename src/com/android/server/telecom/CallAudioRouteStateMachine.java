@@ -245,17 +245,17 @@ public class CallAudioRouteStateMachine extends StateMachine {
         @Override
         public void enter() {
             super.enter();
-            Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
+            LogUtils.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
                     "Entering state " + getName());
             if (isActive()) {
-                Log.addEvent(mCallsManager.getForegroundCall(),
+                LogUtils.addEvent(mCallsManager.getForegroundCall(),
                         AUDIO_ROUTE_TO_LOG_EVENT.get(getRouteCode(), LogUtils.Events.AUDIO_ROUTE));
             }
         }
 
         @Override
         public void exit() {
-            Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
+            LogUtils.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
                     "Leaving state " + getName());
             super.exit();
         }
@@ -270,30 +270,30 @@ public class CallAudioRouteStateMachine extends StateMachine {
                     MESSAGE_CODE_TO_NAME.get(msg.what, Integer.toString(msg.what)));
             switch (msg.what) {
                 case CONNECT_WIRED_HEADSET:
-                    Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                            "Wired headset connected");
+                    LogUtils.addEvent(mCallsManager.getForegroundCall(),
+                            LogUtils.Events.AUDIO_ROUTE, "Wired headset connected");
                     removedRoutes |= ROUTE_EARPIECE;
                     addedRoutes |= ROUTE_WIRED_HEADSET;
                     break;
                 case DISCONNECT_WIRED_HEADSET:
-                    Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                            "Wired headset disconnected");
+                    LogUtils.addEvent(mCallsManager.getForegroundCall(),
+                            LogUtils.Events.AUDIO_ROUTE, "Wired headset disconnected");
                     removedRoutes |= ROUTE_WIRED_HEADSET;
                     if (mDoesDeviceSupportEarpieceRoute) {
                         addedRoutes |= ROUTE_EARPIECE;
                     }
                     break;
                 case BT_ACTIVE_DEVICE_PRESENT:
-                    Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                            "Bluetooth active device present");
+                    LogUtils.addEvent(mCallsManager.getForegroundCall(),
+                            LogUtils.Events.AUDIO_ROUTE, "Bluetooth active device present");
                     break;
                 case BT_ACTIVE_DEVICE_GONE:
-                    Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                            "Bluetooth active device gone");
+                    LogUtils.addEvent(mCallsManager.getForegroundCall(),
+                            LogUtils.Events.AUDIO_ROUTE, "Bluetooth active device gone");
                     break;
                 case BLUETOOTH_DEVICE_LIST_CHANGED:
-                    Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                            "Bluetooth device list changed");
+                    LogUtils.addEvent(mCallsManager.getForegroundCall(),
+                            LogUtils.Events.AUDIO_ROUTE, "Bluetooth device list changed");
                     Collection<BluetoothDevice> connectedDevices =
                             mBluetoothRouteManager.getConnectedDevices();
                     if (connectedDevices.size() > 0) {
@@ -1637,7 +1637,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
 
     private void setMuteOn(boolean mute) {
         mIsMuted = mute;
-        Log.addEvent(mCallsManager.getForegroundCall(), mute ?
+        LogUtils.addEvent(mCallsManager.getForegroundCall(), mute ?
                 LogUtils.Events.MUTE : LogUtils.Events.UNMUTE);
         if (mute != mAudioManager.isMicrophoneMute() && isInActiveState()) {
             IAudioService audio = mAudioServiceFactory.getAudioService();
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Holds recent call events in a fixed-size binary ring buffer, as a more compact alternative to
+ * keeping them as objects in the framework's event manager.
+ *
+ * Each event is stored as a fixed-size record of its timestamp, the index of its call, the id of
+ * its name and its data as UTF-8, truncated to a fixed size. Event names and call ids are interned, so recording
+ * an event allocates nothing that is retained, and records are only decoded when dumped.
+ */
+public class CallEventLog {
+    // Record layout: timestamp (8 bytes), call index (4), event id (2), payload length (2) and
+    // the payload. The top bit of the event id is set if the payload was truncated. A payload
+    // length of -1 means the event had no data.
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int CALL_INDEX_OFFSET = 8;
+    private static final int EVENT_ID_OFFSET = 12;
+    private static final int PAYLOAD_LENGTH_OFFSET = 14;
+    private static final int PAYLOAD_OFFSET = 16;
+    private static final int NO_PAYLOAD = -1;
+    private static final int TRUNCATED_FLAG = 0x8000;
+    private static final int EVENT_ID_MASK = 0x7FFF;
+    private static final String TRUNCATED_SUFFIX = "...";
+    // The payload length is stored as a short.
+    private static final int MAX_PAYLOAD_SIZE = Short.MAX_VALUE;
+
+    private static final int MAX_EVENT_NAMES = Short.MAX_VALUE;
+    private static final String OTHER_EVENT_NAME = "OTHER";
+
+    private static final SimpleDateFormat DATE_FORMAT =
+            new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+
+    private final int mCapacity;
+    private final int mPayloadSize;
+    private final int mRecordSize;
+    private final ByteBuffer mRecords;
+    private final int mMaxCalls;
+
+    private final Map<String, Integer> mEventIds = new HashMap<>();
+    private final List<String> mEventNames = new ArrayList<>();
+
+    // The ids of the most recent calls, indexed by call index modulo mMaxCalls.
+    private final String[] mCallIds;
+    private final Map<String, Integer> mCallIndices = new HashMap<>();
+    private int mNextCallIndex = 0;
+
+    // The total number of events recorded; the next record is written at mNumRecorded % capacity.
+    private long mNumRecorded = 0;
+
+    /**
+     * @param capacity The number of events to hold.
+     * @param payloadSize The number of bytes of data to hold for each event, at most 32767;
+     *                    longer data is truncated, which is shown with a trailing "...".
+     * @param maxCalls The number of calls to hold the ids of. Events of older calls are shown
+     *                 with the index of their call instead.
+     */
+    public CallEventLog(int capacity, int payloadSize, int maxCalls) {
+        mCapacity = capacity;
+        mPayloadSize = Math.max(0, Math.min(payloadSize, MAX_PAYLOAD_SIZE));
+        mRecordSize = PAYLOAD_OFFSET + mPayloadSize;
+        mRecords = ByteBuffer.allocate(capacity * mRecordSize);
+        mMaxCalls = maxCalls;
+        mCallIds = new String[maxCalls];
+        mEventNames.add(OTHER_EVENT_NAME);
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param callId The id of the call the event is for.
+     * @param event The name of the event.
+     * @param data The data of the event, or {@code null}.
+     */
+    public synchronized void addEvent(String callId, String event, Object data) {
+        if (mCapacity == 0) {
+            return;
+        }
+        int offset = (int) (mNumRecorded % mCapacity) * mRecordSize;
+        mRecords.putLong(offset + TIMESTAMP_OFFSET, System.currentTimeMillis());
+        mRecords.putInt(offset + CALL_INDEX_OFFSET, getCallIndex(callId));
+        int eventId = getEventId(event);
+        if (data == null) {
+            mRecords.putShort(offset + PAYLOAD_LENGTH_OFFSET, (short) NO_PAYLOAD);
+        } else {
+            byte[] bytes = String.valueOf(data).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, mPayloadSize);
+            // Don't split a multi-byte character.
+            while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+            mRecords.putShort(offset + PAYLOAD_LENGTH_OFFSET, (short) length);
+            for (int i = 0; i < length; i++) {
+                mRecords.put(offset + PAYLOAD_OFFSET + i, bytes[i]);
+            }
+            if (length < bytes.length) {
+                eventId |= TRUNCATED_FLAG;
+            }
+        }
+        mRecords.putShort(offset + EVENT_ID_OFFSET, (short) eventId);
+        mNumRecorded++;
+    }
+
+    /**
+     * @return The number of events held.
+     */
+    @VisibleForTesting
+    public synchronized int size() {
+        return (int) Math.min(mNumRecorded, mCapacity);
+    }
+
+    /**
+     * @return The events held, oldest first, each formatted as in the timeline dump.
+     */
+    @VisibleForTesting
+    public synchronized List<String> getEvents() {
+        List<String> events = new ArrayList<>(size());
+        for (long i = mNumRecorded - size(); i < mNumRecorded; i++) {
+            events.add(formatEvent(getOffset(i), true));
+        }
+        return events;
+    }
+
+    /**
+     * Dumps the events held, grouped by call.
+     */
+    public synchronized void dump(IndentingPrintWriter pw) {
+        dumpSummary(pw);
+        Map<Integer, List<Integer>> offsetsByCall = new LinkedHashMap<>();
+        for (long i = mNumRecorded - size(); i < mNumRecorded; i++) {
+            int offset = getOffset(i);
+            int callIndex = mRecords.getInt(offset + CALL_INDEX_OFFSET);
+            List<Integer> offsets = offsetsByCall.get(callIndex);
+            if (offsets == null) {
+                offsets = new ArrayList<>();
+                offsetsByCall.put(callIndex, offsets);
+            }
+            offsets.add(offset);
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : offsetsByCall.entrySet()) {
+            pw.println("Call " + getCallId(entry.getKey()) + ":");
+            pw.increaseIndent();
+            for (int offset : entry.getValue()) {
+                pw.println(formatEvent(offset, false));
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    /**
+     * Dumps the events held for all calls, oldest first.
+     */
+    public synchronized void dumpTimeline(IndentingPrintWriter pw) {
+        dumpSummary(pw);
+        for (long i = mNumRecorded - size(); i < mNumRecorded; i++) {
+            pw.println(formatEvent(getOffset(i), true));
+        }
+    }
+
+    private void dumpSummary(IndentingPrintWriter pw) {
+        pw.println("Call events: " + size() + "/" + mCapacity + " (" + mNumRecorded
+                + " recorded, " + mRecordSize + " bytes each, " + mEventNames.size()
+                + " event names)");
+    }
+
+    private int getOffset(long recordNumber) {
+        return (int) (recordNumber % mCapacity) * mRecordSize;
+    }
+
+    private String formatEvent(int offset, boolean includeCallId) {
+        StringBuilder sb = new StringBuilder();
+        synchronized (DATE_FORMAT) {
+            sb.append(DATE_FORMAT.format(new Date(mRecords.getLong(offset + TIMESTAMP_OFFSET))));
+        }
+        if (includeCallId) {
+            sb.append(" - ").append(getCallId(mRecords.getInt(offset + CALL_INDEX_OFFSET)));
+        }
+        int eventId = mRecords.getShort(offset + EVENT_ID_OFFSET);
+        sb.append(" - ").append(mEventNames.get(eventId & EVENT_ID_MASK));
+        int length = mRecords.getShort(offset + PAYLOAD_LENGTH_OFFSET);
+        if (length != NO_PAYLOAD) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = mRecords.get(offset + PAYLOAD_OFFSET + i);
+            }
+            sb.append(" (").append(new String(bytes, StandardCharsets.UTF_8));
+            if ((eventId & TRUNCATED_FLAG) != 0) {
+                sb.append(TRUNCATED_SUFFIX);
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    private int getEventId(String event) {
+        Integer id = mEventIds.get(event);
+        if (id == null) {
+            if (mEventNames.size() >= MAX_EVENT_NAMES) {
+                // Event names are constants, so this should never happen.
+                return 0;
+            }
+            id = mEventNames.size();
+            mEventIds.put(event, id);
+            mEventNames.add(event);
+        }
+        return id;
+    }
+
+    private int getCallIndex(String callId) {
+        Integer index = mCallIndices.get(callId);
+        if (index == null) {
+            index = mNextCallIndex++;
+            int slot = index % mMaxCalls;
+            if (mCallIds[slot] != null) {
+                mCallIndices.remove(mCallIds[slot]);
+            }
+            mCallIds[slot] = callId;
+            mCallIndices.put(callId, index);
+        }
+        return index;
+    }
+
+    private String getCallId(int callIndex) {
+        // The slot may since have been reused by a newer call.
+        String callId = mCallIds[callIndex % mMaxCalls];
+        if (callId != null && mCallIndices.get(callId) == callIndex) {
+            return callId;
+        }
+        return "#" + callIndex;
+    }
+}
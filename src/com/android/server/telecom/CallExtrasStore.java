@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Holds the extras of a {@link Call} as a series of immutable snapshots.
+ *
+ * Each change which actually alters the extras publishes a new snapshot and increments the
+ * version; the previous snapshot is left untouched, so readers (such as a {@code ParcelableCall}
+ * built from it) may share a snapshot without copying it. Puts of values which are already present
+ * and removals of absent keys are suppressed, so they neither publish a snapshot nor need to be
+ * reported to the call's listeners.
+ *
+ * The most recent change made by each source ({@link Call#SOURCE_CONNECTION_SERVICE} or
+ * {@link Call#SOURCE_INCALL_SERVICE}) is kept, along with counts of the changes made and
+ * suppressed.
+ *
+ * Not thread safe; guarded by the Telecom lock like the rest of {@link Call}.
+ */
+public class CallExtrasStore {
+    /**
+     * A change made to the extras.
+     */
+    public static final class Change {
+        private final int mVersion;
+        private final Bundle mChangedExtras;
+        private final List<String> mRemovedKeys;
+
+        Change(int version, Bundle changedExtras, List<String> removedKeys) {
+            mVersion = version;
+            mChangedExtras = changedExtras;
+            mRemovedKeys = removedKeys;
+        }
+
+        /**
+         * @return The version of the extras the change produced.
+         */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * @return The extras which were added or changed; never {@code null}.
+         */
+        public Bundle getChangedExtras() {
+            return mChangedExtras;
+        }
+
+        /**
+         * @return The keys which were removed; never {@code null}.
+         */
+        public List<String> getRemovedKeys() {
+            return mRemovedKeys;
+        }
+    }
+
+    private static class SourceStats {
+        Change mLastChange;
+        int mNumChanges;
+        int mNumSuppressed;
+    }
+
+    private Bundle mSnapshot;
+    private int mVersion;
+    private final SparseArray<SourceStats> mSourceStats = new SparseArray<>();
+
+    /**
+     * @return The current extras, or {@code null} if none have been put. Shared with other
+     * readers, so must not be modified.
+     */
+    public Bundle getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return A value which increases whenever the extras change.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Adds extras, replacing the values of existing keys.
+     *
+     * @param source The source of the change.
+     * @param extras The extras to add.
+     * @return The change made, or {@code null} if the extras already held every value.
+     */
+    public Change put(int source, Bundle extras) {
+        // Start from a copy of everything put, so that each value keeps its type, and drop the
+        // values which are already present.
+        Bundle changed = new Bundle(extras);
+        if (mSnapshot != null) {
+            for (String key : extras.keySet()) {
+                if (mSnapshot.containsKey(key)
+                        && areValuesEqual(mSnapshot.get(key), extras.get(key))) {
+                    changed.remove(key);
+                }
+            }
+        }
+        // Putting even empty extras leaves the call with non-null extras.
+        if (changed.isEmpty() && mSnapshot != null) {
+            return suppress(source);
+        }
+        Bundle snapshot = mSnapshot == null ? new Bundle() : new Bundle(mSnapshot);
+        snapshot.putAll(changed);
+        return publish(source, snapshot, changed, Collections.emptyList());
+    }
+
+    /**
+     * Removes extras.
+     *
+     * @param source The source of the change.
+     * @param keys The keys to remove.
+     * @return The change made, or {@code null} if none of the keys were present.
+     */
+    public Change remove(int source, List<String> keys) {
+        List<String> removed = new ArrayList<>(keys.size());
+        if (mSnapshot != null) {
+            for (String key : keys) {
+                if (mSnapshot.containsKey(key) && !removed.contains(key)) {
+                    removed.add(key);
+                }
+            }
+        }
+        if (removed.isEmpty()) {
+            return suppress(source);
+        }
+        Bundle snapshot = new Bundle(mSnapshot);
+        for (String key : removed) {
+            snapshot.remove(key);
+        }
+        return publish(source, snapshot, new Bundle(), removed);
+    }
+
+    /**
+     * @return The most recent change made by a source, or {@code null} if it has made none.
+     */
+    public Change getLastChange(int source) {
+        SourceStats stats = mSourceStats.get(source);
+        return stats == null ? null : stats.mLastChange;
+    }
+
+    @VisibleForTesting
+    public int getNumSuppressed(int source) {
+        SourceStats stats = mSourceStats.get(source);
+        return stats == null ? 0 : stats.mNumSuppressed;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        StringBuilder sb = new StringBuilder("extrasVersion: ").append(mVersion)
+                .append(", extrasKeys: ").append(mSnapshot == null ? 0 : mSnapshot.size());
+        for (int i = 0; i < mSourceStats.size(); i++) {
+            SourceStats stats = mSourceStats.valueAt(i);
+            sb.append(", source ").append(mSourceStats.keyAt(i)).append(": changes=")
+                    .append(stats.mNumChanges).append(" suppressed=")
+                    .append(stats.mNumSuppressed);
+        }
+        pw.println(sb.toString());
+    }
+
+    private Change publish(int source, Bundle snapshot, Bundle changedExtras,
+            List<String> removedKeys) {
+        mSnapshot = snapshot;
+        mVersion++;
+        Change change = new Change(mVersion, changedExtras, removedKeys);
+        SourceStats stats = getSourceStats(source);
+        stats.mLastChange = change;
+        stats.mNumChanges++;
+        return change;
+    }
+
+    private Change suppress(int source) {
+        getSourceStats(source).mNumSuppressed++;
+        return null;
+    }
+
+    private SourceStats getSourceStats(int source) {
+        SourceStats stats = mSourceStats.get(source);
+        if (stats == null) {
+            stats = new SourceStats();
+            mSourceStats.put(source, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Compares two extras values. Arrays are compared by content and bundles key by key; other
+     * values are compared with {@link Object#equals(Object)}, so a value which doesn't implement it
+     * is treated as changed unless it is the same instance.
+     */
+    @VisibleForTesting
+    public static boolean areValuesEqual(Object first, Object second) {
+        if (first instanceof Bundle && second instanceof Bundle) {
+            Bundle firstBundle = (Bundle) first;
+            Bundle secondBundle = (Bundle) second;
+            if (firstBundle.size() != secondBundle.size()) {
+                return false;
+            }
+            for (String key : firstBundle.keySet()) {
+                if (!secondBundle.containsKey(key)
+                        || !areValuesEqual(firstBundle.get(key), secondBundle.get(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.deepEquals(first, second);
+    }
+}
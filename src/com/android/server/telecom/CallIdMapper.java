@@ -102,11 +102,13 @@ public class CallIdMapper {
         mCalls.put(id, call);
     }
 
-    void addCall(Call call) {
+    @VisibleForTesting
+    public void addCall(Call call) {
         addCall(call, mCallInfo.getCallId(call));
     }
 
-    void removeCall(Call call) {
+    @VisibleForTesting
+    public void removeCall(Call call) {
         if (call == null) {
             return;
         }
@@ -117,14 +119,16 @@ public class CallIdMapper {
         mCalls.remove(callId);
     }
 
-    String getCallId(Call call) {
+    @VisibleForTesting
+    public String getCallId(Call call) {
         if (call == null || mCalls.getKey(call) == null) {
             return null;
         }
         return mCallInfo.getCallId(call);
     }
 
-    Call getCall(Object objId) {
+    @VisibleForTesting
+    public Call getCall(Object objId) {
         String callId = null;
         if (objId instanceof String) {
             callId = (String) objId;
@@ -7,6 +7,7 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -69,6 +70,12 @@ public class CallIntentProcessor {
      */
     public static final String KEY_INITIATING_USER = "initiating_user";
 
+    /**
+     * The {@link SystemClock#elapsedRealtime()} at which {@code UserCallIntentProcessor} received
+     * the outgoing call intent.
+     */
+    public static final String KEY_USER_INTENT_RECEIVED_TIME = "user_intent_received_time";
+
 
     private final Context mContext;
     private final CallsManager mCallsManager;
@@ -108,6 +115,7 @@ public class CallIntentProcessor {
             Intent intent,
             String callingPackage,
             DefaultDialerCache defaultDialerCache) {
+        final long processingStartTime = SystemClock.elapsedRealtime();
 
         Uri handle = intent.getData();
         String scheme = handle.getScheme();
@@ -181,11 +189,20 @@ public class CallIntentProcessor {
                 .startOutgoingCall(handle, phoneAccountHandle, clientExtras, initiatingUser,
                         intent, callingPackage);
 
+        final long userIntentReceivedTime = intent.getLongExtra(KEY_USER_INTENT_RECEIVED_TIME, -1);
         final Session logSubsession = Log.createSubsession();
         callFuture.thenAccept((call) -> {
             if (call != null) {
                 Log.continueSession(logSubsession, "CIP.sNOCI");
                 try {
+                    // The intent may have come from another process; ignore a time later than
+                    // ours rather than trust it.
+                    if (userIntentReceivedTime <= processingStartTime) {
+                        call.markSetupStage(CallSetupTimer.USER_INTENT_RECEIVED,
+                                userIntentReceivedTime);
+                    }
+                    call.markSetupStage(CallSetupTimer.INTENT_PROCESSING_STARTED,
+                            processingStartTime);
                     broadcaster.processCall(call, disposition);
                 } finally {
                     Log.endSession();
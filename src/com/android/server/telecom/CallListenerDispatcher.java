@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches {@link Call.Listener} callbacks to only the listeners which handle them.
+ *
+ * Most listeners extend {@link Call.ListenerBase} and override a few callbacks, so calling every
+ * listener for every event mostly makes calls to empty methods. When a listener is added, the
+ * callbacks its class overrides are found (once per class) and it is added to the subscribers of
+ * just those events; listeners which don't extend {@link Call.ListenerBase} are subscribed to
+ * every event.
+ *
+ * Each event is identified by one of the constants below, named after its callback. The
+ * subscribers of an event are kept in an array which is replaced rather than modified when a
+ * listener is added or removed, so it may be iterated while listeners are added and removed, as
+ * with the concurrent set this replaces.
+ */
+public class CallListenerDispatcher {
+    private static final String[] EVENT_NAMES = getEventNames();
+    @VisibleForTesting
+    public static final int NUM_EVENTS = EVENT_NAMES.length;
+
+    // Event IDs, one for each Call.Listener callback.
+    public static final int ON_SUCCESSFUL_OUTGOING_CALL = getEventId("onSuccessfulOutgoingCall");
+    public static final int ON_FAILED_OUTGOING_CALL = getEventId("onFailedOutgoingCall");
+    public static final int ON_SUCCESSFUL_INCOMING_CALL = getEventId("onSuccessfulIncomingCall");
+    public static final int ON_FAILED_INCOMING_CALL = getEventId("onFailedIncomingCall");
+    public static final int ON_SUCCESSFUL_UNKNOWN_CALL = getEventId("onSuccessfulUnknownCall");
+    public static final int ON_FAILED_UNKNOWN_CALL = getEventId("onFailedUnknownCall");
+    public static final int ON_RINGBACK_REQUESTED = getEventId("onRingbackRequested");
+    public static final int ON_POST_DIAL_WAIT = getEventId("onPostDialWait");
+    public static final int ON_POST_DIAL_CHAR = getEventId("onPostDialChar");
+    public static final int ON_CONNECTION_CAPABILITIES_CHANGED =
+            getEventId("onConnectionCapabilitiesChanged");
+    public static final int ON_CONNECTION_PROPERTIES_CHANGED =
+            getEventId("onConnectionPropertiesChanged");
+    public static final int ON_PARENT_CHANGED = getEventId("onParentChanged");
+    public static final int ON_CHILDREN_CHANGED = getEventId("onChildrenChanged");
+    public static final int ON_CANNED_SMS_RESPONSES_LOADED =
+            getEventId("onCannedSmsResponsesLoaded");
+    public static final int ON_VIDEO_CALL_PROVIDER_CHANGED =
+            getEventId("onVideoCallProviderChanged");
+    public static final int ON_CALLER_INFO_CHANGED = getEventId("onCallerInfoChanged");
+    public static final int ON_IS_VOIP_AUDIO_MODE_CHANGED = getEventId("onIsVoipAudioModeChanged");
+    public static final int ON_STATUS_HINTS_CHANGED = getEventId("onStatusHintsChanged");
+    public static final int ON_EXTRAS_CHANGED = getEventId("onExtrasChanged");
+    public static final int ON_EXTRAS_REMOVED = getEventId("onExtrasRemoved");
+    public static final int ON_HANDLE_CHANGED = getEventId("onHandleChanged");
+    public static final int ON_CALLER_DISPLAY_NAME_CHANGED =
+            getEventId("onCallerDisplayNameChanged");
+    public static final int ON_CALL_DIRECTION_CHANGED = getEventId("onCallDirectionChanged");
+    public static final int ON_VIDEO_STATE_CHANGED = getEventId("onVideoStateChanged");
+    public static final int ON_TARGET_PHONE_ACCOUNT_CHANGED =
+            getEventId("onTargetPhoneAccountChanged");
+    public static final int ON_CONNECTION_MANAGER_PHONE_ACCOUNT_CHANGED =
+            getEventId("onConnectionManagerPhoneAccountChanged");
+    public static final int ON_PHONE_ACCOUNT_CHANGED = getEventId("onPhoneAccountChanged");
+    public static final int ON_CONFERENCEABLE_CALLS_CHANGED =
+            getEventId("onConferenceableCallsChanged");
+    public static final int ON_CONFERENCE_STATE_CHANGED = getEventId("onConferenceStateChanged");
+    public static final int ON_CDMA_CONFERENCE_SWAP = getEventId("onCdmaConferenceSwap");
+    public static final int ON_CANCELED_VIA_NEW_OUTGOING_CALL_BROADCAST =
+            getEventId("onCanceledViaNewOutgoingCallBroadcast");
+    public static final int ON_HOLD_TONE_REQUESTED = getEventId("onHoldToneRequested");
+    public static final int ON_CALL_HOLD_FAILED = getEventId("onCallHoldFailed");
+    public static final int ON_CALL_SWITCH_FAILED = getEventId("onCallSwitchFailed");
+    public static final int ON_CONNECTION_EVENT = getEventId("onConnectionEvent");
+    public static final int ON_EXTERNAL_CALL_CHANGED = getEventId("onExternalCallChanged");
+    public static final int ON_RTT_INITIATION_FAILURE = getEventId("onRttInitiationFailure");
+    public static final int ON_REMOTE_RTT_REQUEST = getEventId("onRemoteRttRequest");
+    public static final int ON_HANDOVER_REQUESTED = getEventId("onHandoverRequested");
+    public static final int ON_HANDOVER_FAILED = getEventId("onHandoverFailed");
+    public static final int ON_HANDOVER_COMPLETE = getEventId("onHandoverComplete");
+
+    private static final Call.Listener[] NO_LISTENERS = new Call.Listener[0];
+    /** The events each listener class subscribes to, indexed by event. */
+    private static final Map<Class<?>, boolean[]> sSubscriptionsByClass =
+            new ConcurrentHashMap<>();
+
+    // Guarded by this; all listeners in the order they were added.
+    private Call.Listener[] mListeners = NO_LISTENERS;
+    // The subscribers of each event, indexed by event.
+    private volatile Call.Listener[][] mSubscribers = newSubscribers();
+
+    /**
+     * Adds a listener, unless it has already been added.
+     */
+    public synchronized void add(Call.Listener listener) {
+        Objects.requireNonNull(listener);
+        if (indexOf(mListeners, listener) >= 0) {
+            return;
+        }
+        mListeners = append(mListeners, listener);
+        boolean[] subscriptions = getSubscriptions(listener.getClass());
+        Call.Listener[][] subscribers = mSubscribers.clone();
+        for (int event = 0; event < NUM_EVENTS; event++) {
+            if (subscriptions[event]) {
+                subscribers[event] = append(subscribers[event], listener);
+            }
+        }
+        mSubscribers = subscribers;
+    }
+
+    /**
+     * Removes a listener.
+     */
+    public synchronized void remove(Call.Listener listener) {
+        if (indexOf(mListeners, listener) < 0) {
+            return;
+        }
+        mListeners = without(mListeners, listener);
+        Call.Listener[][] subscribers = mSubscribers.clone();
+        for (int event = 0; event < NUM_EVENTS; event++) {
+            subscribers[event] = without(subscribers[event], listener);
+        }
+        mSubscribers = subscribers;
+    }
+
+    /**
+     * @param event The event, e.g. {@link #ON_EXTRAS_CHANGED}.
+     * @return The listeners subscribed to the event. Must not be modified.
+     */
+    public Call.Listener[] get(int event) {
+        return mSubscribers[event];
+    }
+
+    /**
+     * @return The number of listeners.
+     */
+    public synchronized int size() {
+        return mListeners.length;
+    }
+
+    /**
+     * @return The events a listener class subscribes to, indexed by event.
+     */
+    @VisibleForTesting
+    public static boolean[] getSubscriptions(Class<?> listenerClass) {
+        return sSubscriptionsByClass.computeIfAbsent(listenerClass,
+                CallListenerDispatcher::findSubscriptions);
+    }
+
+    private static boolean[] findSubscriptions(Class<?> listenerClass) {
+        boolean[] subscriptions = new boolean[NUM_EVENTS];
+        boolean isListenerBase = Call.ListenerBase.class.isAssignableFrom(listenerClass);
+        for (Method method : Call.Listener.class.getMethods()) {
+            int event = getEventId(method.getName());
+            if (!isListenerBase) {
+                subscriptions[event] = true;
+                continue;
+            }
+            try {
+                Method implementation = listenerClass.getMethod(method.getName(),
+                        method.getParameterTypes());
+                subscriptions[event] =
+                        implementation.getDeclaringClass() != Call.ListenerBase.class;
+            } catch (NoSuchMethodException | SecurityException e) {
+                // Can't tell whether it is overridden, so assume it is.
+                subscriptions[event] = true;
+            }
+        }
+        return subscriptions;
+    }
+
+    private static String[] getEventNames() {
+        Method[] methods = Call.Listener.class.getMethods();
+        String[] names = new String[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            names[i] = methods[i].getName();
+        }
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * @return The event ID of a {@link Call.Listener} callback.
+     */
+    private static int getEventId(String callbackName) {
+        int event = Arrays.binarySearch(EVENT_NAMES, callbackName);
+        if (event < 0) {
+            throw new IllegalArgumentException("Not a Call.Listener callback: " + callbackName);
+        }
+        return event;
+    }
+
+    private static Call.Listener[][] newSubscribers() {
+        Call.Listener[][] subscribers = new Call.Listener[NUM_EVENTS][];
+        Arrays.fill(subscribers, NO_LISTENERS);
+        return subscribers;
+    }
+
+    private static int indexOf(Call.Listener[] listeners, Call.Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Call.Listener[] append(Call.Listener[] listeners, Call.Listener listener) {
+        Call.Listener[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        return result;
+    }
+
+    private static Call.Listener[] without(Call.Listener[] listeners, Call.Listener listener) {
+        int index = indexOf(listeners, listener);
+        if (index < 0) {
+            return listeners;
+        }
+        if (listeners.length == 1) {
+            return NO_LISTENERS;
+        }
+        Call.Listener[] result = new Call.Listener[listeners.length - 1];
+        System.arraycopy(listeners, 0, result, 0, index);
+        System.arraycopy(listeners, index + 1, result, index, result.length - index);
+        return result;
+    }
+}
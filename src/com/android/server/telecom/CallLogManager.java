@@ -19,34 +19,58 @@ package com.android.server.telecom;
 import static android.telephony.CarrierConfigManager.KEY_SUPPORT_IMS_CONFERENCE_EVENT_PACKAGE_BOOL;
 
 import android.annotation.Nullable;
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.UserInfo;
+import android.database.Cursor;
 import android.location.Country;
 import android.location.CountryDetector;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.UserHandle;
+import android.os.UserManager;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.provider.CallLog.Calls;
+import android.provider.ContactsContract.CommonDataKinds.Callable;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Data;
 import android.telecom.Connection;
 import android.telecom.DisconnectCause;
 import android.telecom.Log;
+import android.telecom.Logging.Runnable;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.VideoProfile;
 import android.telephony.CarrierConfigManager;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SubscriptionManager;
+import android.text.TextUtils;
+import android.util.Pair;
 
 // TODO: Needed for move to system service: import com.android.internal.R;
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import android.telecom.CallerInfo;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Stream;
 
 /**
@@ -150,6 +174,58 @@ public final class CallLogManager extends CallsManagerListenerBase {
     private Object mLock;
     private String mCurrentCountryIso;
 
+    /**
+     * How long a logged call waits to be written, so that calls logged together (e.g. the
+     * participants of a conference which ended) are written in one batch.
+     */
+    private static final long WRITE_BATCH_WINDOW_MILLIS = 20;
+
+    /**
+     * The number of entries kept for each phone account when a batch is written; older entries
+     * are removed. Matches {@link Calls#addCall}.
+     */
+    private static final int MAX_ENTRIES_PER_ACCOUNT = 500;
+
+    /**
+     * The minimum duration of an outgoing call for the contact's normalized number to be filled
+     * in from the number which was dialed.
+     */
+    private static final int MIN_DURATION_FOR_NORMALIZED_NUMBER_UPDATE_SECONDS = 10;
+
+    /** A call waiting to be written to the call log. */
+    private static class PendingWrite {
+        final AddCallArgs mArgs;
+        final long mEnqueueTimeMillis;
+        // The URI of the entry for the user Telecom runs as, or null if it was not written.
+        Uri mResult;
+
+        PendingWrite(AddCallArgs args, long enqueueTimeMillis) {
+            mArgs = args;
+            mEnqueueTimeMillis = enqueueTimeMillis;
+        }
+    }
+
+    /** The rows of a batch which go to the call log of one user. */
+    private static class UserBatch {
+        final List<PendingWrite> mWrites = new ArrayList<>();
+        final List<ContentValues> mRows = new ArrayList<>();
+        // Whether the URI of each row is the result of its PendingWrite.
+        final List<Boolean> mIsResult = new ArrayList<>();
+    }
+
+    private final Handler mWriteHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // The calls waiting to be written, oldest first; also guards the statistics below.
+    private final ArrayDeque<PendingWrite> mPendingWrites = new ArrayDeque<>();
+    private boolean mIsWriteScheduled;
+    private int mWriteBatches;
+    private int mWrittenCalls;
+    private int mFailedWrites;
+    private int mMaxBatchSize;
+    private long mTotalQueueLatencyMillis;
+    private long mMaxQueueLatencyMillis;
+    private long mLastWriteTimeMillis;
+
     public CallLogManager(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
             MissedCallNotifier missedCallNotifier) {
         mContext = context;
@@ -158,6 +234,10 @@ public final class CallLogManager extends CallsManagerListenerBase {
         mPhoneAccountRegistrar = phoneAccountRegistrar;
         mMissedCallNotifier = missedCallNotifier;
         mLock = new Object();
+
+        HandlerThread writeThread = new HandlerThread("CallLogWriter");
+        writeThread.start();
+        mWriteHandler = new Handler(writeThread.getLooper());
     }
 
     @Override
@@ -524,99 +604,375 @@ public final class CallLogManager extends CallsManagerListenerBase {
     }
 
     /**
-     * Adds the call defined by the parameters in the provided AddCallArgs to the CallLogProvider
-     * using an AsyncTask to avoid blocking the main thread.
+     * Adds the call defined by the parameters in the provided AddCallArgs to the CallLogProvider.
+     * The call is queued and written on {@link #mWriteHandler} to avoid blocking the main thread;
+     * calls logged in quick succession are written together, in the order they were logged, and
+     * their {@link LogCallCompletedListener}s are called on the main thread in the same order.
      *
      * @param args Prepopulated call details.
-     * @return A handle to the AsyncTask that will add the call to the call log asynchronously.
      */
-    public AsyncTask<AddCallArgs, Void, Uri[]> logCallAsync(AddCallArgs args) {
-        return new LogCallAsyncTask().execute(args);
+    public void logCallAsync(AddCallArgs args) {
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(new PendingWrite(args, SystemClock.elapsedRealtime()));
+            if (!mIsWriteScheduled) {
+                mIsWriteScheduled = true;
+                mWriteHandler.postDelayed(new Runnable("CLM.lCA", null /*lock*/) {
+                    @Override
+                    public void loggedRun() {
+                        writePendingCalls();
+                    }
+                }.prepare(), WRITE_BATCH_WINDOW_MILLIS);
+            }
+        }
     }
 
     /**
-     * Helper AsyncTask to access the call logs database asynchronously since database operations
-     * can take a long time depending on the system's load. Since it extends AsyncTask, it uses
-     * its own thread pool.
+     * Writes the queued calls to the call log; runs on {@link #mWriteHandler}.
+     *
+     * The rows are built and fanned out to users the same way {@link Calls#addCall} does it, and
+     * the rows for each user are written with a single {@link ContentResolver#applyBatch}.
      */
-    private class LogCallAsyncTask extends AsyncTask<AddCallArgs, Void, Uri[]> {
-
-        private LogCallCompletedListener[] mListeners;
-
-        @Override
-        protected Uri[] doInBackground(AddCallArgs... callList) {
-            int count = callList.length;
-            Uri[] result = new Uri[count];
-            mListeners = new LogCallCompletedListener[count];
-            for (int i = 0; i < count; i++) {
-                AddCallArgs c = callList[i];
-                mListeners[i] = c.logCallCompletedListener;
-                try {
-                    // May block.
-                    result[i] = addCall(c);
-                } catch (Exception e) {
-                    // This is very rare but may happen in legitimate cases.
-                    // E.g. If the phone is encrypted and thus write request fails, it may cause
-                    // some kind of Exception (right now it is IllegalArgumentException, but this
-                    // might change).
-                    //
-                    // We don't want to crash the whole process just because of that, so just log
-                    // it instead.
-                    Log.e(TAG, e, "Exception raised during adding CallLog entry.");
-                    result[i] = null;
-                }
+    private void writePendingCalls() {
+        final PendingWrite[] batch;
+        synchronized (mPendingWrites) {
+            batch = mPendingWrites.toArray(new PendingWrite[mPendingWrites.size()]);
+            mPendingWrites.clear();
+            mIsWriteScheduled = false;
+        }
+
+        long writeStartTime = SystemClock.elapsedRealtime();
+        long maxQueueLatencyMillis = 0;
+        long totalQueueLatencyMillis = 0;
+        // Keyed by the call log URI of each user, in the order the users are first written to.
+        Map<Uri, UserBatch> userBatches = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            long queueLatencyMillis = writeStartTime - write.mEnqueueTimeMillis;
+            maxQueueLatencyMillis = Math.max(maxQueueLatencyMillis, queueLatencyMillis);
+            totalQueueLatencyMillis += queueLatencyMillis;
+            try {
+                addToUserBatches(write, userBatches);
+            } catch (Exception e) {
+                Log.e(TAG, e, "Exception raised during preparing CallLog entry.");
+            }
+        }
+
+        for (Map.Entry<Uri, UserBatch> entry : userBatches.entrySet()) {
+            writeUserBatch(entry.getKey(), entry.getValue());
+        }
+
+        int failures = 0;
+        for (PendingWrite write : batch) {
+            if (write.mResult == null) {
+                failures++;
             }
-            return result;
-        }
-
-        private Uri addCall(AddCallArgs c) {
-            PhoneAccount phoneAccount = mPhoneAccountRegistrar
-                    .getPhoneAccountUnchecked(c.accountHandle);
-            if (phoneAccount != null &&
-                    phoneAccount.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER)) {
-                if (c.initiatingUser != null &&
-                        UserUtil.isManagedProfile(mContext, c.initiatingUser)) {
-                    return addCall(c, c.initiatingUser);
-                } else {
-                    return addCall(c, null);
+        }
+        synchronized (mPendingWrites) {
+            mWriteBatches++;
+            mWrittenCalls += batch.length;
+            mFailedWrites += failures;
+            mMaxBatchSize = Math.max(mMaxBatchSize, batch.length);
+            mTotalQueueLatencyMillis += totalQueueLatencyMillis;
+            mMaxQueueLatencyMillis = Math.max(mMaxQueueLatencyMillis, maxQueueLatencyMillis);
+            mLastWriteTimeMillis = SystemClock.elapsedRealtime() - writeStartTime;
+        }
+
+        mMainHandler.post(new Runnable("CLM.wPC", null /*lock*/) {
+            @Override
+            public void loggedRun() {
+                for (PendingWrite write : batch) {
+                    Uri uri = write.mResult;
+                    /*
+                     Performs a simple sanity check to make sure the call was written in the
+                     database. Typically there is only one result per call so it is easy to
+                     identify which one failed.
+                     */
+                    if (uri == null) {
+                        Log.w(TAG, "Failed to write call to the log.");
+                    }
+                    if (write.mArgs.logCallCompletedListener != null) {
+                        write.mArgs.logCallCompletedListener.onLogCompleted(uri);
+                    }
                 }
+            }
+        }.prepare());
+    }
+
+    /**
+     * Adds the row of a call to the batch of each user whose call log it goes to.
+     *
+     * A call is written to the user it belongs to; calls on a multi-user phone account which were
+     * not placed from a managed profile go to all users. As in {@link Calls#addCall}:
+     * <ul>
+     *     <li>An entry for all users is written to the system user, and to every other running
+     *     and unlocked user which shares call log entries. If the system user is locked, it is
+     *     only written to the system user's shadow call log; other users copy it when unlocked.
+     *     </li>
+     *     <li>An entry for a single user which is locked goes to that user's shadow call log.
+     *     </li>
+     * </ul>
+     */
+    private void addToUserBatches(PendingWrite write, Map<Uri, UserBatch> userBatches) {
+        AddCallArgs c = write.mArgs;
+        PhoneAccount phoneAccount = mPhoneAccountRegistrar
+                .getPhoneAccountUnchecked(c.accountHandle);
+        UserHandle userToBeInserted;
+        if (phoneAccount != null &&
+                phoneAccount.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER)) {
+            if (c.initiatingUser != null &&
+                    UserUtil.isManagedProfile(mContext, c.initiatingUser)) {
+                userToBeInserted = c.initiatingUser;
             } else {
-                return addCall(c, c.accountHandle == null ? null : c.accountHandle.getUserHandle());
+                userToBeInserted = null;
+            }
+        } else {
+            userToBeInserted = c.accountHandle == null ? null : c.accountHandle.getUserHandle();
+        }
+        boolean addForAllUsers = userToBeInserted == null;
+        ContentValues values = buildCallLogValues(c, phoneAccount, addForAllUsers);
+        updateContactNormalizedNumber(c);
+
+        UserManager userManager = mContext.getSystemService(UserManager.class);
+        int currentUserId = mContext.getUserId();
+        if (!addForAllUsers) {
+            addToUserBatch(userBatches, getCallLogUri(userManager, userToBeInserted), write,
+                    values, true /* isResult */);
+            return;
+        }
+
+        boolean isSystemUnlocked = userManager.isUserUnlocked(UserHandle.SYSTEM);
+        // An entry only written to the system user's shadow call log has no result.
+        addToUserBatch(userBatches, getCallLogUri(userManager, UserHandle.SYSTEM), write, values,
+                isSystemUnlocked && currentUserId == UserHandle.USER_SYSTEM);
+        if (!isSystemUnlocked) {
+            // Other users are still locked too.
+            return;
+        }
+        for (UserInfo userInfo : userManager.getUsers(true /* excludeDying */)) {
+            UserHandle userHandle = userInfo.getUserHandle();
+            if (userHandle.isSystem()
+                    || !Calls.shouldHaveSharedCallLogEntries(mContext, userManager,
+                            userHandle.getIdentifier())) {
+                continue;
+            }
+            // Users which are not running or unlocked copy the entry from the system user when
+            // they are unlocked.
+            if (userManager.isUserRunning(userHandle) && userManager.isUserUnlocked(userHandle)) {
+                addToUserBatch(userBatches, getCallLogUri(userManager, userHandle), write, values,
+                        userHandle.getIdentifier() == currentUserId);
             }
         }
+    }
 
-        /**
-         * Insert the call to a specific user or all users except managed profile.
-         * @param c context
-         * @param userToBeInserted user handle of user that the call going be inserted to. null
-         *                         if insert to all users except managed profile.
-         */
-        private Uri addCall(AddCallArgs c, UserHandle userToBeInserted) {
-            return Calls.addCall(c.callerInfo, c.context, c.number, c.postDialDigits, c.viaNumber,
-                    c.presentation, c.callType, c.features, c.accountHandle, c.timestamp,
-                    c.durationInSec, c.dataUsage, userToBeInserted == null,
-                    userToBeInserted, c.isRead, c.callBockReason, c.callScreeningAppName,
-                    c.callScreeningComponentName);
-        }
-
-
-        @Override
-        protected void onPostExecute(Uri[] result) {
-            for (int i = 0; i < result.length; i++) {
-                Uri uri = result[i];
-                /*
-                 Performs a simple sanity check to make sure the call was written in the database.
-                 Typically there is only one result per call so it is easy to identify which one
-                 failed.
-                 */
-                if (uri == null) {
-                    Log.w(TAG, "Failed to write call to the log.");
-                }
-                if (mListeners[i] != null) {
-                    mListeners[i].onLogCompleted(uri);
+    private void addToUserBatch(Map<Uri, UserBatch> userBatches, Uri uri, PendingWrite write,
+            ContentValues values, boolean isResult) {
+        UserBatch userBatch = userBatches.get(uri);
+        if (userBatch == null) {
+            userBatch = new UserBatch();
+            userBatches.put(uri, userBatch);
+        }
+        userBatch.mWrites.add(write);
+        userBatch.mRows.add(values);
+        userBatch.mIsResult.add(isResult);
+    }
+
+    /**
+     * @return The call log URI of a user; its shadow call log if the user is locked.
+     */
+    private Uri getCallLogUri(UserManager userManager, UserHandle user) {
+        return ContentProvider.maybeAddUserId(userManager.isUserUnlocked(user)
+                ? Calls.CONTENT_URI : Calls.SHADOW_CONTENT_URI, user.getIdentifier());
+    }
+
+    /**
+     * Writes the rows of one user with a single batch, which also removes the entries over
+     * {@link #MAX_ENTRIES_PER_ACCOUNT} of each phone account written to. If the batch fails, the
+     * rows are inserted one by one so that a single rejected row does not lose the others.
+     */
+    private void writeUserBatch(Uri uri, UserBatch userBatch) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues row : userBatch.mRows) {
+            operations.add(ContentProviderOperation.newInsert(uri).withValues(row).build());
+        }
+        Set<Pair<String, String>> accounts = new LinkedHashSet<>();
+        for (ContentValues row : userBatch.mRows) {
+            accounts.add(new Pair<>(row.getAsString(Calls.PHONE_ACCOUNT_COMPONENT_NAME),
+                    row.getAsString(Calls.PHONE_ACCOUNT_ID)));
+        }
+        for (Pair<String, String> account : accounts) {
+            operations.add(buildRemoveExpiredEntriesOperation(uri, account.first,
+                    account.second));
+        }
+
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri[] results = new Uri[userBatch.mRows.size()];
+        try {
+            // May block.
+            ContentProviderResult[] batchResults = resolver.applyBatch(uri.getAuthority(),
+                    operations);
+            for (int i = 0; i < results.length; i++) {
+                results[i] = batchResults[i].uri;
+            }
+        } catch (Exception e) {
+            // This is very rare but may happen in legitimate cases.
+            // E.g. If the user was just stopped, the write request fails with an
+            // IllegalArgumentException, but this might change.
+            //
+            // We don't want to crash the whole process just because of that, so just log
+            // it instead.
+            Log.e(TAG, e, "Exception raised during adding CallLog entries; inserting one by one.");
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = resolver.insert(uri, userBatch.mRows.get(i));
+                } catch (Exception e2) {
+                    Log.e(TAG, e2, "Exception raised during adding CallLog entry.");
                 }
             }
         }
+
+        for (int i = 0; i < results.length; i++) {
+            // An app ops denial is a "silent rejection" with a fake call ID of 0.
+            if (results[i] != null && "0".equals(results[i].getLastPathSegment())) {
+                Log.w(TAG, "Failed to insert into call log due to appops denial; result="
+                        + results[i]);
+            }
+            if (userBatch.mIsResult.get(i)) {
+                userBatch.mWrites.get(i).mResult = results[i];
+            }
+        }
+    }
+
+    private ContentProviderOperation buildRemoveExpiredEntriesOperation(Uri uri,
+            String accountComponentString, String accountId) {
+        String expiredIds = " ORDER BY " + Calls.DEFAULT_SORT_ORDER
+                + " LIMIT -1 OFFSET " + MAX_ENTRIES_PER_ACCOUNT + ")";
+        if (TextUtils.isEmpty(accountComponentString) || TextUtils.isEmpty(accountId)) {
+            // No valid phone account, so remove the oldest entries of any account.
+            return ContentProviderOperation.newDelete(uri)
+                    .withSelection("_id IN (SELECT _id FROM calls" + expiredIds, null)
+                    .build();
+        }
+        // Only remove entries of the same phone account, so that a misbehaving self-managed
+        // ConnectionService cannot cause the entries of other accounts to be removed.
+        return ContentProviderOperation.newDelete(uri)
+                .withSelection("_id IN (SELECT _id FROM calls"
+                        + " WHERE " + Calls.PHONE_ACCOUNT_COMPONENT_NAME + " = ?"
+                        + " AND " + Calls.PHONE_ACCOUNT_ID + " = ?" + expiredIds,
+                        new String[] {accountComponentString, accountId})
+                .build();
+    }
+
+    /**
+     * Builds the call log row of a call, as {@link Calls#addCall} does.
+     */
+    private ContentValues buildCallLogValues(AddCallArgs c, PhoneAccount phoneAccount,
+            boolean addForAllUsers) {
+        int numberPresentation = getLogNumberPresentation(c.number, c.presentation);
+        String number = c.number;
+        String name = c.callerInfo != null ? c.callerInfo.getName() : "";
+        if (numberPresentation != Calls.PRESENTATION_ALLOWED) {
+            number = "";
+            name = "";
+        }
+
+        String accountComponentString = null;
+        String accountId = null;
+        if (c.accountHandle != null) {
+            accountComponentString = c.accountHandle.getComponentName().flattenToString();
+            accountId = c.accountHandle.getId();
+        }
+        String accountAddress = null;
+        if (phoneAccount != null && phoneAccount.getSubscriptionAddress() != null) {
+            accountAddress = phoneAccount.getSubscriptionAddress().getSchemeSpecificPart();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(Calls.NUMBER, number);
+        values.put(Calls.POST_DIAL_DIGITS, c.postDialDigits);
+        values.put(Calls.VIA_NUMBER, c.viaNumber);
+        values.put(Calls.NUMBER_PRESENTATION, numberPresentation);
+        values.put(Calls.TYPE, c.callType);
+        values.put(Calls.FEATURES, c.features);
+        values.put(Calls.DATE, c.timestamp);
+        values.put(Calls.DURATION, (long) c.durationInSec);
+        if (c.dataUsage != null) {
+            values.put(Calls.DATA_USAGE, c.dataUsage);
+        }
+        values.put(Calls.PHONE_ACCOUNT_COMPONENT_NAME, accountComponentString);
+        values.put(Calls.PHONE_ACCOUNT_ID, accountId);
+        values.put(Calls.PHONE_ACCOUNT_ADDRESS, accountAddress);
+        values.put(Calls.NEW, 1);
+        values.put(Calls.CACHED_NAME, name);
+        values.put(Calls.ADD_FOR_ALL_USERS, addForAllUsers ? 1 : 0);
+        if (c.callType == Calls.MISSED_TYPE) {
+            values.put(Calls.IS_READ, c.isRead ? 1 : 0);
+        }
+        values.put(Calls.BLOCK_REASON, c.callBockReason);
+        values.put(Calls.CALL_SCREENING_APP_NAME, c.callScreeningAppName == null
+                ? null : c.callScreeningAppName.toString());
+        values.put(Calls.CALL_SCREENING_COMPONENT_NAME, c.callScreeningComponentName);
+        return values;
+    }
+
+    private static int getLogNumberPresentation(String number, int presentation) {
+        if (presentation == Calls.PRESENTATION_RESTRICTED
+                || presentation == Calls.PRESENTATION_PAYPHONE) {
+            return presentation;
+        }
+        if (TextUtils.isEmpty(number) || presentation == Calls.PRESENTATION_UNKNOWN) {
+            return Calls.PRESENTATION_UNKNOWN;
+        }
+        return Calls.PRESENTATION_ALLOWED;
+    }
+
+    /**
+     * Fills in the normalized number of the contact's phone number from the number dialed on an
+     * outgoing call to it, as {@link Calls#addCall} does.
+     */
+    private void updateContactNormalizedNumber(AddCallArgs c) {
+        CallerInfo ci = c.callerInfo;
+        if (ci == null || ci.getContactId() <= 0 || c.callType != Calls.OUTGOING_TYPE
+                || c.durationInSec < MIN_DURATION_FOR_NORMALIZED_NUMBER_UPDATE_SECONDS
+                || !TextUtils.isEmpty(ci.normalizedNumber) || TextUtils.isEmpty(c.number)) {
+            return;
+        }
+        String countryIso = getCountryIso();
+        String normalizedNumber = TextUtils.isEmpty(countryIso) ? null
+                : PhoneNumberUtils.formatNumberToE164(c.number, countryIso);
+        if (TextUtils.isEmpty(normalizedNumber)) {
+            return;
+        }
+
+        // Other contacts may have the same number, so match on the contact ID as well.
+        ContentResolver resolver = mContext.getContentResolver();
+        String phoneNumber = ci.phoneNumber != null ? ci.phoneNumber : c.number;
+        try (Cursor cursor = resolver.query(
+                Uri.withAppendedPath(Callable.CONTENT_FILTER_URI, Uri.encode(phoneNumber)),
+                new String[] {Phone._ID}, Phone.CONTACT_ID + " =?",
+                new String[] {String.valueOf(ci.getContactId())}, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return;
+            }
+            ContentValues values = new ContentValues();
+            values.put(Phone.NORMALIZED_NUMBER, normalizedNumber);
+            resolver.update(Data.CONTENT_URI, values, Data._ID + "=?",
+                    new String[] {cursor.getString(0)});
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to update the contact's normalized number: " + e);
+        }
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mPendingWrites) {
+            pw.println("pendingWrites: " + mPendingWrites.size()
+                    + ", batches: " + mWriteBatches
+                    + ", writtenCalls: " + mWrittenCalls
+                    + ", failedWrites: " + mFailedWrites
+                    + ", maxBatchSize: " + mMaxBatchSize);
+            pw.println("avgQueueLatencyMillis: "
+                    + (mWrittenCalls == 0 ? 0 : mTotalQueueLatencyMillis / mWrittenCalls)
+                    + ", maxQueueLatencyMillis: " + mMaxQueueLatencyMillis
+                    + ", lastBatchWriteMillis: " + mLastWriteTimeMillis);
+        }
     }
 
     private void sendAddCallBroadcast(int callType, long duration) {
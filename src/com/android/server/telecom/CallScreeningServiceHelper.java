@@ -86,13 +86,15 @@ public class CallScreeningServiceHelper {
     private final UserHandle mUserHandle;
     private final Context mContext;
     private final AppLabelProxy mAppLabelProxy;
+    private final PermissionDecisionCache mPermissionDecisionCache;
     private final Session mLoggingSession;
     private CompletableFuture mFuture;
     private String mPackageName;
 
     public CallScreeningServiceHelper(Context context, TelecomSystem.SyncRoot telecomLock,
             String packageName, ParcelableCallUtils.Converter converter,
-            UserHandle userHandle, Call call, AppLabelProxy appLabelProxy) {
+            UserHandle userHandle, Call call, AppLabelProxy appLabelProxy,
+            PermissionDecisionCache permissionDecisionCache) {
         mContext = context;
         mTelecomLock = telecomLock;
         mParcelableCallUtilsConverter = converter;
@@ -100,6 +102,7 @@ public class CallScreeningServiceHelper {
         mUserHandle = userHandle;
         mPackageName = packageName;
         mAppLabelProxy = appLabelProxy;
+        mPermissionDecisionCache = permissionDecisionCache;
         mLoggingSession = Log.createSubsession();
     }
 
@@ -158,9 +161,10 @@ public class CallScreeningServiceHelper {
             }
         };
 
-        if (!bindCallScreeningService(mContext, mUserHandle, mPackageName, serviceConnection)) {
+        if (!bindCallScreeningService(mContext, mUserHandle, mPackageName, serviceConnection,
+                mPermissionDecisionCache)) {
             Log.i(this, "bindAndGetCallIdentification - bind failed");
-            Log.addEvent(mCall, LogUtils.Events.BIND_SCREENING, mPackageName);
+            LogUtils.addEvent(mCall, LogUtils.Events.BIND_SCREENING, mPackageName);
             mFuture.complete(null);
         }
 
@@ -188,49 +192,70 @@ public class CallScreeningServiceHelper {
      * @param userHandle User to bind as.
      * @param packageName Package name of the {@link CallScreeningService}.
      * @param serviceConnection The {@link ServiceConnection} to be notified of binding.
+     * @param permissionDecisionCache Caches the service found in the package.
      * @return {@code true} if binding succeeds, {@code false} otherwise.
      */
     public static boolean bindCallScreeningService(Context context, UserHandle userHandle,
-            String packageName, ServiceConnection serviceConnection) {
+            String packageName, ServiceConnection serviceConnection,
+            PermissionDecisionCache permissionDecisionCache) {
         if (TextUtils.isEmpty(packageName)) {
             Log.i(TAG, "PackageName is empty. Not performing call screening.");
             return false;
         }
 
+        ComponentName componentName = permissionDecisionCache.getCallScreeningService(context,
+                packageName, userHandle);
+        if (componentName == null) {
+            return false;
+        }
+
+        Intent intent = new Intent(CallScreeningService.SERVICE_INTERFACE)
+                .setPackage(packageName)
+                .setComponent(componentName);
+        if (context.bindServiceAsUser(
+                intent,
+                serviceConnection,
+                Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE,
+                UserHandle.CURRENT)) {
+            Log.d(TAG, "bindService, found service, waiting for it to connect");
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the {@link CallScreeningService} of a package, which must require the
+     * {@link Manifest.permission#BIND_SCREENING_SERVICE} permission.
+     * @param context The current context.
+     * @param packageName Package name of the {@link CallScreeningService}.
+     * @param userHandle User to find the service for.
+     * @return The service, or {@code null} if the package has no valid one.
+     */
+    public static ComponentName resolveCallScreeningService(Context context, String packageName,
+            UserHandle userHandle) {
         Intent intent = new Intent(CallScreeningService.SERVICE_INTERFACE)
                 .setPackage(packageName);
         List<ResolveInfo> entries = context.getPackageManager().queryIntentServicesAsUser(
                 intent, 0, userHandle.getIdentifier());
         if (entries.isEmpty()) {
             Log.i(TAG, packageName + " has no call screening service defined.");
-            return false;
+            return null;
         }
 
         ResolveInfo entry = entries.get(0);
         if (entry.serviceInfo == null) {
             Log.w(TAG, packageName + " call screening service has invalid service info");
-            return false;
+            return null;
         }
 
         if (entry.serviceInfo.permission == null || !entry.serviceInfo.permission.equals(
                 Manifest.permission.BIND_SCREENING_SERVICE)) {
             Log.w(TAG, "CallScreeningService must require BIND_SCREENING_SERVICE permission: " +
                     entry.serviceInfo.packageName);
-            return false;
-        }
-
-        ComponentName componentName =
-                new ComponentName(entry.serviceInfo.packageName, entry.serviceInfo.name);
-        intent.setComponent(componentName);
-        if (context.bindServiceAsUser(
-                intent,
-                serviceConnection,
-                Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE,
-                UserHandle.CURRENT)) {
-            Log.d(TAG, "bindService, found service, waiting for it to connect");
-            return true;
+            return null;
         }
 
-        return false;
+        return new ComponentName(entry.serviceInfo.packageName, entry.serviceInfo.name);
     }
 }
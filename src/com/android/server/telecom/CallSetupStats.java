@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates the stage timings of calls recorded by {@link CallSetupTimer}, separately for
+ * outgoing and incoming calls.
+ *
+ * The time for a stage is the time since the previous stage the call reached, so the stages of a
+ * call add up to the time taken to set it up, which is kept as {@link #TOTAL}. The times of each
+ * stage are kept in a {@link Log2Histogram} in milliseconds.
+ */
+public class CallSetupStats {
+    /** The time from the first stage a call reached to the last stage of setting it up. */
+    public static final int TOTAL = CallSetupTimer.NUM_STAGES;
+
+    @VisibleForTesting
+    public static final int NUM_BUCKETS = 20;
+
+    // Timings indexed by stage, with the total last.
+    private final Log2Histogram[] mOutgoing = new Log2Histogram[TOTAL + 1];
+    private final Log2Histogram[] mIncoming = new Log2Histogram[TOTAL + 1];
+
+    /**
+     * Adds the stage timings of a call. Stages the call did not reach are skipped; the total is
+     * only added if the call reached the last stage and at least one before it.
+     *
+     * @param direction The direction of the call, e.g. {@link Analytics#OUTGOING_DIRECTION}.
+     * @param timer The stage timings of the call.
+     */
+    public synchronized void add(int direction, CallSetupTimer timer) {
+        int[] stages;
+        Log2Histogram[] timings;
+        if (direction == Analytics.OUTGOING_DIRECTION) {
+            stages = CallSetupTimer.OUTGOING_STAGES;
+            timings = mOutgoing;
+        } else if (direction == Analytics.INCOMING_DIRECTION) {
+            stages = CallSetupTimer.INCOMING_STAGES;
+            timings = mIncoming;
+        } else {
+            return;
+        }
+        long firstTime = -1;
+        long previousTime = -1;
+        int numReached = 0;
+        for (int stage : stages) {
+            long time = timer.getStageTime(stage);
+            if (time < 0) {
+                continue;
+            }
+            if (previousTime < 0) {
+                firstTime = time;
+            } else {
+                record(timings, stage, time - previousTime);
+            }
+            previousTime = time;
+            numReached++;
+        }
+        long finalTime = timer.getStageTime(stages[stages.length - 1]);
+        if (numReached > 1 && finalTime >= 0) {
+            record(timings, TOTAL, finalTime - firstTime);
+        }
+    }
+
+    /**
+     * @return The number of calls timed for a stage, or for {@link #TOTAL}.
+     */
+    @VisibleForTesting
+    public synchronized int getCount(int direction, int stage) {
+        Log2Histogram timings = getTimings(direction, stage);
+        return timings == null ? 0 : timings.getCount();
+    }
+
+    /**
+     * Estimates a percentile of the times for a stage; see {@link Log2Histogram#getPercentile}.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated time in milliseconds, or -1 if there are none recorded.
+     */
+    @VisibleForTesting
+    public synchronized long getPercentileMillis(int direction, int stage, int percentile) {
+        Log2Histogram timings = getTimings(direction, stage);
+        return timings == null ? -1 : timings.getPercentile(percentile);
+    }
+
+    public synchronized void clear() {
+        for (int stage = 0; stage <= TOTAL; stage++) {
+            mOutgoing[stage] = null;
+            mIncoming[stage] = null;
+        }
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("Outgoing:");
+        dump(pw, mOutgoing, CallSetupTimer.OUTGOING_STAGES);
+        pw.println("Incoming:");
+        dump(pw, mIncoming, CallSetupTimer.INCOMING_STAGES);
+    }
+
+    /**
+     * @return The timings in the form used by the analytics proto.
+     */
+    public synchronized TelecomLogClass.CallSetupStage[] toProto() {
+        List<TelecomLogClass.CallSetupStage> result = new ArrayList<>();
+        addProtos(result, Analytics.OUTGOING_DIRECTION, mOutgoing);
+        addProtos(result, Analytics.INCOMING_DIRECTION, mIncoming);
+        return result.toArray(new TelecomLogClass.CallSetupStage[result.size()]);
+    }
+
+    private void dump(IndentingPrintWriter pw, Log2Histogram[] timings, int[] stages) {
+        pw.increaseIndent();
+        for (int stage : stages) {
+            dump(pw, CallSetupTimer.getStageName(stage), timings[stage]);
+        }
+        dump(pw, "total", timings[TOTAL]);
+        pw.decreaseIndent();
+    }
+
+    private void dump(IndentingPrintWriter pw, String name, Log2Histogram timings) {
+        if (timings == null) {
+            return;
+        }
+        pw.println(name + ": count=" + timings.getCount()
+                + ", avgMs=" + timings.getTotal() / timings.getCount()
+                + ", p50Ms=" + timings.getPercentile(50)
+                + ", p90Ms=" + timings.getPercentile(90)
+                + ", p99Ms=" + timings.getPercentile(99)
+                + ", maxMs=" + timings.getMax());
+    }
+
+    private static void addProtos(List<TelecomLogClass.CallSetupStage> result, int direction,
+            Log2Histogram[] timingsByStage) {
+        for (int stage = 0; stage <= TOTAL; stage++) {
+            Log2Histogram timings = timingsByStage[stage];
+            if (timings == null) {
+                continue;
+            }
+            // The proto's call types match the analytics directions, and its stages are offset by
+            // one to leave 0 unspecified.
+            TelecomLogClass.CallSetupStage proto = new TelecomLogClass.CallSetupStage()
+                    .setCallType(direction)
+                    .setStage(stage + 1)
+                    .setCount(timings.getCount())
+                    .setTotalMillis(timings.getTotal())
+                    .setMaxMillis(timings.getMax());
+            proto.bucketCounts = timings.getBucketCounts();
+            result.add(proto);
+        }
+    }
+
+    private Log2Histogram getTimings(int direction, int stage) {
+        if (direction == Analytics.OUTGOING_DIRECTION) {
+            return mOutgoing[stage];
+        } else if (direction == Analytics.INCOMING_DIRECTION) {
+            return mIncoming[stage];
+        }
+        return null;
+    }
+
+    private static void record(Log2Histogram[] timingsByStage, int stage, long elapsedMillis) {
+        Log2Histogram timings = timingsByStage[stage];
+        if (timings == null) {
+            timings = new Log2Histogram(NUM_BUCKETS);
+            timingsByStage[stage] = timings;
+        }
+        // Stages are usually but not always reached in order, e.g. a call placed immediately is
+        // placed before call redirection completes, so negative times are counted as 0.
+        timings.add(elapsedMillis);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import java.util.Arrays;
+
+/**
+ * Records when a call reached each stage of being set up, so that the time taken to set up a call
+ * can be broken down by stage in {@link Analytics}.
+ *
+ * Stages have fixed ids and each is recorded only the first time it is reached. Times are taken
+ * from {@link android.os.SystemClock#elapsedRealtime()}, which is shared across processes, so a
+ * stage may be recorded before the call is created.
+ */
+public class CallSetupTimer {
+    // Outgoing call stages.
+    /** The call intent was received by {@code UserCallIntentProcessor}. */
+    public static final int USER_INTENT_RECEIVED = 0;
+    /** The call intent reached {@link CallIntentProcessor}. */
+    public static final int INTENT_PROCESSING_STARTED = 1;
+    /** The phone account to place the call with was selected. */
+    public static final int PHONE_ACCOUNT_SELECTED = 2;
+    /** A {@link android.telecom.CallRedirectionService} finished with the call. */
+    public static final int CALL_REDIRECTION_COMPLETED = 3;
+    /** The new outgoing call broadcast or call redirection let the call be placed. */
+    public static final int OUTGOING_CALL_PLACED = 4;
+
+    // Stages shared by outgoing and incoming calls.
+    /** {@link CreateConnectionProcessor} started looking for a connection. */
+    public static final int CREATE_CONNECTION_STARTED = 5;
+    /** The connection service was bound to create the connection. */
+    public static final int CONNECTION_SERVICE_BOUND = 6;
+    /** The connection service created the connection. */
+    public static final int CONNECTION_CREATED = 7;
+
+    /** The outgoing call started dialing. */
+    public static final int DIALING = 8;
+
+    // Incoming call stages.
+    /** The incoming call was reported to Telecom. */
+    public static final int INCOMING_CALL_RECEIVED = 9;
+    /** Call filtering started. */
+    public static final int CALL_FILTERING_STARTED = 10;
+    /** Call filtering completed and the call was set ringing. */
+    public static final int CALL_FILTERING_COMPLETED = 11;
+    /** The ringer was started for the call. */
+    public static final int RINGER_STARTED = 12;
+
+    public static final int NUM_STAGES = 13;
+
+    private static final String[] STAGE_NAMES = {
+            "userIntentReceived", "intentProcessingStarted", "phoneAccountSelected",
+            "callRedirectionCompleted", "outgoingCallPlaced", "createConnectionStarted",
+            "connectionServiceBound", "connectionCreated", "dialing", "incomingCallReceived",
+            "callFilteringStarted", "callFilteringCompleted", "ringerStarted"};
+
+    /** The stages an outgoing call goes through, in the order it goes through them. */
+    static final int[] OUTGOING_STAGES = {
+            USER_INTENT_RECEIVED, INTENT_PROCESSING_STARTED, PHONE_ACCOUNT_SELECTED,
+            CALL_REDIRECTION_COMPLETED, OUTGOING_CALL_PLACED, CREATE_CONNECTION_STARTED,
+            CONNECTION_SERVICE_BOUND, CONNECTION_CREATED, DIALING};
+
+    /** The stages an incoming call goes through, in the order it goes through them. */
+    static final int[] INCOMING_STAGES = {
+            INCOMING_CALL_RECEIVED, CREATE_CONNECTION_STARTED, CONNECTION_SERVICE_BOUND,
+            CONNECTION_CREATED, CALL_FILTERING_STARTED, CALL_FILTERING_COMPLETED,
+            RINGER_STARTED};
+
+    private static final long NOT_REACHED = -1;
+
+    private final long[] mStageTimes = new long[NUM_STAGES];
+
+    public CallSetupTimer() {
+        Arrays.fill(mStageTimes, NOT_REACHED);
+    }
+
+    /**
+     * Records the time a stage was reached, unless it has been reached before.
+     *
+     * @param stage The stage, e.g. {@link #DIALING}.
+     * @param elapsedRealtimeMillis The time the stage was reached.
+     * @return {@code true} if the stage had not been reached before.
+     */
+    public synchronized boolean mark(int stage, long elapsedRealtimeMillis) {
+        if (stage < 0 || stage >= NUM_STAGES || mStageTimes[stage] != NOT_REACHED
+                || elapsedRealtimeMillis < 0) {
+            return false;
+        }
+        mStageTimes[stage] = elapsedRealtimeMillis;
+        return true;
+    }
+
+    /**
+     * @return The time a stage was reached, or -1 if it has not been reached.
+     */
+    public synchronized long getStageTime(int stage) {
+        return mStageTimes[stage];
+    }
+
+    /**
+     * @return Whether a stage is the last one of setting up a call.
+     */
+    public static boolean isFinalStage(int stage) {
+        return stage == DIALING || stage == RINGER_STARTED;
+    }
+
+    public static String getStageName(int stage) {
+        return stage >= 0 && stage < NUM_STAGES ? STAGE_NAMES[stage] : "unknown";
+    }
+
+    @Override
+    public synchronized String toString() {
+        // Times are shown relative to the earliest stage reached.
+        long start = Long.MAX_VALUE;
+        for (long time : mStageTimes) {
+            if (time != NOT_REACHED) {
+                start = Math.min(start, time);
+            }
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (int stage = 0; stage < NUM_STAGES; stage++) {
+            if (mStageTimes[stage] == NOT_REACHED) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(STAGE_NAMES[stage]).append('=').append(mStageTimes[stage] - start);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.PhoneAccountHandle;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+
+/**
+ * Counts the calls tracked by {@link CallsManager} by state, by whether they are self-managed and
+ * by target phone account, so that {@link CallsManager#getNumCallsWithState} doesn't have to
+ * examine every call.
+ *
+ * Only calls which are neither external nor conference children are counted, matching the calls
+ * {@link CallsManager#getNumCallsWithState} considers. A tracked {@link Call} reports each change
+ * which could affect its counts through {@link #onCallChanged(Call)}.
+ */
+@VisibleForTesting
+public class CallStateCounter {
+    /**
+     * Notified whenever the counts change. Called with the counter locked, so the listener sees
+     * changes in order and may query the counter, but must not call out to other components.
+     */
+    public interface Listener {
+        void onCountsChanged(CallStateCounter counter);
+    }
+
+    private static final int NUM_STATES = CallState.SIMULATED_RINGING + 1;
+    private static final int MANAGED = 0;
+    private static final int SELF_MANAGED = 1;
+
+    /** What a call was counted as, so that it can be uncounted when it changes. */
+    private static class Entry {
+        int mState;
+        boolean mIsSelfManaged;
+        PhoneAccountHandle mTargetPhoneAccount;
+        boolean mIsCounted;
+    }
+
+    /** Counts indexed by [MANAGED or SELF_MANAGED][state]. */
+    private static class Counts {
+        final int[][] mCounts = new int[2][NUM_STATES];
+        int mTotal;
+    }
+
+    private final Map<Call, Entry> mEntries = new ArrayMap<>();
+    private final Counts mCounts = new Counts();
+    private final Map<PhoneAccountHandle, Counts> mCountsByAccount = new ArrayMap<>();
+    private final Listener mListener;
+
+    public CallStateCounter() {
+        this(null);
+    }
+
+    public CallStateCounter(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts counting a call.
+     */
+    public synchronized void addCall(Call call) {
+        if (mEntries.containsKey(call)) {
+            return;
+        }
+        Entry entry = new Entry();
+        readEntry(call, entry);
+        mEntries.put(call, entry);
+        applyEntry(entry, 1);
+        call.setCallStateCounter(this);
+        notifyListener();
+    }
+
+    /**
+     * Stops counting a call.
+     */
+    public synchronized void removeCall(Call call) {
+        Entry entry = mEntries.remove(call);
+        if (entry != null) {
+            applyEntry(entry, -1);
+            call.setCallStateCounter(null);
+            notifyListener();
+        }
+    }
+
+    /**
+     * Recounts a call after a change to its state, parent, properties or target phone account.
+     */
+    public synchronized void onCallChanged(Call call) {
+        Entry entry = mEntries.get(call);
+        if (entry != null) {
+            applyEntry(entry, -1);
+            readEntry(call, entry);
+            applyEntry(entry, 1);
+            notifyListener();
+        }
+    }
+
+    /**
+     * Counts the calls matching the specified criteria; see
+     * {@link CallsManager#getNumCallsWithState(int, Call, PhoneAccountHandle, int...)}.
+     *
+     * @param includeManaged Whether to count managed calls.
+     * @param includeSelfManaged Whether to count self-managed calls.
+     * @param excludeCall Where {@code non-null}, this call is excluded from the count.
+     * @param phoneAccountHandle Where {@code non-null}, only calls for this account are counted.
+     * @param states The states to count calls in.
+     * @return The number of matching calls.
+     */
+    public synchronized int getCount(boolean includeManaged, boolean includeSelfManaged,
+            Call excludeCall, PhoneAccountHandle phoneAccountHandle, int... states) {
+        Counts counts = phoneAccountHandle == null ? mCounts
+                : mCountsByAccount.get(phoneAccountHandle);
+        if (counts == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < states.length; i++) {
+            int state = states[i];
+            if (state < 0 || state >= NUM_STATES || isDuplicate(states, i)) {
+                continue;
+            }
+            if (includeManaged) {
+                count += counts.mCounts[MANAGED][state];
+            }
+            if (includeSelfManaged) {
+                count += counts.mCounts[SELF_MANAGED][state];
+            }
+        }
+        Entry excluded = excludeCall == null ? null : mEntries.get(excludeCall);
+        if (excluded != null && excluded.mIsCounted
+                && (excluded.mIsSelfManaged ? includeSelfManaged : includeManaged)
+                && (phoneAccountHandle == null
+                        || phoneAccountHandle.equals(excluded.mTargetPhoneAccount))
+                && contains(states, excluded.mState)) {
+            count--;
+        }
+        return count;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("trackedCalls: " + mEntries.size() + ", countedCalls: " + mCounts.mTotal
+                + ", accounts: " + mCountsByAccount.size());
+    }
+
+    private void notifyListener() {
+        if (mListener != null) {
+            mListener.onCountsChanged(this);
+        }
+    }
+
+    private static void readEntry(Call call, Entry entry) {
+        entry.mState = call.getState();
+        entry.mIsSelfManaged = call.isSelfManaged();
+        entry.mTargetPhoneAccount = call.getTargetPhoneAccount();
+        entry.mIsCounted = call.getParentCall() == null && !call.isExternalCall()
+                && entry.mState >= 0 && entry.mState < NUM_STATES;
+    }
+
+    private void applyEntry(Entry entry, int delta) {
+        if (!entry.mIsCounted) {
+            return;
+        }
+        int type = entry.mIsSelfManaged ? SELF_MANAGED : MANAGED;
+        mCounts.mCounts[type][entry.mState] += delta;
+        mCounts.mTotal += delta;
+        if (entry.mTargetPhoneAccount == null) {
+            return;
+        }
+        Counts accountCounts = mCountsByAccount.get(entry.mTargetPhoneAccount);
+        if (accountCounts == null) {
+            accountCounts = new Counts();
+            mCountsByAccount.put(entry.mTargetPhoneAccount, accountCounts);
+        }
+        accountCounts.mCounts[type][entry.mState] += delta;
+        accountCounts.mTotal += delta;
+        if (accountCounts.mTotal == 0) {
+            mCountsByAccount.remove(entry.mTargetPhoneAccount);
+        }
+    }
+
+    private static boolean isDuplicate(int[] states, int index) {
+        for (int i = 0; i < index; i++) {
+            if (states[i] == states[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] states, int state) {
+        for (int s : states) {
+            if (s == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.ContactsContract;
+import android.telecom.CallerInfo;
+import android.telecom.Log;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of completed caller info lookups, keyed on the normalized
+ * number looked up. Used by {@link CallerInfoLookupHelper} so that repeated calls from the same
+ * number (and reloading the missed call notifications) don't query the contacts provider each
+ * time.
+ *
+ * Entries expire after a fixed time, and the whole cache is dropped whenever the contacts
+ * provider reports a change or the foreground user changes. A lookup started before then can't
+ * populate the cache after it; see {@link #getGeneration()}.
+ *
+ * Cached {@link CallerInfo}s, including their photos, are handed out to every call from the
+ * number, so must be treated as immutable once cached.
+ */
+public class CallerInfoCache {
+    private static final String TAG = CallerInfoCache.class.getSimpleName();
+    @VisibleForTesting
+    public static final int DEFAULT_CAPACITY = 64;
+    @VisibleForTesting
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+    private static class Entry {
+        final CallerInfo mCallerInfo;
+        final long mExpiryTimeMillis;
+
+        Entry(CallerInfo callerInfo, long expiryTimeMillis) {
+            mCallerInfo = callerInfo;
+            mExpiryTimeMillis = expiryTimeMillis;
+        }
+    }
+
+    private final int mCapacity;
+    private final long mTtlMillis;
+    private final ClockProxy mClockProxy;
+    private final ContentObserver mContactsObserver;
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    // Guarded by this.
+    private boolean mIsEnabled = true;
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private int mExpirations;
+    private int mInvalidations;
+
+    public CallerInfoCache(Context context, ClockProxy clockProxy) {
+        this(context, clockProxy, DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+    }
+
+    @VisibleForTesting
+    public CallerInfoCache(Context context, ClockProxy clockProxy, int capacity,
+            long ttlMillis) {
+        mCapacity = capacity;
+        mTtlMillis = ttlMillis;
+        mClockProxy = clockProxy;
+        mEntries = new LinkedHashMap<String, Entry>(capacity, 0.75f, true /* accessOrder */) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > mCapacity) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        mContactsObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                Log.startSession("CIC.oC");
+                try {
+                    invalidate();
+                } finally {
+                    Log.endSession();
+                }
+            }
+        };
+        try {
+            context.getContentResolver().registerContentObserver(
+                    ContactsContract.AUTHORITY_URI, true, mContactsObserver,
+                    UserHandle.USER_ALL);
+        } catch (Exception e) {
+            // Without an observer the cache could go stale, so never use it.
+            Log.w(TAG, "Unable to observe contacts; cache disabled: %s", e);
+            mIsEnabled = false;
+        }
+    }
+
+    /**
+     * Returns the cached caller info for a number.
+     *
+     * @param number The number, as passed to the caller info query.
+     * @return The caller info, which must not be modified, or {@code null} if there is none or it
+     *         has expired.
+     */
+    public synchronized CallerInfo get(String number) {
+        if (!mIsEnabled) {
+            return null;
+        }
+        String key = getKey(number);
+        Entry entry = key == null ? null : mEntries.get(key);
+        if (entry != null && entry.mExpiryTimeMillis <= mClockProxy.elapsedRealtime()) {
+            mEntries.remove(key);
+            mExpirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.mCallerInfo;
+    }
+
+    /**
+     * Caches the result of a caller info query.
+     *
+     * @param number The number which was looked up.
+     * @param callerInfo The result of the query.
+     * @param generation The value of {@link #getGeneration()} when the query was started; the
+     *                   result isn't cached if the contacts have changed since.
+     */
+    public synchronized void put(String number, CallerInfo callerInfo, int generation) {
+        String key = getKey(number);
+        if (!mIsEnabled || key == null || callerInfo == null || generation != mGeneration) {
+            return;
+        }
+        mEntries.put(key, new Entry(callerInfo, mClockProxy.elapsedRealtime() + mTtlMillis));
+    }
+
+    /**
+     * @return A value which changes whenever the cache is invalidated.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mEntries.clear();
+        mInvalidations++;
+    }
+
+    @VisibleForTesting
+    public ContentObserver getContentObserver() {
+        return mContactsObserver;
+    }
+
+    @VisibleForTesting
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the key a number is cached under: the number with its formatting removed, or the
+     * whole number if it is a SIP address.
+     */
+    @VisibleForTesting
+    public static String getKey(String number) {
+        if (TextUtils.isEmpty(number)) {
+            return null;
+        }
+        if (PhoneNumberUtils.isUriNumber(number)) {
+            return number;
+        }
+        String normalized = PhoneNumberUtils.normalizeNumber(number);
+        return TextUtils.isEmpty(normalized) ? number : normalized;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        // Count expired entries which haven't been looked up since expiring.
+        int expired = 0;
+        long now = mClockProxy.elapsedRealtime();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mExpiryTimeMillis <= now) {
+                expired++;
+            }
+        }
+        int lookups = mHits + mMisses;
+        pw.println("enabled: " + mIsEnabled + ", size: " + mEntries.size() + "/" + mCapacity
+                + ", expired: " + expired + ", ttlMillis: " + mTtlMillis);
+        pw.println("hits: " + mHits + ", misses: " + mMisses + ", hitRate: "
+                + (lookups == 0 ? 0 : (100 * mHits / lookups)) + "%");
+        pw.println("evictions: " + mEvictions + ", expirations: " + mExpirations
+                + ", invalidations: " + mInvalidations);
+    }
+}
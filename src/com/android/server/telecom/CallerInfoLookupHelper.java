@@ -28,6 +28,7 @@ import android.text.TextUtils;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import android.telecom.CallerInfo;
 import android.telecom.CallerInfoAsyncQuery;
 
@@ -52,6 +53,8 @@ public class CallerInfoLookupHelper {
         public CallerInfo callerInfo;
         public List<OnQueryCompleteListener> listeners;
         public boolean imageQueryPending = false;
+        // The generation of the CallerInfoCache when the query was started.
+        public int cacheGeneration;
 
         public CallerInfoQueryInfo() {
             listeners = new LinkedList<>();
@@ -62,6 +65,7 @@ public class CallerInfoLookupHelper {
 
     private final CallerInfoAsyncQueryFactory mCallerInfoAsyncQueryFactory;
     private final ContactsAsyncHelper mContactsAsyncHelper;
+    private final CallerInfoCache mCallerInfoCache;
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
@@ -69,9 +73,11 @@ public class CallerInfoLookupHelper {
     public CallerInfoLookupHelper(Context context,
             CallerInfoAsyncQueryFactory callerInfoAsyncQueryFactory,
             ContactsAsyncHelper contactsAsyncHelper,
-            TelecomSystem.SyncRoot lock) {
+            TelecomSystem.SyncRoot lock,
+            CallerInfoCache callerInfoCache) {
         mCallerInfoAsyncQueryFactory = callerInfoAsyncQueryFactory;
         mContactsAsyncHelper = contactsAsyncHelper;
+        mCallerInfoCache = callerInfoCache;
         mContext = context;
         mLock = lock;
     }
@@ -151,11 +157,23 @@ public class CallerInfoLookupHelper {
                 }
                 // Since we have a pending query for this handle already, don't re-query it.
                 return;
-            } else {
-                CallerInfoQueryInfo info = new CallerInfoQueryInfo();
-                info.listeners.add(listener);
-                mQueryEntries.put(handle, info);
             }
+
+            CallerInfo cachedCallerInfo = mCallerInfoCache.get(number);
+            if (cachedCallerInfo != null) {
+                Log.i(this, "Using cached caller info for handle %s", Log.piiHandle(handle));
+                listener.onCallerInfoQueryComplete(handle, cachedCallerInfo);
+                if (cachedCallerInfo.cachedPhoto != null
+                        || cachedCallerInfo.cachedPhotoIcon != null) {
+                    listener.onContactPhotoQueryComplete(handle, cachedCallerInfo);
+                }
+                return;
+            }
+
+            CallerInfoQueryInfo info = new CallerInfoQueryInfo();
+            info.listeners.add(listener);
+            info.cacheGeneration = mCallerInfoCache.getGeneration();
+            mQueryEntries.put(handle, info);
         }
 
         mHandler.post(new Runnable("CILH.sL", null) {
@@ -194,6 +212,8 @@ public class CallerInfoLookupHelper {
                         if (ci.getContactDisplayPhotoUri() == null) {
                             Log.i(CallerInfoLookupHelper.this, "There is no photo for this " +
                                     "contact, skipping photo query");
+                            mCallerInfoCache.put(handle.getSchemeSpecificPart(), ci,
+                                    info.cacheGeneration);
                             mQueryEntries.remove(handle);
                         } else {
                             info.callerInfo = ci;
@@ -247,6 +267,8 @@ public class CallerInfoLookupHelper {
                         for (OnQueryCompleteListener l : info.listeners) {
                             l.onContactPhotoQueryComplete(handle, info.callerInfo);
                         }
+                        mCallerInfoCache.put(handle.getSchemeSpecificPart(), info.callerInfo,
+                                info.cacheGeneration);
                         mQueryEntries.remove(handle);
                     } else {
                         Log.i(CallerInfoLookupHelper.this, "Photo query for handle %s has" +
@@ -260,6 +282,14 @@ public class CallerInfoLookupHelper {
         };
     }
 
+    /**
+     * Called when the foreground user changes. Contacts are stored per user, so caller info
+     * cached for the previous user is dropped.
+     */
+    public void onUserSwitch() {
+        mCallerInfoCache.invalidate();
+    }
+
     @VisibleForTesting
     public Map<Uri, CallerInfoQueryInfo> getCallerInfoEntries() {
         return mQueryEntries;
@@ -269,4 +299,14 @@ public class CallerInfoLookupHelper {
     public Handler getHandler() {
         return mHandler;
     }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("pendingQueries: " + mQueryEntries.size());
+        }
+        pw.println("mCallerInfoCache:");
+        pw.increaseIndent();
+        mCallerInfoCache.dump(pw);
+        pw.decreaseIndent();
+    }
 }
@@ -51,11 +51,11 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.os.Process;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.SystemVibrator;
 import android.os.Trace;
 import android.os.UserHandle;
@@ -97,7 +97,9 @@ import com.android.server.telecom.bluetooth.BluetoothRouteManager;
 import com.android.server.telecom.bluetooth.BluetoothStateReceiver;
 import com.android.server.telecom.callfiltering.BlockCheckerAdapter;
 import com.android.server.telecom.callfiltering.BlockCheckerFilter;
+import com.android.server.telecom.callfiltering.BlockedNumbersCache;
 import com.android.server.telecom.callfiltering.CallFilterResultCallback;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.CallFilteringResult.Builder;
 import com.android.server.telecom.callfiltering.CallScreeningServiceFilter;
@@ -122,7 +124,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -204,6 +205,8 @@ public class CallsManager extends Call.ListenerBase
      */
     private static final int CALL_FILTER_ALL = 3;
 
+    private static final String VERIFY_CALL_COUNTS_PROPERTY = "debug.telecom.verify_call_counts";
+
     private static final String PERMISSION_PROCESS_PHONE_ACCOUNT_REGISTRATION =
             "android.permission.PROCESS_PHONE_ACCOUNT_REGISTRATION";
 
@@ -272,6 +275,47 @@ public class CallsManager extends Call.ListenerBase
     private final Set<Call> mCalls = Collections.newSetFromMap(
             new ConcurrentHashMap<Call, Boolean>(8, 0.9f, 1));
 
+    /**
+     * Counts of {@link #mCalls} by state, used to answer {@link #getNumCallsWithState} without
+     * walking every call.
+     */
+    private final CallStateCounter mCallStateCounter =
+            new CallStateCounter(this::publishCallStateSnapshot);
+
+    /** How long each listener takes to handle the callbacks made to every listener. */
+    private final ListenerLatencyStats mListenerLatencyStats =
+            Analytics.getListenerLatencyStats();
+
+    /**
+     * An immutable summary of {@link #mCalls}, republished by {@link #publishCallStateSnapshot}
+     * whenever {@link #mCallStateCounter} changes. Lets binder queries such as
+     * {@code TelecomManager#isInCall} be answered without taking {@link #mLock}.
+     */
+    private static final class CallStateSnapshot {
+        final boolean mHasOngoingCalls;
+        final boolean mHasOngoingManagedCalls;
+        final boolean mHasRingingCall;
+
+        CallStateSnapshot(boolean hasOngoingCalls, boolean hasOngoingManagedCalls,
+                boolean hasRingingCall) {
+            mHasOngoingCalls = hasOngoingCalls;
+            mHasOngoingManagedCalls = hasOngoingManagedCalls;
+            mHasRingingCall = hasRingingCall;
+        }
+    }
+
+    private volatile CallStateSnapshot mCallStateSnapshot =
+            new CallStateSnapshot(false, false, false);
+
+    /**
+     * When {@code true}, each count from {@link #mCallStateCounter} is checked against a walk of
+     * {@link #mCalls}; enabled with the {@link #VERIFY_CALL_COUNTS_PROPERTY} system property.
+     * Queries are then answered from the counts rather than {@link #mCallStateSnapshot}.
+     */
+    private volatile boolean mVerifyCallCounts =
+            SystemProperties.getBoolean(VERIFY_CALL_COUNTS_PROPERTY, false);
+    private int mCallCountMismatches;
+
     /**
      * A pending call is one which requires user-intervention in order to be placed.
      * Used by {@link #startCallConfirmation}.
@@ -325,6 +369,12 @@ public class CallsManager extends Call.ListenerBase
     private UserHandle mCurrentUserHandle = UserHandle.of(ActivityManager.getCurrentUser());
 
     private final ConnectionServiceRepository mConnectionServiceRepository;
+    /**
+     * The phone account each user last placed an outgoing call with; used to guess which
+     * connection service to pre-bind when the account for a call hasn't been chosen yet.
+     */
+    private final Map<UserHandle, PhoneAccountHandle> mRecentOutgoingCallPhoneAccounts =
+            new HashMap<>();
     private final DtmfLocalTonePlayer mDtmfLocalTonePlayer;
     private final InCallController mInCallController;
     private final CallAudioManager mCallAudioManager;
@@ -345,6 +395,7 @@ public class CallsManager extends Call.ListenerBase
     private final ProximitySensorManager mProximitySensorManager;
     private final PhoneStateBroadcaster mPhoneStateBroadcaster;
     private final CallLogManager mCallLogManager;
+    private final PermissionDecisionCache mPermissionDecisionCache;
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
     private final PhoneAccountRegistrar mPhoneAccountRegistrar;
@@ -389,7 +440,9 @@ public class CallsManager extends Call.ListenerBase
 
     private Runnable mStopTone;
 
-    private LinkedList<HandlerThread> mGraphHandlerThreads;
+    private final CallFilteringExecutor mCallFilteringExecutor = new CallFilteringExecutor();
+
+    private final BlockedNumbersCache mBlockedNumbersCache;
 
     private boolean mHasActiveRttCall = false;
 
@@ -485,9 +538,11 @@ public class CallsManager extends Call.ListenerBase
             InCallControllerFactory inCallControllerFactory,
             RoleManagerAdapter roleManagerAdapter,
             IncomingCallFilter.Factory incomingCallFilterFactory,
-            ToastFactory toastFactory) {
+            ToastFactory toastFactory,
+            PermissionDecisionCache permissionDecisionCache) {
         mContext = context;
         mLock = lock;
+        mPermissionDecisionCache = permissionDecisionCache;
         mPhoneNumberUtilsAdapter = phoneNumberUtilsAdapter;
         mPhoneAccountRegistrar = phoneAccountRegistrar;
         mPhoneAccountRegistrar.addListener(mPhoneAccountListener);
@@ -502,6 +557,7 @@ public class CallsManager extends Call.ListenerBase
         mTimeoutsAdapter = timeoutsAdapter;
         mEmergencyCallHelper = emergencyCallHelper;
         mCallerInfoLookupHelper = callerInfoLookupHelper;
+        mBlockedNumbersCache = new BlockedNumbersCache(context);
         mIncomingCallFilterFactory = incomingCallFilterFactory;
 
         mDtmfLocalTonePlayer =
@@ -590,7 +646,6 @@ public class CallsManager extends Call.ListenerBase
                 CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
         intentFilter.addAction(SystemContract.ACTION_BLOCK_SUPPRESSION_STATE_CHANGED);
         context.registerReceiver(mReceiver, intentFilter);
-        mGraphHandlerThreads = new LinkedList<>();
     }
 
     public void setIncomingCallNotifier(IncomingCallNotifier incomingCallNotifier) {
@@ -651,6 +706,7 @@ public class CallsManager extends Call.ListenerBase
     @Override
     public void onSuccessfulIncomingCall(Call incomingCall) {
         Log.d(this, "onSuccessfulIncomingCall");
+        incomingCall.markSetupStage(CallSetupTimer.CALL_FILTERING_STARTED);
         PhoneAccount phoneAccount = mPhoneAccountRegistrar.getPhoneAccountUnchecked(
                 incomingCall.getTargetPhoneAccount());
         Bundle extras =
@@ -689,26 +745,28 @@ public class CallsManager extends Call.ListenerBase
         ParcelableCallUtils.Converter converter = new ParcelableCallUtils.Converter();
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(incomingCall,
-                this::onCallFilteringComplete, mContext, mTimeoutsAdapter, mLock);
+                this::onCallFilteringComplete, mContext, mTimeoutsAdapter, mLock,
+                mCallFilteringExecutor);
         DirectToVoicemailFilter voicemailFilter = new DirectToVoicemailFilter(incomingCall,
                 mCallerInfoLookupHelper);
         BlockCheckerFilter blockCheckerFilter = new BlockCheckerFilter(mContext, incomingCall,
-                mCallerInfoLookupHelper, new BlockCheckerAdapter());
+                mCallerInfoLookupHelper, new BlockCheckerAdapter(mBlockedNumbersCache),
+                mCallFilteringExecutor);
         CallScreeningServiceFilter carrierCallScreeningServiceFilter =
                 new CallScreeningServiceFilter(incomingCall, carrierPackageName,
                         CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, this,
-                        appLabelProxy, converter);
+                        appLabelProxy, converter, mPermissionDecisionCache);
         CallScreeningServiceFilter callScreeningServiceFilter;
         if ((userChosenPackageName != null)
                 && (!userChosenPackageName.equals(defaultDialerPackageName))) {
             callScreeningServiceFilter = new CallScreeningServiceFilter(incomingCall,
                     userChosenPackageName, CallScreeningServiceFilter.PACKAGE_TYPE_USER_CHOSEN,
-                    mContext, this, appLabelProxy, converter);
+                    mContext, this, appLabelProxy, converter, mPermissionDecisionCache);
         } else {
             callScreeningServiceFilter = new CallScreeningServiceFilter(incomingCall,
                     defaultDialerPackageName,
                     CallScreeningServiceFilter.PACKAGE_TYPE_DEFAULT_DIALER,
-                    mContext, this, appLabelProxy, converter);
+                    mContext, this, appLabelProxy, converter, mPermissionDecisionCache);
         }
         graph.addFilter(voicemailFilter);
         graph.addFilter(blockCheckerFilter);
@@ -718,7 +776,6 @@ public class CallsManager extends Call.ListenerBase
         IncomingCallFilterGraph.addEdge(blockCheckerFilter, carrierCallScreeningServiceFilter);
         IncomingCallFilterGraph.addEdge(carrierCallScreeningServiceFilter,
                 callScreeningServiceFilter);
-        mGraphHandlerThreads.add(graph.getHandlerThread());
         return graph;
     }
 
@@ -737,11 +794,10 @@ public class CallsManager extends Call.ListenerBase
 
     @Override
     public void onCallFilteringComplete(Call incomingCall, CallFilteringResult result) {
+        incomingCall.markSetupStage(CallSetupTimer.CALL_FILTERING_COMPLETED);
         // Only set the incoming call as ringing if it isn't already disconnected. It is possible
         // that the connection service disconnected the call before it was even added to Telecom, in
         // which case it makes no sense to set it back to a ringing state.
-        mGraphHandlerThreads.clear();
-
         if (incomingCall.getState() != CallState.DISCONNECTED &&
                 incomingCall.getState() != CallState.DISCONNECTING) {
             setCallState(incomingCall, CallState.RINGING,
@@ -1214,6 +1270,7 @@ public class CallsManager extends Call.ListenerBase
                 isConference, /* isConference */
                 mClockProxy,
                 mToastFactory);
+        call.markSetupStage(CallSetupTimer.INCOMING_CALL_RECEIVED);
 
         // Ensure new calls related to self-managed calls/connections are set as such.  This will
         // be overridden when the actual connection is returned in startCreateConnection, however
@@ -1316,9 +1373,9 @@ public class CallsManager extends Call.ListenerBase
                     call.setHandoverSourceCall(fromCall);
                     call.setHandoverState(HandoverState.HANDOVER_TO_STARTED);
                     fromCall.setHandoverState(HandoverState.HANDOVER_FROM_STARTED);
-                    Log.addEvent(fromCall, LogUtils.Events.START_HANDOVER,
+                    LogUtils.addEvent(fromCall, LogUtils.Events.START_HANDOVER,
                             "handOverFrom=%s, handOverTo=%s", fromCall.getId(), call.getId());
-                    Log.addEvent(call, LogUtils.Events.START_HANDOVER,
+                    LogUtils.addEvent(call, LogUtils.Events.START_HANDOVER,
                             "handOverFrom=%s, handOverTo=%s", fromCall.getId(), call.getId());
                     if (isSpeakerEnabledForVideoCalls() && VideoProfile.isVideo(videoState)) {
                         // Ensure when the call goes active that it will go to speakerphone if the
@@ -1549,6 +1606,12 @@ public class CallsManager extends Call.ListenerBase
                         phoneAccountHandle = null;
                     }
                     finalCall.setTargetPhoneAccount(phoneAccountHandle);
+                    // Start binding to the connection service the call will most likely be placed
+                    // with while the rest of the call is set up.
+                    mConnectionServiceRepository.prebind(phoneAccountHandle != null
+                            ? phoneAccountHandle
+                            : getRecentOutgoingCallPhoneAccount(potentialPhoneAccounts,
+                                    initiatingUser));
                 }, new LoggedHandlerExecutor(outgoingCallHandler, "CM.sOCPA", mLock));
 
 
@@ -1724,10 +1787,15 @@ public class CallsManager extends Call.ListenerBase
                     }
                     Log.i(CallsManager.this, "post acct selection stage");
                     Call callToUse = args.first;
+                    callToUse.markSetupStage(CallSetupTimer.PHONE_ACCOUNT_SELECTED);
                     PhoneAccountHandle phoneAccountHandle = args.second;
                     PhoneAccount accountToUse = mPhoneAccountRegistrar
                             .getPhoneAccount(phoneAccountHandle, initiatingUser);
                     callToUse.setTargetPhoneAccount(phoneAccountHandle);
+                    if (phoneAccountHandle != null) {
+                        mRecentOutgoingCallPhoneAccounts.put(initiatingUser, phoneAccountHandle);
+                        mConnectionServiceRepository.prebind(phoneAccountHandle);
+                    }
                     if (accountToUse != null && accountToUse.getExtras() != null) {
                         if (accountToUse.getExtras()
                                 .getBoolean(PhoneAccount.EXTRA_ALWAYS_USE_VOIP_AUDIO_MODE)) {
@@ -1831,7 +1899,8 @@ public class CallsManager extends Call.ListenerBase
                     public CharSequence getAppLabel(String packageName) {
                         return Util.getAppLabel(mContext.getPackageManager(), packageName);
                     }
-                }).process();
+                },
+                mPermissionDecisionCache).process();
         future.thenApply( v -> {
             Log.i(this, "Outgoing caller ID complete");
             return null;
@@ -1867,6 +1936,20 @@ public class CallsManager extends Call.ListenerBase
                isEmergency, initiatingUser, false/* isConference */);
     }
 
+    /**
+     * Returns the phone account a user last placed an outgoing call with, if it is one of the
+     * accounts a new call could be placed with.
+     */
+    private PhoneAccountHandle getRecentOutgoingCallPhoneAccount(
+            List<PhoneAccountHandle> potentialPhoneAccounts, UserHandle initiatingUser) {
+        PhoneAccountHandle recent = mRecentOutgoingCallPhoneAccounts.get(initiatingUser);
+        if (recent == null || potentialPhoneAccounts == null
+                || !potentialPhoneAccounts.contains(recent)) {
+            return null;
+        }
+        return recent;
+    }
+
     public CompletableFuture<List<PhoneAccountHandle>> findOutgoingCallPhoneAccount(
             PhoneAccountHandle targetPhoneAccountHandle, Uri handle, boolean isVideo,
             boolean isEmergency, UserHandle initiatingUser, boolean isConference) {
@@ -1966,6 +2049,7 @@ public class CallsManager extends Call.ListenerBase
                                           String uiAction) {
         Log.i(this, "onCallRedirectionComplete for Call %s with handle %s" +
                 " and phoneAccountHandle %s", call, handle, phoneAccountHandle);
+        call.markSetupStage(CallSetupTimer.CALL_REDIRECTION_COMPLETED);
 
         boolean endEarly = false;
         String disconnectReason = "";
@@ -2026,14 +2110,14 @@ public class CallsManager extends Call.ListenerBase
         }
 
         if (uiAction.equals(CallRedirectionProcessor.UI_TYPE_USER_DEFINED_ASK_FOR_CONFIRM)) {
-            Log.addEvent(call, LogUtils.Events.REDIRECTION_USER_CONFIRMATION);
+            LogUtils.addEvent(call, LogUtils.Events.REDIRECTION_USER_CONFIRMATION);
             mPendingRedirectedOutgoingCall = call;
 
             mPendingRedirectedOutgoingCallInfo.put(call.getId(),
                     new Runnable("CM.oCRC", mLock) {
                         @Override
                         public void loggedRun() {
-                            Log.addEvent(call, LogUtils.Events.REDIRECTION_USER_CONFIRMED);
+                            LogUtils.addEvent(call, LogUtils.Events.REDIRECTION_USER_CONFIRMED);
                             call.setTargetPhoneAccount(phoneAccountHandle);
                             placeOutgoingCall(call, handle, gatewayInfo, speakerphoneOn,
                                     videoState);
@@ -2164,7 +2248,7 @@ public class CallsManager extends Call.ListenerBase
                 mHandler.post(mPendingUnredirectedOutgoingCallInfo.get(callId).prepare());
             } else if (action.equals(
                     TelecomBroadcastIntentProcessor.ACTION_CANCEL_REDIRECTED_CALL)) {
-                Log.addEvent(mPendingRedirectedOutgoingCall,
+                LogUtils.addEvent(mPendingRedirectedOutgoingCall,
                         LogUtils.Events.REDIRECTION_USER_CANCELLED);
                 mPendingRedirectedOutgoingCall.disconnect("User canceled the redirected call.");
             }
@@ -2194,6 +2278,7 @@ public class CallsManager extends Call.ListenerBase
             Log.i(this, "Canceling unknown call.");
             return;
         }
+        call.markSetupStage(CallSetupTimer.OUTGOING_CALL_PLACED);
 
         final Uri uriHandle = (gatewayInfo == null) ? handle : gatewayInfo.getGatewayAddress();
 
@@ -2650,8 +2735,8 @@ public class CallsManager extends Call.ListenerBase
                 activeCallId = activeCall.getId();
                 if (canHold(activeCall)) {
                     activeCall.hold("Swap to " + call.getId());
-                    Log.addEvent(activeCall, LogUtils.Events.SWAP, "To " + call.getId());
-                    Log.addEvent(call, LogUtils.Events.SWAP, "From " + activeCall.getId());
+                    LogUtils.addEvent(activeCall, LogUtils.Events.SWAP, "To " + call.getId());
+                    LogUtils.addEvent(call, LogUtils.Events.SWAP, "From " + activeCall.getId());
                 } else {
                     // This call does not support hold. If it is from a different connection
                     // service or connection manager, then disconnect it, otherwise invoke
@@ -3121,7 +3206,14 @@ public class CallsManager extends Call.ListenerBase
         return getFirstCallWithState(CallState.RINGING, CallState.ANSWERED) != null;
     }
 
+    /**
+     * Determines if there is a ringing, simulated ringing or answered call. Safe to call without
+     * holding the Telecom lock.
+     */
     boolean hasRingingOrSimulatedRingingCall() {
+        if (!mVerifyCallCounts) {
+            return mCallStateSnapshot.mHasRingingCall;
+        }
         return getFirstCallWithState(
                 CallState.SIMULATED_RINGING, CallState.RINGING, CallState.ANSWERED) != null;
     }
@@ -3137,7 +3229,7 @@ public class CallsManager extends Call.ListenerBase
                     Call onHoldCall = getFirstCallWithState(CallState.ON_HOLD);
                     if (activeCall != null && onHoldCall != null) {
                         // Two calls, short-press -> switch calls
-                        Log.addEvent(onHoldCall, LogUtils.Events.INFO,
+                        LogUtils.addEvent(onHoldCall, LogUtils.Events.INFO,
                                 "two calls, media btn short press - switch call.");
                         unholdCall(onHoldCall);
                         return true;
@@ -3145,7 +3237,7 @@ public class CallsManager extends Call.ListenerBase
 
                     Call callToHangup = getFirstCallWithState(CallState.RINGING, CallState.DIALING,
                             CallState.PULLING, CallState.ACTIVE, CallState.ON_HOLD);
-                    Log.addEvent(callToHangup, LogUtils.Events.INFO,
+                    LogUtils.addEvent(callToHangup, LogUtils.Events.INFO,
                             "media btn short press - end call.");
                     if (callToHangup != null) {
                         disconnectCall(callToHangup);
@@ -3157,7 +3249,7 @@ public class CallsManager extends Call.ListenerBase
                 }
             } else if (HeadsetMediaButton.LONG_PRESS == type) {
                 if (ringingCall != null) {
-                    Log.addEvent(getForegroundCall(),
+                    LogUtils.addEvent(getForegroundCall(),
                             LogUtils.Events.INFO, "media btn long press - reject");
                     ringingCall.reject(false, null);
                 } else {
@@ -3165,13 +3257,13 @@ public class CallsManager extends Call.ListenerBase
                     Call onHoldCall = getFirstCallWithState(CallState.ON_HOLD);
                     if (activeCall != null && onHoldCall != null) {
                         // Two calls, long-press -> end current call
-                        Log.addEvent(activeCall, LogUtils.Events.INFO,
+                        LogUtils.addEvent(activeCall, LogUtils.Events.INFO,
                                 "two calls, media btn long press - end current call.");
                         disconnectCall(activeCall);
                         return true;
                     }
 
-                    Log.addEvent(getForegroundCall(), LogUtils.Events.INFO,
+                    LogUtils.addEvent(getForegroundCall(), LogUtils.Events.INFO,
                             "media btn long press - mute");
                     mCallAudioManager.toggleMute();
                 }
@@ -3394,7 +3486,8 @@ public class CallsManager extends Call.ListenerBase
     }
 
     /**
-     * @return the call state currently tracked by {@link PhoneStateBroadcaster}
+     * @return the call state currently tracked by {@link PhoneStateBroadcaster}; safe to call
+     * without holding the Telecom lock.
      */
     int getCallState() {
         return mPhoneStateBroadcaster.getCallState();
@@ -3467,6 +3560,7 @@ public class CallsManager extends Call.ListenerBase
         Log.v(this, "addCall(%s)", call);
         call.addListener(this);
         mCalls.add(call);
+        mCallStateCounter.addCall(call);
 
         // Specifies the time telecom finished routing the call. This is used by the dialer for
         // analytics.
@@ -3482,7 +3576,10 @@ public class CallsManager extends Call.ListenerBase
             if (LogUtils.SYSTRACE_DEBUG) {
                 Trace.beginSection(listener.getClass().toString() + " addCall");
             }
+            long startNanos = SystemClock.elapsedRealtimeNanos();
             listener.onCallAdded(call);
+            mListenerLatencyStats.record(listener, ListenerLatencyStats.ON_CALL_ADDED,
+                    SystemClock.elapsedRealtimeNanos() - startNanos);
             if (LogUtils.SYSTRACE_DEBUG) {
                 Trace.endSection();
             }
@@ -3503,6 +3600,7 @@ public class CallsManager extends Call.ListenerBase
         boolean shouldNotify = false;
         if (mCalls.contains(call)) {
             mCalls.remove(call);
+            mCallStateCounter.removeCall(call);
             shouldNotify = true;
         }
 
@@ -3516,7 +3614,10 @@ public class CallsManager extends Call.ListenerBase
                 if (LogUtils.SYSTRACE_DEBUG) {
                     Trace.beginSection(listener.getClass().toString() + " onCallRemoved");
                 }
+                long startNanos = SystemClock.elapsedRealtimeNanos();
                 listener.onCallRemoved(call);
+                mListenerLatencyStats.record(listener, ListenerLatencyStats.ON_CALL_REMOVED,
+                        SystemClock.elapsedRealtimeNanos() - startNanos);
                 if (LogUtils.SYSTRACE_DEBUG) {
                     Trace.endSection();
                 }
@@ -3591,7 +3692,11 @@ public class CallsManager extends Call.ListenerBase
                             Trace.beginSection(listener.getClass().toString() +
                                     " onCallStateChanged");
                         }
+                        long startNanos = SystemClock.elapsedRealtimeNanos();
                         listener.onCallStateChanged(call, oldState, newState);
+                        mListenerLatencyStats.record(listener,
+                                ListenerLatencyStats.ON_CALL_STATE_CHANGED,
+                                SystemClock.elapsedRealtimeNanos() - startNanos);
                         if (LogUtils.SYSTRACE_DEBUG) {
                             Trace.endSection();
                         }
@@ -3654,9 +3759,9 @@ public class CallsManager extends Call.ListenerBase
 
     private void completeHandoverFrom(Call call) {
         Call handoverTo = call.getHandoverDestinationCall();
-        Log.addEvent(handoverTo, LogUtils.Events.HANDOVER_COMPLETE, "from=%s, to=%s",
+        LogUtils.addEvent(handoverTo, LogUtils.Events.HANDOVER_COMPLETE, "from=%s, to=%s",
                 call.getId(), handoverTo.getId());
-        Log.addEvent(call, LogUtils.Events.HANDOVER_COMPLETE, "from=%s, to=%s",
+        LogUtils.addEvent(call, LogUtils.Events.HANDOVER_COMPLETE, "from=%s, to=%s",
                 call.getId(), handoverTo.getId());
 
         // Inform the "from" Call (ie the source call) that the handover from it has
@@ -3681,9 +3786,9 @@ public class CallsManager extends Call.ListenerBase
     private void rejectHandoverTo(Call handoverTo) {
         Call handoverFrom = handoverTo.getHandoverSourceCall();
         Log.i(this, "rejectHandoverTo: from=%s, to=%s", handoverFrom.getId(), handoverTo.getId());
-        Log.addEvent(handoverFrom, LogUtils.Events.HANDOVER_FAILED, "from=%s, to=%s, rejected",
+        LogUtils.addEvent(handoverFrom, LogUtils.Events.HANDOVER_FAILED, "from=%s, to=%s, rejected",
                 handoverTo.getId(), handoverFrom.getId());
-        Log.addEvent(handoverTo, LogUtils.Events.HANDOVER_FAILED, "from=%s, to=%s, rejected",
+        LogUtils.addEvent(handoverTo, LogUtils.Events.HANDOVER_FAILED, "from=%s, to=%s, rejected",
                 handoverTo.getId(), handoverFrom.getId());
 
         // Inform the "from" Call (ie the source call) that the handover from it has
@@ -3713,9 +3818,9 @@ public class CallsManager extends Call.ListenerBase
         handoverFrom.setHandoverState(HandoverState.HANDOVER_ACCEPTED);
         handoverFrom.onHandoverComplete();
 
-        Log.addEvent(handoverTo, LogUtils.Events.ACCEPT_HANDOVER, "from=%s, to=%s",
+        LogUtils.addEvent(handoverTo, LogUtils.Events.ACCEPT_HANDOVER, "from=%s, to=%s",
                 handoverFrom.getId(), handoverTo.getId());
-        Log.addEvent(handoverFrom, LogUtils.Events.ACCEPT_HANDOVER, "from=%s, to=%s",
+        LogUtils.addEvent(handoverFrom, LogUtils.Events.ACCEPT_HANDOVER, "from=%s, to=%s",
                 handoverFrom.getId(), handoverTo.getId());
 
         // Disconnect the call we handed over from.
@@ -3735,7 +3840,11 @@ public class CallsManager extends Call.ListenerBase
                 if (LogUtils.SYSTRACE_DEBUG) {
                     Trace.beginSection(listener.getClass().toString() + " updateCanAddCall");
                 }
+                long startNanos = SystemClock.elapsedRealtimeNanos();
                 listener.onCanAddCallChanged(mCanAddCall);
+                mListenerLatencyStats.record(listener,
+                        ListenerLatencyStats.ON_CAN_ADD_CALL_CHANGED,
+                        SystemClock.elapsedRealtimeNanos() - startNanos);
                 if (LogUtils.SYSTRACE_DEBUG) {
                     Trace.endSection();
                 }
@@ -3796,7 +3905,43 @@ public class CallsManager extends Call.ListenerBase
     @VisibleForTesting
     public int getNumCallsWithState(final int callFilter, Call excludeCall,
                                     PhoneAccountHandle phoneAccountHandle, int... states) {
+        int count = mCallStateCounter.getCount(callFilter != CALL_FILTER_SELF_MANAGED,
+                callFilter != CALL_FILTER_MANAGED, excludeCall, phoneAccountHandle, states);
+        if (mVerifyCallCounts) {
+            int expectedCount = getNumCallsWithStateByScan(callFilter, excludeCall,
+                    phoneAccountHandle, states);
+            if (count != expectedCount) {
+                mCallCountMismatches++;
+                Log.w(this, "getNumCallsWithState: counted %d calls, expected %d; filter=%d, "
+                        + "states=%s", count, expectedCount, callFilter, Arrays.toString(states));
+                return expectedCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rebuilds {@link #mCallStateSnapshot}; called by {@link #mCallStateCounter} with it locked.
+     */
+    private void publishCallStateSnapshot(CallStateCounter counter) {
+        mCallStateSnapshot = new CallStateSnapshot(
+                counter.getCount(true /* includeManaged */, true /* includeSelfManaged */,
+                        null /* excludeCall */, null /* phoneAccountHandle */,
+                        ONGOING_CALL_STATES) > 0,
+                counter.getCount(true /* includeManaged */, false /* includeSelfManaged */,
+                        null /* excludeCall */, null /* phoneAccountHandle */,
+                        ONGOING_CALL_STATES) > 0,
+                counter.getCount(true /* includeManaged */, true /* includeSelfManaged */,
+                        null /* excludeCall */, null /* phoneAccountHandle */,
+                        CallState.SIMULATED_RINGING, CallState.RINGING, CallState.ANSWERED) > 0);
+    }
 
+    /**
+     * The original implementation of {@link #getNumCallsWithState(int, Call, PhoneAccountHandle,
+     * int...)}, which walks every call; used to verify {@link #mCallStateCounter}.
+     */
+    private int getNumCallsWithStateByScan(final int callFilter, Call excludeCall,
+            PhoneAccountHandle phoneAccountHandle, int... states) {
         Set<Integer> desiredStates = IntStream.of(states).boxed().collect(Collectors.toSet());
 
         Stream<Call> callsStream = mCalls.stream()
@@ -3917,10 +4062,14 @@ public class CallsManager extends Call.ListenerBase
     /**
      * Determines if there are any ongoing managed or self-managed calls.
      * Note: The {@link #ONGOING_CALL_STATES} are
+     * Safe to call without holding the Telecom lock.
      * @return {@code true} if there are ongoing managed or self-managed calls, {@code false}
      *      otherwise.
      */
     public boolean hasOngoingCalls() {
+        if (!mVerifyCallCounts) {
+            return mCallStateSnapshot.mHasOngoingCalls;
+        }
         return getNumCallsWithState(
                 CALL_FILTER_ALL, null /* excludeCall */,
                 null /* phoneAccountHandle */,
@@ -3928,10 +4077,14 @@ public class CallsManager extends Call.ListenerBase
     }
 
     /**
-     * Determines if there are any ongoing managed calls.
+     * Determines if there are any ongoing managed calls. Safe to call without holding the Telecom
+     * lock.
      * @return {@code true} if there are ongoing managed calls, {@code false} otherwise.
      */
     public boolean hasOngoingManagedCalls() {
+        if (!mVerifyCallCounts) {
+            return mCallStateSnapshot.mHasOngoingManagedCalls;
+        }
         return getNumCallsWithState(
                 CALL_FILTER_MANAGED, null /* excludeCall */,
                 null /* phoneAccountHandle */,
@@ -4359,6 +4512,9 @@ public class CallsManager extends Call.ListenerBase
         mCurrentUserHandle = userHandle;
         mMissedCallNotifier.setCurrentUserHandle(userHandle);
         mRoleManagerAdapter.setCurrentUserHandle(userHandle);
+        // Blocked numbers and contacts are stored per user.
+        mBlockedNumbersCache.invalidate();
+        mCallerInfoLookupHelper.onUserSwitch();
         final UserManager userManager = UserManager.get(mContext);
         List<UserInfo> profiles = userManager.getEnabledProfiles(userHandle.getIdentifier());
         for (UserInfo profile : profiles) {
@@ -4503,7 +4659,7 @@ public class CallsManager extends Call.ListenerBase
     public void confirmPendingCall(String callId) {
         Log.i(this, "confirmPendingCall: callId=%s", callId);
         if (mPendingCall != null && mPendingCall.getId().equals(callId)) {
-            Log.addEvent(mPendingCall, LogUtils.Events.USER_CONFIRMED);
+            LogUtils.addEvent(mPendingCall, LogUtils.Events.USER_CONFIRMED);
 
             // We are going to place the new outgoing call, so disconnect any ongoing self-managed
             // calls which are ongoing at this time.
@@ -4525,7 +4681,7 @@ public class CallsManager extends Call.ListenerBase
     public void cancelPendingCall(String callId) {
         Log.i(this, "cancelPendingCall: callId=%s", callId);
         if (mPendingCall != null && mPendingCall.getId().equals(callId)) {
-            Log.addEvent(mPendingCall, LogUtils.Events.USER_CANCELLED);
+            LogUtils.addEvent(mPendingCall, LogUtils.Events.USER_CANCELLED);
             markCallAsDisconnected(mPendingCall, new DisconnectCause(DisconnectCause.CANCELED));
             markCallAsRemoved(mPendingCall);
             mPendingCall = null;
@@ -4549,7 +4705,7 @@ public class CallsManager extends Call.ListenerBase
             confirmationFuture.complete(null);
             return;
         }
-        Log.addEvent(call, LogUtils.Events.USER_CONFIRMATION);
+        LogUtils.addEvent(call, LogUtils.Events.USER_CONFIRMATION);
         mPendingCall = call;
         mPendingCallConfirm = confirmationFuture;
 
@@ -4599,6 +4755,10 @@ public class CallsManager extends Call.ListenerBase
             pw.increaseIndent();
             for (Call call : mCalls) {
                 pw.println(call);
+                pw.increaseIndent();
+                call.dumpExtras(pw);
+                pw.println("setupStageTimes: " + call.getSetupTimer());
+                pw.decreaseIndent();
             }
             pw.decreaseIndent();
         }
@@ -4662,6 +4822,47 @@ public class CallsManager extends Call.ListenerBase
             impl.dump(pw);
             pw.decreaseIndent();
         }
+
+        pw.println("mCallFilteringExecutor:");
+        pw.increaseIndent();
+        mCallFilteringExecutor.dump(pw);
+        pw.decreaseIndent();
+
+        pw.println("mBlockedNumbersCache:");
+        pw.increaseIndent();
+        mBlockedNumbersCache.dump(pw);
+        pw.decreaseIndent();
+
+        pw.println("mCallLogManager:");
+        pw.increaseIndent();
+        mCallLogManager.dump(pw);
+        pw.decreaseIndent();
+
+        pw.println("mCallerInfoLookupHelper:");
+        pw.increaseIndent();
+        mCallerInfoLookupHelper.dump(pw);
+        pw.decreaseIndent();
+
+        pw.println("mCallStateCounter:");
+        pw.increaseIndent();
+        mCallStateCounter.dump(pw);
+        pw.println("verify: " + mVerifyCallCounts + ", mismatches: " + mCallCountMismatches);
+        pw.decreaseIndent();
+
+        pw.println("mListenerLatencyStats:");
+        pw.increaseIndent();
+        mListenerLatencyStats.dump(pw);
+        pw.decreaseIndent();
+    }
+
+    @VisibleForTesting
+    public void setCallCountVerificationEnabled(boolean isEnabled) {
+        mVerifyCallCounts = isEnabled;
+    }
+
+    @VisibleForTesting
+    public int getCallCountMismatches() {
+        return mCallCountMismatches;
     }
 
     /**
@@ -4802,7 +5003,8 @@ public class CallsManager extends Call.ListenerBase
                                           int videoState, Bundle initiatingExtras) {
 
         handoverFromCall.sendCallEvent(android.telecom.Call.EVENT_HANDOVER_FAILED, null);
-        Log.addEvent(handoverFromCall, LogUtils.Events.HANDOVER_REQUEST, "legacy request denied");
+        LogUtils.addEvent(handoverFromCall, LogUtils.Events.HANDOVER_REQUEST,
+                "legacy request denied");
     }
 
     /**
@@ -4838,7 +5040,7 @@ public class CallsManager extends Call.ListenerBase
             return;
         }
 
-        Log.addEvent(handoverFromCall, LogUtils.Events.HANDOVER_REQUEST, handoverToHandle);
+        LogUtils.addEvent(handoverFromCall, LogUtils.Events.HANDOVER_REQUEST, handoverToHandle);
 
         // Create a new instance of Call
         PhoneAccount account =
@@ -4899,7 +5101,7 @@ public class CallsManager extends Call.ListenerBase
             addCall(call);
         }
 
-        Log.addEvent(handoverFromCall, LogUtils.Events.START_HANDOVER,
+        LogUtils.addEvent(handoverFromCall, LogUtils.Events.START_HANDOVER,
                 "handOverFrom=%s, handOverTo=%s", handoverFromCall.getId(), call.getId());
 
         handoverFromCall.setHandoverDestinationCall(call);
@@ -5189,7 +5391,7 @@ public class CallsManager extends Call.ListenerBase
                     // If the call's in simulated ringing, we don't have to wait for the CS --
                     // we can just declare it active.
                     setCallState(mCall, CallState.ACTIVE, "answering simulated ringing");
-                    Log.addEvent(mCall, LogUtils.Events.REQUEST_SIMULATED_ACCEPT);
+                    LogUtils.addEvent(mCall, LogUtils.Events.REQUEST_SIMULATED_ACCEPT);
                 } else if (mCall.getState() == CallState.ANSWERED) {
                     // In certain circumstances, the connection service can lose track of a request
                     // to answer a call. Therefore, if the user presses answer again, still send it
@@ -5314,10 +5516,6 @@ public class CallsManager extends Call.ListenerBase
         return PhoneAccountHandle.areFromSamePackage(call1TargetAcct, call2TargetAcct);
     }
 
-    public LinkedList<HandlerThread> getGraphHandlerThreads() {
-        return mGraphHandlerThreads;
-    }
-
     private void maybeSendPostCallScreenIntent(Call call) {
         if (call.isEmergencyCall() || (call.isNetworkIdentifiedEmergencyCall()) ||
                 (call.getPostCallPackageName() == null)) {
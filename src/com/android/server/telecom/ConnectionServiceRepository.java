@@ -18,7 +18,13 @@ package com.android.server.telecom;
 
 import android.content.ComponentName;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.telecom.Log;
+import android.telecom.Logging.Runnable;
+import android.telecom.PhoneAccountHandle;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -37,6 +43,36 @@ public class ConnectionServiceRepository {
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
     private final CallsManager mCallsManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * A connection service bound ahead of an outgoing call. The binding is held by counting it as
+     * an associated call of the service until it is released.
+     */
+    private static class Prebinding {
+        final ConnectionServiceWrapper mService;
+        final long mBindStartTimeMillis;
+        long mBoundTimeMillis = -1;
+        Runnable mReleaseRunnable;
+
+        Prebinding(ConnectionServiceWrapper service, long bindStartTimeMillis) {
+            mService = service;
+            mBindStartTimeMillis = bindStartTimeMillis;
+        }
+    }
+
+    private final HashMap<Pair<ComponentName, UserHandle>, Prebinding> mPrebindings =
+            new HashMap<>();
+
+    // Pre-binding statistics, guarded by mLock.
+    private int mNumPrebinds;
+    private int mNumPrebindFailures;
+    private int mNumPrebindsUsed;
+    private int mNumPrebindsUsedBeforeBound;
+    private int mNumPrebindsExpired;
+    private int mNumPrebindsBound;
+    private long mTotalPrebindBindMillis;
+    private long mTotalPrebindSavedMillis;
 
     private final ServiceBinder.Listener<ConnectionServiceWrapper> mUnbindListener =
             new ServiceBinder.Listener<ConnectionServiceWrapper>() {
@@ -49,7 +85,8 @@ public class ConnectionServiceRepository {
                 }
             };
 
-    ConnectionServiceRepository(
+    @VisibleForTesting
+    public ConnectionServiceRepository(
             PhoneAccountRegistrar phoneAccountRegistrar,
             Context context,
             TelecomSystem.SyncRoot lock,
@@ -79,6 +116,145 @@ public class ConnectionServiceRepository {
         return service;
     }
 
+    /**
+     * Starts binding to the connection service of a phone account which an outgoing call is
+     * about to be placed with, so that creating the connection doesn't have to wait for the bind.
+     * The binding is released once the call is placed with the service, which then keeps it bound,
+     * or after {@link Timeouts#getConnectionServicePrebindTimeoutMillis} if it isn't.
+     *
+     * @param phoneAccountHandle The phone account the call is likely to be placed with.
+     */
+    public void prebind(PhoneAccountHandle phoneAccountHandle) {
+        prebind(phoneAccountHandle, Timeouts.getConnectionServicePrebindTimeoutMillis(
+                mContext.getContentResolver()));
+    }
+
+    /**
+     * Starts binding to the connection service of a phone account, holding the binding for the
+     * specified time if no connection is created with the service.
+     *
+     * @param phoneAccountHandle The phone account.
+     * @param timeoutMillis How long to hold the binding; nothing is bound if not positive.
+     */
+    public void prebind(PhoneAccountHandle phoneAccountHandle, long timeoutMillis) {
+        if (phoneAccountHandle == null || timeoutMillis <= 0) {
+            return;
+        }
+        Pair<ComponentName, UserHandle> key = Pair.create(
+                phoneAccountHandle.getComponentName(), phoneAccountHandle.getUserHandle());
+        Prebinding prebinding = mPrebindings.get(key);
+        if (prebinding != null) {
+            // Already pre-bound; just hold it for longer.
+            scheduleRelease(key, prebinding, timeoutMillis);
+            return;
+        }
+
+        ConnectionServiceWrapper service = getService(key.first, key.second);
+        final Prebinding newPrebinding = new Prebinding(service, SystemClock.elapsedRealtime());
+        mPrebindings.put(key, newPrebinding);
+        mNumPrebinds++;
+        service.incrementAssociatedCallCount();
+        Log.i(this, "prebind: %s", key.first.flattenToShortString());
+        service.prebind(new ServiceBinder.BindCallback() {
+            @Override
+            public void onSuccess() {
+                if (newPrebinding.mBoundTimeMillis < 0) {
+                    newPrebinding.mBoundTimeMillis = SystemClock.elapsedRealtime();
+                    mNumPrebindsBound++;
+                    mTotalPrebindBindMillis +=
+                            newPrebinding.mBoundTimeMillis - newPrebinding.mBindStartTimeMillis;
+                }
+            }
+
+            @Override
+            public void onFailure() {
+                mNumPrebindFailures++;
+                release(key, newPrebinding);
+            }
+        });
+        // The bind may have failed synchronously.
+        if (mPrebindings.get(key) == newPrebinding) {
+            scheduleRelease(key, newPrebinding, timeoutMillis);
+        }
+    }
+
+    /**
+     * Called when a connection is about to be created by a connection service. If the service was
+     * pre-bound, records how much of the bind was saved and releases the pre-bind, as the call now
+     * holds the binding.
+     */
+    @VisibleForTesting
+    public void onCreateConnection(ConnectionServiceWrapper service) {
+        Pair<ComponentName, UserHandle> key = Pair.create(service.getComponentName(),
+                service.getUserHandle());
+        Prebinding prebinding = mPrebindings.get(key);
+        if (prebinding == null || prebinding.mService != service) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        mNumPrebindsUsed++;
+        if (prebinding.mBoundTimeMillis < 0) {
+            // Still binding, but started early.
+            mNumPrebindsUsedBeforeBound++;
+            mTotalPrebindSavedMillis += now - prebinding.mBindStartTimeMillis;
+        } else {
+            mTotalPrebindSavedMillis +=
+                    prebinding.mBoundTimeMillis - prebinding.mBindStartTimeMillis;
+        }
+        Log.i(this, "onCreateConnection: using prebind of %s started %dms ago",
+                key.first.flattenToShortString(), now - prebinding.mBindStartTimeMillis);
+        release(key, prebinding);
+    }
+
+    /**
+     * Releases a pre-bind of the connection service of a phone account which is no longer
+     * expected to be used, rather than waiting for it to time out.
+     */
+    public void releasePrebind(PhoneAccountHandle phoneAccountHandle) {
+        if (phoneAccountHandle == null) {
+            return;
+        }
+        Pair<ComponentName, UserHandle> key = Pair.create(
+                phoneAccountHandle.getComponentName(), phoneAccountHandle.getUserHandle());
+        Prebinding prebinding = mPrebindings.get(key);
+        if (prebinding != null) {
+            mNumPrebindsExpired++;
+            release(key, prebinding);
+        }
+    }
+
+    private void scheduleRelease(Pair<ComponentName, UserHandle> key, Prebinding prebinding,
+            long timeoutMillis) {
+        if (prebinding.mReleaseRunnable != null) {
+            mHandler.removeCallbacks(prebinding.mReleaseRunnable.getRunnableToCancel());
+            prebinding.mReleaseRunnable.cancel();
+        }
+        prebinding.mReleaseRunnable = new Runnable("CSR.sR", mLock) {
+            @Override
+            public void loggedRun() {
+                if (mPrebindings.get(key) == prebinding) {
+                    mNumPrebindsExpired++;
+                    release(key, prebinding);
+                }
+            }
+        };
+        mHandler.postDelayed(prebinding.mReleaseRunnable.prepare(), timeoutMillis);
+    }
+
+    private void release(Pair<ComponentName, UserHandle> key, Prebinding prebinding) {
+        if (mPrebindings.get(key) != prebinding) {
+            return;
+        }
+        mPrebindings.remove(key);
+        if (prebinding.mReleaseRunnable != null) {
+            mHandler.removeCallbacks(prebinding.mReleaseRunnable.getRunnableToCancel());
+            prebinding.mReleaseRunnable.cancel();
+            prebinding.mReleaseRunnable = null;
+        }
+        // Unbinds the service if no calls are using it.
+        prebinding.mService.decrementAssociatedCallCount();
+    }
+
     /**
      * Dumps the state of the {@link ConnectionServiceRepository}.
      *
@@ -92,5 +268,13 @@ public class ConnectionServiceRepository {
             pw.println(componentName);
         }
         pw.decreaseIndent();
+        pw.println("prebinds: " + mNumPrebinds + ", pending: " + mPrebindings.size()
+                + ", failed: " + mNumPrebindFailures + ", used: " + mNumPrebindsUsed
+                + " (" + mNumPrebindsUsedBeforeBound + " before bound), expired: "
+                + mNumPrebindsExpired);
+        pw.println("avgPrebindBindMillis: " + (mNumPrebindsBound == 0 ? 0
+                : mTotalPrebindBindMillis / mNumPrebindsBound)
+                + ", avgPrebindSavedMillis: " + (mNumPrebindsUsed == 0 ? 0
+                : mTotalPrebindSavedMillis / mNumPrebindsUsed));
     }
 }
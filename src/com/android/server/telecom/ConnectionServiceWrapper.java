@@ -1202,12 +1202,13 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
         BindCallback callback = new BindCallback() {
             @Override
             public void onSuccess() {
+                call.markSetupStage(CallSetupTimer.CONNECTION_SERVICE_BOUND);
                 String callId = mCallIdMapper.getCallId(call);
                 mPendingResponses.put(callId, response);
 
                 Bundle extras = call.getIntentExtras();
 
-                Log.addEvent(call, LogUtils.Events.START_CONFERENCE,
+                LogUtils.addEvent(call, LogUtils.Events.START_CONFERENCE,
                         Log.piiHandle(call.getHandle()));
 
                 ConnectionRequest connectionRequest = new ConnectionRequest.Builder()
@@ -1260,9 +1261,11 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
     @VisibleForTesting
     public void createConnection(final Call call, final CreateConnectionResponse response) {
         Log.i(this, "createConnection(%s) via %s.", call, getComponentName());
+        mConnectionServiceRepository.onCreateConnection(this);
         BindCallback callback = new BindCallback() {
             @Override
             public void onSuccess() {
+                call.markSetupStage(CallSetupTimer.CONNECTION_SERVICE_BOUND);
                 String callId = mCallIdMapper.getCallId(call);
                 mPendingResponses.put(callId, response);
 
@@ -1297,7 +1300,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                             call.getHandoverSourceCall().getTargetPhoneAccount());
                 }
 
-                Log.addEvent(call, LogUtils.Events.START_CONNECTION,
+                LogUtils.addEvent(call, LogUtils.Events.START_CONNECTION,
                         Log.piiHandle(call.getHandle()) + " via:" +
                                 getComponentName().getPackageName());
 
@@ -1355,7 +1358,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                 final String callId = mCallIdMapper.getCallId(call);
                 // If still bound, tell the connection service create connection has failed.
                 if (callId != null && isServiceValid("createConnectionFailed")) {
-                    Log.addEvent(call, LogUtils.Events.CREATE_CONNECTION_FAILED,
+                    LogUtils.addEvent(call, LogUtils.Events.CREATE_CONNECTION_FAILED,
                             Log.piiHandle(call.getHandle()));
                     try {
                         logOutgoing("createConnectionFailed %s", callId);
@@ -1401,7 +1404,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                 final String callId = mCallIdMapper.getCallId(call);
                 // If still bound, tell the connection service create connection has failed.
                 if (callId != null && isServiceValid("createConferenceFailed")) {
-                    Log.addEvent(call, LogUtils.Events.CREATE_CONFERENCE_FAILED,
+                    LogUtils.addEvent(call, LogUtils.Events.CREATE_CONFERENCE_FAILED,
                             Log.piiHandle(call.getHandle()));
                     try {
                         logOutgoing("createConferenceFailed %s", callId);
@@ -1443,7 +1446,7 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
                 final String callId = mCallIdMapper.getCallId(call);
                 // If still bound, tell the connection service create connection has failed.
                 if (callId != null && isServiceValid("handoverFailed")) {
-                    Log.addEvent(call, LogUtils.Events.HANDOVER_FAILED,
+                    LogUtils.addEvent(call, LogUtils.Events.HANDOVER_FAILED,
                             Log.piiHandle(call.getHandle()));
                     try {
                         mServiceInterface.handoverFailed(
@@ -1924,6 +1927,14 @@ public class ConnectionServiceWrapper extends ServiceBinder implements
         mBinder.bind(callback, null /* null call */);
     }
 
+    /**
+     * Binds to the service ahead of a call being placed with it; see
+     * {@link ConnectionServiceRepository#prebind}.
+     */
+    void prebind(BindCallback callback) {
+        mBinder.bind(callback, null /* null call */);
+    }
+
     @Override
     public void connectionServiceFocusGained() {
         BindCallback callback = new BindCallback() {
@@ -18,6 +18,7 @@ package com.android.server.telecom;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.SystemClock;
 import android.telecom.DisconnectCause;
 import android.telecom.Log;
 import android.telecom.ParcelableConference;
@@ -125,6 +126,14 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
     private CreateConnectionTimeout mTimeout;
     private ConnectionServiceWrapper mService;
     private int mConnectionAttempt;
+    // The accounts of an emergency call whose connection services were bound ahead of being
+    // attempted.
+    private final List<PhoneAccountHandle> mPreparedAccounts = new ArrayList<>();
+    // The attempt in progress and when it started, for analytics.
+    private CallAttemptRecord mCurrentAttempt;
+    private long mCurrentAttemptStartTimeMillis;
+    // Overrides Timeouts#getEmergencyCallPrepareFallbackTimeoutMillis when not negative.
+    private long mPrepareFallbackTimeoutMillis = -1;
 
     @VisibleForTesting
     public CreateConnectionProcessor(
@@ -156,9 +165,15 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
         mTelephonyAdapter = adapter;
     }
 
+    @VisibleForTesting
+    public void setPrepareFallbackTimeoutMillis(long timeoutMillis) {
+        mPrepareFallbackTimeoutMillis = timeoutMillis;
+    }
+
     @VisibleForTesting
     public void process() {
         Log.v(this, "process");
+        mCall.markSetupStage(CallSetupTimer.CREATE_CONNECTION_STARTED);
         clearTimeout();
         mAttemptRecords = new ArrayList<>();
         if (mCall.getTargetPhoneAccount() != null) {
@@ -170,6 +185,7 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
             adjustAttemptsForEmergency(mCall.getTargetPhoneAccount());
         }
         mAttemptRecordIterator = mAttemptRecords.iterator();
+        prepareFallbackAttemptsIfNeeded();
         attemptNextPhoneAccount();
     }
 
@@ -193,6 +209,8 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
         CreateConnectionResponse response = mCallResponse;
         mCallResponse = null;
         clearTimeout();
+        recordAttempt(false /* isSuccessful */);
+        releasePreparedAttempts();
 
         ConnectionServiceWrapper service = mCall.getConnectionService();
         if (service != null) {
@@ -246,6 +264,8 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
                 mCall.setTargetPhoneAccount(attempt.targetPhoneAccount);
                 mCall.setConnectionService(mService);
                 setTimeoutIfNeeded(mService, attempt);
+                mCurrentAttempt = attempt;
+                mCurrentAttemptStartTimeMillis = SystemClock.elapsedRealtime();
                 if (mCall.isIncoming()) {
                     if (mCall.isAdhocConferenceCall()) {
                         mService.createConference(mCall, CreateConnectionProcessor.this);
@@ -287,6 +307,87 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
         }
     }
 
+    /**
+     * For an emergency call, binds to the connection services of the accounts after the first in
+     * parallel with the first attempt, so that failing over to them doesn't wait for a bind. The
+     * attempts themselves are still made one at a time, as only one may place the call.
+     *
+     * Only fallbacks to a different connection service than the first attempt's are prepared,
+     * e.g. a SIM after a connection manager. Failing over between the SIMs of a multi-SIM device
+     * stays on the service the first attempt already bound, so nothing is prepared for it.
+     */
+    private void prepareFallbackAttemptsIfNeeded() {
+        releasePreparedAttempts();
+        if (!mCall.isEmergencyCall() || mAttemptRecords.size() < 2) {
+            return;
+        }
+        long timeoutMillis = mPrepareFallbackTimeoutMillis >= 0 ? mPrepareFallbackTimeoutMillis
+                : Timeouts.getEmergencyCallPrepareFallbackTimeoutMillis(
+                        mContext.getContentResolver());
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        PhoneAccountHandle firstAccount = mAttemptRecords.get(0).connectionManagerPhoneAccount;
+        for (int i = 1; i < mAttemptRecords.size(); i++) {
+            PhoneAccountHandle account = mAttemptRecords.get(i).connectionManagerPhoneAccount;
+            // Pre-binds are held per connection service, so one is only needed for services
+            // other than that of the first attempt, which the attempt binds itself.
+            if (account == null || isSameService(account, firstAccount) || isPrepared(account)
+                    || !mPhoneAccountRegistrar.phoneAccountRequiresBindPermission(account)) {
+                continue;
+            }
+            Log.i(this, "Preparing %s for emergency call fallback", account);
+            mRepository.prebind(account, timeoutMillis);
+            mPreparedAccounts.add(account);
+        }
+    }
+
+    /**
+     * Releases the connection services bound by {@link #prepareFallbackAttemptsIfNeeded()} once
+     * no more attempts will be made.
+     */
+    private void releasePreparedAttempts() {
+        for (PhoneAccountHandle account : mPreparedAccounts) {
+            mRepository.releasePrebind(account);
+        }
+        mPreparedAccounts.clear();
+    }
+
+    /**
+     * @return {@code true} if the connection service of an account was bound by
+     *         {@link #prepareFallbackAttemptsIfNeeded()}, possibly for another of its accounts.
+     */
+    private boolean isPrepared(PhoneAccountHandle account) {
+        for (PhoneAccountHandle preparedAccount : mPreparedAccounts) {
+            if (isSameService(account, preparedAccount)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameService(PhoneAccountHandle account,
+            PhoneAccountHandle otherAccount) {
+        return otherAccount != null
+                && Objects.equals(account.getComponentName(), otherAccount.getComponentName())
+                && Objects.equals(account.getUserHandle(), otherAccount.getUserHandle());
+    }
+
+    /**
+     * Adds the attempt in progress, if any, to the call's analytics.
+     */
+    private void recordAttempt(boolean isSuccessful) {
+        if (mCurrentAttempt == null) {
+            return;
+        }
+        PhoneAccountHandle account = mCurrentAttempt.connectionManagerPhoneAccount;
+        mCall.getAnalytics().addConnectionAttempt(
+                account.getComponentName().flattenToShortString(),
+                SystemClock.elapsedRealtime() - mCurrentAttemptStartTimeMillis,
+                isPrepared(account), isSuccessful);
+        mCurrentAttempt = null;
+    }
+
     private void setTimeoutIfNeeded(ConnectionServiceWrapper service, CallAttemptRecord attempt) {
         clearTimeout();
 
@@ -468,6 +569,7 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
     private void notifyCallConnectionFailure(DisconnectCause errorDisconnectCause) {
         if (mCallResponse != null) {
             clearTimeout();
+            releasePreparedAttempts();
             mCallResponse.handleCreateConnectionFailure(errorDisconnectCause);
             mCallResponse = null;
             mCall.clearConnectionService();
@@ -477,6 +579,7 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
     private void notifyConferenceCallFailure(DisconnectCause errorDisconnectCause) {
         if (mCallResponse != null) {
             clearTimeout();
+            releasePreparedAttempts();
             mCallResponse.handleCreateConferenceFailure(errorDisconnectCause);
             mCallResponse = null;
             mCall.clearConnectionService();
@@ -495,6 +598,8 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
         } else {
             // Success -- share the good news and remember that we are no longer interested
             // in hearing about any more attempts
+            recordAttempt(true /* isSuccessful */);
+            releasePreparedAttempts();
             mCallResponse.handleCreateConnectionSuccess(idMapper, connection);
             mCallResponse = null;
             // If there's a timeout running then don't clear it. The timeout can be triggered
@@ -513,6 +618,8 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
         } else {
             // Success -- share the good news and remember that we are no longer interested
             // in hearing about any more attempts
+            recordAttempt(true /* isSuccessful */);
+            releasePreparedAttempts();
             mCallResponse.handleCreateConferenceSuccess(idMapper, conference);
             mCallResponse = null;
             // If there's a timeout running then don't clear it. The timeout can be triggered
@@ -560,6 +667,7 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
     public void handleCreateConnectionFailure(DisconnectCause errorDisconnectCause) {
         // Failure of some sort; record the reasons for failure and try again if possible
         Log.d(CreateConnectionProcessor.this, "Connection failed: (%s)", errorDisconnectCause);
+        recordAttempt(false /* isSuccessful */);
         if (shouldFailCallIfConnectionManagerFails(errorDisconnectCause)) {
             notifyCallConnectionFailure(errorDisconnectCause);
             return;
@@ -572,6 +680,7 @@ public class CreateConnectionProcessor implements CreateConnectionResponse {
     public void handleCreateConferenceFailure(DisconnectCause errorDisconnectCause) {
         // Failure of some sort; record the reasons for failure and try again if possible
         Log.d(CreateConnectionProcessor.this, "Conference failed: (%s)", errorDisconnectCause);
+        recordAttempt(false /* isSuccessful */);
         if (shouldFailCallIfConnectionManagerFails(errorDisconnectCause)) {
             notifyConferenceCallFailure(errorDisconnectCause);
             return;
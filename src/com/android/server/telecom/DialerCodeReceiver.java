@@ -66,7 +66,7 @@ public class DialerCodeReceiver extends BroadcastReceiver {
                 // If there is an active call, add the "log mark" for that call; otherwise we will
                 // add a non-call event.
                 Call currentCall = mCallsManager.getActiveCall();
-                Log.addEvent(currentCall, LogUtils.Events.USER_LOG_MARK);
+                LogUtils.addEvent(currentCall, LogUtils.Events.USER_LOG_MARK);
             } else if (intent.getData().getHost().equals(TELECOM_SECRET_CODE_MENU)) {
                 Log.i("DialerCodeReceiver", "Secret code used to open developer menu.");
                 Intent confirmIntent = new Intent(context, TelecomDeveloperMenu.class);
@@ -50,6 +50,7 @@ import android.telecom.ParcelableCall;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 
 import com.android.internal.annotations.VisibleForTesting;
 // TODO: Needed for move to system service: import com.android.internal.R;
@@ -65,6 +66,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -275,7 +277,8 @@ public class InCallController extends CallsManagerListenerBase {
         @Override
         public int connect(Call call) {
             if (mIsConnected) {
-                Log.addEvent(call, LogUtils.Events.INFO, "Already connected, ignoring request.");
+                LogUtils.addEvent(call, LogUtils.Events.INFO,
+                        "Already connected, ignoring request.");
                 return CONNECTION_SUCCEEDED;
             }
 
@@ -349,7 +352,8 @@ public class InCallController extends CallsManagerListenerBase {
             } else {
                 Log.i(InCallController.this, "ICSBC#disconnect: already disconnected; %s",
                         mInCallServiceInfo);
-                Log.addEvent(null, LogUtils.Events.INFO, "Already disconnected, ignoring request.");
+                LogUtils.addEvent(null, LogUtils.Events.INFO,
+                        "Already disconnected, ignoring request.");
             }
         }
 
@@ -877,6 +881,42 @@ public class InCallController extends CallsManagerListenerBase {
 
     private final CallIdMapper mCallIdMapper = new CallIdMapper(Call::getId);
 
+    /**
+     * What was last sent to an in-call service for a call.
+     */
+    private static class SentCall {
+        // The sanitized call as sent. Its extras are the call's own or the sanitized extras
+        // memoized on the call, so keeping it adds no copies; extras are compared by version.
+        final ParcelableCall mParcelableCall;
+        final int mExtrasVersion;
+
+        SentCall(ParcelableCall parcelableCall, int extrasVersion) {
+            mParcelableCall = parcelableCall;
+            mExtrasVersion = extrasVersion;
+        }
+    }
+
+    /**
+     * The last call sent to each in-call service, keyed by call ID; used to skip updates which
+     * wouldn't change anything for the service.
+     */
+    private final Map<InCallServiceInfo, Map<String, SentCall>> mLastSentCalls =
+            new ArrayMap<>();
+    private int mNumUpdatesSent;
+    private int mNumUpdatesSkipped;
+    private int mNumConversions;
+    private int mNumConversionsShared;
+    private final int[] mFieldChangeCounts = new int[ParcelableCallUtils.FIELD_NAMES.length];
+
+    /**
+     * Calls with an update waiting to be sent, when update batching is enabled; see
+     * {@link Timeouts#getInCallUpdateBatchingWindowMillis}.
+     */
+    private final Set<Call> mCallsPendingUpdate = new ArraySet<>();
+    private boolean mIsUpdateFlushScheduled;
+    private int mNumUpdateRequests;
+    private int mNumUpdateDispatches;
+
     private final Context mContext;
     private final AppOpsManager mAppOpsManager;
     private final TelecomSystem.SyncRoot mLock;
@@ -889,6 +929,7 @@ public class InCallController extends CallsManagerListenerBase {
     private CarSwappingInCallServiceConnection mInCallServiceConnection;
     private NonUIInCallServiceConnectionCollection mNonUIInCallServiceConnections;
     private final ClockProxy mClockProxy;
+    private final PermissionDecisionCache mPermissionDecisionCache;
 
     // Future that's in a completed state unless we're in the middle of binding to a service.
     // The future will complete with true if binding succeeds, false if it timed out.
@@ -911,7 +952,7 @@ public class InCallController extends CallsManagerListenerBase {
             SystemStateHelper systemStateHelper,
             DefaultDialerCache defaultDialerCache, Timeouts.Adapter timeoutsAdapter,
             EmergencyCallHelper emergencyCallHelper, CarModeTracker carModeTracker,
-            ClockProxy clockProxy) {
+            ClockProxy clockProxy, PermissionDecisionCache permissionDecisionCache) {
         mContext = context;
         mAppOpsManager = context.getSystemService(AppOpsManager.class);
         mLock = lock;
@@ -923,6 +964,7 @@ public class InCallController extends CallsManagerListenerBase {
         mCarModeTracker = carModeTracker;
         mSystemStateHelper.addListener(mSystemStateListener);
         mClockProxy = clockProxy;
+        mPermissionDecisionCache = permissionDecisionCache;
     }
 
     @Override
@@ -969,7 +1011,7 @@ public class InCallController extends CallsManagerListenerBase {
                         info.isExternalCallsSupported(), includeRttCall,
                         info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI);
                 try {
-                    inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
+                    inCallService.addCall(prepareParcelableCallForService(info, call, parcelableCall));
                 } catch (RemoteException ignored) {
                 }
             }
@@ -999,12 +1041,17 @@ public class InCallController extends CallsManagerListenerBase {
         }
         call.removeListener(mCallListener);
         mCallIdMapper.removeCall(call);
+        mCallsPendingUpdate.remove(call);
+        for (Map<String, SentCall> lastSent : mLastSentCalls.values()) {
+            lastSent.remove(call.getId());
+        }
         maybeTrackMicrophoneUse(isMuted());
     }
 
     @Override
     public void onExternalCallChanged(Call call, boolean isExternalCall) {
         Log.i(this, "onExternalCallChanged: %s -> %b", call, isExternalCall);
+        flushPendingUpdate(call);
 
         List<ComponentName> componentsUpdated = new ArrayList<>();
         if (!isExternalCall) {
@@ -1034,7 +1081,7 @@ public class InCallController extends CallsManagerListenerBase {
                         info.isExternalCallsSupported(), includeRttCall,
                         info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI);
                 try {
-                    inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
+                    inCallService.addCall(prepareParcelableCallForService(info, call, parcelableCall));
                 } catch (RemoteException ignored) {
                 }
             }
@@ -1067,7 +1114,7 @@ public class InCallController extends CallsManagerListenerBase {
 
                 try {
                     inCallService.updateCall(
-                            sanitizeParcelableCallForService(info, parcelableCall));
+                            prepareParcelableCallForService(info, call, parcelableCall));
                 } catch (RemoteException ignored) {
                 }
             }
@@ -1088,7 +1135,8 @@ public class InCallController extends CallsManagerListenerBase {
                 && vibrateOnStateChange) {
             performHapticFeedback(VibrationEffect.get(VibrationEffect.EFFECT_DOUBLE_CLICK));
         }
-        updateCall(call);
+        // State transitions are never batched.
+        updateCallImmediately(call, false /* videoProviderChanged */, false /* rttInfoChanged */);
     }
 
     @Override
@@ -1129,6 +1177,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     void onPostDialWait(Call call, String remaining) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
             Log.i(this, "Calling onPostDialWait, remaining = %s", remaining);
             for (IInCallService inCallService : mInCallServices.values()) {
@@ -1212,6 +1261,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     private void notifyConnectionEvent(Call call, String event, Bundle extras) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
             for (IInCallService inCallService : mInCallServices.values()) {
                 try {
@@ -1227,6 +1277,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     private void notifyRttInitiationFailure(Call call, int reason) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
              mInCallServices.entrySet().stream()
                     .filter((entry) -> entry.getKey().equals(mInCallServiceConnection.getInfo()))
@@ -1243,6 +1294,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     private void notifyRemoteRttRequest(Call call, int requestId) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
             mInCallServices.entrySet().stream()
                     .filter((entry) -> entry.getKey().equals(mInCallServiceConnection.getInfo()))
@@ -1259,6 +1311,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     private void notifyHandoverFailed(Call call, int error) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
             for (IInCallService inCallService : mInCallServices.values()) {
                 try {
@@ -1270,6 +1323,7 @@ public class InCallController extends CallsManagerListenerBase {
     }
 
     private void notifyHandoverComplete(Call call) {
+        flushPendingUpdate(call);
         if (!mInCallServices.isEmpty()) {
             for (IInCallService inCallService : mInCallServices.values()) {
                 try {
@@ -1293,6 +1347,8 @@ public class InCallController extends CallsManagerListenerBase {
             mNonUIInCallServiceConnections = null;
         }
         mInCallServices.clear();
+        mLastSentCalls.clear();
+        mCallsPendingUpdate.clear();
     }
 
     /**
@@ -1515,9 +1571,8 @@ public class InCallController extends CallsManagerListenerBase {
         // obeys the permission model since a single APK typically normally only has a single UID.
         String[] uidPackages = packageManager.getPackagesForUid(serviceInfo.applicationInfo.uid);
         boolean hasControlInCallPermission = Arrays.stream(uidPackages).anyMatch(
-                p -> packageManager.checkPermission(
-                        Manifest.permission.CONTROL_INCALL_EXPERIENCE,
-                        p) == PackageManager.PERMISSION_GRANTED);
+                p -> mPermissionDecisionCache.hasPackagePermission(packageManager, p,
+                        Manifest.permission.CONTROL_INCALL_EXPERIENCE));
         boolean isCarModeUIService = serviceInfo.metaData != null &&
                 serviceInfo.metaData.getBoolean(
                         TelecomManager.METADATA_IN_CALL_SERVICE_CAR_MODE_UI, false);
@@ -1612,7 +1667,7 @@ public class InCallController extends CallsManagerListenerBase {
                         info.isExternalCallsSupported(),
                         includeRttCall,
                         info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI);
-                inCallService.addCall(sanitizeParcelableCallForService(info, parcelableCall));
+                inCallService.addCall(prepareParcelableCallForService(info, call, parcelableCall));
             } catch (RemoteException ignored) {
             }
         }
@@ -1643,6 +1698,7 @@ public class InCallController extends CallsManagerListenerBase {
             trackCallingUserInterfaceStopped(disconnectedInfo);
         }
         mInCallServices.remove(disconnectedInfo);
+        mLastSentCalls.remove(disconnectedInfo);
     }
 
     /**
@@ -1664,9 +1720,66 @@ public class InCallController extends CallsManagerListenerBase {
      * {@code false} otherwise.
      */
     private void updateCall(Call call, boolean videoProviderChanged, boolean rttInfoChanged) {
+        mNumUpdateRequests++;
+        // A new video provider or RTT call has to reach the services as part of this update, so
+        // those are never deferred.
+        long batchingWindowMillis = videoProviderChanged || rttInfoChanged ? 0
+                : mTimeoutsAdapter.getInCallUpdateBatchingWindowMillis(
+                        mContext.getContentResolver());
+        if (batchingWindowMillis <= 0) {
+            mCallsPendingUpdate.remove(call);
+            sendCallUpdate(call, videoProviderChanged, rttInfoChanged);
+            return;
+        }
+
+        mCallsPendingUpdate.add(call);
+        if (!mIsUpdateFlushScheduled) {
+            mIsUpdateFlushScheduled = true;
+            mHandler.postDelayed(new Runnable("ICC.fPU", mLock) {
+                @Override
+                public void loggedRun() {
+                    mIsUpdateFlushScheduled = false;
+                    List<Call> calls = new ArrayList<>(mCallsPendingUpdate);
+                    mCallsPendingUpdate.clear();
+                    for (Call pendingCall : calls) {
+                        sendCallUpdate(pendingCall, false /* videoProviderChanged */,
+                                false /* rttInfoChanged */);
+                    }
+                }
+            }.prepare(), batchingWindowMillis);
+        }
+    }
+
+    /**
+     * Informs all {@link InCallService} instances of the updated call information without
+     * batching, replacing any pending batched update of the call.
+     */
+    private void updateCallImmediately(Call call, boolean videoProviderChanged,
+            boolean rttInfoChanged) {
+        mNumUpdateRequests++;
+        mCallsPendingUpdate.remove(call);
+        sendCallUpdate(call, videoProviderChanged, rttInfoChanged);
+    }
+
+    /**
+     * Sends any batched update of a call now, so that the in-call services see it before
+     * whatever is about to be sent about the call.
+     */
+    private void flushPendingUpdate(Call call) {
+        if (mCallsPendingUpdate.remove(call)) {
+            sendCallUpdate(call, false /* videoProviderChanged */, false /* rttInfoChanged */);
+        }
+    }
+
+    private void sendCallUpdate(Call call, boolean videoProviderChanged, boolean rttInfoChanged) {
+        mNumUpdateDispatches++;
         if (!mInCallServices.isEmpty()) {
             Log.i(this, "Sending updateCall %s", call);
             List<ComponentName> componentsUpdated = new ArrayList<>();
+            List<ComponentName> componentsSkipped = new ArrayList<>();
+            // Services which need the call parcelled the same way share a single conversion;
+            // indexed by the conversion parameters which vary per service.
+            ParcelableCall[] conversions = new ParcelableCall[4];
             for (Map.Entry<InCallServiceInfo, IInCallService> entry : mInCallServices.entrySet()) {
                 InCallServiceInfo info = entry.getKey();
                 if (call.isExternalCall() && !info.isExternalCallsSupported()) {
@@ -1677,24 +1790,95 @@ public class InCallController extends CallsManagerListenerBase {
                     continue;
                 }
 
-                ParcelableCall parcelableCall = ParcelableCallUtils.toParcelableCall(
-                        call,
-                        videoProviderChanged /* includeVideoProvider */,
-                        mCallsManager.getPhoneAccountRegistrar(),
-                        info.isExternalCallsSupported(),
-                        rttInfoChanged && info.equals(mInCallServiceConnection.getInfo()),
-                        info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI);
+                boolean includeRttCall = rttInfoChanged
+                        && info.equals(mInCallServiceConnection.getInfo());
+                boolean isForSystemUi = info.getType() == IN_CALL_SERVICE_TYPE_SYSTEM_UI;
+                int conversionIndex = (info.isExternalCallsSupported() ? 1 : 0)
+                        | (isForSystemUi ? 2 : 0);
+                ParcelableCall parcelableCall;
+                if (includeRttCall) {
+                    // Only the UI gets the RTT call, so this conversion is never shared.
+                    mNumConversions++;
+                    parcelableCall = ParcelableCallUtils.toParcelableCall(
+                            call,
+                            videoProviderChanged /* includeVideoProvider */,
+                            mCallsManager.getPhoneAccountRegistrar(),
+                            info.isExternalCallsSupported(),
+                            true /* includeRttCall */,
+                            isForSystemUi);
+                } else if (conversions[conversionIndex] != null) {
+                    mNumConversionsShared++;
+                    parcelableCall = conversions[conversionIndex];
+                } else {
+                    mNumConversions++;
+                    parcelableCall = ParcelableCallUtils.toParcelableCall(
+                            call,
+                            videoProviderChanged /* includeVideoProvider */,
+                            mCallsManager.getPhoneAccountRegistrar(),
+                            info.isExternalCallsSupported(),
+                            false /* includeRttCall */,
+                            isForSystemUi);
+                    conversions[conversionIndex] = parcelableCall;
+                }
                 ComponentName componentName = info.getComponentName();
                 IInCallService inCallService = entry.getValue();
+
+                ParcelableCall sanitizedCall = sanitizeParcelableCallForService(info,
+                        parcelableCall);
+                Map<String, SentCall> lastSent = mLastSentCalls.get(info);
+                SentCall previous = lastSent == null ? null : lastSent.get(sanitizedCall.getId());
+                int changedFields = previous == null ? ~0 : ParcelableCallUtils.getChangedFields(
+                        previous.mParcelableCall, previous.mExtrasVersion,
+                        sanitizedCall, call.getExtrasVersion());
+                if (changedFields == 0) {
+                    mNumUpdatesSkipped++;
+                    componentsSkipped.add(componentName);
+                    continue;
+                }
+                recordParcelableCallSent(info, call, sanitizedCall, changedFields);
                 componentsUpdated.add(componentName);
 
                 try {
-                    inCallService.updateCall(
-                            sanitizeParcelableCallForService(info, parcelableCall));
+                    inCallService.updateCall(sanitizedCall);
                 } catch (RemoteException ignored) {
                 }
             }
-            Log.i(this, "Components updated: %s", componentsUpdated);
+            Log.i(this, "Components updated: %s, unchanged: %s", componentsUpdated,
+                    componentsSkipped);
+        }
+    }
+
+    /**
+     * Sanitizes a {@link ParcelableCall} for a service and records it as the latest version of the
+     * call the service knows about.
+     */
+    private ParcelableCall prepareParcelableCallForService(InCallServiceInfo info, Call call,
+            ParcelableCall parcelableCall) {
+        ParcelableCall sanitizedCall = sanitizeParcelableCallForService(info, parcelableCall);
+        recordParcelableCallSent(info, call, sanitizedCall, ~0 /* changedFields */);
+        return sanitizedCall;
+    }
+
+    private void recordParcelableCallSent(InCallServiceInfo info, Call call,
+            ParcelableCall parcelableCall, int changedFields) {
+        Map<String, SentCall> lastSent = mLastSentCalls.get(info);
+        if (lastSent == null) {
+            lastSent = new ArrayMap<>();
+            mLastSentCalls.put(info, lastSent);
+        }
+        lastSent.put(parcelableCall.getId(),
+                new SentCall(parcelableCall, call.getExtrasVersion()));
+        mNumUpdatesSent++;
+        if (changedFields != ~0) {
+            for (int bit = 0; bit < mFieldChangeCounts.length; bit++) {
+                if ((changedFields & (1 << bit)) != 0) {
+                    mFieldChangeCounts[bit]++;
+                }
+            }
+        }
+        if (Log.VERBOSE) {
+            Log.v(this, "Sending %s to %s; changed: %s", parcelableCall.getId(),
+                    info.getComponentName(), ParcelableCallUtils.fieldsToString(changedFields));
         }
     }
 
@@ -1745,6 +1929,24 @@ public class InCallController extends CallsManagerListenerBase {
         }
         pw.decreaseIndent();
 
+        pw.println("ParcelableCall updates:");
+        pw.increaseIndent();
+        pw.println("sent: " + mNumUpdatesSent + ", skipped (unchanged): " + mNumUpdatesSkipped
+                + ", conversions: " + mNumConversions + ", shared conversions: "
+                + mNumConversionsShared);
+        StringBuilder fieldChanges = new StringBuilder("fieldChanges:");
+        for (int bit = 0; bit < mFieldChangeCounts.length; bit++) {
+            fieldChanges.append(' ').append(ParcelableCallUtils.FIELD_NAMES[bit]).append('=')
+                    .append(mFieldChangeCounts[bit]);
+        }
+        pw.println(fieldChanges);
+        pw.println("update requests: " + mNumUpdateRequests + ", dispatched: "
+                + mNumUpdateDispatches + ", batching ratio: " + (mNumUpdateDispatches == 0 ? 0
+                : String.format("%.2f", (float) mNumUpdateRequests / mNumUpdateDispatches))
+                + ", batching window: " + mTimeoutsAdapter.getInCallUpdateBatchingWindowMillis(
+                        mContext.getContentResolver()) + "ms");
+        pw.decreaseIndent();
+
         mCarModeTracker.dump(pw);
     }
 
@@ -1829,8 +2031,8 @@ public class InCallController extends CallsManagerListenerBase {
                 ParcelableCall.ParcelableCallBuilder.fromParcelableCall(parcelableCall);
         // Check for contacts permission. If it's not there, remove the contactsDisplayName.
         PackageManager pm = mContext.getPackageManager();
-        if (pm.checkPermission(Manifest.permission.READ_CONTACTS,
-                info.getComponentName().getPackageName()) != PackageManager.PERMISSION_GRANTED) {
+        if (!mPermissionDecisionCache.hasPackagePermission(pm,
+                info.getComponentName().getPackageName(), Manifest.permission.READ_CONTACTS)) {
             builder.setContactDisplayName(null);
         }
 
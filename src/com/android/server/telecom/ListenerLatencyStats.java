@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how long each {@link CallsManager} listener takes to handle each callback, so that a
+ * slow call transition can be attributed to the listener responsible.
+ *
+ * The latencies of each listener class and callback are kept in a {@link Log2Histogram} in
+ * microseconds. Recording is cheap enough to leave on.
+ */
+public class ListenerLatencyStats {
+    public static final int ON_CALL_ADDED = 0;
+    public static final int ON_CALL_REMOVED = 1;
+    public static final int ON_CALL_STATE_CHANGED = 2;
+    public static final int ON_CAN_ADD_CALL_CHANGED = 3;
+    private static final int NUM_CALLBACKS = 4;
+    private static final String[] CALLBACK_NAMES = {
+            "onCallAdded", "onCallRemoved", "onCallStateChanged", "onCanAddCallChanged"};
+
+    @VisibleForTesting
+    public static final int NUM_BUCKETS = 24;
+
+    // Latencies indexed by callback, keyed on listener class.
+    private final ArrayMap<Class<?>, Log2Histogram[]> mLatencies = new ArrayMap<>();
+
+    /**
+     * Records the time a listener took to handle a callback.
+     *
+     * @param listener The listener.
+     * @param callback The callback, e.g. {@link #ON_CALL_ADDED}.
+     * @param elapsedNanos The time the listener took.
+     */
+    public synchronized void record(Object listener, int callback, long elapsedNanos) {
+        Log2Histogram[] byCallback = mLatencies.get(listener.getClass());
+        if (byCallback == null) {
+            byCallback = new Log2Histogram[NUM_CALLBACKS];
+            mLatencies.put(listener.getClass(), byCallback);
+        }
+        Log2Histogram latencies = byCallback[callback];
+        if (latencies == null) {
+            latencies = new Log2Histogram(NUM_BUCKETS);
+            byCallback[callback] = latencies;
+        }
+        latencies.add(elapsedNanos / 1000);
+    }
+
+    /**
+     * @return The number of times a listener class has handled a callback.
+     */
+    @VisibleForTesting
+    public synchronized int getCount(Class<?> listenerClass, int callback) {
+        Log2Histogram latencies = getLatencies(listenerClass, callback);
+        return latencies == null ? 0 : latencies.getCount();
+    }
+
+    /**
+     * Estimates a percentile of the latencies of a listener class handling a callback; see
+     * {@link Log2Histogram#getPercentile}.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated latency in microseconds, or -1 if there are none recorded.
+     */
+    @VisibleForTesting
+    public synchronized long getPercentileMicros(Class<?> listenerClass, int callback,
+            int percentile) {
+        Log2Histogram latencies = getLatencies(listenerClass, callback);
+        return latencies == null ? -1 : latencies.getPercentile(percentile);
+    }
+
+    public synchronized void clear() {
+        mLatencies.clear();
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        for (int i = 0; i < mLatencies.size(); i++) {
+            Log2Histogram[] byCallback = mLatencies.valueAt(i);
+            pw.println(mLatencies.keyAt(i).getName());
+            pw.increaseIndent();
+            for (int callback = 0; callback < NUM_CALLBACKS; callback++) {
+                Log2Histogram latencies = byCallback[callback];
+                if (latencies == null) {
+                    continue;
+                }
+                pw.println(CALLBACK_NAMES[callback] + ": count=" + latencies.getCount()
+                        + ", avgUs=" + latencies.getTotal() / latencies.getCount()
+                        + ", p50Us=" + latencies.getPercentile(50)
+                        + ", p99Us=" + latencies.getPercentile(99)
+                        + ", maxUs=" + latencies.getMax());
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    /**
+     * @return The latencies in the form used by the analytics proto.
+     */
+    public synchronized TelecomLogClass.ListenerLatency[] toProto() {
+        List<TelecomLogClass.ListenerLatency> result = new ArrayList<>();
+        for (int i = 0; i < mLatencies.size(); i++) {
+            Log2Histogram[] byCallback = mLatencies.valueAt(i);
+            for (int callback = 0; callback < NUM_CALLBACKS; callback++) {
+                Log2Histogram latencies = byCallback[callback];
+                if (latencies == null) {
+                    continue;
+                }
+                TelecomLogClass.ListenerLatency proto = new TelecomLogClass.ListenerLatency()
+                        .setListenerName(mLatencies.keyAt(i).getName())
+                        .setCallback(callback + 1)
+                        .setCount(latencies.getCount())
+                        .setTotalMicros(latencies.getTotal())
+                        .setMaxMicros(latencies.getMax());
+                proto.bucketCounts = latencies.getBucketCounts();
+                result.add(proto);
+            }
+        }
+        return result.toArray(new TelecomLogClass.ListenerLatency[result.size()]);
+    }
+
+    private Log2Histogram getLatencies(Class<?> listenerClass, int callback) {
+        Log2Histogram[] byCallback = mLatencies.get(listenerClass);
+        return byCallback == null ? null : byCallback[callback];
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+/**
+ * A count, total, maximum and histogram of non-negative values, from which percentiles can be
+ * estimated without keeping the values.
+ *
+ * Bucket {@code i} of the histogram holds values with a bit length of {@code i}, i.e. bucket 0
+ * holds 0, bucket 1 holds 1, bucket 2 holds 2-3, bucket 3 holds 4-7 and so on. The last bucket
+ * also holds everything larger.
+ *
+ * Not thread safe; users guard it with their own lock.
+ */
+public class Log2Histogram {
+    private final int[] mBuckets;
+    private int mCount;
+    private long mTotal;
+    private long mMax;
+
+    /**
+     * @param numBuckets The number of buckets, at most {@link Long#SIZE}.
+     */
+    public Log2Histogram(int numBuckets) {
+        mBuckets = new int[numBuckets];
+    }
+
+    /**
+     * Adds a value. Negative values are counted as 0.
+     */
+    public void add(long value) {
+        value = Math.max(0, value);
+        mCount++;
+        mTotal += value;
+        mMax = Math.max(mMax, value);
+        mBuckets[getBucket(value)]++;
+    }
+
+    /**
+     * Removes a value which was previously added, so that the histogram can describe a sliding
+     * window of values. The maximum is not updated, so remains that of every value added.
+     */
+    public void remove(long value) {
+        value = Math.max(0, value);
+        mCount--;
+        mTotal -= value;
+        mBuckets[getBucket(value)]--;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return A copy of the number of values in each bucket.
+     */
+    public int[] getBucketCounts() {
+        return mBuckets.clone();
+    }
+
+    /**
+     * Estimates a percentile of the values. The estimate is the upper bound of the bucket the
+     * percentile falls in, so is at most twice the exact value, or the maximum for the last
+     * bucket.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated value, or -1 if there are no values.
+     */
+    public long getPercentile(int percentile) {
+        if (mCount <= 0) {
+            return -1;
+        }
+        // The rank of the percentile, using the nearest-rank method.
+        long rank = Math.max(1, ((long) percentile * mCount + 99) / 100);
+        int seen = 0;
+        for (int bucket = 0; bucket < mBuckets.length; bucket++) {
+            seen += mBuckets[bucket];
+            if (seen >= rank) {
+                if (bucket == mBuckets.length - 1) {
+                    // The last bucket has no upper bound.
+                    return mMax;
+                }
+                return bucket == 0 ? 0 : (1L << bucket) - 1;
+            }
+        }
+        return mMax;
+    }
+
+    private int getBucket(long value) {
+        return Math.min(mBuckets.length - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+}
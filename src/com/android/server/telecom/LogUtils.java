@@ -21,8 +21,14 @@ import android.os.SystemClock;
 import android.telecom.Logging.EventManager;
 import android.telecom.Logging.EventManager.TimedEventPair;
 
+import com.android.internal.util.IndentingPrintWriter;
+
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IllegalFormatException;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Temporary location of new Logging class
@@ -35,6 +41,14 @@ public class LogUtils {
 
     public static final boolean SYSTRACE_DEBUG = false; /* STOP SHIP if true */
 
+    // Call events are held in this log once logging is initialized, unless it is configured with
+    // no capacity.
+    private static volatile CallEventLog sCallEventLog;
+
+    // The call events still passed to the framework's event manager, which keeps them for
+    // analytics: those reported as analytics events and those timed in Events.Timings.
+    private static final Set<String> sFrameworkEvents = new HashSet<>();
+
     public static class EventTimer {
         private long mLastElapsedMillis;
         private Map<String, Long> mTimings = new HashMap<>();
@@ -211,26 +225,54 @@ public class LogUtils {
             public static final String START_CONNECTION_TO_REQUEST_DISCONNECT_TIMING =
                     "start_connection_to_request_disconnect";
 
-            private static final TimedEventPair[] sTimedEvents = {
-                    new TimedEventPair(REQUEST_ACCEPT, SET_ACTIVE, ACCEPT_TIMING),
-                    new TimedEventPair(REQUEST_REJECT, SET_DISCONNECTED, REJECT_TIMING),
-                    new TimedEventPair(REQUEST_DISCONNECT, SET_DISCONNECTED, DISCONNECT_TIMING),
-                    new TimedEventPair(REQUEST_HOLD, SET_HOLD, HOLD_TIMING),
-                    new TimedEventPair(REQUEST_UNHOLD, SET_ACTIVE, UNHOLD_TIMING),
-                    new TimedEventPair(START_CONNECTION, SET_DIALING,
+            /**
+             * A request and response event, the time between which is reported under a name.
+             */
+            private static final class TimedEvent {
+                final String mRequest;
+                final String mResponse;
+                final String mName;
+                // How long to wait for the response, or 0 for the framework's default.
+                final long mTimeoutMillis;
+
+                TimedEvent(String request, String response, String name) {
+                    this(request, response, name, 0);
+                }
+
+                TimedEvent(String request, String response, String name, long timeoutMillis) {
+                    mRequest = request;
+                    mResponse = response;
+                    mName = name;
+                    mTimeoutMillis = timeoutMillis;
+                }
+
+                TimedEventPair toTimedEventPair() {
+                    return mTimeoutMillis > 0
+                            ? new TimedEventPair(mRequest, mResponse, mName, mTimeoutMillis)
+                            : new TimedEventPair(mRequest, mResponse, mName);
+                }
+            }
+
+            private static final TimedEvent[] sTimedEvents = {
+                    new TimedEvent(REQUEST_ACCEPT, SET_ACTIVE, ACCEPT_TIMING),
+                    new TimedEvent(REQUEST_REJECT, SET_DISCONNECTED, REJECT_TIMING),
+                    new TimedEvent(REQUEST_DISCONNECT, SET_DISCONNECTED, DISCONNECT_TIMING),
+                    new TimedEvent(REQUEST_HOLD, SET_HOLD, HOLD_TIMING),
+                    new TimedEvent(REQUEST_UNHOLD, SET_ACTIVE, UNHOLD_TIMING),
+                    new TimedEvent(START_CONNECTION, SET_DIALING,
                             OUTGOING_TIME_TO_DIALING_TIMING),
-                    new TimedEventPair(BIND_CS, CS_BOUND, BIND_CS_TIMING),
-                    new TimedEventPair(SCREENING_SENT, SCREENING_COMPLETED,
+                    new TimedEvent(BIND_CS, CS_BOUND, BIND_CS_TIMING),
+                    new TimedEvent(SCREENING_SENT, SCREENING_COMPLETED,
                             SCREENING_COMPLETED_TIMING),
-                    new TimedEventPair(DIRECT_TO_VM_INITIATED, DIRECT_TO_VM_FINISHED,
+                    new TimedEvent(DIRECT_TO_VM_INITIATED, DIRECT_TO_VM_FINISHED,
                             DIRECT_TO_VM_FINISHED_TIMING),
-                    new TimedEventPair(BLOCK_CHECK_INITIATED, BLOCK_CHECK_FINISHED,
+                    new TimedEvent(BLOCK_CHECK_INITIATED, BLOCK_CHECK_FINISHED,
                             BLOCK_CHECK_FINISHED_TIMING),
-                    new TimedEventPair(FILTERING_INITIATED, FILTERING_COMPLETED,
+                    new TimedEvent(FILTERING_INITIATED, FILTERING_COMPLETED,
                             FILTERING_COMPLETED_TIMING),
-                    new TimedEventPair(FILTERING_INITIATED, FILTERING_TIMED_OUT,
+                    new TimedEvent(FILTERING_INITIATED, FILTERING_TIMED_OUT,
                             FILTERING_TIMED_OUT_TIMING, 6000L),
-                    new TimedEventPair(START_CONNECTION, REQUEST_DISCONNECT,
+                    new TimedEvent(START_CONNECTION, REQUEST_DISCONNECT,
                             START_CONNECTION_TO_REQUEST_DISCONNECT_TIMING),
             };
         }
@@ -253,11 +295,90 @@ public class LogUtils {
         }
     }
 
+    static {
+        // Analytics is built from the events the framework holds, so it must still be given the
+        // reported events and both ends of every timing.
+        sFrameworkEvents.addAll(Analytics.sLogEventToAnalyticsEvent.keySet());
+        for (Events.Timings.TimedEvent timedEvent : Events.Timings.sTimedEvents) {
+            sFrameworkEvents.add(timedEvent.mRequest);
+            sFrameworkEvents.add(timedEvent.mResponse);
+        }
+    }
+
+    /**
+     * Adds an event for a call. Use instead of {@link android.telecom.Log#addEvent} so that the
+     * event is held in Telecom's call event log.
+     */
+    public static void addEvent(EventManager.Loggable recordEntry, String event) {
+        addEvent(recordEntry, event, (Object) null);
+    }
+
+    public static void addEvent(EventManager.Loggable recordEntry, String event, String format,
+            Object... args) {
+        String data;
+        try {
+            data = (args == null || args.length == 0) ? format
+                    : String.format(Locale.US, format, args);
+        } catch (IllegalFormatException e) {
+            android.telecom.Log.e(LOGUTILS_TAG, e, "addEvent: Formatting error");
+            data = format + " (An error occurred while formatting the message.)";
+        }
+        addEvent(recordEntry, event, data);
+    }
+
+    public static void addEvent(EventManager.Loggable recordEntry, String event, Object data) {
+        CallEventLog callEventLog = sCallEventLog;
+        // The framework also logs events which aren't for a call.
+        if (recordEntry == null || callEventLog == null || sFrameworkEvents.contains(event)) {
+            android.telecom.Log.addEvent(recordEntry, event, data);
+        }
+        if (recordEntry != null && callEventLog != null) {
+            callEventLog.addEvent(recordEntry.getId(), event, data);
+        }
+    }
+
+    /**
+     * Dumps the framework's events, timings and summary, followed by Telecom's call event log if
+     * it is enabled.
+     */
+    public static void dumpEvents(IndentingPrintWriter pw) {
+        android.telecom.Log.dumpEvents(pw);
+        CallEventLog callEventLog = sCallEventLog;
+        if (callEventLog != null) {
+            pw.println("Call Event Log:");
+            pw.increaseIndent();
+            callEventLog.dump(pw);
+            pw.decreaseIndent();
+        }
+    }
+
+    /**
+     * Dumps the framework's events sorted by time, followed by Telecom's call event log if it is
+     * enabled.
+     */
+    public static void dumpEventsTimeline(IndentingPrintWriter pw) {
+        android.telecom.Log.dumpEventsTimeline(pw);
+        CallEventLog callEventLog = sCallEventLog;
+        if (callEventLog != null) {
+            pw.println("Call Event Log (sorted by time):");
+            pw.increaseIndent();
+            callEventLog.dumpTimeline(pw);
+            pw.decreaseIndent();
+        }
+    }
+
     public static void initLogging(Context context) {
+        int capacity = context.getResources().getInteger(R.integer.call_event_log_capacity);
+        if (capacity > 0) {
+            sCallEventLog = new CallEventLog(capacity,
+                    context.getResources().getInteger(R.integer.call_event_log_payload_size),
+                    Math.max(1, context.getResources().getInteger(
+                            R.integer.call_event_log_max_calls)));
+        }
         android.telecom.Log.setTag(TAG);
         android.telecom.Log.setSessionContext(context);
-        for (EventManager.TimedEventPair p : Events.Timings.sTimedEvents) {
-            android.telecom.Log.addRequestResponsePair(p);
+        for (Events.Timings.TimedEvent timedEvent : Events.Timings.sTimedEvents) {
+            android.telecom.Log.addRequestResponsePair(timedEvent.toTimedEventPair());
         }
         android.telecom.Log.registerEventListener(LogUtils::eventRecordAdded);
         // Store analytics about recently completed Sessions.
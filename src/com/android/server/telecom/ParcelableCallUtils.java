@@ -24,15 +24,19 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.telecom.Connection;
 import android.telecom.DisconnectCause;
+import android.telecom.GatewayInfo;
 import android.telecom.ParcelableCall;
 import android.telecom.ParcelableRttCall;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Utilities dealing with {@link ParcelableCall}.
@@ -40,6 +44,32 @@ import java.util.List;
 public class ParcelableCallUtils {
     private static final int CALL_STATE_OVERRIDE_NONE = -1;
 
+    /**
+     * Groups of {@link ParcelableCall} fields reported by {@link #getChangedFields}.
+     */
+    public static final int FIELD_STATE = 1 << 0;
+    public static final int FIELD_CAPABILITIES = 1 << 1;
+    public static final int FIELD_PROPERTIES = 1 << 2;
+    public static final int FIELD_HANDLE = 1 << 3;
+    public static final int FIELD_CALLER_DISPLAY_NAME = 1 << 4;
+    public static final int FIELD_TIMES = 1 << 5;
+    public static final int FIELD_CONFERENCE = 1 << 6;
+    public static final int FIELD_STATUS_HINTS = 1 << 7;
+    public static final int FIELD_VIDEO_STATE = 1 << 8;
+    public static final int FIELD_EXTRAS = 1 << 9;
+    public static final int FIELD_INTENT_EXTRAS = 1 << 10;
+    public static final int FIELD_CANNED_SMS_RESPONSES = 1 << 11;
+    public static final int FIELD_OTHER = 1 << 12;
+    public static final int FIELD_VIDEO_PROVIDER = 1 << 13;
+    public static final int FIELD_RTT = 1 << 14;
+
+    /** Names of the {@code FIELD_*} groups, indexed by bit position. */
+    public static final String[] FIELD_NAMES = new String[] {
+            "state", "capabilities", "properties", "handle", "callerDisplayName", "times",
+            "conference", "statusHints", "videoState", "extras", "intentExtras",
+            "cannedSmsResponses", "other", "videoProvider", "rtt"
+    };
+
     /**
      * A list of extra keys which should be removed from a {@link ParcelableCall} when it is being
      * generated for the purpose of sending to a dialer other than the system dialer.
@@ -219,7 +249,7 @@ public class ParcelableCallUtils {
         if (isForSystemDialer) {
             extras = call.getExtras();
         } else {
-            extras = sanitizeExtras(call.getExtras());
+            extras = getSanitizedExtras(call);
         }
 
         return new ParcelableCall.ParcelableCallBuilder()
@@ -331,6 +361,20 @@ public class ParcelableCallUtils {
                 .createParcelableCall();
     }
 
+    /**
+     * Returns the call's extras sanitized for non-system dialer apps. The result is memoized on
+     * the call until its extras next change, so it must not be modified.
+     */
+    private static Bundle getSanitizedExtras(Call call) {
+        int extrasVersion = call.getExtrasVersion();
+        Bundle extras = call.getSanitizedExtras(extrasVersion);
+        if (extras == null) {
+            extras = sanitizeExtras(call.getExtras());
+            call.setSanitizedExtras(extras, extrasVersion);
+        }
+        return extras;
+    }
+
     /**
      * Sanitize the extras bundle passed in, removing keys which should not be sent to non-system
      * dialer apps.
@@ -510,16 +554,12 @@ public class ParcelableCallUtils {
         android.telecom.Call.Details.CAPABILITY_TRANSFER_CONSULTATIVE
     };
 
-    private static int convertConnectionToCallCapabilities(int connectionCapabilities) {
-        int callCapabilities = 0;
-        for (int i = 0; i < CONNECTION_TO_CALL_CAPABILITY.length; i += 2) {
-            if ((CONNECTION_TO_CALL_CAPABILITY[i] & connectionCapabilities) ==
-                    CONNECTION_TO_CALL_CAPABILITY[i]) {
+    @VisibleForTesting
+    public static final BitTranslator CAPABILITY_TRANSLATOR =
+            new BitTranslator(CONNECTION_TO_CALL_CAPABILITY);
 
-                callCapabilities |= CONNECTION_TO_CALL_CAPABILITY[i + 1];
-            }
-        }
-        return callCapabilities;
+    private static int convertConnectionToCallCapabilities(int connectionCapabilities) {
+        return CAPABILITY_TRANSLATOR.translate(connectionCapabilities);
     }
 
     private static final int[] CONNECTION_TO_CALL_PROPERTIES = new int[] {
@@ -557,16 +597,101 @@ public class ParcelableCallUtils {
         android.telecom.Call.Details.PROPERTY_IS_ADHOC_CONFERENCE
     };
 
+    @VisibleForTesting
+    public static final BitTranslator PROPERTY_TRANSLATOR =
+            new BitTranslator(CONNECTION_TO_CALL_PROPERTIES);
+
     private static int convertConnectionToCallProperties(int connectionProperties) {
-        int callProperties = 0;
-        for (int i = 0; i < CONNECTION_TO_CALL_PROPERTIES.length; i += 2) {
-            if ((CONNECTION_TO_CALL_PROPERTIES[i] & connectionProperties) ==
-                    CONNECTION_TO_CALL_PROPERTIES[i]) {
+        return PROPERTY_TRANSLATOR.translate(connectionProperties);
+    }
 
-                callProperties |= CONNECTION_TO_CALL_PROPERTIES[i + 1];
+    /**
+     * Translates a set of bits from one namespace to another (e.g. {@link Connection}
+     * capabilities to {@link android.telecom.Call.Details} capabilities) using tables computed
+     * once from a list of mappings, so that a translation costs four table lookups rather than a
+     * scan of the mappings.
+     *
+     * The input is split into its four bytes, and each byte indexes a table holding the output
+     * bits of every mapping fully contained in that byte. Mappings whose source bits span more
+     * than one byte are checked individually.
+     */
+    @VisibleForTesting
+    public static final class BitTranslator {
+        private static final int BYTES = Integer.BYTES;
+        private static final int BYTE_VALUES = 1 << Byte.SIZE;
+
+        private final int[] mMappings;
+        private final int[][] mTables = new int[BYTES][BYTE_VALUES];
+        private final int[] mSpanningMappings;
+
+        /**
+         * @param mappings Pairs of source bits and the output bits they translate to; a mapping
+         *                 applies when all of its source bits are set.
+         */
+        public BitTranslator(int[] mappings) {
+            mMappings = mappings;
+            List<Integer> spanning = new ArrayList<>();
+            for (int i = 0; i < mappings.length; i += 2) {
+                int from = mappings[i];
+                int to = mappings[i + 1];
+                int byteIndex = getContainingByte(from);
+                if (byteIndex < 0) {
+                    spanning.add(from);
+                    spanning.add(to);
+                    continue;
+                }
+                int fromByte = (from >>> (byteIndex * Byte.SIZE)) & 0xff;
+                for (int value = 0; value < BYTE_VALUES; value++) {
+                    if ((value & fromByte) == fromByte) {
+                        mTables[byteIndex][value] |= to;
+                    }
+                }
+            }
+            mSpanningMappings = new int[spanning.size()];
+            for (int i = 0; i < mSpanningMappings.length; i++) {
+                mSpanningMappings[i] = spanning.get(i);
             }
         }
-        return callProperties;
+
+        public int translate(int bits) {
+            int result = mTables[0][bits & 0xff]
+                    | mTables[1][(bits >>> 8) & 0xff]
+                    | mTables[2][(bits >>> 16) & 0xff]
+                    | mTables[3][bits >>> 24];
+            for (int i = 0; i < mSpanningMappings.length; i += 2) {
+                if ((mSpanningMappings[i] & bits) == mSpanningMappings[i]) {
+                    result |= mSpanningMappings[i + 1];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Translates by scanning every mapping; the reference the tables are checked against.
+         */
+        public int translateByScan(int bits) {
+            int result = 0;
+            for (int i = 0; i < mMappings.length; i += 2) {
+                if ((mMappings[i] & bits) == mMappings[i]) {
+                    result |= mMappings[i + 1];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return The index of the byte holding all of the given bits, or -1 if they span
+         *         several bytes (or there are none).
+         */
+        private static int getContainingByte(int bits) {
+            for (int byteIndex = 0; byteIndex < BYTES; byteIndex++) {
+                int mask = 0xff << (byteIndex * Byte.SIZE);
+                if (bits != 0 && (bits & ~mask) == 0) {
+                    return byteIndex;
+                }
+            }
+            return -1;
+        }
     }
 
     /**
@@ -584,5 +709,124 @@ public class ParcelableCallUtils {
                 call.getCsToInCallRttPipeForInCall());
     }
 
+    /**
+     * Determines which fields differ between a {@link ParcelableCall} previously sent to an
+     * {@link android.telecom.InCallService} and a newer one for the same call. A new video
+     * provider or RTT call is always reported as a change since the recipient acts on them
+     * being present rather than on their value. The extras are compared by the version of the
+     * {@link Call}'s extras they were made from, and the intent extras, which the call replaces
+     * rather than modifies, by identity.
+     *
+     * @param previous The previously sent call, as returned by {@link #copyForComparison}, or
+     *                 {@code null} if none was sent.
+     * @param previousExtrasVersion The {@link Call#getExtrasVersion()} {@code previous} was made
+     *                              from.
+     * @param current The call about to be sent.
+     * @param currentExtrasVersion The {@link Call#getExtrasVersion()} {@code current} was made
+     *                             from.
+     * @return A combination of the {@code FIELD_*} bits; {@code 0} if sending {@code current}
+     *         would not change anything for the recipient.
+     */
+    public static int getChangedFields(ParcelableCall previous, int previousExtrasVersion,
+            ParcelableCall current, int currentExtrasVersion) {
+        if (previous == null) {
+            return ~0;
+        }
+        int changed = 0;
+        if (previous.getState() != current.getState()
+                || !Objects.equals(previous.getDisconnectCause(), current.getDisconnectCause())) {
+            changed |= FIELD_STATE;
+        }
+        if (previous.getCapabilities() != current.getCapabilities()
+                || previous.getSupportedAudioRoutes() != current.getSupportedAudioRoutes()) {
+            changed |= FIELD_CAPABILITIES;
+        }
+        if (previous.getProperties() != current.getProperties()) {
+            changed |= FIELD_PROPERTIES;
+        }
+        if (!Objects.equals(previous.getHandle(), current.getHandle())
+                || previous.getHandlePresentation() != current.getHandlePresentation()
+                || !areGatewayInfosEqual(previous.getGatewayInfo(), current.getGatewayInfo())
+                || !Objects.equals(previous.getAccountHandle(), current.getAccountHandle())) {
+            changed |= FIELD_HANDLE;
+        }
+        if (!Objects.equals(previous.getCallerDisplayName(), current.getCallerDisplayName())
+                || previous.getCallerDisplayNamePresentation()
+                        != current.getCallerDisplayNamePresentation()
+                || !Objects.equals(previous.getContactDisplayName(),
+                        current.getContactDisplayName())) {
+            changed |= FIELD_CALLER_DISPLAY_NAME;
+        }
+        if (previous.getConnectTimeMillis() != current.getConnectTimeMillis()
+                || previous.getCreationTimeMillis() != current.getCreationTimeMillis()) {
+            changed |= FIELD_TIMES;
+        }
+        if (!Objects.equals(previous.getParentCallId(), current.getParentCallId())
+                || !Objects.equals(previous.getChildCallIds(), current.getChildCallIds())
+                || !Objects.equals(previous.getConferenceableCallIds(),
+                        current.getConferenceableCallIds())
+                || !Objects.equals(previous.getActiveChildCallId(),
+                        current.getActiveChildCallId())) {
+            changed |= FIELD_CONFERENCE;
+        }
+        if (!Objects.equals(previous.getStatusHints(), current.getStatusHints())) {
+            changed |= FIELD_STATUS_HINTS;
+        }
+        if (previous.getVideoState() != current.getVideoState()) {
+            changed |= FIELD_VIDEO_STATE;
+        }
+        if (previousExtrasVersion != currentExtrasVersion) {
+            changed |= FIELD_EXTRAS;
+        }
+        if (previous.getIntentExtras() != current.getIntentExtras()) {
+            changed |= FIELD_INTENT_EXTRAS;
+        }
+        if (!Objects.equals(previous.getCannedSmsResponses(), current.getCannedSmsResponses())) {
+            changed |= FIELD_CANNED_SMS_RESPONSES;
+        }
+        if (!Objects.equals(previous.getId(), current.getId())
+                || previous.getCallDirection() != current.getCallDirection()
+                || previous.getCallerNumberVerificationStatus()
+                        != current.getCallerNumberVerificationStatus()) {
+            changed |= FIELD_OTHER;
+        }
+        if (current.isVideoCallProviderChanged()) {
+            changed |= FIELD_VIDEO_PROVIDER;
+        }
+        if (current.getIsRttCallChanged()) {
+            changed |= FIELD_RTT;
+        }
+        return changed;
+    }
+
+    /**
+     * @return A readable list of the {@code FIELD_*} bits set in {@code fields}.
+     */
+    public static String fieldsToString(int fields) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int bit = 0; bit < FIELD_NAMES.length; bit++) {
+            if ((fields & (1 << bit)) != 0) {
+                if (sb.length() > 1) {
+                    sb.append(' ');
+                }
+                sb.append(FIELD_NAMES[bit]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static boolean areGatewayInfosEqual(GatewayInfo first, GatewayInfo second) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null) {
+            return false;
+        }
+        return Objects.equals(first.getGatewayProviderPackageName(),
+                second.getGatewayProviderPackageName())
+                && Objects.equals(first.getGatewayAddress(), second.getGatewayAddress())
+                && Objects.equals(first.getOriginalAddress(), second.getOriginalAddress());
+    }
+
     private ParcelableCallUtils() {}
 }
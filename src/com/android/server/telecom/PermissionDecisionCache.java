@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+import android.telecom.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A cache of permission and default app decisions, keyed on the UID or user and the package they
+ * were made for, so that apps which query {@link TelecomServiceImpl} repeatedly (and updates sent
+ * to each {@code InCallService}) don't repeat the same checks against the package and role
+ * managers.
+ *
+ * The whole cache is dropped whenever a package is added, changed or removed, a runtime
+ * permission is granted or revoked, or a role holder changes, since any of these can change a
+ * decision. A decision started before such a change can't populate the cache after it. App ops
+ * are never cached, as noting an op has side effects the caller relies on.
+ */
+public class PermissionDecisionCache {
+    private static final String TAG = PermissionDecisionCache.class.getSimpleName();
+    @VisibleForTesting
+    public static final int MAX_ENTRIES = 512;
+    /** Used as the UID of decisions which don't depend on the UID. */
+    private static final int ANY_UID = Process.INVALID_UID;
+    /** Used as the user of decisions which don't depend on the user, or get it from the UID. */
+    private static final int ANY_USER = UserHandle.USER_NULL;
+    private static final String CHECK_PACKAGE = "checkPackage";
+    private static final String DEFAULT_OR_SYSTEM_DIALER = "defaultOrSystemDialer";
+    private static final String CALL_SCREENING_SERVICE = "callScreeningService";
+    /** Cached in place of a null decision, which the map can't hold. */
+    private static final Object NO_VALUE = new Object();
+
+    private static final class Key {
+        final int mUid;
+        final int mUserId;
+        final String mPackageName;
+        final String mCheck;
+
+        Key(int uid, int userId, String packageName, String check) {
+            mUid = uid;
+            mUserId = userId;
+            mPackageName = packageName;
+            mCheck = check;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mUid == key.mUid && mUserId == key.mUserId
+                    && Objects.equals(mPackageName, key.mPackageName)
+                    && Objects.equals(mCheck, key.mCheck);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUid, mUserId, mPackageName, mCheck);
+        }
+    }
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("PDC.oR");
+            try {
+                invalidate();
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<Key, Object> mDecisions =
+            new LinkedHashMap<Key, Object>(16, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    // Guarded by this.
+    private boolean mIsEnabled;
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+    private int mInvalidations;
+
+    public PermissionDecisionCache(Context context, DefaultDialerCache defaultDialerCache) {
+        mIsEnabled = true;
+        try {
+            IntentFilter packageFilter = new IntentFilter();
+            packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            packageFilter.addDataScheme("package");
+            context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageFilter, null,
+                    null);
+            context.getPackageManager().addOnPermissionsChangeListener(uid -> invalidate());
+            defaultDialerCache.observeDefaultDialerApplication(context.getMainExecutor(),
+                    userId -> invalidate());
+        } catch (Exception e) {
+            // Without these the cache could go stale, so never use it.
+            Log.w(TAG, "Unable to observe permission changes; cache disabled: %s", e);
+            mIsEnabled = false;
+        }
+    }
+
+    /**
+     * Creates a cache which is never used, so that every decision is made afresh.
+     */
+    @VisibleForTesting
+    public PermissionDecisionCache() {
+        mIsEnabled = false;
+    }
+
+    /**
+     * Returns a cached decision, or makes the decision and caches it.
+     *
+     * @param uid The UID the decision is made for.
+     * @param packageName The package the decision is made for, if any.
+     * @param check Names the decision, e.g. the permission checked.
+     * @param decision Makes the decision; called without the cache locked. Decisions which throw
+     *                 are never cached.
+     * @return The decision.
+     */
+    public boolean get(int uid, String packageName, String check, BooleanSupplier decision) {
+        return get(new Key(uid, ANY_USER, packageName, check), decision::getAsBoolean);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(Key key, Supplier<T> decision) {
+        int generation;
+        boolean isEnabled;
+        synchronized (this) {
+            isEnabled = mIsEnabled;
+        }
+        if (!isEnabled) {
+            return decision.get();
+        }
+        synchronized (this) {
+            Object result = mDecisions.get(key);
+            if (result != null) {
+                mHits++;
+                return result == NO_VALUE ? null : (T) result;
+            }
+            mMisses++;
+            generation = mGeneration;
+        }
+        T result = decision.get();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mDecisions.put(key, result == null ? NO_VALUE : result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that a package belongs to a UID; see {@link AppOpsManager#checkPackage(int, String)}.
+     * Only successful checks are cached.
+     *
+     * @throws SecurityException If the package doesn't belong to the UID.
+     */
+    public void checkPackage(AppOpsManager appOpsManager, int uid, String packageName) {
+        get(uid, packageName, CHECK_PACKAGE, () -> {
+            appOpsManager.checkPackage(uid, packageName);
+            return true;
+        });
+    }
+
+    /**
+     * @return Whether a package is the default or system dialer of a user; see
+     * {@link DefaultDialerCache#isDefaultOrSystemDialer(String, int)}.
+     */
+    public boolean isDefaultOrSystemDialer(DefaultDialerCache defaultDialerCache,
+            String packageName, int userId) {
+        return get(new Key(ANY_UID, userId, packageName, DEFAULT_OR_SYSTEM_DIALER),
+                () -> defaultDialerCache.isDefaultOrSystemDialer(packageName, userId));
+    }
+
+    /**
+     * @return The call screening service of a package which Telecom may bind to for a user, or
+     * {@code null} if it has none; see
+     * {@link CallScreeningServiceHelper#resolveCallScreeningService}.
+     */
+    public ComponentName getCallScreeningService(Context context, String packageName,
+            UserHandle userHandle) {
+        return get(new Key(ANY_UID, userHandle.getIdentifier(), packageName,
+                CALL_SCREENING_SERVICE), () -> CallScreeningServiceHelper
+                        .resolveCallScreeningService(context, packageName, userHandle));
+    }
+
+    /**
+     * @return Whether a package has been granted a permission; see
+     * {@link PackageManager#checkPermission(String, String)}.
+     */
+    public boolean hasPackagePermission(PackageManager packageManager, String packageName,
+            String permission) {
+        return get(ANY_UID, packageName, permission,
+                () -> packageManager.checkPermission(permission, packageName)
+                        == PackageManager.PERMISSION_GRANTED);
+    }
+
+    /**
+     * Drops every cached decision.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mDecisions.clear();
+        mInvalidations++;
+    }
+
+    @VisibleForTesting
+    public synchronized int size() {
+        return mDecisions.size();
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        int lookups = mHits + mMisses;
+        pw.println("enabled: " + mIsEnabled + ", size: " + mDecisions.size() + "/" + MAX_ENTRIES
+                + ", invalidations: " + mInvalidations);
+        pw.println("hits: " + mHits + ", misses: " + mMisses + ", hitRate: "
+                + (lookups == 0 ? 0 : (100 * mHits / lookups)) + "%");
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.os.UserHandle;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable secondary indexes over the {@link PhoneAccount}s registered with
+ * {@link PhoneAccountRegistrar}. An index is built from a snapshot of the registrar's account list
+ * and is discarded whenever that list changes.
+ *
+ * Every per-key list preserves the order of the source list, so narrowing a query down to one of
+ * the index lists yields results in the same order as a full scan would. The index only narrows
+ * the set of candidates; callers are still expected to apply their full matching criteria to the
+ * candidates returned by {@link #getCandidates(int, String, String, UserHandle)}.
+ */
+@VisibleForTesting
+public class PhoneAccountIndex {
+    private static final int CAPABILITY_BITS = Integer.SIZE;
+
+    private final int mVersion;
+    private final List<PhoneAccount> mAll;
+    private final Map<PhoneAccountHandle, PhoneAccount> mByHandle = new ArrayMap<>();
+    private final Map<String, List<PhoneAccount>> mByScheme = new ArrayMap<>();
+    private final Map<String, List<PhoneAccount>> mByPackage = new ArrayMap<>();
+    private final Map<UserHandle, List<PhoneAccount>> mByUser = new ArrayMap<>();
+    private final List<PhoneAccount> mMultiUser = new ArrayList<>();
+    private final List<List<PhoneAccount>> mByCapability = new ArrayList<>(CAPABILITY_BITS);
+
+    /**
+     * Builds an index over the given accounts.
+     *
+     * @param accounts The accounts to index, in the registrar's sort order.
+     * @param version The registrar's account list version the snapshot was taken at.
+     */
+    public PhoneAccountIndex(List<PhoneAccount> accounts, int version) {
+        mVersion = version;
+        mAll = Collections.unmodifiableList(new ArrayList<>(accounts));
+        for (int bit = 0; bit < CAPABILITY_BITS; bit++) {
+            mByCapability.add(new ArrayList<>());
+        }
+
+        for (PhoneAccount account : mAll) {
+            PhoneAccountHandle handle = account.getAccountHandle();
+            if (!mByHandle.containsKey(handle)) {
+                mByHandle.put(handle, account);
+            }
+
+            List<String> schemes = account.getSupportedUriSchemes();
+            if (schemes != null) {
+                for (String scheme : schemes) {
+                    if (scheme == null) {
+                        continue;
+                    }
+                    List<PhoneAccount> forScheme = getOrCreate(mByScheme, scheme);
+                    // Guard against an account listing the same scheme twice.
+                    if (forScheme.isEmpty() || forScheme.get(forScheme.size() - 1) != account) {
+                        forScheme.add(account);
+                    }
+                }
+            }
+
+            if (handle != null && handle.getComponentName() != null) {
+                getOrCreate(mByPackage, handle.getComponentName().getPackageName()).add(account);
+            }
+
+            int capabilities = account.getCapabilities();
+            for (int bit = 0; bit < CAPABILITY_BITS; bit++) {
+                if ((capabilities & (1 << bit)) != 0) {
+                    mByCapability.get(bit).add(account);
+                }
+            }
+
+            if (account.hasCapabilities(PhoneAccount.CAPABILITY_MULTI_USER)) {
+                // Multi-user accounts are visible to everyone, so they belong in every user's
+                // list; users seen later are seeded from mMultiUser below.
+                mMultiUser.add(account);
+                for (List<PhoneAccount> forUser : mByUser.values()) {
+                    forUser.add(account);
+                }
+            } else if (handle != null && handle.getUserHandle() != null
+                    && !mByUser.containsKey(handle.getUserHandle())) {
+                List<PhoneAccount> forUser = new ArrayList<>(mMultiUser);
+                forUser.add(account);
+                mByUser.put(handle.getUserHandle(), forUser);
+            } else if (handle != null && handle.getUserHandle() != null) {
+                mByUser.get(handle.getUserHandle()).add(account);
+            }
+        }
+    }
+
+    /**
+     * @return The version of the registrar's account list this index was built from.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return All indexed accounts, in registrar order.
+     */
+    public List<PhoneAccount> getAll() {
+        return mAll;
+    }
+
+    /**
+     * @return The account registered with the given handle, or {@code null} if there is none.
+     */
+    public PhoneAccount get(PhoneAccountHandle handle) {
+        return mByHandle.get(handle);
+    }
+
+    /**
+     * Returns the smallest indexed list which is guaranteed to contain every account matching
+     * the given criteria. The returned list must not be modified.
+     *
+     * @param capabilities Capabilities the account must have; ignored if 0.
+     * @param uriScheme URI scheme the account must support; ignored if {@code null}.
+     * @param packageName Package the account must belong to; ignored if {@code null}.
+     * @param userHandle User the account must be visible to, without considering profiles;
+     *                   ignored if {@code null}.
+     * @return The candidate accounts, in registrar order.
+     */
+    public List<PhoneAccount> getCandidates(int capabilities, String uriScheme,
+            String packageName, UserHandle userHandle) {
+        List<PhoneAccount> best = mAll;
+        if (uriScheme != null) {
+            best = smaller(best, mByScheme.get(uriScheme));
+        }
+        if (packageName != null) {
+            best = smaller(best, mByPackage.get(packageName));
+        }
+        if (userHandle != null) {
+            List<PhoneAccount> forUser = mByUser.get(userHandle);
+            best = smaller(best, forUser != null ? forUser : mMultiUser);
+        }
+        for (int bit = 0; capabilities != 0 && bit < CAPABILITY_BITS; bit++) {
+            if ((capabilities & (1 << bit)) != 0) {
+                best = smaller(best, mByCapability.get(bit));
+                capabilities &= ~(1 << bit);
+            }
+        }
+        return best;
+    }
+
+    private static List<PhoneAccount> smaller(List<PhoneAccount> current,
+            List<PhoneAccount> candidate) {
+        if (candidate == null) {
+            return Collections.emptyList();
+        }
+        return candidate.size() < current.size() ? candidate : current;
+    }
+
+    private static <K> List<PhoneAccount> getOrCreate(Map<K, List<PhoneAccount>> map, K key) {
+        List<PhoneAccount> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
+    }
+}
@@ -18,9 +18,11 @@ package com.android.server.telecom;
 
 import android.Manifest;
 import android.annotation.NonNull;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
@@ -30,7 +32,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.PersistableBundle;
 import android.os.Process;
 import android.os.UserHandle;
@@ -49,11 +52,11 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.AtomicFile;
 import android.util.Base64;
+import android.util.Pair;
 import android.util.Xml;
 
 // TODO: Needed for move to system service: import com.android.internal.R;
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.XmlUtils;
 
@@ -82,6 +85,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -131,27 +136,114 @@ public class PhoneAccountRegistrar {
     }
 
     public static final String FILE_NAME = "phone-account-registrar-state.xml";
+    private static final String LEGACY_FILE_SUFFIX = ".xml";
+    private static final String BINARY_FILE_SUFFIX = ".pb";
     @VisibleForTesting
     public static final int EXPECTED_STATE_VERSION = 9;
     public static final int MAX_PHONE_ACCOUNT_REGISTRATIONS = 10;
 
+    /**
+     * How long to wait after the state is first marked dirty before writing it out.  Further
+     * changes made within this window are folded into the same write.
+     */
+    @VisibleForTesting
+    public static final long WRITE_COALESCE_WINDOW_MILLIS = 250;
+    /**
+     * How long shutdown waits for pending changes to be written out.
+     */
+    private static final long SHUTDOWN_WRITE_TIMEOUT_MILLIS = 2000;
+
     /** Keep in sync with the same in SipSettings.java */
     private static final String SIP_SHARED_PREFERENCES = "SIP_PREFERENCES";
 
     private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    /** The binary state file; see {@link PhoneAccountStateSerializer}. */
     private final AtomicFile mAtomicFile;
+    /** The XML state file written by older versions; only read to migrate to the new format. */
+    private final AtomicFile mLegacyXmlFile;
+    private boolean mLegacyXmlFilePresent;
     private final Context mContext;
     private final UserManager mUserManager;
     private final SubscriptionManager mSubscriptionManager;
     private final DefaultDialerCache mDefaultDialerCache;
     private final AppLabelProxy mAppLabelProxy;
     private State mState;
-    private UserHandle mCurrentUserHandle;
+    private volatile UserHandle mCurrentUserHandle;
     private String mTestPhoneAccountPackageNameFilter;
     private interface PhoneAccountRegistrarWriteLock {}
     private final PhoneAccountRegistrarWriteLock mWriteLock =
             new PhoneAccountRegistrarWriteLock() {};
 
+    /**
+     * Handler on which the state is serialized and written to disk, off of the caller's thread.
+     */
+    private final Handler mWriteHandler;
+    /**
+     * A copy of the state taken when it last changed, or {@code null} if it has not changed since
+     * it was last written out. The writer serializes this rather than the live state, whose
+     * accounts may be modified while it is being written.
+     */
+    private final AtomicReference<State> mPendingState = new AtomicReference<>();
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeNow();
+        }
+    };
+    private int mWritesRequested;
+    private int mWritesPerformed;
+
+    /**
+     * Incremented every time {@link State#accounts} is modified or re-ordered.
+     */
+    private volatile int mAccountsVersion;
+    /**
+     * An immutable index over {@link State#accounts}, republished after every modification. All
+     * account lookups go through it, so they never see a partially modified account list and can
+     * be made without holding the Telecom lock.
+     */
+    private volatile PhoneAccountIndex mIndex;
+
+    /**
+     * Cache of successful {@link ConnectionService} resolutions keyed on component and user.
+     * Only non-empty results are cached so that a service which becomes available later is picked
+     * up without waiting for a package broadcast. Entries for a package are dropped whenever that
+     * package is added, changed or removed.
+     */
+    private final Map<Pair<ComponentName, UserHandle>, List<ResolveInfo>> mResolveInfoCache =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger mResolveInfoCacheHits = new AtomicInteger();
+    private final AtomicInteger mResolveInfoCacheMisses = new AtomicInteger();
+
+    private final BroadcastReceiver mShutdownReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("PAR.oSR");
+            try {
+                // Write on the writer thread, but wait for it since the process is going away.
+                if (!mWriteHandler.runWithScissors(() -> flush(),
+                        SHUTDOWN_WRITE_TIMEOUT_MILLIS)) {
+                    Log.w(PhoneAccountRegistrar.this, "Pending state not written at shutdown");
+                }
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    private final BroadcastReceiver mPackageChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("PAR.oR");
+            try {
+                Uri data = intent.getData();
+                invalidateResolveInfoCache(data == null ? null : data.getSchemeSpecificPart());
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
     @VisibleForTesting
     public PhoneAccountRegistrar(Context context, DefaultDialerCache defaultDialerCache,
                                  AppLabelProxy appLabelProxy) {
@@ -162,15 +254,32 @@ public class PhoneAccountRegistrar {
     public PhoneAccountRegistrar(Context context, String fileName,
             DefaultDialerCache defaultDialerCache, AppLabelProxy appLabelProxy) {
 
-        mAtomicFile = new AtomicFile(new File(context.getFilesDir(), fileName));
+        mLegacyXmlFile = new AtomicFile(new File(context.getFilesDir(), fileName));
+        mAtomicFile = new AtomicFile(new File(context.getFilesDir(),
+                getBinaryFileName(fileName)));
 
         mState = new State();
+        mIndex = new PhoneAccountIndex(mState.accounts, mAccountsVersion);
         mContext = context;
         mUserManager = UserManager.get(context);
         mDefaultDialerCache = defaultDialerCache;
         mSubscriptionManager = SubscriptionManager.from(mContext);
         mAppLabelProxy = appLabelProxy;
         mCurrentUserHandle = Process.myUserHandle();
+
+        HandlerThread writeThread = new HandlerThread("PhoneAccountRegistrarWriter");
+        writeThread.start();
+        mWriteHandler = new Handler(writeThread.getLooper());
+        mContext.registerReceiver(mShutdownReceiver, new IntentFilter(Intent.ACTION_SHUTDOWN));
+
+        IntentFilter packageIntentFilter = new IntentFilter();
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageIntentFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageChangedReceiver, UserHandle.ALL,
+                packageIntentFilter, null, null);
+
         read();
     }
 
@@ -549,6 +658,9 @@ public class PhoneAccountRegistrar {
         }
         Log.d(this, "setCurrentUserHandle, %s", userHandle);
         mCurrentUserHandle = userHandle;
+        // Write out anything pending straight away in case the switch leads to the process going
+        // away, but on the writer thread rather than under the Telecom lock.
+        flushAsync();
     }
 
     /**
@@ -633,19 +745,63 @@ public class PhoneAccountRegistrar {
 
     private List<ResolveInfo> resolveComponent(ComponentName componentName,
             UserHandle userHandle) {
+        Pair<ComponentName, UserHandle> key = new Pair<>(componentName, userHandle);
+        List<ResolveInfo> cached = mResolveInfoCache.get(key);
+        if (cached != null) {
+            mResolveInfoCacheHits.incrementAndGet();
+            return cached;
+        }
+        mResolveInfoCacheMisses.incrementAndGet();
+
         PackageManager pm = mContext.getPackageManager();
         Intent intent = new Intent(ConnectionService.SERVICE_INTERFACE);
         intent.setComponent(componentName);
+        List<ResolveInfo> resolveInfos;
         try {
             if (userHandle != null) {
-                return pm.queryIntentServicesAsUser(intent, 0, userHandle.getIdentifier());
+                resolveInfos = pm.queryIntentServicesAsUser(intent, 0, userHandle.getIdentifier());
             } else {
-                return pm.queryIntentServices(intent, 0);
+                resolveInfos = pm.queryIntentServices(intent, 0);
             }
         } catch (SecurityException e) {
             Log.e(this, e, "%s is not visible for the calling user", componentName);
             return Collections.EMPTY_LIST;
         }
+        if (resolveInfos != null && !resolveInfos.isEmpty() && componentName != null) {
+            mResolveInfoCache.put(key, Collections.unmodifiableList(resolveInfos));
+        }
+        return resolveInfos;
+    }
+
+    /**
+     * Drops cached {@link ConnectionService} resolutions.
+     *
+     * @param packageName The package whose entries should be dropped, or {@code null} to drop all
+     *                    entries.
+     */
+    @VisibleForTesting
+    public void invalidateResolveInfoCache(String packageName) {
+        if (packageName == null) {
+            mResolveInfoCache.clear();
+            return;
+        }
+        mResolveInfoCache.keySet().removeIf(
+                key -> packageName.equals(key.first.getPackageName()));
+    }
+
+    /**
+     * Records that {@link State#accounts} has been modified, sorts it and publishes a new
+     * {@link PhoneAccountIndex} for it. Must be called by the thread modifying the accounts, once
+     * the modification is complete, as readers may see the index as soon as it is published.
+     */
+    private void onAccountsChanged() {
+        sortPhoneAccounts();
+        mAccountsVersion++;
+        mIndex = new PhoneAccountIndex(mState.accounts, mAccountsVersion);
+    }
+
+    private PhoneAccountIndex getIndex() {
+        return mIndex;
     }
 
     /**
@@ -816,7 +972,6 @@ public class PhoneAccountRegistrar {
 
         PhoneAccount oldAccount = getPhoneAccountUnchecked(account.getAccountHandle());
         if (oldAccount != null) {
-            mState.accounts.remove(oldAccount);
             isEnabled = oldAccount.isEnabled();
             Log.i(this, "Modify account: %s", getAccountDiffString(account, oldAccount));
             isNewAccount = false;
@@ -846,9 +1001,6 @@ public class PhoneAccountRegistrar {
                     .build();
         }
 
-        mState.accounts.add(account);
-        // Set defaults and replace based on the group Id.
-        maybeReplaceOldAccount(account);
         // Reset enabled state to whatever the value was if the account was already registered,
         // or _true_ if this is a SIM-based account.  All SIM-based accounts are always enabled,
         // as are all self-managed phone accounts.
@@ -856,8 +1008,26 @@ public class PhoneAccountRegistrar {
                 isEnabled || account.hasCapabilities(PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION)
                 || account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED));
 
+        // Swap the accounts over in a single change so readers never see the account missing.
+        PhoneAccount replacedAccount = getAccountReplacedBy(account);
+        if (oldAccount != null) {
+            mState.accounts.remove(oldAccount);
+        }
+        if (replacedAccount != null) {
+            Log.v(this, "addOrReplacePhoneAccount: Unregistering old PhoneAccount: "
+                    + replacedAccount.getAccountHandle());
+            mState.accounts.remove(replacedAccount);
+        }
+        mState.accounts.add(account);
+        onAccountsChanged();
+        // Set defaults based on the group Id.
+        maybeReplaceDefaultAccount(account);
+
         write();
         fireAccountsChanged();
+        if (replacedAccount != null) {
+            fireAccountUnRegistered(replacedAccount.getAccountHandle());
+        }
         if (isNewAccount) {
             fireAccountRegistered(account.getAccountHandle());
         } else {
@@ -869,6 +1039,7 @@ public class PhoneAccountRegistrar {
         PhoneAccount account = getPhoneAccountUnchecked(accountHandle);
         if (account != null) {
             if (mState.accounts.remove(account)) {
+                onAccountsChanged();
                 write();
                 fireAccountsChanged();
                 fireAccountUnRegistered(accountHandle);
@@ -897,6 +1068,7 @@ public class PhoneAccountRegistrar {
         }
 
         if (accountsRemoved) {
+            onAccountsChanged();
             write();
             fireAccountsChanged();
         }
@@ -980,17 +1152,46 @@ public class PhoneAccountRegistrar {
         }
     }
 
-    private void maybeReplaceOldAccount(PhoneAccount newAccount) {
-        UserHandle newAccountUserHandle = newAccount.getAccountHandle().getUserHandle();
-        DefaultPhoneAccountHandle defaultHandle =
-                getUserSelectedDefaultPhoneAccount(newAccountUserHandle);
+    /**
+     * @return The default outgoing account of the user the account belongs to, if it has the
+     *         same group Id as the account, or {@code null} otherwise.
+     */
+    private DefaultPhoneAccountHandle getDefaultInGroupOf(PhoneAccount newAccount) {
+        DefaultPhoneAccountHandle defaultHandle = getUserSelectedDefaultPhoneAccount(
+                newAccount.getAccountHandle().getUserHandle());
         if (defaultHandle == null || defaultHandle.groupId.isEmpty()) {
-            Log.v(this, "maybeReplaceOldAccount: Not replacing PhoneAccount, no group Id or " +
-                    "default.");
-            return;
+            return null;
         }
         if (!defaultHandle.groupId.equals(newAccount.getGroupId())) {
-            Log.v(this, "maybeReplaceOldAccount: group Ids are not equal.");
+            return null;
+        }
+        return defaultHandle;
+    }
+
+    /**
+     * Finds the account, if any, which a newly registered account replaces because it shares the
+     * group Id of the user's default. Must be called before the new account is added.
+     *
+     * @return The account to unregister, or {@code null} if there is none.
+     */
+    private PhoneAccount getAccountReplacedBy(PhoneAccount newAccount) {
+        if (getDefaultInGroupOf(newAccount) == null) {
+            Log.v(this, "getAccountReplacedBy: Not replacing PhoneAccount, no default in the "
+                    + "same group.");
+            return null;
+        }
+        return getPhoneAccountByGroupId(newAccount.getGroupId(),
+                newAccount.getAccountHandle().getComponentName(),
+                newAccount.getAccountHandle().getUserHandle(), newAccount.getAccountHandle());
+    }
+
+    /**
+     * Moves the user's default outgoing account over to a newly registered account which shares
+     * its group Id and ComponentName. Must be called after the new account is added.
+     */
+    private void maybeReplaceDefaultAccount(PhoneAccount newAccount) {
+        DefaultPhoneAccountHandle defaultHandle = getDefaultInGroupOf(newAccount);
+        if (defaultHandle == null) {
             return;
         }
         if (Objects.equals(newAccount.getAccountHandle().getComponentName(),
@@ -998,19 +1199,10 @@ public class PhoneAccountRegistrar {
             // Move default calling account over to new user, since the ComponentNames and Group Ids
             // are the same.
             setUserSelectedOutgoingPhoneAccount(newAccount.getAccountHandle(),
-                    newAccountUserHandle);
+                    newAccount.getAccountHandle().getUserHandle());
         } else {
-            Log.v(this, "maybeReplaceOldAccount: group Ids are equal, but ComponentName is not" +
-                    " the same as the default. Not replacing default PhoneAccount.");
-        }
-        PhoneAccount replacementAccount = getPhoneAccountByGroupId(newAccount.getGroupId(),
-                newAccount.getAccountHandle().getComponentName(), newAccountUserHandle,
-                newAccount.getAccountHandle());
-        if (replacementAccount != null) {
-            // Unregister the old PhoneAccount.
-            Log.v(this, "maybeReplaceOldAccount: Unregistering old PhoneAccount: " +
-                    replacementAccount.getAccountHandle());
-            unregisterPhoneAccount(replacementAccount.getAccountHandle());
+            Log.v(this, "maybeReplaceDefaultAccount: group Ids are equal, but ComponentName is "
+                    + "not the same as the default. Not replacing default PhoneAccount.");
         }
     }
 
@@ -1056,12 +1248,7 @@ public class PhoneAccountRegistrar {
      * @return The corresponding phone account if one exists.
      */
     public PhoneAccount getPhoneAccountUnchecked(PhoneAccountHandle handle) {
-        for (PhoneAccount m : mState.accounts) {
-            if (Objects.equals(handle, m.getAccountHandle())) {
-                return m;
-            }
-        }
-        return null;
+        return getIndex().get(handle);
     }
 
     /**
@@ -1145,8 +1332,12 @@ public class PhoneAccountRegistrar {
             String packageName,
             boolean includeDisabledAccounts,
             UserHandle userHandle) {
-        List<PhoneAccount> accounts = new ArrayList<>(mState.accounts.size());
-        for (PhoneAccount m : mState.accounts) {
+        // Narrow the scan down using the index; when there is no current user every account is
+        // visible, so the user index cannot be used.
+        List<PhoneAccount> candidates = getIndex().getCandidates(capabilities, uriScheme,
+                packageName, mCurrentUserHandle == null ? null : userHandle);
+        List<PhoneAccount> accounts = new ArrayList<>(candidates.size());
+        for (PhoneAccount m : candidates) {
             if (!(m.isEnabled() || includeDisabledAccounts)) {
                 // Do not include disabled accounts.
                 continue;
@@ -1238,7 +1429,7 @@ public class PhoneAccountRegistrar {
      */
     public void dump(IndentingPrintWriter pw) {
         if (mState != null) {
-            pw.println("xmlVersion: " + mState.versionNumber);
+            pw.println("stateVersion: " + mState.versionNumber);
             DefaultPhoneAccountHandle defaultPhoneAccountHandle
                     = mState.defaultOutgoingAccountHandles.get(Process.myUserHandle());
             pw.println("defaultOutgoing: " + (defaultPhoneAccountHandle == null ? "none" :
@@ -1252,6 +1443,13 @@ public class PhoneAccountRegistrar {
             pw.decreaseIndent();
             pw.increaseIndent();
             pw.println("test emergency PhoneAccount filter: " + mTestPhoneAccountPackageNameFilter);
+            pw.println("accountsVersion: " + mAccountsVersion);
+            pw.println("writes: requested=" + mWritesRequested + " performed="
+                    + getWritesPerformed() + " saved=" + (mWritesRequested - getWritesPerformed())
+                    + " pending=" + (mPendingState.get() != null));
+            pw.println("resolveInfoCache: size=" + mResolveInfoCache.size()
+                    + " hits=" + mResolveInfoCacheHits.get()
+                    + " misses=" + mResolveInfoCacheMisses.get());
             pw.decreaseIndent();
         }
     }
@@ -1307,67 +1505,141 @@ public class PhoneAccountRegistrar {
     // State management
     //
 
-    private class AsyncXmlWriter extends AsyncTask<ByteArrayOutputStream, Void, Void> {
-        @Override
-        public Void doInBackground(ByteArrayOutputStream... args) {
-            final ByteArrayOutputStream buffer = args[0];
+    /**
+     * Marks the state as dirty and schedules it to be written out.  Writes are coalesced: all
+     * changes made within {@link #WRITE_COALESCE_WINDOW_MILLIS} of the first one result in a
+     * single write of the latest copy of the state, which is serialized and performed on
+     * {@link #mWriteHandler}.
+     */
+    private void write() {
+        mWritesRequested++;
+        if (mPendingState.getAndSet(copyState(mState)) == null) {
+            mWriteHandler.postDelayed(mWriteRunnable, WRITE_COALESCE_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * @return A copy of the state which later changes to the state will not affect.
+     */
+    private static State copyState(State state) {
+        State copy = new State();
+        copy.versionNumber = state.versionNumber;
+        // Default account handles are immutable, but accounts can be enabled and disabled.
+        copy.defaultOutgoingAccountHandles.putAll(state.defaultOutgoingAccountHandles);
+        for (PhoneAccount account : state.accounts) {
+            copy.accounts.add(account.toBuilder().build());
+        }
+        return copy;
+    }
+
+    /**
+     * Writes out any pending changes to the state immediately, on the calling thread.
+     */
+    public void flush() {
+        if (mPendingState.get() != null) {
+            mWriteHandler.removeCallbacks(mWriteRunnable);
+            writeNow();
+        }
+    }
+
+    /**
+     * Schedules any pending changes to be written out on {@link #mWriteHandler} without waiting
+     * for the rest of the coalescing window.
+     */
+    private void flushAsync() {
+        if (mPendingState.get() != null) {
+            mWriteHandler.removeCallbacks(mWriteRunnable);
+            mWriteHandler.post(mWriteRunnable);
+        }
+    }
+
+    /**
+     * Writes out any pending changes, then stops the writer thread and unregisters the
+     * receivers. The registrar must not be used afterwards.
+     */
+    @VisibleForTesting
+    public void cleanup() {
+        flush();
+        mContext.unregisterReceiver(mShutdownReceiver);
+        mContext.unregisterReceiver(mPackageChangedReceiver);
+        mWriteHandler.getLooper().quitSafely();
+    }
+
+    private void writeNow() {
+        synchronized (mWriteLock) {
+            // Take the pending copy so that a change made while we serialize schedules a new
+            // write rather than being lost.
+            State state = mPendingState.getAndSet(null);
+            if (state == null) {
+                return;
+            }
             FileOutputStream fileOutput = null;
             try {
-                synchronized (mWriteLock) {
-                    fileOutput = mAtomicFile.startWrite();
-                    buffer.writeTo(fileOutput);
-                    mAtomicFile.finishWrite(fileOutput);
-                }
+                byte[] data = PhoneAccountStateSerializer.toBytes(state, mContext);
+
+                fileOutput = mAtomicFile.startWrite();
+                fileOutput.write(data);
+                mAtomicFile.finishWrite(fileOutput);
+                mWritesPerformed++;
             } catch (IOException e) {
-                Log.e(this, e, "Writing state to XML file");
-                mAtomicFile.failWrite(fileOutput);
+                Log.e(this, e, "Writing state to file");
+                if (fileOutput != null) {
+                    mAtomicFile.failWrite(fileOutput);
+                }
+                return;
+            }
+
+            if (mLegacyXmlFilePresent) {
+                // The state has been migrated; the XML file is no longer needed.
+                Log.i(this, "Removing migrated XML state file");
+                mLegacyXmlFile.delete();
+                mLegacyXmlFilePresent = false;
             }
-            return null;
         }
     }
 
-    private void write() {
-        try {
-            sortPhoneAccounts();
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            XmlSerializer serializer = new FastXmlSerializer();
-            serializer.setOutput(os, "utf-8");
-            writeToXml(mState, serializer, mContext);
-            serializer.flush();
-            new AsyncXmlWriter().execute(os);
-        } catch (IOException e) {
-            Log.e(this, e, "Writing state to XML buffer");
+    /**
+     * @param fileName The name of the XML state file.
+     * @return The name of the binary state file which replaces it.
+     */
+    @VisibleForTesting
+    public static String getBinaryFileName(String fileName) {
+        if (fileName.endsWith(LEGACY_FILE_SUFFIX)) {
+            fileName = fileName.substring(0, fileName.length() - LEGACY_FILE_SUFFIX.length());
         }
+        return fileName + BINARY_FILE_SUFFIX;
     }
 
-    private void read() {
-        final InputStream is;
-        try {
-            is = mAtomicFile.openRead();
-        } catch (FileNotFoundException ex) {
-            return;
-        }
+    @VisibleForTesting
+    public Handler getWriteHandler() {
+        return mWriteHandler;
+    }
 
-        boolean versionChanged = false;
+    @VisibleForTesting
+    public int getWritesRequested() {
+        return mWritesRequested;
+    }
 
-        XmlPullParser parser;
-        try {
-            parser = Xml.newPullParser();
-            parser.setInput(new BufferedInputStream(is), null);
-            parser.nextTag();
-            mState = readFromXml(parser, mContext);
-            versionChanged = mState.versionNumber < EXPECTED_STATE_VERSION;
+    @VisibleForTesting
+    public int getWritesPerformed() {
+        synchronized (mWriteLock) {
+            return mWritesPerformed;
+        }
+    }
 
-        } catch (IOException | XmlPullParserException e) {
-            Log.e(this, e, "Reading state from XML file");
-            mState = new State();
-        } finally {
-            try {
-                is.close();
-            } catch (IOException e) {
-                Log.e(this, e, "Closing InputStream");
+    private void read() {
+        State state = readBinary();
+        if (state == null) {
+            // Fall back to the XML file written by older versions; it will be migrated to the
+            // binary format by the write below.
+            state = readLegacyXml();
+            if (state == null) {
+                return;
             }
+            mLegacyXmlFilePresent = true;
         }
+        mState = state;
+        boolean versionChanged = mState.versionNumber < EXPECTED_STATE_VERSION;
 
         // Verify all of the UserHandles.
         List<PhoneAccount> badAccounts = new ArrayList<>();
@@ -1382,13 +1654,59 @@ public class PhoneAccountRegistrar {
             }
         }
         mState.accounts.removeAll(badAccounts);
+        onAccountsChanged();
 
-        // If an upgrade occurred, write out the changed data.
-        if (versionChanged || !badAccounts.isEmpty()) {
+        // If an upgrade or migration occurred, write out the changed data.
+        if (versionChanged || mLegacyXmlFilePresent || !badAccounts.isEmpty()) {
             write();
         }
     }
 
+    /**
+     * @return The state read from the binary state file, or {@code null} if there is no such
+     *         file or it cannot be parsed.
+     */
+    private State readBinary() {
+        try {
+            return PhoneAccountStateSerializer.fromBytes(mAtomicFile.readFully(), mContext);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(this, e, "Reading state from file");
+            return null;
+        }
+    }
+
+    /**
+     * @return The state read from the legacy XML state file, {@code null} if there is no such
+     *         file, or an empty state if it cannot be parsed.
+     */
+    private State readLegacyXml() {
+        final InputStream is;
+        try {
+            is = mLegacyXmlFile.openRead();
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+
+        XmlPullParser parser;
+        try {
+            parser = Xml.newPullParser();
+            parser.setInput(new BufferedInputStream(is), null);
+            parser.nextTag();
+            return readFromXml(parser, mContext);
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(this, e, "Reading state from XML file");
+            return new State();
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                Log.e(this, e, "Closing InputStream");
+            }
+        }
+    }
+
     private static void writeToXml(State state, XmlSerializer serializer, Context context)
             throws IOException {
         sStateXml.writeToXml(state, serializer, context);
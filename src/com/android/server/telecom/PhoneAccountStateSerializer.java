@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Icon;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.telecom.Log;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.telecom.PhoneAccountRegistrar.DefaultPhoneAccountHandle;
+import com.android.server.telecom.PhoneAccountRegistrar.State;
+import com.android.server.telecom.nano.PhoneAccountRegistrarProto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts the {@link State} of the {@link PhoneAccountRegistrar} to and from the compact binary
+ * format defined in {@code proto/phone_account_registrar.proto}.
+ *
+ * Unlike the XML format, icons are written once per distinct icon in a table at the end of the
+ * state rather than base64 encoded inline in each account. Bitmap icons are stored as compressed
+ * image data and decoded back into bitmap icons, so that they keep {@link Icon#TYPE_BITMAP} as
+ * they do in the XML format.
+ */
+@VisibleForTesting
+public class PhoneAccountStateSerializer {
+    private static final int NO_ICON = -1;
+    private static final int NO_USER_SERIAL_NUMBER = -1;
+
+    private PhoneAccountStateSerializer() {}
+
+    /**
+     * Serializes the given state.
+     *
+     * @param state The state to serialize.
+     * @param context The context, used to map users to serial numbers.
+     * @return The serialized state.
+     */
+    public static byte[] toBytes(State state, Context context) throws IOException {
+        UserManager userManager = UserManager.get(context);
+        PhoneAccountRegistrarProto.RegistrarState result =
+                new PhoneAccountRegistrarProto.RegistrarState();
+        result.setVersion(PhoneAccountRegistrar.EXPECTED_STATE_VERSION);
+
+        List<PhoneAccountRegistrarProto.DefaultOutgoingAccount> defaults = new ArrayList<>();
+        for (DefaultPhoneAccountHandle defaultHandle :
+                state.defaultOutgoingAccountHandles.values()) {
+            long serialNumber = userManager.getSerialNumberForUser(defaultHandle.userHandle);
+            if (serialNumber == NO_USER_SERIAL_NUMBER) {
+                continue;
+            }
+            PhoneAccountRegistrarProto.DefaultOutgoingAccount record =
+                    new PhoneAccountRegistrarProto.DefaultOutgoingAccount()
+                            .setUserSerialNumber(serialNumber)
+                            .setGroupId(defaultHandle.groupId == null ? "" : defaultHandle.groupId);
+            record.accountHandle = toRecord(defaultHandle.phoneAccountHandle, userManager);
+            defaults.add(record);
+        }
+        result.defaultOutgoingAccounts = defaults.toArray(
+                new PhoneAccountRegistrarProto.DefaultOutgoingAccount[defaults.size()]);
+
+        List<PhoneAccountRegistrarProto.IconRecord> icons = new ArrayList<>();
+        List<PhoneAccountRegistrarProto.PhoneAccountRecord> accounts = new ArrayList<>();
+        for (PhoneAccount account : state.accounts) {
+            accounts.add(toRecord(account, userManager, icons));
+        }
+        result.accounts = accounts.toArray(
+                new PhoneAccountRegistrarProto.PhoneAccountRecord[accounts.size()]);
+        result.icons = icons.toArray(new PhoneAccountRegistrarProto.IconRecord[icons.size()]);
+
+        return PhoneAccountRegistrarProto.RegistrarState.toByteArray(result);
+    }
+
+    /**
+     * Reads a state previously written by {@link #toBytes(State, Context)}.
+     *
+     * @param data The serialized state.
+     * @param context The context, used to map serial numbers to users.
+     * @return The state.
+     * @throws IOException if the data cannot be parsed.
+     */
+    public static State fromBytes(byte[] data, Context context) throws IOException {
+        UserManager userManager = UserManager.get(context);
+        PhoneAccountRegistrarProto.RegistrarState proto =
+                PhoneAccountRegistrarProto.RegistrarState.parseFrom(data);
+
+        State state = new State();
+        state.versionNumber = proto.getVersion();
+
+        for (PhoneAccountRegistrarProto.DefaultOutgoingAccount record :
+                proto.defaultOutgoingAccounts) {
+            UserHandle userHandle = userManager.getUserForSerialNumber(
+                    record.getUserSerialNumber());
+            PhoneAccountHandle handle = fromRecord(record.accountHandle, userManager);
+            if (userHandle != null && handle != null) {
+                state.defaultOutgoingAccountHandles.put(userHandle,
+                        new DefaultPhoneAccountHandle(userHandle, handle, record.getGroupId()));
+            }
+        }
+
+        List<PhoneAccount> accounts = new ArrayList<>(proto.accounts.length);
+        for (PhoneAccountRegistrarProto.PhoneAccountRecord record : proto.accounts) {
+            PhoneAccount account = fromRecord(record, proto.icons, userManager);
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        // Add in one go; the list is copy-on-write.
+        state.accounts.addAll(accounts);
+        return state;
+    }
+
+    private static PhoneAccountRegistrarProto.PhoneAccountHandleRecord toRecord(
+            PhoneAccountHandle handle, UserManager userManager) {
+        PhoneAccountRegistrarProto.PhoneAccountHandleRecord record =
+                new PhoneAccountRegistrarProto.PhoneAccountHandleRecord();
+        if (handle.getComponentName() != null) {
+            record.setComponentName(handle.getComponentName().flattenToString());
+        }
+        if (handle.getId() != null) {
+            record.setId(handle.getId());
+        }
+        if (handle.getUserHandle() != null) {
+            record.setUserSerialNumber(userManager.getSerialNumberForUser(handle.getUserHandle()));
+        }
+        return record;
+    }
+
+    private static PhoneAccountHandle fromRecord(
+            PhoneAccountRegistrarProto.PhoneAccountHandleRecord record, UserManager userManager) {
+        if (record == null || !record.hasComponentName()) {
+            return null;
+        }
+        UserHandle userHandle = null;
+        if (record.getUserSerialNumber() != NO_USER_SERIAL_NUMBER) {
+            userHandle = userManager.getUserForSerialNumber(record.getUserSerialNumber());
+        }
+        return new PhoneAccountHandle(
+                ComponentName.unflattenFromString(record.getComponentName()),
+                record.hasId() ? record.getId() : null,
+                userHandle);
+    }
+
+    private static PhoneAccountRegistrarProto.PhoneAccountRecord toRecord(PhoneAccount account,
+            UserManager userManager, List<PhoneAccountRegistrarProto.IconRecord> icons)
+            throws IOException {
+        PhoneAccountRegistrarProto.PhoneAccountRecord record =
+                new PhoneAccountRegistrarProto.PhoneAccountRecord()
+                        .setCapabilities(account.getCapabilities())
+                        .setHighlightColor(account.getHighlightColor())
+                        .setEnabled(account.isEnabled())
+                        .setSupportedAudioRoutes(account.getSupportedAudioRoutes());
+        if (account.getAccountHandle() != null) {
+            record.accountHandle = toRecord(account.getAccountHandle(), userManager);
+        }
+        if (account.getAddress() != null) {
+            record.setAddress(account.getAddress().toString());
+        }
+        if (account.getSubscriptionAddress() != null) {
+            record.setSubscriptionAddress(account.getSubscriptionAddress().toString());
+        }
+        if (account.getLabel() != null) {
+            record.setLabel(account.getLabel().toString());
+        }
+        if (account.getShortDescription() != null) {
+            record.setShortDescription(account.getShortDescription().toString());
+        }
+        List<String> schemes = account.getSupportedUriSchemes();
+        if (schemes != null) {
+            record.supportedUriSchemes = schemes.toArray(new String[schemes.size()]);
+        }
+        record.extras = toRecords(account.getExtras());
+        if (account.getIcon() != null) {
+            record.setIconIndex(addIcon(account.getIcon(), icons));
+        }
+        return record;
+    }
+
+    private static PhoneAccount fromRecord(PhoneAccountRegistrarProto.PhoneAccountRecord record,
+            PhoneAccountRegistrarProto.IconRecord[] icons, UserManager userManager) {
+        PhoneAccountHandle handle = fromRecord(record.accountHandle, userManager);
+        if (handle == null) {
+            Log.w(PhoneAccountStateSerializer.class, "Dropping account with no handle");
+            return null;
+        }
+        PhoneAccount.Builder builder = PhoneAccount.builder(handle,
+                record.hasLabel() ? record.getLabel() : null)
+                .setAddress(record.hasAddress() ? Uri.parse(record.getAddress()) : null)
+                .setSubscriptionAddress(record.hasSubscriptionAddress()
+                        ? Uri.parse(record.getSubscriptionAddress()) : null)
+                .setCapabilities(record.getCapabilities())
+                .setSupportedAudioRoutes(record.getSupportedAudioRoutes())
+                .setShortDescription(record.hasShortDescription()
+                        ? record.getShortDescription() : null)
+                .setSupportedUriSchemes(Arrays.asList(record.supportedUriSchemes))
+                .setHighlightColor(record.getHighlightColor())
+                .setExtras(fromRecords(record.extras))
+                .setIsEnabled(record.getEnabled());
+
+        int iconIndex = record.getIconIndex();
+        if (iconIndex != NO_ICON && iconIndex < icons.length) {
+            Icon icon = fromRecord(icons[iconIndex]);
+            if (icon != null) {
+                builder.setIcon(icon);
+            }
+        }
+        return builder.build();
+    }
+
+    private static PhoneAccountRegistrarProto.PhoneAccountExtra[] toRecords(Bundle extras) {
+        if (extras == null) {
+            return PhoneAccountRegistrarProto.PhoneAccountExtra.emptyArray();
+        }
+        List<PhoneAccountRegistrarProto.PhoneAccountExtra> records = new ArrayList<>();
+        for (String key : extras.keySet()) {
+            Object value = extras.get(key);
+            PhoneAccountRegistrarProto.PhoneAccountExtra record =
+                    new PhoneAccountRegistrarProto.PhoneAccountExtra().setKey(key);
+            // Same restrictions as the XML format: only string, integer and boolean extras.
+            if (value instanceof String) {
+                record.setStringValue((String) value);
+            } else if (value instanceof Integer) {
+                record.setIntValue((Integer) value);
+            } else if (value instanceof Boolean) {
+                record.setBoolValue((Boolean) value);
+            } else {
+                continue;
+            }
+            records.add(record);
+        }
+        return records.toArray(new PhoneAccountRegistrarProto.PhoneAccountExtra[records.size()]);
+    }
+
+    private static Bundle fromRecords(PhoneAccountRegistrarProto.PhoneAccountExtra[] records) {
+        if (records.length == 0) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        for (PhoneAccountRegistrarProto.PhoneAccountExtra record : records) {
+            if (record.hasStringValue()) {
+                extras.putString(record.getKey(), record.getStringValue());
+            } else if (record.hasIntValue()) {
+                extras.putInt(record.getKey(), record.getIntValue());
+            } else if (record.hasBoolValue()) {
+                extras.putBoolean(record.getKey(), record.getBoolValue());
+            }
+        }
+        return extras;
+    }
+
+    /**
+     * Adds an icon to the icon table, reusing an existing entry with the same encoded contents.
+     *
+     * @return The index of the icon in the table.
+     */
+    private static int addIcon(Icon icon, List<PhoneAccountRegistrarProto.IconRecord> icons)
+            throws IOException {
+        PhoneAccountRegistrarProto.IconRecord record = new PhoneAccountRegistrarProto.IconRecord();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        if (icon.getType() == Icon.TYPE_BITMAP) {
+            icon.getBitmap().compress(Bitmap.CompressFormat.PNG, 100, stream);
+            record.setEncoding(PhoneAccountRegistrarProto.IconRecord.ENCODING_IMAGE_DATA);
+        } else {
+            icon.writeToStream(stream);
+            record.setEncoding(PhoneAccountRegistrarProto.IconRecord.ENCODING_STREAM);
+        }
+        record.setData(stream.toByteArray());
+
+        for (int i = 0; i < icons.size(); i++) {
+            PhoneAccountRegistrarProto.IconRecord existing = icons.get(i);
+            if (existing.getEncoding() == record.getEncoding()
+                    && Arrays.equals(existing.getData(), record.getData())) {
+                return i;
+            }
+        }
+        icons.add(record);
+        return icons.size() - 1;
+    }
+
+    private static Icon fromRecord(PhoneAccountRegistrarProto.IconRecord record) {
+        byte[] data = record.getData();
+        if (record.getEncoding() == PhoneAccountRegistrarProto.IconRecord.ENCODING_IMAGE_DATA) {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (bitmap == null) {
+                Log.w(PhoneAccountStateSerializer.class, "Could not decode bitmap icon");
+                return null;
+            }
+            return Icon.createWithBitmap(bitmap);
+        }
+        try {
+            return Icon.createFromStream(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            Log.w(PhoneAccountStateSerializer.class, "Could not read icon: %s", e);
+            return null;
+        }
+    }
+}
@@ -28,7 +28,8 @@ final class PhoneStateBroadcaster extends CallsManagerListenerBase {
 
     private final CallsManager mCallsManager;
     private final TelephonyRegistryManager mRegistry;
-    private int mCurrentState = TelephonyManager.CALL_STATE_IDLE;
+    // Volatile as it is read by binder threads without holding the Telecom lock.
+    private volatile int mCurrentState = TelephonyManager.CALL_STATE_IDLE;
 
     public PhoneStateBroadcaster(CallsManager callsManager) {
         mCallsManager = callsManager;
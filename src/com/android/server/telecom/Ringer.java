@@ -323,6 +323,7 @@ public class Ringer {
         timer.record("letDialerHandleRinging");
 
         Log.i(this, "startRinging timings: " + timer);
+        foregroundCall.markSetupStage(CallSetupTimer.RINGER_STARTED);
         boolean endEarly = isTheaterModeOn || letDialerHandleRinging || isSelfManaged ||
                 hasExternalRinger || isSilentRingingRequested;
 
@@ -336,10 +337,10 @@ public class Ringer {
 
         if (endEarly) {
             if (letDialerHandleRinging) {
-                Log.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Dialer handles");
+                LogUtils.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Dialer handles");
             }
             if (isSilentRingingRequested) {
-                Log.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Silent ringing "
+                LogUtils.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Silent ringing "
                         + "requested");
             }
             Log.i(this, "Ending early -- isTheaterModeOn=%s, letDialerHandleRinging=%s, " +
@@ -360,7 +361,7 @@ public class Ringer {
         boolean isVibratorEnabled = isVibratorEnabled(mContext, foregroundCall);
         if (isRingerAudible) {
             mRingingCall = foregroundCall;
-            Log.addEvent(foregroundCall, LogUtils.Events.START_RINGER);
+            LogUtils.addEvent(foregroundCall, LogUtils.Events.START_RINGER);
             // Because we wait until a contact info query to complete before processing a
             // call (for the purposes of direct-to-voicemail), the information about custom
             // ringtones should be available by the time this code executes. We can safely
@@ -416,7 +417,7 @@ public class Ringer {
                     "isVolumeOverZero=%s, shouldRingForContact=%s, isRingtonePresent=%s",
                     isVolumeOverZero, shouldRingForContact, isRingtonePresent);
             Log.i(this, "startRinging: skipping because ringer would not be audible. " + reason);
-            Log.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Inaudible: " + reason);
+            LogUtils.addEvent(foregroundCall, LogUtils.Events.SKIP_RINGING, "Inaudible: " + reason);
             effect = mDefaultVibrationEffect;
         }
 
@@ -433,7 +434,7 @@ public class Ringer {
                     maybeStartVibration(foregroundCall, shouldRingForContact, effect,
                             isVibratorEnabled, isRingerAudible);
                 } else {
-                    Log.addEvent(foregroundCall, LogUtils.Events.SKIP_VIBRATION,
+                    LogUtils.addEvent(foregroundCall, LogUtils.Events.SKIP_VIBRATION,
                             "using audio-coupled haptics");
                 }
             });
@@ -477,7 +478,7 @@ public class Ringer {
                 mVibrator.vibrate(effect, VIBRATION_ATTRIBUTES);
             }
         } else if (mIsVibrating) {
-            Log.addEvent(foregroundCall, LogUtils.Events.SKIP_VIBRATION, "already vibrating");
+            LogUtils.addEvent(foregroundCall, LogUtils.Events.SKIP_VIBRATION, "already vibrating");
         }
     }
 
@@ -519,12 +520,12 @@ public class Ringer {
         }
 
         if (mInCallController.doesConnectedDialerSupportRinging()) {
-            Log.addEvent(call, LogUtils.Events.SKIP_RINGING, "Dialer handles");
+            LogUtils.addEvent(call, LogUtils.Events.SKIP_RINGING, "Dialer handles");
             return;
         }
 
         if (call.isSelfManaged()) {
-            Log.addEvent(call, LogUtils.Events.SKIP_RINGING, "Self-managed");
+            LogUtils.addEvent(call, LogUtils.Events.SKIP_RINGING, "Self-managed");
             return;
         }
 
@@ -540,7 +541,7 @@ public class Ringer {
         }
 
         if (mCallWaitingPlayer == null) {
-            Log.addEvent(call, LogUtils.Events.START_CALL_WAITING_TONE, reason);
+            LogUtils.addEvent(call, LogUtils.Events.START_CALL_WAITING_TONE, reason);
             mCallWaitingCall = call;
             mCallWaitingPlayer =
                     mPlayerFactory.createPlayer(InCallTonePlayer.TONE_CALL_WAITING);
@@ -550,7 +551,7 @@ public class Ringer {
 
     public void stopRinging() {
         if (mRingingCall != null) {
-            Log.addEvent(mRingingCall, LogUtils.Events.STOP_RINGER);
+            LogUtils.addEvent(mRingingCall, LogUtils.Events.STOP_RINGER);
             mRingingCall = null;
         }
 
@@ -564,7 +565,7 @@ public class Ringer {
         }
 
         if (mIsVibrating) {
-            Log.addEvent(mVibratingCall, LogUtils.Events.STOP_VIBRATOR);
+            LogUtils.addEvent(mVibratingCall, LogUtils.Events.STOP_VIBRATOR);
             mVibrator.cancel();
             mIsVibrating = false;
             mVibratingCall = null;
@@ -575,7 +576,7 @@ public class Ringer {
         Log.v(this, "stop call waiting.");
         if (mCallWaitingPlayer != null) {
             if (mCallWaitingCall != null) {
-                Log.addEvent(mCallWaitingCall, LogUtils.Events.STOP_CALL_WAITING_TONE);
+                LogUtils.addEvent(mCallWaitingCall, LogUtils.Events.STOP_CALL_WAITING_TONE);
                 mCallWaitingCall = null;
             }
 
@@ -622,12 +623,12 @@ public class Ringer {
         // Technically this should be in the calling method, but it seemed a little odd to pass
         // around a whole bunch of state just for logging purposes.
         if (shouldVibrate) {
-            Log.addEvent(call, LogUtils.Events.START_VIBRATOR,
+            LogUtils.addEvent(call, LogUtils.Events.START_VIBRATOR,
                     "hasVibrator=%b, userRequestsVibrate=%b, ringerMode=%d, isVibrating=%b",
                     mVibrator.hasVibrator(), mSystemSettingsUtil.canVibrateWhenRinging(context),
                     ringerMode, mIsVibrating);
         } else {
-            Log.addEvent(call, LogUtils.Events.SKIP_VIBRATION,
+            LogUtils.addEvent(call, LogUtils.Events.SKIP_VIBRATION,
                     "hasVibrator=%b, userRequestsVibrate=%b, ringerMode=%d, isVibrating=%b",
                     mVibrator.hasVibrator(), mSystemSettingsUtil.canVibrateWhenRinging(context),
                     ringerMode, mIsVibrating);
@@ -86,7 +86,7 @@ public abstract class ServiceBinder {
                 Intent serviceIntent = new Intent(mServiceAction).setComponent(mComponentName);
                 ServiceConnection connection = new ServiceBinderConnection(call);
 
-                Log.addEvent(call, LogUtils.Events.BIND_CS, mComponentName);
+                LogUtils.addEvent(call, LogUtils.Events.BIND_CS, mComponentName);
                 final int bindingFlags = Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE
                         | Context.BIND_ALLOW_BACKGROUND_ACTIVITY_STARTS;
                 final boolean isBound;
@@ -149,7 +149,7 @@ public abstract class ServiceBinder {
                 synchronized (mLock) {
                     Log.i(this, "Service bound %s", componentName);
 
-                    Log.addEvent(mCall, LogUtils.Events.CS_BOUND, componentName);
+                    LogUtils.addEvent(mCall, LogUtils.Events.CS_BOUND, componentName);
 
                     // Unbind request was queued so unbind immediately.
                     if (mIsBindingAborted) {
@@ -203,7 +203,7 @@ public abstract class ServiceBinder {
                 Log.startSession("SBC.oNB");
                 synchronized (mLock) {
                     Log.w(this, "Null binding %s", componentName);
-                    Log.addEvent(mCall, "NULL_BINDING", componentName);
+                    LogUtils.addEvent(mCall, "NULL_BINDING", componentName);
                     String componentStr = componentName == null ? "null" : componentName.toString();
                     android.util.EventLog.writeEvent(0x534e4554, "211114016", -1, componentStr);
                     logServiceDisconnected("onNullBinding");
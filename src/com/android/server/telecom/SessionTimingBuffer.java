@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.TelecomAnalytics.SessionTiming;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed-capacity ring buffer of log session timings, stored as primitives. Once full, adding a
+ * timing evicts the oldest one.
+ *
+ * A {@link Log2Histogram} of the timings of each session is maintained as timings are added and
+ * evicted, so means and percentiles always describe the timings currently in the buffer without
+ * having to walk it.
+ *
+ * Not thread safe; {@link Analytics} guards it with its lock.
+ */
+@VisibleForTesting
+public class SessionTimingBuffer {
+    private static final int NUM_BUCKETS = Long.SIZE;
+
+    private final int[] mSessionIds;
+    private final long[] mTimes;
+    private final SparseArray<Log2Histogram> mAggregates = new SparseArray<>();
+    // Index of the oldest timing.
+    private int mStart;
+    private int mSize;
+
+    public SessionTimingBuffer(int capacity) {
+        mSessionIds = new int[capacity];
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * Adds a timing, evicting the oldest timing if the buffer is full.
+     *
+     * @param sessionId The {@link SessionTiming} key of the session.
+     * @param timeMillis How long the session took.
+     */
+    public void add(int sessionId, long timeMillis) {
+        timeMillis = Math.max(0, timeMillis);
+        int index;
+        if (mSize == mSessionIds.length) {
+            index = mStart;
+            removeFromAggregate(mSessionIds[index], mTimes[index]);
+            mStart = (mStart + 1) % mSessionIds.length;
+        } else {
+            index = (mStart + mSize) % mSessionIds.length;
+            mSize++;
+        }
+        mSessionIds[index] = sessionId;
+        mTimes[index] = timeMillis;
+        addToAggregate(sessionId, timeMillis);
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+        mAggregates.clear();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mSessionIds.length;
+    }
+
+    /**
+     * @param i The index of the timing, where 0 is the oldest.
+     */
+    public int getSessionId(int i) {
+        return mSessionIds[(mStart + i) % mSessionIds.length];
+    }
+
+    /**
+     * @param i The index of the timing, where 0 is the oldest.
+     */
+    public long getTime(int i) {
+        return mTimes[(mStart + i) % mSessionIds.length];
+    }
+
+    /**
+     * @return The timings in the buffer, oldest first.
+     */
+    public List<SessionTiming> toSessionTimings() {
+        List<SessionTiming> timings = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            timings.add(new SessionTiming(getSessionId(i), getTime(i)));
+        }
+        return timings;
+    }
+
+    /**
+     * @return The mean time of each session in the buffer, keyed on session ID; the same as
+     * {@code SessionTiming.averageTimings} over the contents of the buffer.
+     */
+    public Map<Integer, Double> getAverageTimings() {
+        Map<Integer, Double> averages = new HashMap<>(mAggregates.size());
+        for (int i = 0; i < mAggregates.size(); i++) {
+            Log2Histogram aggregate = mAggregates.valueAt(i);
+            averages.put(mAggregates.keyAt(i),
+                    (double) aggregate.getTotal() / aggregate.getCount());
+        }
+        return averages;
+    }
+
+    /**
+     * @return The number of timings of a session in the buffer.
+     */
+    public int getCount(int sessionId) {
+        Log2Histogram aggregate = mAggregates.get(sessionId);
+        return aggregate == null ? 0 : aggregate.getCount();
+    }
+
+    /**
+     * Estimates a percentile of the times of a session in the buffer; see
+     * {@link Log2Histogram#getPercentile}.
+     *
+     * @param sessionId The session.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated time, or -1 if there are no timings for the session.
+     */
+    public long getPercentile(int sessionId, int percentile) {
+        Log2Histogram aggregate = mAggregates.get(sessionId);
+        return aggregate == null ? -1 : aggregate.getPercentile(percentile);
+    }
+
+    private void addToAggregate(int sessionId, long timeMillis) {
+        Log2Histogram aggregate = mAggregates.get(sessionId);
+        if (aggregate == null) {
+            aggregate = new Log2Histogram(NUM_BUCKETS);
+            mAggregates.put(sessionId, aggregate);
+        }
+        aggregate.add(timeMillis);
+    }
+
+    private void removeFromAggregate(int sessionId, long timeMillis) {
+        Log2Histogram aggregate = mAggregates.get(sessionId);
+        aggregate.remove(timeMillis);
+        if (aggregate.getCount() == 0) {
+            mAggregates.remove(sessionId);
+        }
+    }
+}
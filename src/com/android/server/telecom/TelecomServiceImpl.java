@@ -41,7 +41,11 @@ import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Parcel;
 import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.BlockedNumberContract;
 import android.provider.Settings;
@@ -110,6 +114,22 @@ public class TelecomServiceImpl {
             "android.permission.HANDLE_CALL_INTENT";
 
     private final ITelecomService.Stub mBinderImpl = new ITelecomService.Stub() {
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            final int callingUid = Binder.getCallingUid();
+            final long startCpuNanos = Debug.threadCpuTimeNanos();
+            final long startNanos = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.onTransact(code, data, reply, flags);
+            } finally {
+                long cpuNanos = startCpuNanos < 0 ? -1
+                        : Debug.threadCpuTimeNanos() - startCpuNanos;
+                mBinderCallStats.record(callingUid, code, cpuNanos,
+                        SystemClock.elapsedRealtimeNanos() - startNanos);
+            }
+        }
         @Override
         public PhoneAccountHandle getDefaultOutgoingPhoneAccount(String uriScheme,
                 String callingPackage, String callingFeatureId) {
@@ -200,8 +220,10 @@ public class TelecomServiceImpl {
                         "getCallCapablePhoneAccounts")) {
                     return Collections.emptyList();
                 }
-                synchronized (mLock) {
-                    final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+                // Served from the registrar's account index without taking the Telecom lock.
+                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+                return mBinderResultCache.get(Binder.getCallingUid(), "getCallCapablePhoneAccounts",
+                        new Object[] {includeDisabledAccounts}, () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         return mPhoneAccountRegistrar.getCallCapablePhoneAccounts(null,
@@ -212,7 +234,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -227,18 +249,16 @@ public class TelecomServiceImpl {
                         "Requires READ_PHONE_STATE permission.")) {
                     throw new SecurityException("Requires READ_PHONE_STATE permission.");
                 }
-                synchronized (mLock) {
-                    final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                    long token = Binder.clearCallingIdentity();
-                    try {
-                        return mPhoneAccountRegistrar.getSelfManagedPhoneAccounts(
-                                callingUserHandle);
-                    } catch (Exception e) {
-                        Log.e(this, e, "getSelfManagedPhoneAccounts");
-                        throw e;
-                    } finally {
-                        Binder.restoreCallingIdentity(token);
-                    }
+                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+                long token = Binder.clearCallingIdentity();
+                try {
+                    return mPhoneAccountRegistrar.getSelfManagedPhoneAccounts(
+                            callingUserHandle);
+                } catch (Exception e) {
+                    Log.e(this, e, "getSelfManagedPhoneAccounts");
+                    throw e;
+                } finally {
+                    Binder.restoreCallingIdentity(token);
                 }
             } finally {
                 Log.endSession();
@@ -259,18 +279,16 @@ public class TelecomServiceImpl {
                     return Collections.emptyList();
                 }
 
-                synchronized (mLock) {
-                    final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                    long token = Binder.clearCallingIdentity();
-                    try {
-                        return mPhoneAccountRegistrar.getCallCapablePhoneAccounts(uriScheme, false,
-                                callingUserHandle);
-                    } catch (Exception e) {
-                        Log.e(this, e, "getPhoneAccountsSupportingScheme %s", uriScheme);
-                        throw e;
-                    } finally {
-                        Binder.restoreCallingIdentity(token);
-                    }
+                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+                long token = Binder.clearCallingIdentity();
+                try {
+                    return mPhoneAccountRegistrar.getCallCapablePhoneAccounts(uriScheme, false,
+                            callingUserHandle);
+                } catch (Exception e) {
+                    Log.e(this, e, "getPhoneAccountsSupportingScheme %s", uriScheme);
+                    throw e;
+                } finally {
+                    Binder.restoreCallingIdentity(token);
                 }
             } finally {
                 Log.endSession();
@@ -315,25 +333,24 @@ public class TelecomServiceImpl {
 
         @Override
         public PhoneAccount getPhoneAccount(PhoneAccountHandle accountHandle) {
-            synchronized (mLock) {
-                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                long token = Binder.clearCallingIdentity();
-                try {
-                    Log.startSession("TSI.gPA");
-                    // In ideal case, we should not resolve the handle across profiles. But given
-                    // the fact that profile's call is handled by its parent user's in-call UI,
-                    // parent user's in call UI need to be able to get phone account from the
-                    // profile's phone account handle.
-                    return mPhoneAccountRegistrar
-                            .getPhoneAccount(accountHandle, callingUserHandle,
-                            /* acrossProfiles */ true);
-                } catch (Exception e) {
-                    Log.e(this, e, "getPhoneAccount %s", accountHandle);
-                    throw e;
-                } finally {
-                    Binder.restoreCallingIdentity(token);
-                    Log.endSession();
-                }
+            // Served from the registrar's account index without taking the Telecom lock.
+            final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+            long token = Binder.clearCallingIdentity();
+            try {
+                Log.startSession("TSI.gPA");
+                // In ideal case, we should not resolve the handle across profiles. But given
+                // the fact that profile's call is handled by its parent user's in-call UI,
+                // parent user's in call UI need to be able to get phone account from the
+                // profile's phone account handle.
+                return mPhoneAccountRegistrar
+                        .getPhoneAccount(accountHandle, callingUserHandle,
+                        /* acrossProfiles */ true);
+            } catch (Exception e) {
+                Log.e(this, e, "getPhoneAccount %s", accountHandle);
+                throw e;
+            } finally {
+                Binder.restoreCallingIdentity(token);
+                Log.endSession();
             }
         }
 
@@ -743,13 +760,18 @@ public class TelecomServiceImpl {
         public String getDefaultDialerPackage() {
             try {
                 Log.startSession("TSI.gDDP");
-                final long token = Binder.clearCallingIdentity();
-                try {
-                    return mDefaultDialerCache.getDefaultDialerApplication(
-                            ActivityManager.getCurrentUser());
-                } finally {
-                    Binder.restoreCallingIdentity(token);
-                }
+                // Keyed on the current user too, so a user switch doesn't serve the last user's
+                // default dialer until the entry expires.
+                final int currentUser = ActivityManager.getCurrentUser();
+                return mBinderResultCache.get(Binder.getCallingUid(), "getDefaultDialerPackage",
+                        new Object[] {currentUser}, () -> {
+                    final long token = Binder.clearCallingIdentity();
+                    try {
+                        return mDefaultDialerCache.getDefaultDialerApplication(currentUser);
+                    } finally {
+                        Binder.restoreCallingIdentity(token);
+                    }
+                });
             } finally {
                 Log.endSession();
             }
@@ -802,6 +824,7 @@ public class TelecomServiceImpl {
                     long token = Binder.clearCallingIdentity();
                     try {
                         mDefaultDialerCache.setSystemDialerComponentName(testComponentName);
+                        mPermissionDecisionCache.invalidate();
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
@@ -822,9 +845,9 @@ public class TelecomServiceImpl {
                     return false;
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingCalls();
-                }
+                // Answered from a snapshot of the calls without taking the Telecom lock.
+                return mBinderResultCache.get(Binder.getCallingUid(), "isInCall",
+                        null /* args */, () -> mCallsManager.hasOngoingCalls());
             } finally {
                 Log.endSession();
             }
@@ -842,9 +865,7 @@ public class TelecomServiceImpl {
                             "READ_PHONE_STATE permission can use this method.");
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingManagedCalls();
-                }
+                return mCallsManager.hasOngoingManagedCalls();
             } finally {
                 Log.endSession();
             }
@@ -867,14 +888,12 @@ public class TelecomServiceImpl {
                     }
                 }
 
-                synchronized (mLock) {
-                    // Note: We are explicitly checking the calls telecom is tracking rather than
-                    // relying on mCallsManager#getCallState(). Since getCallState() relies on the
-                    // current state as tracked by PhoneStateBroadcaster, any failure to properly
-                    // track the current call state there could result in the wrong ringing state
-                    // being reported by this API.
-                    return mCallsManager.hasRingingOrSimulatedRingingCall();
-                }
+                // Note: We are explicitly checking the calls telecom is tracking rather than
+                // relying on mCallsManager#getCallState(). Since getCallState() relies on the
+                // current state as tracked by PhoneStateBroadcaster, any failure to properly
+                // track the current call state there could result in the wrong ringing state
+                // being reported by this API.
+                return mCallsManager.hasRingingOrSimulatedRingingCall();
             } finally {
                 Log.endSession();
             }
@@ -887,9 +906,7 @@ public class TelecomServiceImpl {
         public int getCallState() {
             try {
                 Log.startSession("TSI.getCallState");
-                synchronized (mLock) {
-                    return mCallsManager.getCallState();
-                }
+                return mCallsManager.getCallState();
             } finally {
                 Log.endSession();
             }
@@ -1586,11 +1603,31 @@ public class TelecomServiceImpl {
                 pw.increaseIndent();
                 Analytics.dump(pw);
                 pw.decreaseIndent();
+
+                pw.println("Timeouts:");
+                pw.increaseIndent();
+                Timeouts.dump(pw);
+                pw.decreaseIndent();
+
+                pw.println("BinderCallStats:");
+                pw.increaseIndent();
+                mBinderCallStats.dump(pw);
+                pw.decreaseIndent();
+
+                pw.println("BinderResultCache:");
+                pw.increaseIndent();
+                mBinderResultCache.dump(pw);
+                pw.decreaseIndent();
+
+                pw.println("PermissionDecisionCache:");
+                pw.increaseIndent();
+                mPermissionDecisionCache.dump(pw);
+                pw.decreaseIndent();
             }
             if (isTimeLineView) {
-                Log.dumpEventsTimeline(pw);
+                LogUtils.dumpEventsTimeline(pw);
             } else {
-                Log.dumpEvents(pw);
+                LogUtils.dumpEvents(pw);
             }
         }
 
@@ -1848,6 +1885,7 @@ public class TelecomServiceImpl {
                     long token = Binder.clearCallingIdentity();
                     try {
                         mCallsManager.getRoleManagerAdapter().setTestDefaultDialer(packageName);
+                        mPermissionDecisionCache.invalidate();
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
@@ -1908,6 +1946,10 @@ public class TelecomServiceImpl {
     private final SubscriptionManagerAdapter mSubscriptionManagerAdapter;
     private final SettingsSecureAdapter mSettingsSecureAdapter;
     private final TelecomSystem.SyncRoot mLock;
+    private final BinderCallStats mBinderCallStats =
+            new BinderCallStats(ITelecomService.Stub.class);
+    private final BinderResultCache mBinderResultCache;
+    private final PermissionDecisionCache mPermissionDecisionCache;
 
     public TelecomServiceImpl(
             Context context,
@@ -1918,6 +1960,8 @@ public class TelecomServiceImpl {
             DefaultDialerCache defaultDialerCache,
             SubscriptionManagerAdapter subscriptionManagerAdapter,
             SettingsSecureAdapter settingsSecureAdapter,
+            PermissionDecisionCache permissionDecisionCache,
+            ClockProxy clockProxy,
             TelecomSystem.SyncRoot lock) {
         mContext = context;
         mAppOpsManager = (AppOpsManager) mContext.getSystemService(Context.APP_OPS_SERVICE);
@@ -1932,6 +1976,9 @@ public class TelecomServiceImpl {
         mCallIntentProcessorAdapter = callIntentProcessorAdapter;
         mSubscriptionManagerAdapter = subscriptionManagerAdapter;
         mSettingsSecureAdapter = settingsSecureAdapter;
+        mPermissionDecisionCache = permissionDecisionCache;
+        mBinderResultCache = new BinderResultCache(clockProxy,
+                () -> Timeouts.getBinderResultCacheMillis(mContext.getContentResolver()));
 
         mDefaultDialerCache.observeDefaultDialerApplication(mContext.getMainExecutor(), userId -> {
             String defaultDialer = mDefaultDialerCache.getDefaultDialerApplication(userId);
@@ -2153,19 +2200,36 @@ public class TelecomServiceImpl {
             return true;
         }
 
-        try {
-            mContext.enforceCallingOrSelfPermission(READ_PRIVILEGED_PHONE_STATE, message);
+        if (hasCallingOrSelfPermission(READ_PRIVILEGED_PHONE_STATE, message)) {
             // SKIP checking run-time OP_READ_PHONE_STATE since caller or self has PRIVILEGED
             // permission
             return true;
-        } catch (SecurityException e) {
-            // Accessing phone state is gated by a special permission.
-            mContext.enforceCallingOrSelfPermission(READ_PHONE_STATE, message);
+        }
 
-            // Some apps that have the permission can be restricted via app ops.
-            return mAppOpsManager.noteOp(AppOpsManager.OP_READ_PHONE_STATE, Binder.getCallingUid(),
-                    callingPackage, callingFeatureId, message) == AppOpsManager.MODE_ALLOWED;
+        // Accessing phone state is gated by a special permission.
+        if (!hasCallingOrSelfPermission(READ_PHONE_STATE, message)) {
+            mContext.enforceCallingOrSelfPermission(READ_PHONE_STATE, message);
         }
+
+        // Some apps that have the permission can be restricted via app ops.
+        return mAppOpsManager.noteOp(AppOpsManager.OP_READ_PHONE_STATE, Binder.getCallingUid(),
+                callingPackage, callingFeatureId, message) == AppOpsManager.MODE_ALLOWED;
+    }
+
+    /**
+     * Checks a permission of the caller, or of Telecom itself, using a cached decision where
+     * there is one.
+     */
+    private boolean hasCallingOrSelfPermission(String permission, String message) {
+        return mPermissionDecisionCache.get(Binder.getCallingUid(), null /* packageName */,
+                permission, () -> {
+                    try {
+                        mContext.enforceCallingOrSelfPermission(permission, message);
+                        return true;
+                    } catch (SecurityException e) {
+                        return false;
+                    }
+                });
     }
 
     private boolean canReadPhoneNumbers(String callingPackage, String callingFeatureId,
@@ -2296,15 +2360,17 @@ public class TelecomServiceImpl {
     }
 
     private boolean isPrivilegedDialerCalling(String callingPackage) {
-        mAppOpsManager.checkPackage(Binder.getCallingUid(), callingPackage);
+        mPermissionDecisionCache.checkPackage(mAppOpsManager, Binder.getCallingUid(),
+                callingPackage);
 
         // Note: Important to clear the calling identity since the code below calls into RoleManager
         // to check who holds the dialer role, and that requires MANAGE_ROLE_HOLDERS permission
         // which is a system permission.
+        int userId = Binder.getCallingUserHandle().getIdentifier();
         long token = Binder.clearCallingIdentity();
         try {
-            return mDefaultDialerCache.isDefaultOrSystemDialer(
-                    callingPackage, Binder.getCallingUserHandle().getIdentifier());
+            return mPermissionDecisionCache.isDefaultOrSystemDialer(mDefaultDialerCache,
+                    callingPackage, userId);
         } finally {
             Binder.restoreCallingIdentity(token);
         }
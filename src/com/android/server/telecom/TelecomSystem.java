@@ -211,11 +211,14 @@ public class TelecomSystem {
             DeviceIdleControllerAdapter deviceIdleControllerAdapter) {
         mContext = context.getApplicationContext();
         LogUtils.initLogging(mContext);
+        Timeouts.enableCache(mContext.getContentResolver());
         DefaultDialerManagerAdapter defaultDialerAdapter =
                 new DefaultDialerCache.DefaultDialerManagerAdapterImpl();
 
         DefaultDialerCache defaultDialerCache = new DefaultDialerCache(mContext,
                 defaultDialerAdapter, roleManagerAdapter, mLock);
+        PermissionDecisionCache permissionDecisionCache =
+                new PermissionDecisionCache(mContext, defaultDialerCache);
 
         Log.startSession("TS.init");
         mPhoneAccountRegistrar = new PhoneAccountRegistrar(mContext, defaultDialerCache,
@@ -249,7 +252,7 @@ public class TelecomSystem {
 
         CallerInfoLookupHelper callerInfoLookupHelper =
                 new CallerInfoLookupHelper(context, callerInfoAsyncQueryFactory,
-                        mContactsAsyncHelper, mLock);
+                        mContactsAsyncHelper, mLock, new CallerInfoCache(mContext, clockProxy));
 
         EmergencyCallHelper emergencyCallHelper = new EmergencyCallHelper(mContext,
                 defaultDialerCache, timeoutsAdapter);
@@ -262,7 +265,7 @@ public class TelecomSystem {
                     EmergencyCallHelper emergencyCallHelper) {
                 return new InCallController(context, lock, callsManager, systemStateProvider,
                         defaultDialerCache, timeoutsAdapter, emergencyCallHelper,
-                        new CarModeTracker(), clockProxy);
+                        new CarModeTracker(), clockProxy, permissionDecisionCache);
             }
         };
 
@@ -311,7 +314,8 @@ public class TelecomSystem {
                 inCallControllerFactory,
                 roleManagerAdapter,
                 incomingCallFilterFactory,
-                toastFactory);
+                toastFactory,
+                permissionDecisionCache);
 
         mIncomingCallNotifier = incomingCallNotifier;
         incomingCallNotifier.setCallsManagerProxy(new IncomingCallNotifier.CallsManagerProxy() {
@@ -378,6 +382,8 @@ public class TelecomSystem {
                 defaultDialerCache,
                 new TelecomServiceImpl.SubscriptionManagerAdapterImpl(),
                 new TelecomServiceImpl.SettingsSecureAdapterImpl(),
+                permissionDecisionCache,
+                clockProxy,
                 mLock);
         Log.endSession();
     }
@@ -17,15 +17,35 @@
 package com.android.server.telecom;
 
 import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.telecom.CallRedirectionService;
+import android.telecom.Log;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A helper class which serves only to make it easier to lookup timeout values. This class should
  * never be instantiated, and only accessed through the {@link #get(String, long)} method.
  *
  * These methods are safe to call from any thread, including the UI thread.
+ *
+ * Once {@link #enableCache(ContentResolver)} has been called, lookups using that content resolver
+ * are answered from an immutable snapshot of all the {@code telecom.*} settings rather than from
+ * Settings. The snapshot is dropped whenever one of those settings changes and is reloaded by the
+ * next lookup.
  */
 public final class Timeouts {
     public static class Adapter {
@@ -67,14 +87,118 @@ public final class Timeouts {
         public long getCallRecordingToneRepeatIntervalMillis(ContentResolver cr) {
             return Timeouts.getCallRecordingToneRepeatIntervalMillis(cr);
         }
+
+        public long getInCallUpdateBatchingWindowMillis(ContentResolver cr) {
+            return Timeouts.getInCallUpdateBatchingWindowMillis(cr);
+        }
     }
 
     /** A prefix to use for all keys so to not clobber the global namespace. */
     private static final String PREFIX = "telecom.";
+    private static final String TAG = "Timeouts";
+    private static final String[] PROJECTION = new String[] {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE };
+
+    /**
+     * The values of the {@code telecom.*} settings at the time they were loaded, keyed on the
+     * setting name without the prefix.
+     */
+    private static final class Snapshot {
+        final Map<String, Long> mValues;
+        final long mLoadTimeMillis;
+
+        Snapshot(Map<String, Long> values, long loadTimeMillis) {
+            mValues = values;
+            mLoadTimeMillis = loadTimeMillis;
+        }
+    }
+
+    /** Marks that loading the snapshot failed, so lookups go straight to Settings. */
+    private static final Snapshot LOAD_FAILED = new Snapshot(Collections.emptyMap(), 0);
+
+    private static final Object sCacheLock = new Object();
+    // The content resolver lookups are cached for, or null if caching is disabled.
+    private static volatile ContentResolver sCachedContentResolver;
+    // The current snapshot, or null if it needs to be (re)loaded.
+    private static volatile Snapshot sSnapshot;
+    // Guarded by sCacheLock; incremented whenever the snapshot is invalidated.
+    private static int sGeneration;
+    private static ContentObserver sSettingsObserver;
+    // The default of each key which has been looked up, for the dump.
+    private static final Map<String, Long> sDefaults = new ConcurrentHashMap<>();
+    private static final AtomicInteger sCacheHits = new AtomicInteger();
+    private static final AtomicInteger sCacheMisses = new AtomicInteger();
+    private static final AtomicInteger sLoads = new AtomicInteger();
+    private static final AtomicInteger sInvalidations = new AtomicInteger();
 
     private Timeouts() {
     }
 
+    /**
+     * Starts answering lookups made with the specified content resolver from a snapshot of the
+     * {@code telecom.*} settings. Lookups using other content resolvers are unaffected.
+     *
+     * @param contentResolver The content resolver Telecom reads its settings with.
+     */
+    public static void enableCache(ContentResolver contentResolver) {
+        synchronized (sCacheLock) {
+            disableCacheLocked();
+            ContentObserver observer = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange, Uri uri) {
+                    if (uri == null || uri.getLastPathSegment() == null
+                            || uri.getLastPathSegment().startsWith(PREFIX)) {
+                        invalidateCache();
+                    }
+                }
+            };
+            try {
+                // Settings can't be observed by prefix, so observe them all and filter.
+                contentResolver.registerContentObserver(Settings.Secure.CONTENT_URI,
+                        true /* notifyForDescendants */, observer);
+            } catch (Exception e) {
+                // Without an observer the snapshot could go stale, so never use it.
+                Log.w(TAG, "Unable to observe settings; cache disabled: %s", e);
+                return;
+            }
+            sSettingsObserver = observer;
+            sCachedContentResolver = contentResolver;
+        }
+    }
+
+    @VisibleForTesting
+    public static void disableCache() {
+        synchronized (sCacheLock) {
+            disableCacheLocked();
+        }
+    }
+
+    private static void disableCacheLocked() {
+        if (sSettingsObserver != null) {
+            sCachedContentResolver.unregisterContentObserver(sSettingsObserver);
+            sSettingsObserver = null;
+        }
+        sCachedContentResolver = null;
+        sSnapshot = null;
+        sGeneration++;
+    }
+
+    @VisibleForTesting
+    public static void invalidateCache() {
+        synchronized (sCacheLock) {
+            sSnapshot = null;
+            sGeneration++;
+        }
+        sInvalidations.incrementAndGet();
+    }
+
+    @VisibleForTesting
+    public static ContentObserver getContentObserver() {
+        synchronized (sCacheLock) {
+            return sSettingsObserver;
+        }
+    }
+
     /**
      * Returns the timeout value from Settings or the default value if it hasn't been changed. This
      * method is safe to call from any thread, including the UI thread.
@@ -85,9 +209,96 @@ public final class Timeouts {
      * @return The timeout value from Settings or the default value if it hasn't been changed.
      */
     private static long get(ContentResolver contentResolver, String key, long defaultValue) {
+        sDefaults.putIfAbsent(key, defaultValue);
+        if (contentResolver != null && contentResolver == sCachedContentResolver) {
+            Snapshot snapshot = sSnapshot;
+            if (snapshot == null) {
+                snapshot = loadSnapshot(contentResolver);
+            }
+            if (snapshot != LOAD_FAILED) {
+                sCacheHits.incrementAndGet();
+                Long value = snapshot.mValues.get(key);
+                return value == null ? defaultValue : value;
+            }
+        }
+        sCacheMisses.incrementAndGet();
         return Settings.Secure.getLong(contentResolver, PREFIX + key, defaultValue);
     }
 
+    private static Snapshot loadSnapshot(ContentResolver contentResolver) {
+        int generation;
+        synchronized (sCacheLock) {
+            generation = sGeneration;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        Snapshot snapshot;
+        try (Cursor cursor = contentResolver.query(Settings.Secure.CONTENT_URI, PROJECTION,
+                null, null, null)) {
+            if (cursor == null) {
+                snapshot = LOAD_FAILED;
+            } else {
+                Map<String, Long> values = new ArrayMap<>();
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(0);
+                    if (name == null || !name.startsWith(PREFIX)) {
+                        continue;
+                    }
+                    try {
+                        values.put(name.substring(PREFIX.length()),
+                                Long.parseLong(cursor.getString(1)));
+                    } catch (NumberFormatException e) {
+                        // Settings.Secure.getLong falls back to the default for these too.
+                    }
+                }
+                snapshot = new Snapshot(Collections.unmodifiableMap(values),
+                        SystemClock.elapsedRealtime() - startTime);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to load settings: %s", e);
+            snapshot = LOAD_FAILED;
+        }
+        synchronized (sCacheLock) {
+            // Only publish the snapshot if nothing changed while it was being loaded; the caller
+            // may still use it since it reflects the settings as of the start of its lookup.
+            if (generation == sGeneration) {
+                sSnapshot = snapshot;
+            }
+        }
+        sLoads.incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * Dumps the cache state and the current value of each timeout which has been looked up.
+     */
+    public static void dump(IndentingPrintWriter pw) {
+        ContentResolver contentResolver = sCachedContentResolver;
+        Snapshot snapshot = sSnapshot;
+        pw.println("cacheEnabled: " + (contentResolver != null)
+                + ", loaded: " + (snapshot != null && snapshot != LOAD_FAILED)
+                + ", lastLoadFailed: " + (snapshot == LOAD_FAILED)
+                + ", lastLoadTimeMillis: " + (snapshot == null ? -1 : snapshot.mLoadTimeMillis));
+        pw.println("hits: " + sCacheHits.get() + ", misses: " + sCacheMisses.get()
+                + ", loads: " + sLoads.get() + ", invalidations: " + sInvalidations.get());
+        if (contentResolver == null) {
+            return;
+        }
+        if (snapshot == null) {
+            snapshot = loadSnapshot(contentResolver);
+        }
+        if (snapshot == LOAD_FAILED) {
+            return;
+        }
+        pw.println("values:");
+        pw.increaseIndent();
+        for (Map.Entry<String, Long> entry : new TreeMap<>(sDefaults).entrySet()) {
+            Long value = snapshot.mValues.get(entry.getKey());
+            pw.println(PREFIX + entry.getKey() + ": "
+                    + (value == null ? entry.getValue() + " (default)" : value));
+        }
+        pw.decreaseIndent();
+    }
+
     /**
      * Returns the amount of time to wait before disconnecting a call that was canceled via
      * NEW_OUTGOING_CALL broadcast. This timeout allows apps which repost the call using a gateway
@@ -222,4 +433,43 @@ public final class Timeouts {
         return get(contentResolver, "dialer_missed_call_power_save_exemption_time_millis",
                 30000L /*30 seconds*/);
     }
+
+    /**
+     * Returns the number of milliseconds over which call updates to in-call services are
+     * coalesced into a single update per call. Call state changes are never delayed. Batching
+     * is disabled when this is not positive, which is the default.
+     */
+    public static long getInCallUpdateBatchingWindowMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "incall_update_batching_window_ms", 0L /* disabled */);
+    }
+
+    /**
+     * Returns the number of milliseconds a connection service bound ahead of an outgoing call is
+     * kept bound if no call is placed with it. Pre-binding is disabled when this is not positive,
+     * which is the default.
+     */
+    public static long getConnectionServicePrebindTimeoutMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "connection_service_prebind_timeout_ms", 0L /* disabled */);
+    }
+
+    /**
+     * Returns the number of milliseconds the connection services of the fallback accounts of an
+     * emergency call are kept bound while earlier accounts are attempted, so that failing over to
+     * them doesn't wait for a bind. Preparing fallback accounts is disabled when this is not
+     * positive, which is the default.
+     */
+    public static long getEmergencyCallPrepareFallbackTimeoutMillis(
+            ContentResolver contentResolver) {
+        return get(contentResolver, "emergency_call_prepare_fallback_timeout_ms",
+                0L /* disabled */);
+    }
+
+    /**
+     * Returns the number of milliseconds for which the result of a repeated binder query, such as
+     * {@code TelecomManager#isInCall}, is reused for the app which made it. The result cache is
+     * disabled when this is not positive, which is the default.
+     */
+    public static long getBinderResultCacheMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "binder_result_cache_ms", 0L /* disabled */);
+    }
 }
@@ -157,7 +157,7 @@ public class VideoProviderProxy extends Connection.VideoProvider {
                 Log.startSession("VPP.rSMR");
                 synchronized (mLock) {
                     logFromVideoProvider("receiveSessionModifyRequest: " + videoProfile);
-                    Log.addEvent(mCall, LogUtils.Events.RECEIVE_VIDEO_REQUEST,
+                    LogUtils.addEvent(mCall, LogUtils.Events.RECEIVE_VIDEO_REQUEST,
                             VideoProfile.videoStateToString(videoProfile.getVideoState()));
 
                     mCall.getAnalytics().addVideoEvent(
@@ -170,7 +170,7 @@ public class VideoProviderProxy extends Connection.VideoProvider {
                         // If video calling is not supported by the phone account, or is not
                         // locally video capable and we receive a request to upgrade to video,
                         // automatically reject it without informing the InCallService.
-                        Log.addEvent(mCall, LogUtils.Events.SEND_VIDEO_RESPONSE,
+                        LogUtils.addEvent(mCall, LogUtils.Events.SEND_VIDEO_RESPONSE,
                                 "video not supported");
                         VideoProfile responseProfile = new VideoProfile(
                                 VideoProfile.STATE_AUDIO_ONLY);
@@ -211,7 +211,7 @@ public class VideoProviderProxy extends Connection.VideoProvider {
                     " requestProfile=" + requestProfile + " responseProfile=" + responseProfile);
             String eventMessage = "Status Code : " + status + " Video State: " +
                     (responseProfile != null ? responseProfile.getVideoState() : "null");
-            Log.addEvent(mCall, LogUtils.Events.RECEIVE_VIDEO_RESPONSE, eventMessage);
+            LogUtils.addEvent(mCall, LogUtils.Events.RECEIVE_VIDEO_RESPONSE, eventMessage);
             synchronized (mLock) {
                 if (status == Connection.VideoProvider.SESSION_MODIFY_REQUEST_SUCCESS) {
                     mCall.getAnalytics().addVideoEvent(
@@ -443,7 +443,7 @@ public class VideoProviderProxy extends Connection.VideoProvider {
     public void onSendSessionModifyRequest(VideoProfile fromProfile, VideoProfile toProfile) {
         synchronized (mLock) {
             logFromInCall("sendSessionModifyRequest: from=" + fromProfile + " to=" + toProfile);
-            Log.addEvent(mCall, LogUtils.Events.SEND_VIDEO_REQUEST,
+            LogUtils.addEvent(mCall, LogUtils.Events.SEND_VIDEO_REQUEST,
                     VideoProfile.videoStateToString(toProfile.getVideoState()));
             if (!VideoProfile.isVideo(fromProfile.getVideoState())
                     && VideoProfile.isVideo(toProfile.getVideoState())) {
@@ -470,7 +470,7 @@ public class VideoProviderProxy extends Connection.VideoProvider {
     public void onSendSessionModifyResponse(VideoProfile responseProfile) {
         synchronized (mLock) {
             logFromInCall("sendSessionModifyResponse: " + responseProfile);
-            Log.addEvent(mCall, LogUtils.Events.SEND_VIDEO_RESPONSE,
+            LogUtils.addEvent(mCall, LogUtils.Events.SEND_VIDEO_RESPONSE,
                     VideoProfile.videoStateToString(responseProfile.getVideoState()));
             mCall.getAnalytics().addVideoEvent(
                     Analytics.SEND_LOCAL_SESSION_MODIFY_RESPONSE,
@@ -24,7 +24,19 @@ import android.telecom.Log;
 public class BlockCheckerAdapter {
     private static final String TAG = BlockCheckerAdapter.class.getSimpleName();
 
-    public BlockCheckerAdapter() { }
+    private final BlockedNumbersCache mBlockedNumbersCache;
+
+    public BlockCheckerAdapter() {
+        this(null);
+    }
+
+    /**
+     * @param blockedNumbersCache cache used to answer lookups for numbers which are definitely
+     *                            not blocked without querying the provider, or {@code null}.
+     */
+    public BlockCheckerAdapter(BlockedNumbersCache blockedNumbersCache) {
+        mBlockedNumbersCache = blockedNumbersCache;
+    }
 
     /**
      * Returns the call blocking status for the {@code phoneNumber}.
@@ -48,6 +60,11 @@ public class BlockCheckerAdapter {
         long startTimeNano = System.nanoTime();
 
         try {
+            if (mBlockedNumbersCache != null
+                    && mBlockedNumbersCache.isDefinitelyNotBlocked(phoneNumber)) {
+                return blockStatus;
+            }
+
             blockStatus = BlockedNumberContract.SystemContract.shouldSystemBlockNumber(
                     context, phoneNumber, extras);
             if (blockStatus != BlockedNumberContract.STATUS_NOT_BLOCKED) {
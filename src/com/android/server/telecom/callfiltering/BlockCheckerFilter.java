@@ -19,8 +19,6 @@ package com.android.server.telecom.callfiltering;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.provider.BlockedNumberContract;
 import android.provider.CallLog;
 import android.telecom.CallerInfo;
@@ -30,11 +28,11 @@ import android.telecom.TelecomManager;
 import com.android.server.telecom.Call;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.LogUtils;
-import com.android.server.telecom.LoggedHandlerExecutor;
 import com.android.server.telecom.settings.BlockedNumbersUtil;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 public class BlockCheckerFilter extends CallFilter {
     private final Call mCall;
@@ -43,27 +41,26 @@ public class BlockCheckerFilter extends CallFilter {
     private final BlockCheckerAdapter mBlockCheckerAdapter;
     private final String TAG = "BlockCheckerFilter";
     private boolean mContactExists;
-    private HandlerThread mHandlerThread;
-    private Handler mHandler;
+    private final Executor mExecutor;
 
     public static final long CALLER_INFO_QUERY_TIMEOUT = 5000;
 
     public BlockCheckerFilter(Context context, Call call,
             CallerInfoLookupHelper callerInfoLookupHelper,
-            BlockCheckerAdapter blockCheckerAdapter) {
+            BlockCheckerAdapter blockCheckerAdapter,
+            CallFilteringExecutor callFilteringExecutor) {
         mCall = call;
         mContext = context;
         mCallerInfoLookupHelper = callerInfoLookupHelper;
         mBlockCheckerAdapter = blockCheckerAdapter;
         mContactExists = false;
-        mHandlerThread = new HandlerThread(TAG);
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        // The block check queries a content provider, so don't serialize it behind other work.
+        mExecutor = callFilteringExecutor.createExecutor("BCF.gBS");
     }
 
     @Override
     public CompletionStage<CallFilteringResult> startFilterLookup(CallFilteringResult result) {
-        Log.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_INITIATED);
+        LogUtils.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_INITIATED);
         CompletableFuture<CallFilteringResult> resultFuture = new CompletableFuture<>();
         Bundle extras = new Bundle();
         if (BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(mContext)) {
@@ -111,10 +108,8 @@ public class BlockCheckerFilter extends CallFilter {
                 mCall.getHandle().getSchemeSpecificPart();
 
         CompletableFuture.supplyAsync(
-                () -> mBlockCheckerAdapter.getBlockStatus(mContext, number, extras),
-                new LoggedHandlerExecutor(mHandler, "BCF.gBS", null))
-                .thenApplyAsync((x) -> completeResult(resultFuture, x),
-                        new LoggedHandlerExecutor(mHandler, "BCF.gBS", null));
+                () -> mBlockCheckerAdapter.getBlockStatus(mContext, number, extras), mExecutor)
+                .thenApply((x) -> completeResult(resultFuture, x));
     }
 
     private int completeResult(CompletableFuture<CallFilteringResult> resultFuture,
@@ -141,11 +136,10 @@ public class BlockCheckerFilter extends CallFilter {
                     .setContactExists(mContactExists)
                     .build();
         }
-        Log.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_FINISHED,
+        LogUtils.addEvent(mCall, LogUtils.Events.BLOCK_CHECK_FINISHED,
                 BlockedNumberContract.SystemContract.blockStatusToString(blockStatus) + " "
                         + result);
         resultFuture.complete(result);
-        mHandlerThread.quitSafely();
         return blockStatus;
     }
 
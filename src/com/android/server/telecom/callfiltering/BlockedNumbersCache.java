@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.BlockedNumberContract;
+import android.provider.Settings;
+import android.telecom.Log;
+import android.telephony.CarrierConfigManager;
+import android.text.TextUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.settings.BlockedNumbersUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-process summary of the blocked numbers held by the BlockedNumberProvider, used to answer
+ * the common "not blocked" case for an incoming call without querying the provider.
+ *
+ * The blocked numbers are summarized in a bloom filter, keyed on the trailing digits of each
+ * number so that the different forms the provider matches on (the number as entered and its E.164
+ * form) share a key. The cache can only ever say that a number is definitely not blocked; any
+ * other answer, including when the cache is not loaded or when enhanced call blocking is enabled
+ * by the platform (whose outcome depends on the call rather than on the number), falls back to
+ * the provider. The enhanced call blocking settings themselves can't be observed, as the provider
+ * doesn't report changes to them, so the cache is never used while they could apply.
+ *
+ * The cache is invalidated whenever the provider reports a change, the enhanced call blocking
+ * debug setting changes or the carrier config changes, and is lazily reloaded on the next lookup.
+ */
+public class BlockedNumbersCache {
+    /**
+     * Source of the blocked numbers the cache is built from; a seam for testing.
+     */
+    public interface BlockedNumberSource {
+        /**
+         * @return The blocked numbers, including their E.164 forms, or {@code null} if they
+         *         couldn't be read.
+         */
+        List<String> getBlockedNumbers(Context context);
+
+        /**
+         * @return {@code true} if enhanced call blocking is enabled by the platform, so that
+         *         calls may be blocked depending on their presentation or caller.
+         */
+        boolean isEnhancedBlockingEnabled(Context context);
+    }
+
+    static class BlockedNumberSourceImpl implements BlockedNumberSource {
+        private static final String[] PROJECTION = new String[] {
+                BlockedNumberContract.BlockedNumbers.COLUMN_ORIGINAL_NUMBER,
+                BlockedNumberContract.BlockedNumbers.COLUMN_E164_NUMBER
+        };
+
+        @Override
+        public List<String> getBlockedNumbers(Context context) {
+            try (Cursor cursor = context.getContentResolver().query(
+                    BlockedNumberContract.BlockedNumbers.CONTENT_URI, PROJECTION, null, null,
+                    null)) {
+                if (cursor == null) {
+                    return null;
+                }
+                List<String> numbers = new ArrayList<>(cursor.getCount() * 2);
+                while (cursor.moveToNext()) {
+                    numbers.add(cursor.getString(0));
+                    numbers.add(cursor.getString(1));
+                }
+                return numbers;
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to read blocked numbers: %s", e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean isEnhancedBlockingEnabled(Context context) {
+            return BlockedNumbersUtil.isEnhancedCallBlockingEnabledByPlatform(context);
+        }
+    }
+
+    /**
+     * A fixed-size bloom filter over number keys.
+     */
+    @VisibleForTesting
+    public static class BloomFilter {
+        private static final int BITS_PER_ENTRY = 10;
+        private static final int NUM_HASHES = 4;
+        private static final int MIN_BITS = 64;
+
+        private final long[] mBits;
+        private final int mNumBits;
+
+        public BloomFilter(int expectedEntries) {
+            int numBits = Math.max(MIN_BITS, expectedEntries * BITS_PER_ENTRY);
+            mBits = new long[(numBits + Long.SIZE - 1) / Long.SIZE];
+            mNumBits = mBits.length * Long.SIZE;
+        }
+
+        public void add(String key) {
+            int h1 = key.hashCode();
+            int h2 = secondaryHash(h1);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Math.floorMod(h1 + i * h2, mNumBits);
+                mBits[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+
+        public boolean mightContain(String key) {
+            int h1 = key.hashCode();
+            int h2 = secondaryHash(h1);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Math.floorMod(h1 + i * h2, mNumBits);
+                if ((mBits[bit / Long.SIZE] & (1L << (bit % Long.SIZE))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int secondaryHash(int h) {
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            // Keep the stride odd so that it is coprime with the (even) number of bits.
+            return h | 1;
+        }
+    }
+
+    private static final String TAG = BlockedNumbersCache.class.getSimpleName();
+    /**
+     * Number of trailing digits used as a number's key. Long enough to keep false positives rare,
+     * short enough to be unaffected by the country code and trunk prefix differences between the
+     * forms of a number.
+     */
+    @VisibleForTesting
+    public static final int KEY_DIGITS = 7;
+
+    private static class Snapshot {
+        final BloomFilter mFilter;
+        final int mSize;
+        final boolean mEnhancedBlockingEnabled;
+
+        Snapshot(BloomFilter filter, int size, boolean enhancedBlockingEnabled) {
+            mFilter = filter;
+            mSize = size;
+            mEnhancedBlockingEnabled = enhancedBlockingEnabled;
+        }
+    }
+
+    private final Context mContext;
+    private final BlockedNumberSource mSource;
+    private final ContentObserver mBlockedNumbersObserver;
+    private final BroadcastReceiver mCarrierConfigReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("BNC.oR");
+            try {
+                invalidate();
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private Snapshot mSnapshot;
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+    private int mInvalidations;
+    private int mLoads;
+    private int mLoadFailures;
+    private long mLastLoadTimeMillis;
+
+    public BlockedNumbersCache(Context context) {
+        this(context, new BlockedNumberSourceImpl());
+    }
+
+    @VisibleForTesting
+    public BlockedNumbersCache(Context context, BlockedNumberSource source) {
+        mContext = context;
+        mSource = source;
+        mBlockedNumbersObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                Log.startSession("BNC.oC");
+                try {
+                    invalidate();
+                } finally {
+                    Log.endSession();
+                }
+            }
+        };
+        try {
+            mContext.getContentResolver().registerContentObserver(
+                    BlockedNumberContract.AUTHORITY_URI, true, mBlockedNumbersObserver,
+                    UserHandle.USER_ALL);
+            mContext.getContentResolver().registerContentObserver(
+                    Settings.System.getUriFor(Settings.System.DEBUG_ENABLE_ENHANCED_CALL_BLOCKING),
+                    false, mBlockedNumbersObserver, UserHandle.USER_ALL);
+            mContext.registerReceiver(mCarrierConfigReceiver,
+                    new IntentFilter(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+        } catch (Exception e) {
+            // Without an observer the cache could go stale, so never use it.
+            Log.w(TAG, "Unable to observe blocked numbers; cache disabled: %s", e);
+            mGeneration = -1;
+        }
+    }
+
+    /**
+     * Determines whether the provider would certainly report the number as not blocked. May
+     * query the provider to reload the cache, so must not be called on the main thread.
+     *
+     * @param phoneNumber The number to check.
+     * @return {@code true} if the number is definitely not blocked, {@code false} if the provider
+     *         has to be consulted.
+     */
+    public boolean isDefinitelyNotBlocked(String phoneNumber) {
+        Snapshot snapshot = getOrLoadSnapshot();
+        boolean notBlocked = snapshot != null && !snapshot.mEnhancedBlockingEnabled
+                && !TextUtils.isEmpty(phoneNumber)
+                && !snapshot.mFilter.mightContain(getKey(phoneNumber));
+        synchronized (mLock) {
+            if (notBlocked) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        return notBlocked;
+    }
+
+    /**
+     * Drops the cached blocked numbers; they are reloaded on the next lookup.
+     */
+    public void invalidate() {
+        synchronized (mLock) {
+            if (mGeneration < 0) {
+                return;
+            }
+            mGeneration++;
+            mSnapshot = null;
+            mInvalidations++;
+        }
+    }
+
+    @VisibleForTesting
+    public ContentObserver getContentObserver() {
+        return mBlockedNumbersObserver;
+    }
+
+    @VisibleForTesting
+    public BroadcastReceiver getCarrierConfigReceiver() {
+        return mCarrierConfigReceiver;
+    }
+
+    private Snapshot getOrLoadSnapshot() {
+        int generation;
+        synchronized (mLock) {
+            if (mSnapshot != null || mGeneration < 0) {
+                return mSnapshot;
+            }
+            generation = mGeneration;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        Snapshot snapshot = null;
+        try {
+            List<String> numbers = mSource.getBlockedNumbers(mContext);
+            if (numbers != null) {
+                boolean enhancedBlockingEnabled = mSource.isEnhancedBlockingEnabled(mContext);
+                BloomFilter filter = new BloomFilter(numbers.size());
+                int size = 0;
+                for (String number : numbers) {
+                    if (!TextUtils.isEmpty(number)) {
+                        filter.add(getKey(number));
+                        size++;
+                    }
+                }
+                snapshot = new Snapshot(filter, size, enhancedBlockingEnabled);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to load blocked numbers: %s", e);
+        }
+
+        synchronized (mLock) {
+            mLastLoadTimeMillis = SystemClock.elapsedRealtime() - startTime;
+            if (snapshot == null) {
+                mLoadFailures++;
+                return null;
+            }
+            mLoads++;
+            // Only publish the snapshot if nothing changed while it was being loaded; the caller
+            // may still use it since it reflects the provider as of the start of its lookup.
+            if (generation == mGeneration) {
+                mSnapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the key a number is stored under: its last {@link #KEY_DIGITS} digits if it is a
+     * phone number, or the whole string otherwise (e.g. for SIP addresses).
+     */
+    @VisibleForTesting
+    public static String getKey(String number) {
+        StringBuilder digits = new StringBuilder(KEY_DIGITS);
+        for (int i = number.length() - 1; i >= 0 && digits.length() < KEY_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (Character.isDigit(c)) {
+                digits.append(c);
+            } else if (Character.isLetter(c) || c == '@') {
+                return number;
+            }
+        }
+        return digits.length() > 0 ? digits.reverse().toString() : number;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            int lookups = mHits + mMisses;
+            pw.println("enabled: " + (mGeneration >= 0)
+                    + ", loaded: " + (mSnapshot != null)
+                    + ", size: " + (mSnapshot == null ? 0 : mSnapshot.mSize)
+                    + ", enhancedBlocking: "
+                    + (mSnapshot != null && mSnapshot.mEnhancedBlockingEnabled));
+            pw.println("hits: " + mHits + ", misses: " + mMisses + ", hitRate: "
+                    + (lookups == 0 ? 0 : (100 * mHits / lookups)) + "%");
+            pw.println("loads: " + mLoads + ", loadFailures: " + mLoadFailures
+                    + ", invalidations: " + mInvalidations
+                    + ", lastLoadTimeMillis: " + mLastLoadTimeMillis);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.callfiltering;
+
+import android.telecom.Logging.Runnable;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.TelecomSystem;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads shared by all incoming call filtering, replacing the threads which
+ * were previously created for every incoming call and every {@link BlockCheckerFilter}.
+ *
+ * Work which must not run concurrently for a single call (e.g. the control flow of an
+ * {@link IncomingCallFilterGraph}) should go through an executor obtained from
+ * {@link #createSerialExecutor(String, TelecomSystem.SyncRoot)}; work which may block (e.g. a
+ * content provider query) should use {@link #createExecutor(String)} so that it does not hold up
+ * the serialized work of the call. Delayed tasks such as filtering timeouts run on a thread of
+ * their own, so that they still fire when every thread of the pool is blocked.
+ */
+public class CallFilteringExecutor {
+    private static final String TAG = "CallFilteringExecutor";
+    @VisibleForTesting
+    public static final int POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_MILLIS = 30000;
+
+    /**
+     * Executes tasks one at a time, in submission order, on the shared pool.
+     */
+    private class SerialExecutor implements Executor {
+        private final ArrayDeque<java.lang.Runnable> mTasks = new ArrayDeque<>();
+        private final String mSessionName;
+        private final TelecomSystem.SyncRoot mLock;
+        private boolean mIsRunning;
+
+        SerialExecutor(String sessionName, TelecomSystem.SyncRoot lock) {
+            mSessionName = sessionName;
+            mLock = lock;
+        }
+
+        @Override
+        public void execute(java.lang.Runnable command) {
+            java.lang.Runnable task = new Runnable(mSessionName, mLock) {
+                @Override
+                public void loggedRun() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            }.prepare();
+            synchronized (this) {
+                mTasks.offer(task);
+                if (!mIsRunning) {
+                    scheduleNextLocked();
+                }
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            scheduleNextLocked();
+        }
+
+        private void scheduleNextLocked() {
+            java.lang.Runnable next = mTasks.poll();
+            mIsRunning = next != null;
+            if (next != null) {
+                submit(next);
+            }
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor mPool;
+    private final ScheduledThreadPoolExecutor mScheduler;
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+    private int mTasksSubmitted;
+    private int mMaxQueueDepth;
+    // Filter latency, keyed on the filter's class name.
+    private final Map<String, long[]> mFilterLatencies = new ArrayMap<>();
+    private static final int LATENCY_COUNT = 0;
+    private static final int LATENCY_TOTAL = 1;
+    private static final int LATENCY_MAX = 2;
+
+    public CallFilteringExecutor() {
+        this(POOL_SIZE);
+    }
+
+    @VisibleForTesting
+    public CallFilteringExecutor(int poolSize) {
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, TAG + "-" + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        mPool = createPool(poolSize, threadFactory);
+        mScheduler = createPool(1, r -> {
+            Thread thread = new Thread(r, TAG + "-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ScheduledThreadPoolExecutor createPool(int poolSize,
+            ThreadFactory threadFactory) {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(poolSize, threadFactory);
+        pool.setKeepAliveTime(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+        pool.allowCoreThreadTimeOut(true);
+        pool.setRemoveOnCancelPolicy(true);
+        return pool;
+    }
+
+    /**
+     * @param sessionName The name of the log session to start for each task.
+     * @param lock The lock to hold while running each task, or {@code null} for none.
+     * @return An executor which runs its tasks on the shared pool one at a time.
+     */
+    public Executor createSerialExecutor(String sessionName, TelecomSystem.SyncRoot lock) {
+        return new SerialExecutor(sessionName, lock);
+    }
+
+    /**
+     * @param sessionName The name of the log session to start for each task.
+     * @return An executor which runs its tasks on the shared pool, possibly concurrently.
+     */
+    public Executor createExecutor(String sessionName) {
+        return command -> submit(new Runnable(sessionName, null) {
+            @Override
+            public void loggedRun() {
+                command.run();
+            }
+        }.prepare());
+    }
+
+    /**
+     * Runs a task after a delay, on a thread which is not shared with the pool. The task must not
+     * block.
+     *
+     * @return A future which can be used to cancel the task.
+     */
+    public Future<?> schedule(java.lang.Runnable task, long delayMillis) {
+        noteSubmitted();
+        return mScheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records how long a filter took to produce its result.
+     *
+     * @param filter The filter.
+     * @param latencyMillis The time from the filter being scheduled to its result being known.
+     */
+    public void recordFilterLatency(CallFilter filter, long latencyMillis) {
+        String name = filter.getClass().getSimpleName();
+        synchronized (mFilterLatencies) {
+            long[] latency = mFilterLatencies.get(name);
+            if (latency == null) {
+                latency = new long[3];
+                mFilterLatencies.put(name, latency);
+            }
+            latency[LATENCY_COUNT]++;
+            latency[LATENCY_TOTAL] += latencyMillis;
+            latency[LATENCY_MAX] = Math.max(latency[LATENCY_MAX], latencyMillis);
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting to run, including scheduled timeouts.
+     */
+    public int getQueueDepth() {
+        return mPool.getQueue().size() + mScheduler.getQueue().size();
+    }
+
+    private void submit(java.lang.Runnable task) {
+        noteSubmitted();
+        mPool.execute(task);
+    }
+
+    private void noteSubmitted() {
+        int depth = getQueueDepth();
+        synchronized (this) {
+            mTasksSubmitted++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, depth + 1);
+        }
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (this) {
+            pw.println("tasksSubmitted: " + mTasksSubmitted + ", queueDepth: " + getQueueDepth()
+                    + ", maxQueueDepth: " + mMaxQueueDepth + ", activeThreads: "
+                    + mPool.getActiveCount() + "/" + mPool.getCorePoolSize());
+        }
+        pw.println("filterLatencies:");
+        pw.increaseIndent();
+        synchronized (mFilterLatencies) {
+            for (Map.Entry<String, long[]> entry : mFilterLatencies.entrySet()) {
+                long[] latency = entry.getValue();
+                pw.println(entry.getKey() + ": count=" + latency[LATENCY_COUNT]
+                        + " avgMillis=" + (latency[LATENCY_TOTAL] / latency[LATENCY_COUNT])
+                        + " maxMillis=" + latency[LATENCY_MAX]);
+            }
+        }
+        pw.decreaseIndent();
+    }
+}
@@ -36,6 +36,7 @@ import com.android.server.telecom.CallScreeningServiceHelper;
 import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.LogUtils;
 import com.android.server.telecom.ParcelableCallUtils;
+import com.android.server.telecom.PermissionDecisionCache;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -55,6 +56,7 @@ public class CallScreeningServiceFilter extends CallFilter {
     private final CallsManager mCallsManager;
     private CharSequence mAppName;
     private final ParcelableCallUtils.Converter mParcelableCallUtilsConverter;
+    private final PermissionDecisionCache mPermissionDecisionCache;
 
     private class CallScreeningAdapter extends ICallScreeningAdapter.Stub {
         private CompletableFuture<CallFilteringResult> mResultFuture;
@@ -71,7 +73,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                 if (mCall == null || (!mCall.getId().equals(callId))) {
                     Log.w(this, "allowCall, unknown call id: %s", callId);
                 }
-                Log.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, mPriorStageResult);
+                LogUtils.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, mPriorStageResult);
                 mResultFuture.complete(mPriorStageResult);
             } finally {
                 unbindCallScreeningService();
@@ -100,7 +102,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                             .setCallScreeningComponentName(componentName.flattenToString())
                             .setContactExists(mPriorStageResult.contactExists)
                             .build();
-                    Log.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
+                    LogUtils.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
                     mResultFuture.complete(result);
                 } else {
                     Log.w(this, "disallowCall, unknown call id: %s", callId);
@@ -127,7 +129,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                             .setShouldShowNotification(true)
                             .setContactExists(mPriorStageResult.contactExists)
                             .build();
-                    Log.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
+                    LogUtils.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
                     mResultFuture.complete(result);
                 } else {
                     Log.w(this, "silenceCall, unknown call id: %s", callId);
@@ -160,7 +162,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                             .setCallScreeningAppName(mAppName)
                             .setContactExists(mPriorStageResult.contactExists)
                             .build();
-                    Log.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
+                    LogUtils.addEvent(mCall, LogUtils.Events.SCREENING_COMPLETED, result);
                     mResultFuture.complete(result);
                 } else {
                     Log.w(this, "screenCallFurther, unknown call id: %s", callId);
@@ -193,7 +195,7 @@ public class CallScreeningServiceFilter extends CallFilter {
                 Log.e(this, e, "Failed to set the call screening adapter");
                 mResultFuture.complete(mPriorStageResult);
             }
-            Log.addEvent(mCall, LogUtils.Events.SCREENING_BOUND, componentName);
+            LogUtils.addEvent(mCall, LogUtils.Events.SCREENING_BOUND, componentName);
             Log.i(this, "Binding completed.");
         }
 
@@ -224,7 +226,8 @@ public class CallScreeningServiceFilter extends CallFilter {
             Context context,
             CallsManager callsManager,
             AppLabelProxy appLabelProxy,
-            ParcelableCallUtils.Converter parcelableCallUtilsConverter) {
+            ParcelableCallUtils.Converter parcelableCallUtilsConverter,
+            PermissionDecisionCache permissionDecisionCache) {
         super();
         mCall = call;
         mPackageName = packageName;
@@ -234,6 +237,7 @@ public class CallScreeningServiceFilter extends CallFilter {
         mCallsManager = callsManager;
         mAppName = appLabelProxy.getAppLabel(mPackageName);
         mParcelableCallUtilsConverter = parcelableCallUtilsConverter;
+        mPermissionDecisionCache = permissionDecisionCache;
     }
 
     @Override
@@ -267,21 +271,19 @@ public class CallScreeningServiceFilter extends CallFilter {
     }
 
     private boolean hasReadContactsPermission() {
-        int permission = PackageManager.PERMISSION_DENIED;
         if (mPackagetype == PACKAGE_TYPE_CARRIER || mPackagetype == PACKAGE_TYPE_DEFAULT_DIALER) {
-            permission = PackageManager.PERMISSION_GRANTED;
-        } else if (mPackageManager != null) {
-            permission = mPackageManager.checkPermission(Manifest.permission.READ_CONTACTS,
-                    mPackageName);
+            return true;
         }
-        return permission == PackageManager.PERMISSION_GRANTED;
+        return mPackageManager != null && mPermissionDecisionCache.hasPackagePermission(
+                mPackageManager, mPackageName, Manifest.permission.READ_CONTACTS);
     }
 
     private void bindCallScreeningService(
             CompletableFuture<CallFilteringResult> resultFuture) {
         mConnection = new CallScreeningServiceConnection(resultFuture);
         if (!CallScreeningServiceHelper.bindCallScreeningService(mContext,
-                mCallsManager.getCurrentUserHandle(), mPackageName, mConnection)) {
+                mCallsManager.getCurrentUserHandle(), mPackageName, mConnection,
+                mPermissionDecisionCache)) {
             Log.i(this, "Call screening service binding failed.");
             resultFuture.complete(mPriorStageResult);
         }
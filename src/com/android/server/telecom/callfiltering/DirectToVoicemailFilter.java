@@ -40,7 +40,7 @@ public class DirectToVoicemailFilter extends CallFilter {
 
     @Override
     public CompletionStage<CallFilteringResult> startFilterLookup(CallFilteringResult result) {
-        Log.addEvent(mCall, LogUtils.Events.DIRECT_TO_VM_INITIATED);
+        LogUtils.addEvent(mCall, LogUtils.Events.DIRECT_TO_VM_INITIATED);
         CompletableFuture<CallFilteringResult> resultFuture = new CompletableFuture<>();
         mCallerInfoLookupHelper.startLookup(mCall.getHandle(),
                 new CallerInfoLookupHelper.OnQueryCompleteListener() {
@@ -69,7 +69,7 @@ public class DirectToVoicemailFilter extends CallFilter {
                             }
                             resultFuture.complete(IncomingCallFilterGraph.DEFAULT_RESULT);
                         }
-                        Log.addEvent(mCall, LogUtils.Events.DIRECT_TO_VM_FINISHED);
+                        LogUtils.addEvent(mCall, LogUtils.Events.DIRECT_TO_VM_FINISHED);
                     }
 
                     @Override
@@ -17,13 +17,11 @@
 package com.android.server.telecom.callfiltering;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.telecom.Log;
 import android.telecom.Logging.Runnable;
 
 import com.android.server.telecom.Call;
-import com.android.server.telecom.LoggedHandlerExecutor;
 import com.android.server.telecom.LogUtils;
 import com.android.server.telecom.TelecomSystem;
 import com.android.server.telecom.Timeouts;
@@ -31,6 +29,8 @@ import com.android.server.telecom.Timeouts;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class IncomingCallFilterGraph {
     //TODO: Add logging for control flow.
@@ -45,8 +45,8 @@ public class IncomingCallFilterGraph {
 
     private final CallFilterResultCallback mListener;
     private final Call mCall;
-    private final Handler mHandler;
-    private final HandlerThread mHandlerThread;
+    private final CallFilteringExecutor mCallFilteringExecutor;
+    private final Executor mExecutor;
     private final TelecomSystem.SyncRoot mLock;
     private List<CallFilter> mFiltersList;
     private CallFilter mDummyComplete;
@@ -54,17 +54,24 @@ public class IncomingCallFilterGraph {
     private CallFilteringResult mCurrentResult;
     private Context mContext;
     private Timeouts.Adapter mTimeoutsAdapter;
+    private volatile Future<?> mTimeoutFuture;
 
     private class PostFilterTask {
         private final CallFilter mFilter;
+        private final long mStartTimeMillis;
 
         public PostFilterTask(final CallFilter filter) {
             mFilter = filter;
+            mStartTimeMillis = SystemClock.elapsedRealtime();
         }
 
         public CallFilteringResult whenDone(CallFilteringResult result) {
             Log.i(TAG, "Filter %s done, result: %s.", mFilter, result);
             mFilter.result = result;
+            if (mFiltersList.contains(mFilter)) {
+                mCallFilteringExecutor.recordFilterLatency(mFilter,
+                        SystemClock.elapsedRealtime() - mStartTimeMillis);
+            }
             for (CallFilter filter : mFilter.getFollowings()) {
                 if (filter.decrementAndGetIndegree() == 0) {
                     scheduleFilter(filter);
@@ -74,23 +81,26 @@ public class IncomingCallFilterGraph {
                 synchronized (mLock) {
                     mFinished = true;
                     mListener.onCallFilteringComplete(mCall, result);
-                    Log.addEvent(mCall, LogUtils.Events.FILTERING_COMPLETED, result);
+                    LogUtils.addEvent(mCall, LogUtils.Events.FILTERING_COMPLETED, result);
+                }
+                if (mTimeoutFuture != null) {
+                    mTimeoutFuture.cancel(false);
                 }
-                mHandlerThread.quit();
             }
             return result;
         }
     }
 
     public IncomingCallFilterGraph(Call call, CallFilterResultCallback listener, Context context,
-            Timeouts.Adapter timeoutsAdapter, TelecomSystem.SyncRoot lock) {
+            Timeouts.Adapter timeoutsAdapter, TelecomSystem.SyncRoot lock,
+            CallFilteringExecutor callFilteringExecutor) {
         mListener = listener;
         mCall = call;
         mFiltersList = new ArrayList<>();
 
-        mHandlerThread = new HandlerThread(TAG);
-        mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        mCallFilteringExecutor = callFilteringExecutor;
+        // The control flow of the graph is serialized, as it was when it ran on its own thread.
+        mExecutor = callFilteringExecutor.createSerialExecutor("ICFG.sF", null);
         mLock = lock;
         mFinished = false;
         mContext = context;
@@ -103,7 +113,7 @@ public class IncomingCallFilterGraph {
     }
 
     public void performFiltering() {
-        Log.addEvent(mCall, LogUtils.Events.FILTERING_INITIATED);
+        LogUtils.addEvent(mCall, LogUtils.Events.FILTERING_INITIATED);
         CallFilter dummyStart = new CallFilter();
         mDummyComplete = new CallFilter();
 
@@ -115,17 +125,18 @@ public class IncomingCallFilterGraph {
         }
         addEdge(dummyStart, mDummyComplete);
 
-        scheduleFilter(dummyStart);
-        mHandler.postDelayed(new Runnable("ICFG.pF", mLock) {
+        // Schedule the timeout first, so that it is known when the filters complete.
+        mTimeoutFuture = mCallFilteringExecutor.schedule(new Runnable("ICFG.pF", mLock) {
             @Override
             public void loggedRun() {
-                if (!mFinished) {
-                    Log.i(this, "Graph timed out when performing filtering.");
-                    Log.addEvent(mCall, LogUtils.Events.FILTERING_TIMED_OUT);
-                    mListener.onCallFilteringComplete(mCall, mCurrentResult);
-                    mFinished = true;
-                    mHandlerThread.quit();
+                // Runs holding mLock, under which the graph is marked finished.
+                if (mFinished) {
+                    return;
                 }
+                Log.i(this, "Graph timed out when performing filtering.");
+                LogUtils.addEvent(mCall, LogUtils.Events.FILTERING_TIMED_OUT);
+                mListener.onCallFilteringComplete(mCall, mCurrentResult);
+                mFinished = true;
                 for (CallFilter filter : mFiltersList) {
                     // unbind timed out call screening service
                     if (filter instanceof CallScreeningServiceFilter) {
@@ -134,6 +145,7 @@ public class IncomingCallFilterGraph {
                 }
             }
         }.prepare(), mTimeoutsAdapter.getCallScreeningTimeoutMillis(mContext.getContentResolver()));
+        scheduleFilter(dummyStart);
     }
 
     private void scheduleFilter(CallFilter filter) {
@@ -156,10 +168,8 @@ public class IncomingCallFilterGraph {
 
         // TODO: improve these filter logging names to be more reflective of the filters that are
         // executing
-        startFuture.thenComposeAsync(filter::startFilterLookup,
-                new LoggedHandlerExecutor(mHandler, "ICFG.sF", null))
-                .thenApplyAsync(postFilterTask::whenDone,
-                        new LoggedHandlerExecutor(mHandler, "ICFG.sF", null));
+        startFuture.thenComposeAsync(filter::startFilterLookup, mExecutor)
+                .thenApplyAsync(postFilterTask::whenDone, mExecutor);
         Log.i(TAG, "Filter %s scheduled.", filter);
     }
 
@@ -167,8 +177,4 @@ public class IncomingCallFilterGraph {
         before.addFollowings(after);
         after.addDependency(before);
     }
-
-    public HandlerThread getHandlerThread() {
-        return mHandlerThread;
-    }
 }
@@ -97,7 +97,7 @@ public class CallRedirectionProcessor implements CallRedirectionCallback {
                 mService.placeCall(new CallRedirectionAdapter(), mProcessedDestinationUri,
                         mPhoneAccountHandle, mAllowInteractiveResponse
                                 && mServiceType.equals(SERVICE_TYPE_USER_DEFINED));
-                Log.addEvent(mCall, mServiceType.equals(SERVICE_TYPE_USER_DEFINED)
+                LogUtils.addEvent(mCall, mServiceType.equals(SERVICE_TYPE_USER_DEFINED)
                         ? LogUtils.Events.REDIRECTION_SENT_USER
                         : LogUtils.Events.REDIRECTION_SENT_CARRIER, mComponentName);
                 Log.d(this, "Requested placeCall with [Destination Uri] "
@@ -130,7 +130,7 @@ public class CallRedirectionProcessor implements CallRedirectionCallback {
                 Log.startSession("CRSC.oSC");
                 try {
                     synchronized (mTelecomLock) {
-                        Log.addEvent(mCall, mServiceType.equals(SERVICE_TYPE_USER_DEFINED)
+                        LogUtils.addEvent(mCall, mServiceType.equals(SERVICE_TYPE_USER_DEFINED)
                                 ? LogUtils.Events.REDIRECTION_BOUND_USER
                                 : LogUtils.Events.REDIRECTION_BOUND_CARRIER, componentName);
                         onServiceBound(ICallRedirectionService.Stub.asInterface(service));
@@ -309,7 +309,7 @@ public class CallRedirectionProcessor implements CallRedirectionCallback {
             @Override
             public void loggedRun() {
                 if (mIsUserDefinedRedirectionPending) {
-                    Log.addEvent(mCall, LogUtils.Events.REDIRECTION_COMPLETED_USER);
+                    LogUtils.addEvent(mCall, LogUtils.Events.REDIRECTION_COMPLETED_USER);
                     mIsUserDefinedRedirectionPending = false;
                     if (mShouldCancelCall) {
                         mCallsManager.onCallRedirectionComplete(mCall, mDestinationUri,
@@ -320,7 +320,7 @@ public class CallRedirectionProcessor implements CallRedirectionCallback {
                     }
                 }
                 if (mIsCarrierRedirectionPending) {
-                    Log.addEvent(mCall, LogUtils.Events.REDIRECTION_COMPLETED_CARRIER);
+                    LogUtils.addEvent(mCall, LogUtils.Events.REDIRECTION_COMPLETED_CARRIER);
                     mIsCarrierRedirectionPending = false;
                     mCallsManager.onCallRedirectionComplete(mCall, mDestinationUri,
                             mPhoneAccountHandle, mRedirectionGatewayInfo, mSpeakerphoneOn,
@@ -391,7 +391,7 @@ public class CallRedirectionProcessor implements CallRedirectionCallback {
                                 mIsUserDefinedRedirectionPending : mIsCarrierRedirectionPending;
                 if (isCurrentRedirectionPending) {
                     Log.i(this, serviceType + " call redirection has timed out.");
-                    Log.addEvent(mCall, serviceType.equals(SERVICE_TYPE_USER_DEFINED)
+                    LogUtils.addEvent(mCall, serviceType.equals(SERVICE_TYPE_USER_DEFINED)
                             ? LogUtils.Events.REDIRECTION_TIMED_OUT_USER
                             : LogUtils.Events.REDIRECTION_TIMED_OUT_CARRIER);
                     if (serviceType.equals(SERVICE_TYPE_USER_DEFINED)) {
@@ -20,6 +20,7 @@ import android.app.admin.DevicePolicyManager;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.telecom.Log;
@@ -97,6 +98,7 @@ public class UserCallIntentProcessor {
 
     private void processOutgoingCallIntent(Intent intent, String callingPackageName,
             boolean canCallNonEmergency, boolean isLocalInvocation) {
+        final long receivedTime = SystemClock.elapsedRealtime();
         Uri handle = intent.getData();
         String scheme = handle.getScheme();
         String uriString = handle.getSchemeSpecificPart();
@@ -154,6 +156,7 @@ public class UserCallIntentProcessor {
 
         // Save the user handle of current user before forwarding the intent to primary user.
         intent.putExtra(CallIntentProcessor.KEY_INITIATING_USER, mUserHandle);
+        intent.putExtra(CallIntentProcessor.KEY_USER_INTENT_RECEIVED_TIME, receivedTime);
 
         sendIntentToDestination(intent, isLocalInvocation, callingPackageName);
     }
@@ -27,6 +27,7 @@ import android.telecom.Logging.Runnable;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
 
+import com.android.server.telecom.Analytics;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.CallsManagerListenerBase;
 import com.android.server.telecom.Constants;
@@ -56,6 +57,7 @@ import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Binder;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.CallLog.Calls;
 import android.telecom.Log;
@@ -144,6 +146,17 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
 
     private List<UserHandle> mUsersToLoadAfterBootComplete = new ArrayList<>();
 
+    /** An unread missed call read from the call log. */
+    private static class MissedCallRow {
+        final Uri mHandle;
+        final long mDate;
+
+        MissedCallRow(Uri handle, long date) {
+            mHandle = handle;
+            mDate = date;
+        }
+    }
+
     public MissedCallNotifierImpl(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
             DefaultDialerCache defaultDialerCache,
             DeviceIdleControllerAdapter deviceIdleControllerAdapter) {
@@ -313,7 +326,17 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
     private void showMissedCallNotification(@NonNull CallInfo callInfo, UserHandle userHandle) {
         Log.i(this, "showMissedCallNotification: userHandle=%d", userHandle.getIdentifier());
         mMissedCallCounts.putIfAbsent(userHandle, new AtomicInteger(0));
-        int missCallCounts = mMissedCallCounts.get(userHandle).incrementAndGet();
+        mMissedCallCounts.get(userHandle).incrementAndGet();
+        postMissedCallNotification(callInfo, userHandle);
+    }
+
+    /**
+     * Posts the missed call notification for the current number of missed calls, without
+     * counting another missed call.
+     */
+    private void postMissedCallNotification(@NonNull CallInfo callInfo, UserHandle userHandle) {
+        mMissedCallCounts.putIfAbsent(userHandle, new AtomicInteger(0));
+        int missCallCounts = mMissedCallCounts.get(userHandle).get();
 
         String dialerPackage = getDefaultDialerPackage(userHandle);
         if (shouldManageNotificationThroughDefaultDialer(dialerPackage, userHandle)) {
@@ -604,72 +627,21 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
             return;
         }
 
+        final long startTime = SystemClock.elapsedRealtime();
         // instantiate query handler
         AsyncQueryHandler queryHandler = new AsyncQueryHandler(mContext.getContentResolver()) {
             @Override
             protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
                 Log.d(MissedCallNotifierImpl.this, "onQueryComplete()...");
                 if (cursor != null) {
+                    List<MissedCallRow> rows;
                     try {
-                        mMissedCallCounts.remove(userHandle);
-                        while (cursor.moveToNext()) {
-                            // Get data about the missed call from the cursor
-                            final String handleString = cursor.getString(CALL_LOG_COLUMN_NUMBER);
-                            final int presentation =
-                                    cursor.getInt(CALL_LOG_COLUMN_NUMBER_PRESENTATION);
-                            final long date = cursor.getLong(CALL_LOG_COLUMN_DATE);
-
-                            final Uri handle;
-                            if (presentation != Calls.PRESENTATION_ALLOWED
-                                    || TextUtils.isEmpty(handleString)) {
-                                handle = null;
-                            } else {
-                                // TODO: Remove the assumption that numbers are SIP or TEL only.
-                                handle = Uri.fromParts(PhoneNumberUtils.isUriNumber(handleString) ?
-                                        PhoneAccount.SCHEME_SIP : PhoneAccount.SCHEME_TEL,
-                                                handleString, null);
-                            }
-
-                            callerInfoLookupHelper.startLookup(handle,
-                                    new CallerInfoLookupHelper.OnQueryCompleteListener() {
-                                        @Override
-                                        public void onCallerInfoQueryComplete(Uri queryHandle,
-                                                CallerInfo info) {
-                                            if (!Objects.equals(queryHandle, handle)) {
-                                                Log.w(MissedCallNotifierImpl.this,
-                                                        "CallerInfo query returned with " +
-                                                                "different handle.");
-                                                return;
-                                            }
-                                            if (info == null ||
-                                                    info.getContactDisplayPhotoUri() == null) {
-                                                // If there is no photo or if the caller info is
-                                                // null, just show the notification.
-                                                CallInfo callInfo = callInfoFactory.makeCallInfo(
-                                                        info, null, handle, date);
-                                                showMissedCallNotification(callInfo, userHandle);
-                                            }
-                                        }
-
-                                        @Override
-                                        public void onContactPhotoQueryComplete(Uri queryHandle,
-                                                CallerInfo info) {
-                                            if (!Objects.equals(queryHandle, handle)) {
-                                                Log.w(MissedCallNotifierImpl.this,
-                                                        "CallerInfo query for photo returned " +
-                                                                "with different handle.");
-                                                return;
-                                            }
-                                            CallInfo callInfo = callInfoFactory.makeCallInfo(
-                                                    info, null, handle, date);
-                                            showMissedCallNotification(callInfo, userHandle);
-                                        }
-                                    }
-                            );
-                        }
+                        rows = readMissedCalls(cursor);
                     } finally {
                         cursor.close();
                     }
+                    showReloadedMissedCalls(rows, callerInfoLookupHelper, callInfoFactory,
+                            userHandle, startTime, SystemClock.elapsedRealtime() - startTime);
                 }
             }
         };
@@ -682,6 +654,94 @@ public class MissedCallNotifierImpl extends CallsManagerListenerBase implements
                 CALL_LOG_WHERE_CLAUSE, null, Calls.DEFAULT_SORT_ORDER);
     }
 
+    /**
+     * Reads the unread missed calls returned by the call log query, most recent first.
+     */
+    private List<MissedCallRow> readMissedCalls(Cursor cursor) {
+        List<MissedCallRow> rows = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            // Get data about the missed call from the cursor
+            final String handleString = cursor.getString(CALL_LOG_COLUMN_NUMBER);
+            final int presentation = cursor.getInt(CALL_LOG_COLUMN_NUMBER_PRESENTATION);
+            final long date = cursor.getLong(CALL_LOG_COLUMN_DATE);
+
+            final Uri handle;
+            if (presentation != Calls.PRESENTATION_ALLOWED || TextUtils.isEmpty(handleString)) {
+                handle = null;
+            } else {
+                // TODO: Remove the assumption that numbers are SIP or TEL only.
+                handle = Uri.fromParts(PhoneNumberUtils.isUriNumber(handleString) ?
+                        PhoneAccount.SCHEME_SIP : PhoneAccount.SCHEME_TEL, handleString, null);
+            }
+            rows.add(new MissedCallRow(handle, date));
+        }
+        return rows;
+    }
+
+    /**
+     * Rebuilds the missed call notification from the unread missed calls in the call log, posting
+     * it once.
+     *
+     * Only a notification for a single missed call shows who called, so the caller info (and
+     * photo) is only looked up when there is exactly one; otherwise the summary notification is
+     * posted straight away, for the most recent call.
+     */
+    private void showReloadedMissedCalls(List<MissedCallRow> rows,
+            CallerInfoLookupHelper callerInfoLookupHelper, CallInfoFactory callInfoFactory,
+            UserHandle userHandle, long startTime, long queryTimeMillis) {
+        if (rows.isEmpty()) {
+            mMissedCallCounts.remove(userHandle);
+            Analytics.addMissedCallReload(0, 0, queryTimeMillis,
+                    SystemClock.elapsedRealtime() - startTime);
+            return;
+        }
+        mMissedCallCounts.put(userHandle, new AtomicInteger(rows.size()));
+        final MissedCallRow newestRow = rows.get(0);
+        if (rows.size() > 1) {
+            postMissedCallNotification(
+                    callInfoFactory.makeCallInfo(null, null, newestRow.mHandle, newestRow.mDate),
+                    userHandle);
+            Analytics.addMissedCallReload(rows.size(), 0, queryTimeMillis,
+                    SystemClock.elapsedRealtime() - startTime);
+            return;
+        }
+
+        final Uri handle = newestRow.mHandle;
+        callerInfoLookupHelper.startLookup(handle,
+                new CallerInfoLookupHelper.OnQueryCompleteListener() {
+                    @Override
+                    public void onCallerInfoQueryComplete(Uri queryHandle, CallerInfo info) {
+                        if (!Objects.equals(queryHandle, handle)) {
+                            Log.w(MissedCallNotifierImpl.this,
+                                    "CallerInfo query returned with different handle.");
+                            return;
+                        }
+                        if (info == null || info.getContactDisplayPhotoUri() == null) {
+                            // If there is no photo or if the caller info is null, just show the
+                            // notification.
+                            show(info);
+                        }
+                    }
+
+                    @Override
+                    public void onContactPhotoQueryComplete(Uri queryHandle, CallerInfo info) {
+                        if (!Objects.equals(queryHandle, handle)) {
+                            Log.w(MissedCallNotifierImpl.this,
+                                    "CallerInfo query for photo returned with different handle.");
+                            return;
+                        }
+                        show(info);
+                    }
+
+                    private void show(CallerInfo info) {
+                        postMissedCallNotification(callInfoFactory.makeCallInfo(
+                                info, null, handle, newestRow.mDate), userHandle);
+                        Analytics.addMissedCallReload(1, 1, queryTimeMillis,
+                                SystemClock.elapsedRealtime() - startTime);
+                    }
+                });
+    }
+
     @Override
     public void setCurrentUserHandle(UserHandle currentUserHandle) {
         mCurrentUserHandle = currentUserHandle;
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+import com.android.internal.telecom.ITelecomService;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.BinderCallStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class BinderCallStatsTest extends TelecomTestCase {
+    private static final int UID = 10001;
+
+    @SmallTest
+    @Test
+    public void testRecordAndDump() {
+        BinderCallStats stats = new BinderCallStats(ITelecomService.Stub.class);
+        SparseArray<String> names = BinderCallStats.getTransactionNames(
+                ITelecomService.Stub.class);
+        int isInCallCode = -1;
+        for (int i = 0; i < names.size(); i++) {
+            if ("isInCall".equals(names.valueAt(i))) {
+                isInCallCode = names.keyAt(i);
+            }
+        }
+        assertTrue(isInCallCode >= 0);
+
+        stats.record(UID, isInCallCode, 2000 /* cpuNanos */, 5000 /* elapsedNanos */);
+        stats.record(UID, isInCallCode, -1 /* cpuNanos */, 5000 /* elapsedNanos */);
+        assertEquals(2, stats.getCount(UID, isInCallCode));
+        assertEquals(0, stats.getCount(UID + 1, isInCallCode));
+
+        StringWriter writer = new StringWriter();
+        stats.dump(new IndentingPrintWriter(writer, "  "));
+        assertTrue(writer.toString().contains("uid " + UID + ": calls=2"));
+        assertTrue(writer.toString().contains("isInCall: calls=2"));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+
+import static org.mockito.Mockito.when;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.BinderResultCache;
+import com.android.server.telecom.ClockProxy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+
+@RunWith(JUnit4.class)
+public class BinderResultCacheTest extends TelecomTestCase {
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+    private static final long TTL_MILLIS = 100L;
+
+    @Mock private ClockProxy mClockProxy;
+
+    private long mTtlMillis = TTL_MILLIS;
+    private int mNumQueries;
+    private BinderResultCache mCache;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        when(mClockProxy.elapsedRealtime()).thenReturn(1000L);
+        mCache = new BinderResultCache(mClockProxy, () -> mTtlMillis);
+    }
+
+    @SmallTest
+    @Test
+    public void testRepeatedQueryServedFromCache() {
+        assertEquals(1, query(UID_1, "a"));
+        assertEquals(1, query(UID_1, "a"));
+        assertEquals(1, mNumQueries);
+    }
+
+    @SmallTest
+    @Test
+    public void testResultsNotSharedAcrossUidsOrArgs() {
+        assertEquals(1, query(UID_1, "a"));
+        assertEquals(2, query(UID_2, "a"));
+        assertEquals(3, query(UID_1, "b"));
+        assertEquals(3, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testResultExpires() {
+        assertEquals(1, query(UID_1, "a"));
+        when(mClockProxy.elapsedRealtime()).thenReturn(1000L + TTL_MILLIS);
+        assertEquals(2, query(UID_1, "a"));
+        assertEquals(2, query(UID_1, "a"));
+    }
+
+    @SmallTest
+    @Test
+    public void testDisabled() {
+        mTtlMillis = 0;
+        assertEquals(1, query(UID_1, "a"));
+        assertEquals(2, query(UID_1, "a"));
+        assertEquals(0, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testClear() {
+        assertEquals(1, query(UID_1, "a"));
+        mCache.clear();
+        assertEquals(2, query(UID_1, "a"));
+    }
+
+    private int query(int uid, String arg) {
+        return mCache.get(uid, "method", new Object[] {arg}, () -> ++mNumQueries);
+    }
+}
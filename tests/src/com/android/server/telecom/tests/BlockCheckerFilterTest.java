@@ -42,6 +42,7 @@ import com.android.server.telecom.Call;
 import com.android.server.telecom.CallerInfoLookupHelper;
 import com.android.server.telecom.callfiltering.BlockCheckerAdapter;
 import com.android.server.telecom.callfiltering.BlockCheckerFilter;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 
 import org.junit.Before;
@@ -87,7 +88,7 @@ public class BlockCheckerFilterTest extends TelecomTestCase {
         super.setUp();
         when(mCall.getHandle()).thenReturn(TEST_HANDLE);
         mFilter = new BlockCheckerFilter(mContext, mCall, mCallerInfoLookupHelper,
-                mBlockCheckerAdapter);
+                mBlockCheckerAdapter, new CallFilteringExecutor());
     }
 
     @SmallTest
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.provider.Settings;
+import android.telephony.CarrierConfigManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.callfiltering.BlockedNumbersCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class BlockedNumbersCacheTest extends TelecomTestCase {
+    @Mock private BlockedNumbersCache.BlockedNumberSource mSource;
+
+    private BlockedNumbersCache mCache;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        when(mSource.getBlockedNumbers(any(Context.class)))
+                .thenReturn(Arrays.asList("6505551234", "+16505551234", "sip:spam@example.com",
+                        null));
+        when(mSource.isEnhancedBlockingEnabled(any(Context.class))).thenReturn(false);
+        mCache = new BlockedNumbersCache(mContext, mSource);
+    }
+
+    @SmallTest
+    @Test
+    public void testBlockedNumberFallsBackToProvider() {
+        assertFalse(mCache.isDefinitelyNotBlocked("6505551234"));
+        // Other forms of the number must also be looked up in the provider.
+        assertFalse(mCache.isDefinitelyNotBlocked("+1 (650) 555-1234"));
+        assertFalse(mCache.isDefinitelyNotBlocked("5551234"));
+        assertFalse(mCache.isDefinitelyNotBlocked("sip:spam@example.com"));
+    }
+
+    @SmallTest
+    @Test
+    public void testUnblockedNumberAnsweredFromCache() {
+        assertTrue(mCache.isDefinitelyNotBlocked("6505559876"));
+        assertTrue(mCache.isDefinitelyNotBlocked("6505559877"));
+        // Only loaded once.
+        verify(mSource, times(1)).getBlockedNumbers(any(Context.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testEnhancedBlockingDisablesCache() {
+        when(mSource.isEnhancedBlockingEnabled(any(Context.class))).thenReturn(true);
+        assertFalse(mCache.isDefinitelyNotBlocked("6505559876"));
+    }
+
+    @SmallTest
+    @Test
+    public void testLoadFailureFallsBackToProvider() {
+        when(mSource.getBlockedNumbers(any(Context.class))).thenReturn(null);
+        assertFalse(mCache.isDefinitelyNotBlocked("6505559876"));
+    }
+
+    @SmallTest
+    @Test
+    public void testReloadAfterChange() {
+        assertTrue(mCache.isDefinitelyNotBlocked("6505559876"));
+
+        when(mSource.getBlockedNumbers(any(Context.class)))
+                .thenReturn(Arrays.asList("6505559876"));
+        mCache.getContentObserver().onChange(false);
+
+        assertFalse(mCache.isDefinitelyNotBlocked("6505559876"));
+        verify(mSource, times(2)).getBlockedNumbers(any(Context.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testEnhancedBlockingEnabledExternally() {
+        assertTrue(mCache.isDefinitelyNotBlocked("6505559876"));
+
+        // Enhanced call blocking is turned on outside Telecom, e.g. with the debug setting.
+        when(mSource.isEnhancedBlockingEnabled(any(Context.class))).thenReturn(true);
+        mCache.getContentObserver().onChange(false,
+                Settings.System.getUriFor(Settings.System.DEBUG_ENABLE_ENHANCED_CALL_BLOCKING));
+
+        assertFalse(mCache.isDefinitelyNotBlocked("6505559876"));
+        verify(mSource, times(2)).isEnhancedBlockingEnabled(any(Context.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testReloadAfterCarrierConfigChange() {
+        assertTrue(mCache.isDefinitelyNotBlocked("6505559876"));
+
+        when(mSource.isEnhancedBlockingEnabled(any(Context.class))).thenReturn(true);
+        mCache.getCarrierConfigReceiver().onReceive(mContext,
+                new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+
+        assertFalse(mCache.isDefinitelyNotBlocked("6505559876"));
+    }
+
+    @SmallTest
+    @Test
+    public void testGetKey() {
+        assertEquals("5551234", BlockedNumbersCache.getKey("+1 650-555-1234"));
+        assertEquals("5551234", BlockedNumbersCache.getKey("5551234"));
+        assertEquals("911", BlockedNumbersCache.getKey("911"));
+        assertEquals("sip:spam@example.com", BlockedNumbersCache.getKey("sip:spam@example.com"));
+    }
+}
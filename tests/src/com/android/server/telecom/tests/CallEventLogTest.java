@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.CallEventLog;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringWriter;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class CallEventLogTest extends TelecomTestCase {
+    @SmallTest
+    @Test
+    public void testEventsDecoded() {
+        CallEventLog log = new CallEventLog(8, 16, 4);
+        log.addEvent("TC@1", "SET_DIALING", null);
+        log.addEvent("TC@1", "INFO", "hello");
+        log.addEvent("TC@2", "INFO", 42);
+
+        List<String> events = log.getEvents();
+        assertEquals(3, events.size());
+        assertTrue(events.get(0).endsWith(" - TC@1 - SET_DIALING"));
+        assertTrue(events.get(1).endsWith(" - TC@1 - INFO (hello)"));
+        assertTrue(events.get(2).endsWith(" - TC@2 - INFO (42)"));
+    }
+
+    @SmallTest
+    @Test
+    public void testOldestEventsOverwritten() {
+        CallEventLog log = new CallEventLog(2, 16, 4);
+        log.addEvent("TC@1", "FIRST", null);
+        log.addEvent("TC@1", "SECOND", null);
+        log.addEvent("TC@1", "THIRD", null);
+
+        List<String> events = log.getEvents();
+        assertEquals(2, log.size());
+        assertTrue(events.get(0).endsWith("SECOND"));
+        assertTrue(events.get(1).endsWith("THIRD"));
+    }
+
+    @SmallTest
+    @Test
+    public void testPayloadTruncated() {
+        CallEventLog log = new CallEventLog(4, 4, 4);
+        log.addEvent("TC@1", "INFO", "abcdefgh");
+        // A two-byte character which would straddle the limit is left out entirely.
+        log.addEvent("TC@1", "INFO", "abcé");
+
+        // Data which fits exactly isn't marked as truncated.
+        log.addEvent("TC@1", "INFO", "abcd");
+
+        List<String> events = log.getEvents();
+        assertTrue(events.get(0).endsWith("INFO (abcd...)"));
+        assertTrue(events.get(1).endsWith("INFO (abc...)"));
+        assertTrue(events.get(2).endsWith("INFO (abcd)"));
+    }
+
+    @SmallTest
+    @Test
+    public void testPayloadSizeClamped() {
+        // The payload length is held in two bytes, so longer payloads can't be recorded.
+        CallEventLog log = new CallEventLog(1, 40000, 4);
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            data.append('a');
+        }
+        log.addEvent("TC@1", "INFO", data.toString());
+
+        String event = log.getEvents().get(0);
+        assertTrue(event.endsWith("INFO (" + data.substring(0, Short.MAX_VALUE) + "...)"));
+    }
+
+    @SmallTest
+    @Test
+    public void testEvictedCallShownByIndex() {
+        CallEventLog log = new CallEventLog(8, 16, 1);
+        log.addEvent("TC@1", "INFO", null);
+        log.addEvent("TC@2", "INFO", null);
+
+        List<String> events = log.getEvents();
+        assertTrue(events.get(0).endsWith(" - #0 - INFO"));
+        assertTrue(events.get(1).endsWith(" - TC@2 - INFO"));
+    }
+
+    @SmallTest
+    @Test
+    public void testDumpGroupsByCall() {
+        CallEventLog log = new CallEventLog(8, 16, 4);
+        log.addEvent("TC@1", "A", null);
+        log.addEvent("TC@2", "B", null);
+        log.addEvent("TC@1", "C", null);
+
+        StringWriter writer = new StringWriter();
+        log.dump(new IndentingPrintWriter(writer, "  "));
+        String dump = writer.toString();
+        int firstCall = dump.indexOf("Call TC@1:");
+        int secondCall = dump.indexOf("Call TC@2:");
+        assertTrue(firstCall >= 0 && secondCall > firstCall);
+        // Both events of the first call come before the second call.
+        assertTrue(dump.indexOf(" - C") < secondCall);
+    }
+}
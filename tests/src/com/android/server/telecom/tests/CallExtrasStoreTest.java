@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import android.os.Bundle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallExtrasStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class CallExtrasStoreTest extends TelecomTestCase {
+    private static final String KEY_STR = "key_str";
+    private static final String KEY_INT = "key_int";
+    private static final String KEY_ARRAY = "key_array";
+
+    private CallExtrasStore mStore;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mStore = new CallExtrasStore();
+    }
+
+    @SmallTest
+    @Test
+    public void testPutPublishesNewSnapshot() {
+        mStore.put(Call.SOURCE_CONNECTION_SERVICE, extras(KEY_STR, "a"));
+        Bundle first = mStore.getSnapshot();
+        int firstVersion = mStore.getVersion();
+
+        CallExtrasStore.Change change =
+                mStore.put(Call.SOURCE_CONNECTION_SERVICE, extras(KEY_STR, "b"));
+        assertNotNull(change);
+        assertEquals(firstVersion + 1, mStore.getVersion());
+        assertEquals(mStore.getVersion(), change.getVersion());
+        assertEquals("b", mStore.getSnapshot().getString(KEY_STR));
+        // The earlier snapshot is left as it was.
+        assertEquals("a", first.getString(KEY_STR));
+    }
+
+    @SmallTest
+    @Test
+    public void testNoOpPutSuppressed() {
+        Bundle extras = extras(KEY_STR, "a");
+        extras.putInt(KEY_INT, 1);
+        extras.putStringArray(KEY_ARRAY, new String[] {"x", "y"});
+        mStore.put(Call.SOURCE_CONNECTION_SERVICE, extras);
+        Bundle snapshot = mStore.getSnapshot();
+        int version = mStore.getVersion();
+
+        Bundle same = extras(KEY_STR, "a");
+        same.putInt(KEY_INT, 1);
+        same.putStringArray(KEY_ARRAY, new String[] {"x", "y"});
+        assertNull(mStore.put(Call.SOURCE_CONNECTION_SERVICE, same));
+        assertSame(snapshot, mStore.getSnapshot());
+        assertEquals(version, mStore.getVersion());
+        assertEquals(1, mStore.getNumSuppressed(Call.SOURCE_CONNECTION_SERVICE));
+    }
+
+    @SmallTest
+    @Test
+    public void testChangeHoldsOnlyChangedKeys() {
+        Bundle extras = extras(KEY_STR, "a");
+        extras.putInt(KEY_INT, 1);
+        mStore.put(Call.SOURCE_CONNECTION_SERVICE, extras);
+
+        Bundle update = extras(KEY_STR, "a");
+        update.putInt(KEY_INT, 2);
+        CallExtrasStore.Change change = mStore.put(Call.SOURCE_INCALL_SERVICE, update);
+        assertEquals(1, change.getChangedExtras().size());
+        assertEquals(2, change.getChangedExtras().getInt(KEY_INT));
+        assertSame(change, mStore.getLastChange(Call.SOURCE_INCALL_SERVICE));
+        assertNotSame(change, mStore.getLastChange(Call.SOURCE_CONNECTION_SERVICE));
+    }
+
+    @SmallTest
+    @Test
+    public void testRemoveOnlyPresentKeys() {
+        mStore.put(Call.SOURCE_CONNECTION_SERVICE, extras(KEY_STR, "a"));
+
+        assertNull(mStore.remove(Call.SOURCE_CONNECTION_SERVICE, Arrays.asList(KEY_INT)));
+        CallExtrasStore.Change change =
+                mStore.remove(Call.SOURCE_CONNECTION_SERVICE, Arrays.asList(KEY_STR, KEY_INT));
+        assertEquals(Arrays.asList(KEY_STR), change.getRemovedKeys());
+        assertTrue(mStore.getSnapshot().isEmpty());
+    }
+
+    @SmallTest
+    @Test
+    public void testEmptyPutCreatesExtras() {
+        assertNull(mStore.getSnapshot());
+        assertNotNull(mStore.put(Call.SOURCE_CONNECTION_SERVICE, new Bundle()));
+        assertNotNull(mStore.getSnapshot());
+    }
+
+    @SmallTest
+    @Test
+    public void testNestedBundlesComparedByContent() {
+        Bundle first = extras(KEY_STR, "a");
+        Bundle second = extras(KEY_STR, "a");
+        assertTrue(CallExtrasStore.areValuesEqual(first, second));
+        second.putInt(KEY_INT, 1);
+        assertFalse(CallExtrasStore.areValuesEqual(first, second));
+    }
+
+    private static Bundle extras(String key, String value) {
+        Bundle extras = new Bundle();
+        extras.putString(key, value);
+        return extras;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import static org.mockito.Mockito.mock;
+
+import android.os.Bundle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallListenerDispatcher;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CallListenerDispatcherTest extends TelecomTestCase {
+    private static class ExtrasListener extends Call.ListenerBase {
+        @Override
+        public void onExtrasChanged(Call c, int source, Bundle extras) {}
+    }
+
+    private static class ExtrasAndStatusHintsListener extends ExtrasListener {
+        @Override
+        public void onStatusHintsChanged(Call call) {}
+    }
+
+    @SmallTest
+    @Test
+    public void testEveryCallbackHasAnEvent() {
+        assertEquals(Call.Listener.class.getMethods().length,
+                CallListenerDispatcher.NUM_EVENTS);
+        assertFalse(CallListenerDispatcher.ON_EXTRAS_CHANGED
+                == CallListenerDispatcher.ON_EXTRAS_REMOVED);
+    }
+
+    @SmallTest
+    @Test
+    public void testOnlyOverriddenCallbacksSubscribed() {
+        boolean[] subscriptions =
+                CallListenerDispatcher.getSubscriptions(ExtrasAndStatusHintsListener.class);
+        int count = 0;
+        for (boolean subscribed : subscriptions) {
+            count += subscribed ? 1 : 0;
+        }
+        assertEquals(2, count);
+        assertTrue(subscriptions[CallListenerDispatcher.ON_EXTRAS_CHANGED]);
+        assertTrue(subscriptions[CallListenerDispatcher.ON_STATUS_HINTS_CHANGED]);
+    }
+
+    @SmallTest
+    @Test
+    public void testListenerNotExtendingBaseSubscribedToAll() {
+        CallListenerDispatcher dispatcher = new CallListenerDispatcher();
+        Call.Listener listener = mock(Call.Listener.class);
+        dispatcher.add(listener);
+        for (int event = 0; event < CallListenerDispatcher.NUM_EVENTS; event++) {
+            assertEquals(1, dispatcher.get(event).length);
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testAddAndRemove() {
+        CallListenerDispatcher dispatcher = new CallListenerDispatcher();
+        ExtrasListener extrasListener = new ExtrasListener();
+        ExtrasAndStatusHintsListener bothListener = new ExtrasAndStatusHintsListener();
+        dispatcher.add(extrasListener);
+        dispatcher.add(bothListener);
+        dispatcher.add(extrasListener);
+        assertEquals(2, dispatcher.size());
+        assertEquals(2, dispatcher.get(CallListenerDispatcher.ON_EXTRAS_CHANGED).length);
+        assertEquals(1, dispatcher.get(CallListenerDispatcher.ON_STATUS_HINTS_CHANGED).length);
+        assertEquals(0, dispatcher.get(CallListenerDispatcher.ON_HANDLE_CHANGED).length);
+
+        Call.Listener[] extrasSubscribers =
+                dispatcher.get(CallListenerDispatcher.ON_EXTRAS_CHANGED);
+        dispatcher.remove(extrasListener);
+        assertEquals(1, dispatcher.size());
+        assertSame(bothListener, dispatcher.get(CallListenerDispatcher.ON_EXTRAS_CHANGED)[0]);
+        // Arrays already handed out are left unchanged.
+        assertEquals(2, extrasSubscribers.length);
+    }
+}
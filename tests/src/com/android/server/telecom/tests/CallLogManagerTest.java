@@ -27,6 +27,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -79,6 +80,7 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 @RunWith(JUnit4.class)
@@ -958,6 +960,75 @@ public class CallLogManagerTest extends TelecomTestCase {
         verify(mContentProvider, never()).insert(any(Uri.class), any(ContentValues.class));
     }
 
+    @MediumTest
+    @Test
+    public void testBurstOfCallsLoggedInOrder() {
+        int numCalls = 5;
+        for (int i = 0; i < numCalls; i++) {
+            Call fakeMissedCall = makeFakeCall(
+                    DisconnectCause.MISSED, // disconnectCauseCode
+                    false, // isConference
+                    true, // isIncoming
+                    i + 1, // creationTimeMillis
+                    1000L, // ageMillis
+                    TEL_PHONEHANDLE, // callHandle
+                    mDefaultAccountHandle, // phoneAccountHandle
+                    NO_VIDEO_STATE, // callVideoState
+                    POST_DIAL_STRING, // postDialDigits
+                    VIA_NUMBER_STRING, // viaNumber
+                    null
+            );
+            mCallLogManager.onCallStateChanged(fakeMissedCall, CallState.ACTIVE,
+                    CallState.DISCONNECTED);
+        }
+
+        Uri uri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI, CURRENT_USER_ID);
+        ArgumentCaptor<ContentValues> captor = ArgumentCaptor.forClass(ContentValues.class);
+        verify(mContentProvider, timeout(TEST_TIMEOUT_MILLIS).times(numCalls)).insert(
+                eq(uri), captor.capture());
+        for (int i = 0; i < numCalls; i++) {
+            assertEquals(Long.valueOf(i + 1),
+                    captor.getAllValues().get(i).getAsLong(CallLog.Calls.DATE));
+        }
+        verify(mMissedCallNotifier, timeout(TEST_TIMEOUT_MILLIS).times(numCalls))
+                .showMissedCallNotification(any(MissedCallNotifier.CallInfo.class));
+    }
+
+    @MediumTest
+    @Test
+    public void testBurstOfCallsWrittenInOneBatchPerUser() throws Exception {
+        when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(any(PhoneAccountHandle.class)))
+                .thenReturn(makeFakePhoneAccount(mDefaultAccountHandle,
+                        PhoneAccount.CAPABILITY_MULTI_USER));
+        int numCalls = 3;
+        for (int i = 0; i < numCalls; i++) {
+            Call fakeCall = makeFakeCall(
+                    DisconnectCause.OTHER, // disconnectCauseCode
+                    false, // isConference
+                    false, // isIncoming
+                    i + 1, // creationTimeMillis
+                    1000L, // ageMillis
+                    TEL_PHONEHANDLE, // callHandle
+                    mDefaultAccountHandle, // phoneAccountHandle
+                    NO_VIDEO_STATE, // callVideoState
+                    POST_DIAL_STRING, // postDialDigits
+                    VIA_NUMBER_STRING, // viaNumber
+                    null
+            );
+            mCallLogManager.onCallStateChanged(fakeCall, CallState.ACTIVE,
+                    CallState.DISCONNECTED);
+        }
+
+        for (int userId : new int[] {CURRENT_USER_ID, OTHER_USER_ID}) {
+            Uri uri = ContentProvider.maybeAddUserId(CallLog.Calls.CONTENT_URI, userId);
+            verify(mContentProvider, timeout(TEST_TIMEOUT_MILLIS).times(numCalls)).insert(
+                    eq(uri), any(ContentValues.class));
+            verify(mContentProvider, times(1)).applyBatch(eq(uri.getAuthority()),
+                    any(ArrayList.class));
+        }
+        verifyNoInsertionInUser(MANAGED_USER_ID);
+    }
+
     private void verifyNoInsertionInUser(int userId) {
         SystemClock.sleep(TEST_TIMEOUT_MILLIS);
 
@@ -50,6 +50,7 @@ import com.android.server.telecom.AppLabelProxy;
 import com.android.server.telecom.Call;
 import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.ParcelableCallUtils;
+import com.android.server.telecom.PermissionDecisionCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.CallScreeningServiceFilter;
@@ -77,6 +78,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
     @Mock PhoneAccountRegistrar mPhoneAccountRegistrar;
     @Mock ICallScreeningService mCallScreeningService;
     @Mock IBinder mBinder;
+    PermissionDecisionCache mPermissionDecisionCache = new PermissionDecisionCache();
 
     private static final String CALL_ID = "u89prgt9ps78y5";
     private static final String PKG_NAME = "com.android.services.telecom.tests";
@@ -132,7 +134,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
     public void testNoPackageName() throws Exception {
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, null,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         assertEquals(PASS_RESULT,
                 filter.startFilterLookup(inputResult).toCompletableFuture().get(
                         CallScreeningServiceFilter.CALL_SCREENING_FILTER_TIMEOUT,
@@ -146,7 +148,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 anyInt(), eq(UserHandle.CURRENT))).thenReturn(false);
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         assertEquals(PASS_RESULT,
                 filter.startFilterLookup(inputResult).toCompletableFuture().get(
                         CallScreeningServiceFilter.CALL_SCREENING_FILTER_TIMEOUT,
@@ -160,7 +162,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 .thenReturn(Collections.emptyList());
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         assertEquals(PASS_RESULT,
                 filter.startFilterLookup(inputResult).toCompletableFuture().get(
                         CallScreeningServiceFilter.CALL_SCREENING_FILTER_TIMEOUT,
@@ -173,7 +175,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
         mResolveInfo.serviceInfo = null;
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         assertEquals(PASS_RESULT,
                 filter.startFilterLookup(inputResult).toCompletableFuture().get(
                         CallScreeningServiceFilter.CALL_SCREENING_FILTER_TIMEOUT,
@@ -192,7 +194,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
         inputResult.contactExists = true;
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_USER_CHOSEN, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         filter.startFilterLookup(inputResult);
     }
 
@@ -204,7 +206,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
         inputResult.contactExists = true;
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         filter.startFilterLookup(inputResult);
         ServiceConnection connection = verifyBindingIntent();
         connection.onServiceDisconnected(COMPONENT_NAME);
@@ -218,7 +220,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 .unbindService(nullable(ServiceConnection.class));
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         filter.startFilterLookup(inputResult);
         filter.unbindCallScreeningService();
     }
@@ -228,7 +230,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
     public void testAllowCall() throws Exception {
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
 
         ServiceConnection serviceConnection = verifyBindingIntent();
@@ -258,7 +260,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 .build();
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
 
         ServiceConnection serviceConnection = verifyBindingIntent();
@@ -289,7 +291,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 .build();
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_CARRIER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
 
         ServiceConnection serviceConnection = verifyBindingIntent();
@@ -317,7 +319,7 @@ public class CallScreeningServiceFilterTest extends TelecomTestCase {
                 .build();
         CallScreeningServiceFilter filter = new CallScreeningServiceFilter(mCall, PKG_NAME,
                 CallScreeningServiceFilter.PACKAGE_TYPE_DEFAULT_DIALER, mContext, mCallsManager,
-                mAppLabelProxy, mParcelableCallUtilsConverter);
+                mAppLabelProxy, mParcelableCallUtilsConverter, mPermissionDecisionCache);
         CompletionStage<CallFilteringResult> resultFuture = filter.startFilterLookup(inputResult);
 
         ServiceConnection serviceConnection = verifyBindingIntent();
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Analytics;
+import com.android.server.telecom.CallSetupStats;
+import com.android.server.telecom.CallSetupTimer;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CallSetupStatsTest extends TelecomTestCase {
+    private CallSetupStats mStats;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mStats = new CallSetupStats();
+    }
+
+    @SmallTest
+    @Test
+    public void testStageMarkedOnce() {
+        CallSetupTimer timer = new CallSetupTimer();
+        assertEquals(-1, timer.getStageTime(CallSetupTimer.DIALING));
+        assertTrue(timer.mark(CallSetupTimer.DIALING, 100L));
+        assertFalse(timer.mark(CallSetupTimer.DIALING, 200L));
+        assertFalse(timer.mark(CallSetupTimer.RINGER_STARTED, -1L));
+        assertEquals(100L, timer.getStageTime(CallSetupTimer.DIALING));
+    }
+
+    @SmallTest
+    @Test
+    public void testOutgoingStagesTimedFromPreviousStage() {
+        CallSetupTimer timer = new CallSetupTimer();
+        timer.mark(CallSetupTimer.INTENT_PROCESSING_STARTED, 1000L);
+        timer.mark(CallSetupTimer.PHONE_ACCOUNT_SELECTED, 1010L);
+        // Call redirection is skipped.
+        timer.mark(CallSetupTimer.OUTGOING_CALL_PLACED, 1050L);
+        timer.mark(CallSetupTimer.DIALING, 1300L);
+        mStats.add(Analytics.OUTGOING_DIRECTION, timer);
+
+        assertEquals(0, mStats.getCount(Analytics.OUTGOING_DIRECTION,
+                CallSetupTimer.INTENT_PROCESSING_STARTED));
+        assertEquals(0, mStats.getCount(Analytics.OUTGOING_DIRECTION,
+                CallSetupTimer.CALL_REDIRECTION_COMPLETED));
+        // 10ms has a bit length of 4, so is estimated as at most 15ms.
+        assertEquals(15, mStats.getPercentileMillis(Analytics.OUTGOING_DIRECTION,
+                CallSetupTimer.PHONE_ACCOUNT_SELECTED, 50));
+        assertEquals(63, mStats.getPercentileMillis(Analytics.OUTGOING_DIRECTION,
+                CallSetupTimer.OUTGOING_CALL_PLACED, 50));
+        assertEquals(255, mStats.getPercentileMillis(Analytics.OUTGOING_DIRECTION,
+                CallSetupTimer.DIALING, 50));
+        assertEquals(1, mStats.getCount(Analytics.OUTGOING_DIRECTION, CallSetupStats.TOTAL));
+        assertEquals(511, mStats.getPercentileMillis(Analytics.OUTGOING_DIRECTION,
+                CallSetupStats.TOTAL, 50));
+        assertEquals(0, mStats.getCount(Analytics.INCOMING_DIRECTION, CallSetupStats.TOTAL));
+    }
+
+    @SmallTest
+    @Test
+    public void testIncomingStagesFollowIncomingOrder() {
+        CallSetupTimer timer = new CallSetupTimer();
+        timer.mark(CallSetupTimer.INCOMING_CALL_RECEIVED, 1000L);
+        timer.mark(CallSetupTimer.CREATE_CONNECTION_STARTED, 1001L);
+        timer.mark(CallSetupTimer.CONNECTION_CREATED, 1020L);
+        timer.mark(CallSetupTimer.CALL_FILTERING_STARTED, 1021L);
+        timer.mark(CallSetupTimer.CALL_FILTERING_COMPLETED, 1500L);
+        mStats.add(Analytics.INCOMING_DIRECTION, timer);
+
+        assertEquals(1, mStats.getCount(Analytics.INCOMING_DIRECTION,
+                CallSetupTimer.CREATE_CONNECTION_STARTED));
+        assertEquals(1, mStats.getPercentileMillis(Analytics.INCOMING_DIRECTION,
+                CallSetupTimer.CREATE_CONNECTION_STARTED, 50));
+        assertEquals(511, mStats.getPercentileMillis(Analytics.INCOMING_DIRECTION,
+                CallSetupTimer.CALL_FILTERING_COMPLETED, 50));
+        // The ringer never started, so there is no total.
+        assertEquals(0, mStats.getCount(Analytics.INCOMING_DIRECTION, CallSetupStats.TOTAL));
+    }
+
+    @SmallTest
+    @Test
+    public void testUnknownDirectionIgnored() {
+        CallSetupTimer timer = new CallSetupTimer();
+        timer.mark(CallSetupTimer.CREATE_CONNECTION_STARTED, 1000L);
+        timer.mark(CallSetupTimer.CONNECTION_CREATED, 1010L);
+        mStats.add(Analytics.UNKNOWN_DIRECTION, timer);
+        assertEquals(0, mStats.toProto().length);
+    }
+
+    @SmallTest
+    @Test
+    public void testToProto() {
+        CallSetupTimer timer = new CallSetupTimer();
+        timer.mark(CallSetupTimer.INCOMING_CALL_RECEIVED, 1000L);
+        timer.mark(CallSetupTimer.RINGER_STARTED, 1003L);
+        mStats.add(Analytics.INCOMING_DIRECTION, timer);
+
+        TelecomLogClass.CallSetupStage[] protos = mStats.toProto();
+        assertEquals(2, protos.length);
+        assertEquals(TelecomLogClass.CallLog.CALLTYPE_INCOMING, protos[0].getCallType());
+        assertEquals(TelecomLogClass.CallSetupStage.RINGER_STARTED, protos[0].getStage());
+        assertEquals(1, protos[0].getCount());
+        assertEquals(3, protos[0].getMaxMillis());
+        assertEquals(CallSetupStats.NUM_BUCKETS, protos[0].bucketCounts.length);
+        // 3ms has a bit length of 2.
+        assertEquals(1, protos[0].bucketCounts[2]);
+        assertEquals(TelecomLogClass.CallSetupStage.TOTAL, protos[1].getStage());
+
+        mStats.clear();
+        assertEquals(0, mStats.toProto().length);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallStateCounter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CallStateCounterTest extends TelecomTestCase {
+    private static final PhoneAccountHandle SIM_1_HANDLE = new PhoneAccountHandle(
+            ComponentName.unflattenFromString("com.foo/.Blah"), "Sim1");
+    private static final PhoneAccountHandle SIM_2_HANDLE = new PhoneAccountHandle(
+            ComponentName.unflattenFromString("com.foo/.Blah"), "Sim2");
+
+    private CallStateCounter mCounter;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mCounter = new CallStateCounter();
+    }
+
+    @SmallTest
+    @Test
+    public void testCountsByStateAndType() {
+        mCounter.addCall(createCall(CallState.ACTIVE, false, SIM_1_HANDLE));
+        mCounter.addCall(createCall(CallState.ON_HOLD, false, SIM_2_HANDLE));
+        mCounter.addCall(createCall(CallState.ACTIVE, true, null));
+
+        assertEquals(1, getManagedCount(null, CallState.ACTIVE));
+        assertEquals(2, getManagedCount(null, CallState.ACTIVE, CallState.ON_HOLD));
+        // Duplicate states are only counted once.
+        assertEquals(1, getManagedCount(null, CallState.ACTIVE, CallState.ACTIVE));
+        assertEquals(1, mCounter.getCount(false, true, null, null, CallState.ACTIVE));
+        assertEquals(2, mCounter.getCount(true, true, null, null, CallState.ACTIVE));
+        assertEquals(1, getManagedCount(SIM_2_HANDLE, CallState.ACTIVE, CallState.ON_HOLD));
+    }
+
+    @SmallTest
+    @Test
+    public void testExcludedCall() {
+        Call call = createCall(CallState.ACTIVE, false, SIM_1_HANDLE);
+        Call otherCall = createCall(CallState.ACTIVE, false, SIM_1_HANDLE);
+        mCounter.addCall(call);
+        mCounter.addCall(otherCall);
+
+        assertEquals(1, mCounter.getCount(true, false, call, null, CallState.ACTIVE));
+        assertEquals(1, mCounter.getCount(true, false, call, SIM_1_HANDLE, CallState.ACTIVE));
+        // Excluding a call which doesn't match the criteria has no effect.
+        assertEquals(2, mCounter.getCount(false, true, call, null, CallState.ACTIVE)
+                + getManagedCount(null, CallState.ACTIVE));
+        assertEquals(0, mCounter.getCount(true, false, call, SIM_2_HANDLE, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testCallChanges() {
+        Call call = createCall(CallState.RINGING, false, SIM_1_HANDLE);
+        mCounter.addCall(call);
+        assertEquals(1, getManagedCount(SIM_1_HANDLE, CallState.RINGING));
+
+        when(call.getState()).thenReturn(CallState.ACTIVE);
+        when(call.getTargetPhoneAccount()).thenReturn(SIM_2_HANDLE);
+        mCounter.onCallChanged(call);
+        assertEquals(0, getManagedCount(SIM_1_HANDLE, CallState.RINGING, CallState.ACTIVE));
+        assertEquals(1, getManagedCount(SIM_2_HANDLE, CallState.ACTIVE));
+
+        // Conference children and external calls aren't counted.
+        when(call.getParentCall()).thenReturn(mock(Call.class));
+        mCounter.onCallChanged(call);
+        assertEquals(0, getManagedCount(null, CallState.ACTIVE));
+        when(call.getParentCall()).thenReturn(null);
+        when(call.isExternalCall()).thenReturn(true);
+        mCounter.onCallChanged(call);
+        assertEquals(0, getManagedCount(null, CallState.ACTIVE));
+        when(call.isExternalCall()).thenReturn(false);
+        mCounter.onCallChanged(call);
+        assertEquals(1, getManagedCount(null, CallState.ACTIVE));
+
+        mCounter.removeCall(call);
+        assertEquals(0, getManagedCount(null, CallState.ACTIVE));
+        // Changes to calls which are no longer tracked are ignored.
+        mCounter.onCallChanged(call);
+        assertEquals(0, getManagedCount(null, CallState.ACTIVE));
+    }
+
+    @SmallTest
+    @Test
+    public void testListenerNotifiedOfChanges() {
+        int[] ringingCounts = new int[4];
+        int[] numNotifications = new int[1];
+        mCounter = new CallStateCounter(counter -> {
+            // The listener may query the counter while it is locked.
+            ringingCounts[numNotifications[0]++] =
+                    counter.getCount(true, true, null, null, CallState.RINGING);
+        });
+        Call call = createCall(CallState.RINGING, false, SIM_1_HANDLE);
+        mCounter.addCall(call);
+        when(call.getState()).thenReturn(CallState.ACTIVE);
+        mCounter.onCallChanged(call);
+        mCounter.removeCall(call);
+        // Changes to calls which are no longer tracked don't notify.
+        mCounter.onCallChanged(call);
+
+        assertEquals(3, numNotifications[0]);
+        assertEquals(1, ringingCounts[0]);
+        assertEquals(0, ringingCounts[1]);
+        assertEquals(0, ringingCounts[2]);
+    }
+
+    private int getManagedCount(PhoneAccountHandle handle, int... states) {
+        return mCounter.getCount(true, false, null, handle, states);
+    }
+
+    private static Call createCall(int state, boolean isSelfManaged, PhoneAccountHandle handle) {
+        Call call = mock(Call.class);
+        when(call.getState()).thenReturn(state);
+        when(call.isSelfManaged()).thenReturn(isSelfManaged);
+        when(call.getTargetPhoneAccount()).thenReturn(handle);
+        return call;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.telecom.CallerInfo;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.CallerInfoCache;
+import com.android.server.telecom.ClockProxy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+
+@RunWith(JUnit4.class)
+public class CallerInfoCacheTest extends TelecomTestCase {
+    private static final long TTL_MILLIS = 1000L;
+
+    @Mock private ClockProxy mClockProxy;
+
+    private CallerInfoCache mCache;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        when(mClockProxy.elapsedRealtime()).thenReturn(0L);
+        mCache = new CallerInfoCache(mComponentContextFixture.getTestDouble()
+                .getApplicationContext(), mClockProxy, 2 /* capacity */, TTL_MILLIS);
+    }
+
+    @SmallTest
+    @Test
+    public void testLeastRecentlyUsedEntryEvicted() {
+        CallerInfo first = new CallerInfo();
+        CallerInfo second = new CallerInfo();
+        mCache.put("6505551001", first, mCache.getGeneration());
+        mCache.put("6505551002", second, mCache.getGeneration());
+        // Using the first entry makes the second the least recently used.
+        assertSame(first, mCache.get("6505551001"));
+        mCache.put("6505551003", new CallerInfo(), mCache.getGeneration());
+
+        assertEquals(2, mCache.size());
+        assertSame(first, mCache.get("6505551001"));
+        assertNull(mCache.get("6505551002"));
+    }
+
+    @SmallTest
+    @Test
+    public void testEntryExpires() {
+        CallerInfo callerInfo = new CallerInfo();
+        mCache.put("6505551001", callerInfo, mCache.getGeneration());
+        when(mClockProxy.elapsedRealtime()).thenReturn(TTL_MILLIS - 1);
+        assertSame(callerInfo, mCache.get("6505551001"));
+        when(mClockProxy.elapsedRealtime()).thenReturn(TTL_MILLIS);
+        assertNull(mCache.get("6505551001"));
+        assertEquals(0, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testStaleGenerationNotCached() {
+        int generation = mCache.getGeneration();
+        mCache.getContentObserver().onChange(false);
+        mCache.put("6505551001", new CallerInfo(), generation);
+        assertNull(mCache.get("6505551001"));
+    }
+
+    @SmallTest
+    @Test
+    public void testDisabledWithoutContentResolver() {
+        CallerInfoCache cache = new CallerInfoCache(mock(Context.class), mClockProxy);
+        cache.put("6505551001", new CallerInfo(), cache.getGeneration());
+        assertNull(cache.get("6505551001"));
+    }
+
+    @SmallTest
+    @Test
+    public void testGetKey() {
+        assertEquals("6505551001", CallerInfoCache.getKey("(650) 555-1001"));
+        assertEquals("+16505551001", CallerInfoCache.getKey("+1 650-555-1001"));
+        assertEquals("alice@example.com", CallerInfoCache.getKey("alice@example.com"));
+        assertNull(CallerInfoCache.getKey(""));
+    }
+}
@@ -22,6 +22,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -40,7 +41,9 @@ import androidx.test.InstrumentationRegistry;
 import android.telecom.CallerInfo;
 import android.telecom.CallerInfoAsyncQuery;
 import com.android.server.telecom.CallerInfoAsyncQueryFactory;
+import com.android.server.telecom.CallerInfoCache;
 import com.android.server.telecom.CallerInfoLookupHelper;
+import com.android.server.telecom.ClockProxy;
 import com.android.server.telecom.ContactsAsyncHelper;
 import com.android.server.telecom.TelecomSystem;
 
@@ -62,12 +65,14 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
     @Mock CallerInfoAsyncQueryFactory mFactory;
     @Mock ContactsAsyncHelper mContactsAsyncHelper;
     @Mock Drawable mDrawable2;
+    @Mock ClockProxy mClockProxy;
 
     CallerInfo mCallerInfo1;
     CallerInfo mCallerInfo2;
 
     @Mock Drawable mDrawable1;
     CallerInfoLookupHelper mCallerInfoLookupHelper;
+    CallerInfoCache mCallerInfoCache;
     static final Uri URI1 = Uri.parse("tel:555-555-7010");
     static final Uri URI2 = Uri.parse("tel:555-555-7016");
 
@@ -81,8 +86,11 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
     @Before
     public void setUp() throws Exception {
         super.setUp();
+        mCallerInfoCache = new CallerInfoCache(
+                mComponentContextFixture.getTestDouble().getApplicationContext(), mClockProxy);
         mCallerInfoLookupHelper = new CallerInfoLookupHelper(mContext,
-                mFactory, mContactsAsyncHelper, new TelecomSystem.SyncRoot() { });
+                mFactory, mContactsAsyncHelper, new TelecomSystem.SyncRoot() { },
+                mCallerInfoCache);
         when(mFactory.startQuery(anyInt(), eq(mContext), anyString(),
                 any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any()))
                 .thenReturn(mock(CallerInfoAsyncQuery.class));
@@ -239,6 +247,111 @@ public class CallerInfoLookupHelperTest extends TelecomTestCase {
         verifyProperCleanup();
     }
 
+    @SmallTest
+    @Test
+    public void testLookupServedFromCache() {
+        CallerInfoLookupHelper.OnQueryCompleteListener callListener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        CallerInfoLookupHelper.OnQueryCompleteListener otherListener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+
+        completeLookup(URI1, callListener, mCallerInfo1);
+        verify(callListener).onCallerInfoQueryComplete(URI1, mCallerInfo1);
+
+        // The same number, formatted differently.
+        Uri otherUri = Uri.parse("tel:5555557010");
+        mCallerInfoLookupHelper.startLookup(otherUri, otherListener);
+        verify(otherListener).onCallerInfoQueryComplete(otherUri, mCallerInfo1);
+        waitForActionCompletion();
+        verify(mFactory, times(1)).startQuery(anyInt(), eq(mContext), anyString(),
+                any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any());
+        verifyProperCleanup();
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheInvalidatedByContactsChange() {
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        completeLookup(URI1, listener, mCallerInfo1);
+
+        mCallerInfoCache.getContentObserver().onChange(false);
+        completeLookup(URI1, listener, mCallerInfo2);
+        verify(listener).onCallerInfoQueryComplete(URI1, mCallerInfo2);
+        verify(mFactory, times(2)).startQuery(anyInt(), eq(mContext), anyString(),
+                any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any());
+    }
+
+    @SmallTest
+    @Test
+    public void testCacheInvalidatedByUserSwitch() {
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        completeLookup(URI1, listener, mCallerInfo1);
+
+        // The next user's contacts must be looked up, not served from the previous user's.
+        mCallerInfoLookupHelper.onUserSwitch();
+        assertEquals(0, mCallerInfoCache.size());
+        completeLookup(URI1, listener, mCallerInfo2);
+        verify(listener).onCallerInfoQueryComplete(URI1, mCallerInfo2);
+        verify(mFactory, times(2)).startQuery(anyInt(), eq(mContext), anyString(),
+                any(CallerInfoAsyncQuery.OnQueryCompleteListener.class), any());
+    }
+
+    @SmallTest
+    @Test
+    public void testQueryStartedBeforeContactsChangeNotCached() {
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        mCallerInfoLookupHelper.startLookup(URI1, listener);
+        waitForActionCompletion();
+        mCallerInfoCache.invalidate();
+
+        ArgumentCaptor<CallerInfoAsyncQuery.OnQueryCompleteListener> queryListenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoAsyncQuery.OnQueryCompleteListener.class);
+        ArgumentCaptor<Session> logSessionCaptor = ArgumentCaptor.forClass(Session.class);
+        verify(mFactory).startQuery(anyInt(), eq(mContext), eq(URI1.getSchemeSpecificPart()),
+                queryListenerCaptor.capture(), logSessionCaptor.capture());
+        queryListenerCaptor.getValue().onQueryComplete(
+                0, logSessionCaptor.getValue(), mCallerInfo1);
+
+        verify(listener).onCallerInfoQueryComplete(URI1, mCallerInfo1);
+        assertEquals(0, mCallerInfoCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testCachedCallerInfoExpires() {
+        CallerInfoLookupHelper.OnQueryCompleteListener listener = mock(
+                CallerInfoLookupHelper.OnQueryCompleteListener.class);
+        when(mClockProxy.elapsedRealtime()).thenReturn(0L);
+        completeLookup(URI1, listener, mCallerInfo1);
+
+        when(mClockProxy.elapsedRealtime()).thenReturn(CallerInfoCache.DEFAULT_TTL_MILLIS);
+        completeLookup(URI1, listener, mCallerInfo2);
+        verify(listener).onCallerInfoQueryComplete(URI1, mCallerInfo2);
+    }
+
+    /**
+     * Starts a lookup which is expected to query the factory, and completes the query with the
+     * given caller info, which has no photo.
+     */
+    private void completeLookup(Uri handle, CallerInfoLookupHelper.OnQueryCompleteListener listener,
+            CallerInfo callerInfo) {
+        mCallerInfoLookupHelper.startLookup(handle, listener);
+        waitForActionCompletion();
+
+        ArgumentCaptor<CallerInfoAsyncQuery.OnQueryCompleteListener> queryListenerCaptor =
+                ArgumentCaptor.forClass(CallerInfoAsyncQuery.OnQueryCompleteListener.class);
+        ArgumentCaptor<Session> logSessionCaptor = ArgumentCaptor.forClass(Session.class);
+        verify(mFactory, atLeastOnce()).startQuery(anyInt(), eq(mContext),
+                eq(handle.getSchemeSpecificPart()), queryListenerCaptor.capture(),
+                logSessionCaptor.capture());
+        queryListenerCaptor.getValue().onQueryComplete(
+                0, logSessionCaptor.getValue(), callerInfo);
+        verifyProperCleanup();
+    }
+
     private void verifyProperCleanup() {
         assertEquals(0, mCallerInfoLookupHelper.getCallerInfoEntries().size());
     }
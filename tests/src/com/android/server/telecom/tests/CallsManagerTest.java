@@ -80,6 +80,7 @@ import com.android.server.telecom.InCallTonePlayer;
 import com.android.server.telecom.InCallWakeLockController;
 import com.android.server.telecom.InCallWakeLockControllerFactory;
 import com.android.server.telecom.MissedCallNotifier;
+import com.android.server.telecom.PermissionDecisionCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.PhoneNumberUtilsAdapter;
 import com.android.server.telecom.ProximitySensorManager;
@@ -256,7 +257,8 @@ public class CallsManagerTest extends TelecomTestCase {
                 mInCallControllerFactory,
                 mRoleManagerAdapter,
                 mIncomingCallFilterFactory,
-                mToastFactory);
+                mToastFactory,
+                new PermissionDecisionCache());
 
         when(mPhoneAccountRegistrar.getPhoneAccount(
                 eq(SELF_MANAGED_HANDLE), any())).thenReturn(SELF_MANAGED_ACCOUNT);
@@ -266,6 +268,9 @@ public class CallsManagerTest extends TelecomTestCase {
                 eq(SIM_2_HANDLE), any())).thenReturn(SIM_2_ACCOUNT);
         when(mToastFactory.makeText(any(), anyInt(), anyInt())).thenReturn(mToast);
         when(mToastFactory.makeText(any(), any(), anyInt())).thenReturn(mToast);
+        // Spy calls stub getters such as getState() which the incremental call counts can't
+        // observe, so fall back to walking the calls where they disagree.
+        mCallsManager.setCallCountVerificationEnabled(true);
     }
 
     @Override
@@ -1431,6 +1436,45 @@ public class CallsManagerTest extends TelecomTestCase {
                 eq(CallState.ACTIVE));
     }
 
+    @SmallTest
+    @Test
+    public void testGetNumCallsWithStateTracksCallChanges() {
+        Call incomingCall = createCall(SIM_1_HANDLE, CallState.RINGING);
+        mCallsManager.addCall(incomingCall);
+        Call ongoingCall = createCall(SIM_2_HANDLE, CallState.ACTIVE);
+        mCallsManager.addCall(ongoingCall);
+        assertEquals(1, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.ACTIVE));
+        assertEquals(1, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, SIM_1_HANDLE, CallState.RINGING, CallState.ACTIVE));
+
+        incomingCall.setState(CallState.ACTIVE, "answered");
+        assertEquals(2, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.ACTIVE));
+        assertEquals(1, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                ongoingCall, null /* phoneAccountHandle */, CallState.ACTIVE));
+        assertEquals(0, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.RINGING));
+
+        ongoingCall.setTargetPhoneAccount(SIM_1_HANDLE);
+        assertEquals(2, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, SIM_1_HANDLE, CallState.ACTIVE));
+        assertEquals(0, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, SIM_2_HANDLE, CallState.ACTIVE));
+
+        ongoingCall.setIsSelfManaged(true);
+        assertEquals(1, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.ACTIVE));
+        assertEquals(1, mCallsManager.getNumCallsWithState(true /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.ACTIVE));
+
+        mCallsManager.removeCall(incomingCall);
+        assertEquals(0, mCallsManager.getNumCallsWithState(false /* isSelfManaged */,
+                null /* excludeCall */, null /* phoneAccountHandle */, CallState.ACTIVE));
+
+        assertEquals(0, mCallsManager.getCallCountMismatches());
+    }
+
     private Call addSpyCall() {
         return addSpyCall(SIM_2_HANDLE, CallState.ACTIVE);
     }
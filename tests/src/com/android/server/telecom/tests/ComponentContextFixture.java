@@ -306,6 +306,10 @@ public class ComponentContextFixture implements TestFixture<Context> {
             return null;
         }
 
+        @Override
+        public void unregisterReceiver(BroadcastReceiver receiver) {
+        }
+
         @Override
         public void sendBroadcast(Intent intent) {
             // TODO -- need to ensure this is captured
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.UserHandle;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telecom.IConnectionService;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ConnectionServiceRepository;
+import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.TelecomSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConnectionServiceRepositoryTest extends TelecomTestCase {
+    private static final ComponentName COMPONENT_NAME = new ComponentName(
+            "com.android.server.telecom.tests", "com.android.server.telecom.tests.MockService");
+    private static final PhoneAccountHandle PHONE_ACCOUNT_HANDLE = new PhoneAccountHandle(
+            COMPONENT_NAME, "id", Process.myUserHandle());
+    private static final long TEST_TIMEOUT = 5000L;
+    private static final long LONG_TIMEOUT = 60000L;
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    private Context mApplicationContext;
+    private ConnectionServiceRepository mRepository;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mApplicationContext = mComponentContextFixture.getTestDouble().getApplicationContext();
+        IConnectionService service = mock(IConnectionService.class);
+        IBinder binder = mock(IBinder.class);
+        when(binder.queryLocalInterface(anyString())).thenReturn(service);
+        when(service.asBinder()).thenReturn(binder);
+        mComponentContextFixture.addConnectionService(COMPONENT_NAME, service);
+        mRepository = new ConnectionServiceRepository(mock(PhoneAccountRegistrar.class),
+                mApplicationContext, mLock, mock(CallsManager.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testPrebindBindsUntilReleased() {
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, LONG_TIMEOUT);
+        verify(mApplicationContext).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+        verify(mApplicationContext, never()).unbindService(any(ServiceConnection.class));
+
+        mRepository.releasePrebind(PHONE_ACCOUNT_HANDLE);
+        verify(mApplicationContext).unbindService(any(ServiceConnection.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testPrebindDisabled() {
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, 0);
+        verify(mApplicationContext, never()).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testRepeatedPrebindBindsOnce() {
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, LONG_TIMEOUT);
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, LONG_TIMEOUT);
+        verify(mApplicationContext, times(1)).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+
+        // A single release drops the binding.
+        mRepository.releasePrebind(PHONE_ACCOUNT_HANDLE);
+        verify(mApplicationContext, times(1)).unbindService(any(ServiceConnection.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testPrebindExpires() {
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, 1);
+        verify(mApplicationContext, timeout(TEST_TIMEOUT)).unbindService(
+                any(ServiceConnection.class));
+
+        // Already released, so this must not unbind again.
+        mRepository.releasePrebind(PHONE_ACCOUNT_HANDLE);
+        verify(mApplicationContext, times(1)).unbindService(any(ServiceConnection.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testPrebindConsumedByCreateConnection() throws Exception {
+        mRepository.prebind(PHONE_ACCOUNT_HANDLE, 100);
+        mRepository.onCreateConnection(mRepository.getService(COMPONENT_NAME,
+                Process.myUserHandle()));
+        // No call holds the service here, so handing over the pre-bind unbinds it.
+        verify(mApplicationContext, times(1)).unbindService(any(ServiceConnection.class));
+
+        // Neither a release nor the expiry of the consumed pre-bind may release it again.
+        mRepository.releasePrebind(PHONE_ACCOUNT_HANDLE);
+        Thread.sleep(200);
+        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        verify(mApplicationContext, times(1)).unbindService(any(ServiceConnection.class));
+    }
+}
@@ -27,6 +27,7 @@ import android.telecom.PhoneAccountHandle;
 import android.telephony.SubscriptionManager;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.server.telecom.Analytics;
 import com.android.server.telecom.Call;
 import com.android.server.telecom.CallIdMapper;
 import com.android.server.telecom.ConnectionServiceFocusManager;
@@ -51,6 +52,8 @@ import java.util.HashMap;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -58,6 +61,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -81,6 +85,8 @@ public class CreateConnectionProcessorTest extends TelecomTestCase {
     Call mMockCall;
     @Mock
     ConnectionServiceFocusManager mConnectionServiceFocusManager;
+    @Mock
+    Analytics.CallInfo mMockCallInfo;
 
     CreateConnectionProcessor mTestCreateConnectionProcessor;
 
@@ -97,6 +103,7 @@ public class CreateConnectionProcessorTest extends TelecomTestCase {
 
         when(mMockCall.getConnectionServiceFocusManager()).thenReturn(
                 mConnectionServiceFocusManager);
+        when(mMockCall.getAnalytics()).thenReturn(mMockCallInfo);
         doAnswer(new Answer<Void>() {
                      @Override
                      public Void answer(InvocationOnMock invocation) {
@@ -577,6 +584,7 @@ public class CreateConnectionProcessorTest extends TelecomTestCase {
 
         when(mMockCall.getConnectionServiceFocusManager()).thenReturn(
                 mConnectionServiceFocusManager);
+        when(mMockCall.getAnalytics()).thenReturn(mMockCallInfo);
         when(mMockCall.isEmergencyCall()).thenReturn(true);
 
         // When Notify SIM connection fails, fall back to connection manager
@@ -590,6 +598,136 @@ public class CreateConnectionProcessorTest extends TelecomTestCase {
         verify(service).createConnection(eq(mMockCall), any(CreateConnectionResponse.class));
     }
 
+    @SmallTest
+    @Test
+    public void testEmergencyCallPreparesFallbackAccounts() throws Exception {
+        when(mMockCall.isEmergencyCall()).thenReturn(true);
+        when(mMockCall.isTestEmergencyCall()).thenReturn(false);
+        when(mMockCall.getHandle()).thenReturn(Uri.parse(""));
+        PhoneAccount regularAccount = makePhoneAccount("tel_acct1",
+                PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION);
+        setTargetPhoneAccount(mMockCall, regularAccount.getAccountHandle());
+        phoneAccounts.add(regularAccount);
+        when(mMockAccountRegistrar.getOutgoingPhoneAccountForSchemeOfCurrentUser(
+                nullable(String.class))).thenReturn(regularAccount.getAccountHandle());
+        // The connection manager is provided by a different connection service.
+        ComponentName callManagerComponent = new ComponentName(TEST_PACKAGE, TEST_CLASS + "CM");
+        PhoneAccount emerCallManagerPA = new PhoneAccount.Builder(new PhoneAccountHandle(
+                callManagerComponent, "cm_acct", Binder.getCallingUserHandle()), "label")
+                .setCapabilities(PhoneAccount.CAPABILITY_PLACE_EMERGENCY_CALLS)
+                .setIsEnabled(true)
+                .build();
+        when(mMockAccountRegistrar.getSimCallManagerOfCurrentUser()).thenReturn(
+                emerCallManagerPA.getAccountHandle());
+        givePhoneAccountBindPermission(emerCallManagerPA.getAccountHandle());
+        when(mMockAccountRegistrar.getPhoneAccountUnchecked(
+                emerCallManagerPA.getAccountHandle())).thenReturn(emerCallManagerPA);
+        ConnectionServiceWrapper service = makeConnectionServiceWrapper();
+        ConnectionServiceWrapper callManagerService = mock(ConnectionServiceWrapper.class);
+        when(mMockConnectionServiceRepository.getService(eq(callManagerComponent),
+                eq(Binder.getCallingUserHandle()))).thenReturn(callManagerService);
+        PhoneAccount emergencyPhoneAccount = makeEmergencyPhoneAccount("tel_emer", 0);
+        phoneAccounts.add(emergencyPhoneAccount);
+        mTestCreateConnectionProcessor.setPrepareFallbackTimeoutMillis(1000L);
+
+        mTestCreateConnectionProcessor.process();
+
+        // The SIM account is attempted while the connection manager is bound in parallel.
+        verify(mMockCall).setConnectionManagerPhoneAccount(
+                eq(emergencyPhoneAccount.getAccountHandle()));
+        verify(mMockConnectionServiceRepository).prebind(
+                eq(emerCallManagerPA.getAccountHandle()), eq(1000L));
+        verify(mMockConnectionServiceRepository, never()).prebind(
+                eq(emergencyPhoneAccount.getAccountHandle()), anyLong());
+
+        mTestCreateConnectionProcessor.handleCreateConnectionFailure(new DisconnectCause(
+                DisconnectCause.REJECTED));
+        verify(mMockCallInfo).addConnectionAttempt(anyString(), anyLong(),
+                eq(false) /* isPrepared */, eq(false) /* isSuccessful */);
+        verify(mMockCall).setConnectionManagerPhoneAccount(
+                eq(emerCallManagerPA.getAccountHandle()));
+        verify(service).createConnection(eq(mMockCall), any(CreateConnectionResponse.class));
+        verify(callManagerService).createConnection(eq(mMockCall),
+                any(CreateConnectionResponse.class));
+
+        CallIdMapper mockCallIdMapper = mock(CallIdMapper.class);
+        mTestCreateConnectionProcessor.handleCreateConnectionSuccess(mockCallIdMapper, null);
+        verify(mMockCallInfo).addConnectionAttempt(anyString(), anyLong(),
+                eq(true) /* isPrepared */, eq(true) /* isSuccessful */);
+        verify(mMockConnectionServiceRepository).releasePrebind(
+                eq(emerCallManagerPA.getAccountHandle()));
+        verify(mMockCreateConnectionResponse).handleCreateConnectionSuccess(mockCallIdMapper, null);
+    }
+
+    @SmallTest
+    @Test
+    public void testEmergencyCallDoesNotPrepareServiceOfFirstAttempt() throws Exception {
+        when(mMockCall.isEmergencyCall()).thenReturn(true);
+        when(mMockCall.isTestEmergencyCall()).thenReturn(false);
+        when(mMockCall.getHandle()).thenReturn(Uri.parse(""));
+        PhoneAccount regularAccount = makePhoneAccount("tel_acct1",
+                PhoneAccount.CAPABILITY_SIM_SUBSCRIPTION);
+        setTargetPhoneAccount(mMockCall, regularAccount.getAccountHandle());
+        phoneAccounts.add(regularAccount);
+        when(mMockAccountRegistrar.getOutgoingPhoneAccountForSchemeOfCurrentUser(
+                nullable(String.class))).thenReturn(regularAccount.getAccountHandle());
+        // The connection manager shares the connection service of the SIM account.
+        PhoneAccount emerCallManagerPA = getNewEmergencyConnectionManagerPhoneAccount("cm_acct",
+                PhoneAccount.CAPABILITY_PLACE_EMERGENCY_CALLS);
+        ConnectionServiceWrapper service = makeConnectionServiceWrapper();
+        PhoneAccount emergencyPhoneAccount = makeEmergencyPhoneAccount("tel_emer", 0);
+        phoneAccounts.add(emergencyPhoneAccount);
+        mTestCreateConnectionProcessor.setPrepareFallbackTimeoutMillis(1000L);
+
+        mTestCreateConnectionProcessor.process();
+
+        // The first attempt already binds the service, and a pre-bind of it would be handed over
+        // to that attempt rather than kept for the fallback.
+        verify(mMockConnectionServiceRepository, never()).prebind(
+                any(PhoneAccountHandle.class), anyLong());
+
+        mTestCreateConnectionProcessor.handleCreateConnectionFailure(new DisconnectCause(
+                DisconnectCause.REJECTED));
+        verify(mMockCall).setConnectionManagerPhoneAccount(
+                eq(emerCallManagerPA.getAccountHandle()));
+        verify(service, times(2)).createConnection(eq(mMockCall),
+                any(CreateConnectionResponse.class));
+        verify(mMockConnectionServiceRepository, never()).releasePrebind(
+                any(PhoneAccountHandle.class));
+    }
+
+    @SmallTest
+    @Test
+    public void testEmergencyCallMultiSimDoesNotPrepareSameService() throws Exception {
+        when(mMockCall.isEmergencyCall()).thenReturn(true);
+        when(mMockCall.isTestEmergencyCall()).thenReturn(false);
+        ConnectionServiceWrapper service = makeConnectionServiceWrapper();
+        // Both SIMs are served by the same connection service, as with telephony.
+        PhoneAccount emergencyPhoneAccount1 = makeEmergencyPhoneAccount("tel_emer1", 0);
+        phoneAccounts.add(emergencyPhoneAccount1);
+        mapToSubSlot(emergencyPhoneAccount1, 1 /*subId*/, 1 /*slotId*/);
+        PhoneAccount emergencyPhoneAccount2 = makeEmergencyPhoneAccount("tel_emer2", 0);
+        phoneAccounts.add(emergencyPhoneAccount2);
+        mapToSubSlot(emergencyPhoneAccount2, 2 /*subId*/, 0 /*slotId*/);
+        mTestCreateConnectionProcessor.setPrepareFallbackTimeoutMillis(1000L);
+
+        mTestCreateConnectionProcessor.process();
+
+        // The first attempt binds the service the second SIM fails over to, so there is nothing
+        // left to prepare.
+        verify(mMockConnectionServiceRepository, never()).prebind(
+                any(PhoneAccountHandle.class), anyLong());
+        verify(mMockCall).setTargetPhoneAccount(eq(emergencyPhoneAccount2.getAccountHandle()));
+
+        mTestCreateConnectionProcessor.handleCreateConnectionFailure(new DisconnectCause(
+                DisconnectCause.ERROR));
+        verify(mMockCall).setTargetPhoneAccount(eq(emergencyPhoneAccount1.getAccountHandle()));
+        verify(service, times(2)).createConnection(eq(mMockCall),
+                any(CreateConnectionResponse.class));
+        verify(mMockConnectionServiceRepository, never()).releasePrebind(
+                any(PhoneAccountHandle.class));
+    }
+
     private PhoneAccount makeEmergencyTestPhoneAccount(String id, int capabilities) {
         final PhoneAccount emergencyPhoneAccount = makeQuickAccount(id, capabilities |
                 PhoneAccount.CAPABILITY_PLACE_EMERGENCY_CALLS);
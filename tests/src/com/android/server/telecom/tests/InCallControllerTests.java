@@ -33,6 +33,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -61,6 +62,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.UserHandle;
 import android.telecom.CallAudioState;
+import android.telecom.Connection;
 import android.telecom.InCallService;
 import android.telecom.ParcelableCall;
 import android.telecom.PhoneAccountHandle;
@@ -80,6 +82,7 @@ import com.android.server.telecom.ClockProxy;
 import com.android.server.telecom.DefaultDialerCache;
 import com.android.server.telecom.EmergencyCallHelper;
 import com.android.server.telecom.InCallController;
+import com.android.server.telecom.PermissionDecisionCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.R;
 import com.android.server.telecom.RoleManagerAdapter;
@@ -93,6 +96,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -139,6 +143,7 @@ public class InCallControllerTests extends TelecomTestCase {
     private static final int CAR2_UID = 5;
     private static final String NONUI_PKG = "nonui_pkg";
     private static final String NONUI_CLASS = "nonui_cls";
+    private static final String TEST_CONNECTION_EVENT = "test_event";
     private static final int NONUI_UID = 6;
 
     private static final PhoneAccountHandle PA_HANDLE =
@@ -171,7 +176,8 @@ public class InCallControllerTests extends TelecomTestCase {
                 .thenReturn(mNotificationManager);
         mInCallController = new InCallController(mMockContext, mLock, mMockCallsManager,
                 mMockSystemStateHelper, mDefaultDialerCache, mTimeoutsAdapter,
-                mEmergencyCallHelper, new CarModeTracker(), mClockProxy);
+                mEmergencyCallHelper, new CarModeTracker(), mClockProxy,
+                new PermissionDecisionCache());
         // Companion Apps don't have CONTROL_INCALL_EXPERIENCE permission.
         doAnswer(invocation -> {
             int uid = invocation.getArgument(0);
@@ -827,6 +833,102 @@ public class InCallControllerTests extends TelecomTestCase {
         assertTrue(TextUtils.isEmpty(parcelableCallCaptor.getValue().getContactDisplayName()));
     }
 
+    /**
+     * Ensures that call updates which don't change anything the {@link InCallService} can see
+     * are not sent.
+     */
+    @MediumTest
+    @Test
+    public void testUnchangedUpdatesNotSent() throws Exception {
+        IInCallService mockInCallService = setupConnectedInCallServiceWithCall();
+        Call.Listener listener = getCallListener();
+
+        // Nothing changed since the call was added.
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        verify(mockInCallService, never()).updateCall(any(ParcelableCall.class));
+
+        when(mMockCall.getConnectionCapabilities()).thenReturn(Connection.CAPABILITY_HOLD);
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        ArgumentCaptor<ParcelableCall> parcelableCallCaptor =
+                ArgumentCaptor.forClass(ParcelableCall.class);
+        verify(mockInCallService).updateCall(parcelableCallCaptor.capture());
+        assertTrue((parcelableCallCaptor.getValue().getCapabilities()
+                & android.telecom.Call.Details.CAPABILITY_HOLD) != 0);
+
+        // A repeat of the same change isn't sent again.
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        verify(mockInCallService, times(1)).updateCall(any(ParcelableCall.class));
+    }
+
+    /**
+     * Ensures that when update batching is enabled, successive changes to a call are sent as a
+     * single update while state changes are sent immediately.
+     */
+    @MediumTest
+    @Test
+    public void testUpdatesBatched() throws Exception {
+        when(mTimeoutsAdapter.getInCallUpdateBatchingWindowMillis(
+                nullable(ContentResolver.class))).thenReturn(100L);
+        IInCallService mockInCallService = setupConnectedInCallServiceWithCall();
+        Call.Listener listener = getCallListener();
+
+        when(mMockCall.getConnectionCapabilities()).thenReturn(Connection.CAPABILITY_HOLD);
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        when(mMockCall.getConnectionCapabilities()).thenReturn(
+                Connection.CAPABILITY_HOLD | Connection.CAPABILITY_MUTE);
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        verify(mockInCallService, never()).updateCall(any(ParcelableCall.class));
+
+        waitForHandlerActionDelayed(mInCallController.getHandler(),
+                TelecomSystemTest.TEST_TIMEOUT, 200);
+        ArgumentCaptor<ParcelableCall> parcelableCallCaptor =
+                ArgumentCaptor.forClass(ParcelableCall.class);
+        verify(mockInCallService).updateCall(parcelableCallCaptor.capture());
+        assertTrue((parcelableCallCaptor.getValue().getCapabilities()
+                & android.telecom.Call.Details.CAPABILITY_MUTE) != 0);
+
+        // A pending update is sent ahead of other notifications about the call.
+        when(mMockCall.getConnectionCapabilities()).thenReturn(Connection.CAPABILITY_HOLD);
+        listener.onConnectionCapabilitiesChanged(mMockCall);
+        verify(mockInCallService, times(1)).updateCall(any(ParcelableCall.class));
+        listener.onConnectionEvent(mMockCall, TEST_CONNECTION_EVENT, null);
+        InOrder inOrder = inOrder(mockInCallService);
+        inOrder.verify(mockInCallService, times(2)).updateCall(any(ParcelableCall.class));
+        inOrder.verify(mockInCallService).onConnectionEvent(nullable(String.class),
+                eq(TEST_CONNECTION_EVENT), nullable(Bundle.class));
+    }
+
+    private IInCallService setupConnectedInCallServiceWithCall() throws Exception {
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, true /* external calls */);
+        mInCallController.bindToServices(mMockCall);
+
+        ArgumentCaptor<ServiceConnection> serviceConnectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mMockContext, times(1)).bindServiceAsUser(
+                any(Intent.class),
+                serviceConnectionCaptor.capture(),
+                eq(Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE
+                        | Context.BIND_ALLOW_BACKGROUND_ACTIVITY_STARTS),
+                eq(UserHandle.CURRENT));
+
+        IInCallService.Stub mockInCallServiceStub = mock(IInCallService.Stub.class);
+        IInCallService mockInCallService = mock(IInCallService.class);
+        when(mockInCallServiceStub.queryLocalInterface(anyString())).thenReturn(mockInCallService);
+        serviceConnectionCaptor.getValue().onServiceConnected(new ComponentName(DEF_PKG, DEF_CLASS),
+                mockInCallServiceStub);
+
+        mInCallController.onCallAdded(mMockCall);
+        verify(mockInCallService).addCall(any(ParcelableCall.class));
+        return mockInCallService;
+    }
+
+    private Call.Listener getCallListener() {
+        ArgumentCaptor<Call.Listener> listenerCaptor = ArgumentCaptor.forClass(Call.Listener.class);
+        verify(mMockCall).addListener(listenerCaptor.capture());
+        return listenerCaptor.getValue();
+    }
+
     /**
      * Ensures that the {@link InCallController} will bind to a higher priority car mode service
      * when one becomes available.
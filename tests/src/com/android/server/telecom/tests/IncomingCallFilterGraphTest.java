@@ -27,6 +27,7 @@ import com.android.server.telecom.TelecomSystem;
 import com.android.server.telecom.Timeouts;
 import com.android.server.telecom.callfiltering.CallFilter;
 import com.android.server.telecom.callfiltering.CallFilterResultCallback;
+import com.android.server.telecom.callfiltering.CallFilteringExecutor;
 import com.android.server.telecom.callfiltering.CallFilteringResult;
 import com.android.server.telecom.callfiltering.IncomingCallFilterGraph;
 
@@ -42,6 +43,7 @@ import org.junit.Test;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
@@ -66,6 +68,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
     private final long FILTER_TIMEOUT = 5000;
     private final long TEST_TIMEOUT = 7000;
     private final long TIMEOUT_FILTER_SLEEP_TIME = 10000;
+    private final CallFilteringExecutor mCallFilteringExecutor = new CallFilteringExecutor();
 
     private class AllowFilter extends CallFilter {
         @Override
@@ -98,6 +101,28 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         }
     }
 
+    /**
+     * Blocks the thread it is started on until released, as a slow content provider query would.
+     */
+    private class BlockingFilter extends CallFilter {
+        private final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+
+        @Override
+        public CompletionStage<CallFilteringResult> startFilterLookup(
+                CallFilteringResult priorStageResult) {
+            try {
+                mReleaseLatch.await();
+            } catch (InterruptedException e) {
+                // Fall through and complete.
+            }
+            return CompletableFuture.completedFuture(REJECT_CALL_RESULT);
+        }
+
+        void release() {
+            mReleaseLatch.countDown();
+        }
+    }
+
     @Before
     @Override
     public void setUp() throws Exception {
@@ -115,7 +140,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         graph.performFiltering();
 
         assertEquals(PASS_CALL_RESULT, testResult.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
@@ -128,7 +153,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         AllowFilter allowFilter = new AllowFilter();
         DisallowFilter disallowFilter = new DisallowFilter();
         graph.addFilter(allowFilter);
@@ -146,7 +171,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         AllowFilter allowFilter1 = new AllowFilter();
         AllowFilter allowFilter2 = new AllowFilter();
         DisallowFilter disallowFilter = new DisallowFilter();
@@ -165,7 +190,7 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
         CallFilterResultCallback listener = (call, result) -> testResult.complete(result);
 
         IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
-                mTimeoutsAdapter, mLock);
+                mTimeoutsAdapter, mLock, mCallFilteringExecutor);
         DisallowFilter disallowFilter = new DisallowFilter();
         TimeoutFilter timeoutFilter = new TimeoutFilter();
         graph.addFilter(disallowFilter);
@@ -175,4 +200,24 @@ public class IncomingCallFilterGraphTest extends TelecomTestCase {
 
         assertEquals(REJECT_CALL_RESULT, testResult.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
     }
+
+    @SmallTest
+    @Test
+    public void testTimeoutWhenPoolBlocked() throws Exception {
+        CompletableFuture<CallFilteringResult> testResult = new CompletableFuture<>();
+        CallFilterResultCallback listener = (call, result) -> testResult.complete(result);
+
+        // A single thread, which the filter blocks, must not prevent the timeout firing.
+        IncomingCallFilterGraph graph = new IncomingCallFilterGraph(mCall, listener, mContext,
+                mTimeoutsAdapter, mLock, new CallFilteringExecutor(1));
+        BlockingFilter blockingFilter = new BlockingFilter();
+        graph.addFilter(blockingFilter);
+        try {
+            graph.performFiltering();
+
+            assertEquals(PASS_CALL_RESULT, testResult.get(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        } finally {
+            blockingFilter.release();
+        }
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.ListenerLatencyStats;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ListenerLatencyStatsTest extends TelecomTestCase {
+    private static class FirstListener { }
+    private static class SecondListener { }
+
+    private ListenerLatencyStats mStats;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mStats = new ListenerLatencyStats();
+    }
+
+    @SmallTest
+    @Test
+    public void testRecordedPerListenerAndCallback() {
+        FirstListener first = new FirstListener();
+        mStats.record(first, ListenerLatencyStats.ON_CALL_ADDED, 1000L);
+        mStats.record(first, ListenerLatencyStats.ON_CALL_ADDED, 2000L);
+        mStats.record(first, ListenerLatencyStats.ON_CALL_REMOVED, 1000L);
+        mStats.record(new SecondListener(), ListenerLatencyStats.ON_CALL_ADDED, 1000L);
+
+        assertEquals(2, mStats.getCount(FirstListener.class, ListenerLatencyStats.ON_CALL_ADDED));
+        assertEquals(1, mStats.getCount(FirstListener.class,
+                ListenerLatencyStats.ON_CALL_REMOVED));
+        assertEquals(1, mStats.getCount(SecondListener.class,
+                ListenerLatencyStats.ON_CALL_ADDED));
+        assertEquals(0, mStats.getCount(SecondListener.class,
+                ListenerLatencyStats.ON_CALL_STATE_CHANGED));
+    }
+
+    @SmallTest
+    @Test
+    public void testPercentiles() {
+        FirstListener listener = new FirstListener();
+        // 99 fast callbacks (1us) and one slow one (1s).
+        for (int i = 0; i < 99; i++) {
+            mStats.record(listener, ListenerLatencyStats.ON_CALL_STATE_CHANGED, 1000L);
+        }
+        mStats.record(listener, ListenerLatencyStats.ON_CALL_STATE_CHANGED, 1000000000L);
+
+        assertEquals(1, mStats.getPercentileMicros(FirstListener.class,
+                ListenerLatencyStats.ON_CALL_STATE_CHANGED, 50));
+        assertEquals(1, mStats.getPercentileMicros(FirstListener.class,
+                ListenerLatencyStats.ON_CALL_STATE_CHANGED, 99));
+        long p100 = mStats.getPercentileMicros(FirstListener.class,
+                ListenerLatencyStats.ON_CALL_STATE_CHANGED, 100);
+        assertTrue(p100 >= 1000000L && p100 < 2000000L);
+        assertEquals(-1, mStats.getPercentileMicros(SecondListener.class,
+                ListenerLatencyStats.ON_CALL_STATE_CHANGED, 50));
+    }
+
+    @SmallTest
+    @Test
+    public void testToProto() {
+        mStats.record(new FirstListener(), ListenerLatencyStats.ON_CAN_ADD_CALL_CHANGED, 3000L);
+
+        TelecomLogClass.ListenerLatency[] protos = mStats.toProto();
+        assertEquals(1, protos.length);
+        assertEquals(FirstListener.class.getName(), protos[0].getListenerName());
+        assertEquals(TelecomLogClass.ListenerLatency.ON_CAN_ADD_CALL_CHANGED,
+                protos[0].getCallback());
+        assertEquals(1, protos[0].getCount());
+        assertEquals(3, protos[0].getMaxMicros());
+        assertEquals(ListenerLatencyStats.NUM_BUCKETS, protos[0].bucketCounts.length);
+        // 3us has a bit length of 2.
+        assertEquals(1, protos[0].bucketCounts[2]);
+
+        mStats.clear();
+        assertEquals(0, mStats.toProto().length);
+    }
+}
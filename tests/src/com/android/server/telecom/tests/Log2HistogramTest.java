@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Log2Histogram;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class Log2HistogramTest extends TelecomTestCase {
+    @SmallTest
+    @Test
+    public void testBucketsByBitLength() {
+        Log2Histogram histogram = new Log2Histogram(8);
+        histogram.add(0);
+        histogram.add(1);
+        histogram.add(3);
+        histogram.add(4);
+        histogram.add(-5);
+        histogram.add(1000);
+
+        int[] buckets = histogram.getBucketCounts();
+        assertEquals(8, buckets.length);
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(1, buckets[2]);
+        assertEquals(1, buckets[3]);
+        // 1000 has a bit length of 10, so goes in the last bucket.
+        assertEquals(1, buckets[7]);
+        assertEquals(6, histogram.getCount());
+        assertEquals(1008, histogram.getTotal());
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @SmallTest
+    @Test
+    public void testPercentiles() {
+        Log2Histogram histogram = new Log2Histogram(8);
+        assertEquals(-1, histogram.getPercentile(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.add(5);
+        }
+        histogram.add(1000);
+
+        assertEquals(0, histogram.getBucketCounts()[0]);
+        assertEquals(7, histogram.getPercentile(0));
+        assertEquals(7, histogram.getPercentile(99));
+        // The last bucket has no upper bound, so is estimated by the maximum.
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @SmallTest
+    @Test
+    public void testRemove() {
+        Log2Histogram histogram = new Log2Histogram(8);
+        histogram.add(2);
+        histogram.add(40);
+        histogram.remove(40);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(2, histogram.getTotal());
+        assertEquals(3, histogram.getPercentile(100));
+        assertEquals(0, histogram.getBucketCounts()[6]);
+    }
+}
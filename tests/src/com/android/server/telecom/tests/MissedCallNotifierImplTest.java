@@ -556,22 +556,16 @@ public class MissedCallNotifierImplTest extends TelecomTestCase {
 
         Uri escapedTelHandle = Uri.fromParts(PhoneAccount.SCHEME_TEL,
                 TEL_CALL_HANDLE.getSchemeSpecificPart(), null);
-        Uri escapedSipHandle = Uri.fromParts(PhoneAccount.SCHEME_SIP,
-                SIP_CALL_HANDLE.getSchemeSpecificPart(), null);
 
-        ArgumentCaptor<CallerInfoLookupHelper.OnQueryCompleteListener> listenerCaptor =
-                ArgumentCaptor.forClass(CallerInfoLookupHelper.OnQueryCompleteListener.class);
-        verify(mockCallerInfoLookupHelper, timeout(TEST_TIMEOUT)).startLookup(eq(escapedTelHandle),
-                listenerCaptor.capture());
-        verify(mockCallerInfoLookupHelper, timeout(TEST_TIMEOUT)).startLookup(eq(escapedSipHandle),
-                listenerCaptor.capture());
-
-        CallerInfo ci = new CallerInfo();
-        listenerCaptor.getAllValues().get(0).onCallerInfoQueryComplete(escapedTelHandle, ci);
-        listenerCaptor.getAllValues().get(1).onCallerInfoQueryComplete(escapedSipHandle, ci);
-
-        // Verify that two notifications were generated, both with the same id.
-        verify(mNotificationManager, times(2)).notifyAsUser(nullable(String.class), eq(1),
+        // A notification for more than one missed call doesn't show the callers, so a single
+        // summary notification is posted for the most recent call without any lookups.
+        verify(mNotificationManager, timeout(TEST_TIMEOUT)).notifyAsUser(nullable(String.class),
+                eq(1), nullable(Notification.class), eq(PRIMARY_USER));
+        verify(mockCallInfoFactory).makeCallInfo(isNull(CallerInfo.class),
+                isNull(PhoneAccountHandle.class), eq(escapedTelHandle), eq(CALL_TIMESTAMP));
+        verify(mockCallerInfoLookupHelper, never()).startLookup(any(Uri.class),
+                any(CallerInfoLookupHelper.OnQueryCompleteListener.class));
+        verify(mNotificationManager, times(1)).notifyAsUser(nullable(String.class), eq(1),
                 nullable(Notification.class), eq(PRIMARY_USER));
     }
 
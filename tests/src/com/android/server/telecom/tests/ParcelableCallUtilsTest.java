@@ -4,6 +4,8 @@ import static com.android.server.telecom.TelecomSystem.*;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -37,6 +39,8 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Random;
+
 @RunWith(JUnit4.class)
 public class ParcelableCallUtilsTest extends TelecomTestCase {
 
@@ -167,6 +171,80 @@ public class ParcelableCallUtilsTest extends TelecomTestCase {
         checkVerStatParcelingForDialer(Connection.VERIFICATION_STATUS_FAILED, true);
     }
 
+    @SmallTest
+    @Test
+    public void testSanitizedExtrasReusedUntilExtrasChange() {
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, getSomeExtras());
+        Bundle first = toParcelableCallForNonSystemDialer().getExtras();
+        Bundle second = toParcelableCallForNonSystemDialer().getExtras();
+        assertSame(first, second);
+
+        Bundle newExtras = new Bundle();
+        newExtras.putString(Connection.EXTRA_CALL_SUBJECT, "Other");
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, newExtras);
+        Bundle third = toParcelableCallForNonSystemDialer().getExtras();
+        assertNotSame(first, third);
+        assertEquals("Other", third.getString(Connection.EXTRA_CALL_SUBJECT));
+        // The earlier result is left as it was.
+        assertEquals("Blah", first.getString(Connection.EXTRA_CALL_SUBJECT));
+    }
+
+    @SmallTest
+    @Test
+    public void testChangedFieldsComparesExtrasByVersion() {
+        mCall.putExtras(Call.SOURCE_CONNECTION_SERVICE, getSomeExtras());
+        ParcelableCall previous = toParcelableCallForNonSystemDialer();
+        ParcelableCall current = toParcelableCallForNonSystemDialer();
+
+        assertEquals(0, ParcelableCallUtils.getChangedFields(previous, 1, current, 1));
+        assertEquals(ParcelableCallUtils.FIELD_EXTRAS,
+                ParcelableCallUtils.getChangedFields(previous, 1, current, 2));
+    }
+
+    @SmallTest
+    @Test
+    public void testCapabilityAndPropertyTranslation() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            int bits = random.nextInt();
+            assertEquals(ParcelableCallUtils.CAPABILITY_TRANSLATOR.translateByScan(bits),
+                    ParcelableCallUtils.CAPABILITY_TRANSLATOR.translate(bits));
+            assertEquals(ParcelableCallUtils.PROPERTY_TRANSLATOR.translateByScan(bits),
+                    ParcelableCallUtils.PROPERTY_TRANSLATOR.translate(bits));
+        }
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            assertEquals(ParcelableCallUtils.CAPABILITY_TRANSLATOR.translateByScan(1 << bit),
+                    ParcelableCallUtils.CAPABILITY_TRANSLATOR.translate(1 << bit));
+        }
+        // Both halves of a bidirectional capability are needed for it to be translated.
+        int bidirectional = ParcelableCallUtils.CAPABILITY_TRANSLATOR.translate(
+                Connection.CAPABILITY_SUPPORTS_VT_LOCAL_BIDIRECTIONAL);
+        assertTrue((bidirectional
+                & android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_LOCAL_BIDIRECTIONAL) != 0);
+        int rxOnly = ParcelableCallUtils.CAPABILITY_TRANSLATOR.translate(
+                Connection.CAPABILITY_SUPPORTS_VT_LOCAL_RX);
+        assertEquals(android.telecom.Call.Details.CAPABILITY_SUPPORTS_VT_LOCAL_RX, rxOnly);
+    }
+
+    @SmallTest
+    @Test
+    public void testSpanningMappingTranslation() {
+        ParcelableCallUtils.BitTranslator translator = new ParcelableCallUtils.BitTranslator(
+                new int[] {0x80 | 0x100, 0x1, 0x2, 0x2});
+        assertEquals(0x1, translator.translate(0x180));
+        assertEquals(0, translator.translate(0x100));
+        assertEquals(0x3, translator.translate(0x182));
+    }
+
+    private ParcelableCall toParcelableCallForNonSystemDialer() {
+        return ParcelableCallUtils.toParcelableCall(mCall,
+                false /* includevideoProvider */,
+                null /* phoneAccountRegistrar */,
+                false /* supportsExternalCalls */,
+                false /* includeRttCall */,
+                false /* isForSystemDialer */);
+    }
+
     private void checkVerStatParcelingForCallScreening(int connectionVerificationStatus,
             boolean isForSystemDialer) {
         mCall.setCallerNumberVerificationStatus(connectionVerificationStatus);
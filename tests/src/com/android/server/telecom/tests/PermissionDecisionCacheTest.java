@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.DefaultDialerCache;
+import com.android.server.telecom.PermissionDecisionCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+@RunWith(JUnit4.class)
+public class PermissionDecisionCacheTest extends TelecomTestCase {
+    private static final int UID = 10001;
+    private static final String PACKAGE = "com.example.dialer";
+    private static final String PERMISSION = "android.permission.READ_PHONE_STATE";
+
+    @Mock private DefaultDialerCache mDefaultDialerCache;
+    @Mock private AppOpsManager mAppOpsManager;
+
+    private Context mContext;
+    private PermissionDecisionCache mCache;
+    private IntConsumer mRoleObserver;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mContext = mComponentContextFixture.getTestDouble().getApplicationContext();
+        mCache = new PermissionDecisionCache(mContext, mDefaultDialerCache);
+        ArgumentCaptor<IntConsumer> observerCaptor = ArgumentCaptor.forClass(IntConsumer.class);
+        verify(mDefaultDialerCache).observeDefaultDialerApplication(any(Executor.class),
+                observerCaptor.capture());
+        mRoleObserver = observerCaptor.getValue();
+    }
+
+    @SmallTest
+    @Test
+    public void testDecisionCached() {
+        AtomicInteger decisions = new AtomicInteger();
+        assertTrue(mCache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0));
+        assertTrue(mCache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0));
+        assertEquals(1, decisions.get());
+
+        // A different UID gets its own decision.
+        assertFalse(mCache.get(UID + 1, PACKAGE, PERMISSION, () -> false));
+        assertEquals(2, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testDefaultDialerDecisionKeyedOnUser() {
+        when(mDefaultDialerCache.isDefaultOrSystemDialer(PACKAGE, 0)).thenReturn(true);
+        when(mDefaultDialerCache.isDefaultOrSystemDialer(PACKAGE, 10)).thenReturn(false);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(mCache.isDefaultOrSystemDialer(mDefaultDialerCache, PACKAGE, 0));
+            assertFalse(mCache.isDefaultOrSystemDialer(mDefaultDialerCache, PACKAGE, 10));
+        }
+        verify(mDefaultDialerCache, times(1)).isDefaultOrSystemDialer(PACKAGE, 0);
+        verify(mDefaultDialerCache, times(1)).isDefaultOrSystemDialer(PACKAGE, 10);
+
+        // A UID decision doesn't collide with the decision for a user of the same number.
+        assertFalse(mCache.get(0, PACKAGE, "defaultOrSystemDialer", () -> false));
+        assertTrue(mCache.isDefaultOrSystemDialer(mDefaultDialerCache, PACKAGE, 0));
+        assertEquals(3, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testMissingCallScreeningServiceCached() {
+        PackageManager packageManager = mContext.getPackageManager();
+        when(packageManager.queryIntentServicesAsUser(any(Intent.class), anyInt(), anyInt()))
+                .thenReturn(Collections.emptyList());
+        assertNull(mCache.getCallScreeningService(mContext, PACKAGE, UserHandle.of(0)));
+        assertNull(mCache.getCallScreeningService(mContext, PACKAGE, UserHandle.of(0)));
+        verify(packageManager, times(1)).queryIntentServicesAsUser(any(Intent.class), anyInt(),
+                anyInt());
+    }
+
+    @SmallTest
+    @Test
+    public void testRoleChangeInvalidates() {
+        AtomicInteger decisions = new AtomicInteger();
+        mCache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0);
+        mRoleObserver.accept(0 /* userId */);
+        assertEquals(0, mCache.size());
+
+        mCache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0);
+        assertEquals(2, decisions.get());
+    }
+
+    @SmallTest
+    @Test
+    public void testPermissionChangeInvalidates() {
+        ArgumentCaptor<PackageManager.OnPermissionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(PackageManager.OnPermissionsChangedListener.class);
+        verify(mComponentContextFixture.getTestDouble().getApplicationContext()
+                .getPackageManager()).addOnPermissionsChangeListener(listenerCaptor.capture());
+        mCache.get(UID, PACKAGE, PERMISSION, () -> true);
+
+        listenerCaptor.getValue().onPermissionsChanged(UID);
+        assertEquals(0, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testDecisionStartedBeforeInvalidationNotCached() {
+        mCache.get(UID, PACKAGE, PERMISSION, () -> {
+            mCache.invalidate();
+            return true;
+        });
+        assertEquals(0, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testFailedCheckPackageNotCached() {
+        doThrow(new SecurityException()).when(mAppOpsManager).checkPackage(UID, PACKAGE);
+        for (int i = 0; i < 2; i++) {
+            try {
+                mCache.checkPackage(mAppOpsManager, UID, PACKAGE);
+                fail("Expected SecurityException");
+            } catch (SecurityException e) {
+                // Expected.
+            }
+        }
+        verify(mAppOpsManager, times(2)).checkPackage(UID, PACKAGE);
+        assertEquals(0, mCache.size());
+    }
+
+    @SmallTest
+    @Test
+    public void testDisabledCacheAlwaysDecides() {
+        PermissionDecisionCache cache = new PermissionDecisionCache();
+        AtomicInteger decisions = new AtomicInteger();
+        cache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0);
+        cache.get(UID, PACKAGE, PERMISSION, () -> decisions.incrementAndGet() > 0);
+        assertEquals(2, decisions.get());
+        assertEquals(0, cache.size());
+    }
+}
@@ -53,6 +53,7 @@ import com.android.server.telecom.AppLabelProxy;
 import com.android.server.telecom.DefaultDialerCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.PhoneAccountRegistrar.DefaultPhoneAccountHandle;
+import com.android.server.telecom.PhoneAccountStateSerializer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -70,11 +71,15 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(JUnit4.class)
 public class PhoneAccountRegistrarTest extends TelecomTestCase {
@@ -93,10 +98,7 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         super.setUp();
         MockitoAnnotations.initMocks(this);
         mComponentContextFixture.setTelecomManager(mTelecomManager);
-        new File(
-                mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
-                FILE_NAME)
-                .delete();
+        deleteStateFiles();
         when(mDefaultDialerCache.getDefaultDialerApplication(anyInt()))
                 .thenReturn("com.android.dialer");
         when(mAppLabelProxy.getAppLabel(anyString()))
@@ -109,14 +111,34 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
     @Override
     @After
     public void tearDown() throws Exception {
+        mRegistrar.cleanup();
         mRegistrar = null;
-        new File(
-                mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
-                FILE_NAME)
-                .delete();
+        deleteStateFiles();
         super.tearDown();
     }
 
+    private File getStateFile(String fileName) {
+        return new File(
+                mComponentContextFixture.getTestDouble().getApplicationContext().getFilesDir(),
+                fileName);
+    }
+
+    /**
+     * Maps the current user to a valid serial number, so that accounts survive being written out
+     * and read back by a new registrar.
+     */
+    private void setupUserSerialNumber() {
+        when(UserManager.get(mContext).getSerialNumberForUser(Process.myUserHandle()))
+                .thenReturn(0L);
+        when(UserManager.get(mContext).getUserForSerialNumber(0L))
+                .thenReturn(Process.myUserHandle());
+    }
+
+    private void deleteStateFiles() {
+        getStateFile(FILE_NAME).delete();
+        getStateFile(PhoneAccountRegistrar.getBinaryFileName(FILE_NAME)).delete();
+    }
+
     @MediumTest
     @Test
     public void testPhoneAccountHandle() throws Exception {
@@ -276,6 +298,72 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         assertStateEquals(input, result);
     }
 
+    @MediumTest
+    @Test
+    public void testStateBinary() throws Exception {
+        PhoneAccountRegistrar.State input = makeQuickState();
+        byte[] data = PhoneAccountStateSerializer.toBytes(input, mContext);
+        PhoneAccountRegistrar.State result = PhoneAccountStateSerializer.fromBytes(data,
+                mContext);
+        assertStateEquals(input, result);
+    }
+
+    @MediumTest
+    @Test
+    public void testStateBinaryBitmapIcon() throws Exception {
+        PhoneAccountRegistrar.State input = makeQuickState();
+        input.accounts.add(makeQuickAccountBuilder("id3", 3)
+                .setIcon(Icon.createWithBitmap(BitmapFactory.decodeResource(
+                        InstrumentationRegistry.getContext().getResources(),
+                        R.drawable.stat_sys_phone_call)))
+                .build());
+        byte[] data = PhoneAccountStateSerializer.toBytes(input, mContext);
+        PhoneAccountRegistrar.State result = PhoneAccountStateSerializer.fromBytes(data,
+                mContext);
+        assertStateEquals(input, result);
+        // A bitmap icon comes back as a bitmap icon, not as compressed image data.
+        assertEquals(Icon.TYPE_BITMAP, result.accounts.get(3).getIcon().getType());
+    }
+
+    /**
+     * Tests that a state file written in the legacy XML format is read, migrated to the binary
+     * format and then removed.
+     * @throws Exception
+     */
+    @MediumTest
+    @Test
+    public void testMigrateFromXml() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        setupUserSerialNumber();
+        PhoneAccountRegistrar.State state = new PhoneAccountRegistrar.State();
+        state.accounts.add(makeQuickAccountBuilder("id0", 0)
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .setIsEnabled(true)
+                .build());
+        deleteStateFiles();
+        try (FileOutputStream os = new FileOutputStream(getStateFile(FILE_NAME))) {
+            XmlSerializer serializer = new FastXmlSerializer();
+            serializer.setOutput(new BufferedOutputStream(os), "utf-8");
+            PhoneAccountRegistrar.sStateXml.writeToXml(state, serializer, mContext);
+            serializer.flush();
+        }
+
+        PhoneAccountRegistrar registrar = new PhoneAccountRegistrar(
+                mComponentContextFixture.getTestDouble().getApplicationContext(),
+                FILE_NAME, mDefaultDialerCache, mAppLabelProxy);
+        assertEquals(1, registrar.getAllPhoneAccountsOfCurrentUser().size());
+        registrar.cleanup();
+
+        assertFalse(getStateFile(FILE_NAME).exists());
+        assertTrue(getStateFile(PhoneAccountRegistrar.getBinaryFileName(FILE_NAME)).exists());
+        PhoneAccountRegistrar reloaded = new PhoneAccountRegistrar(
+                mComponentContextFixture.getTestDouble().getApplicationContext(),
+                FILE_NAME, mDefaultDialerCache, mAppLabelProxy);
+        assertEquals(1, reloaded.getAllPhoneAccountsOfCurrentUser().size());
+        reloaded.cleanup();
+    }
+
     private void registerAndEnableAccount(PhoneAccount account) {
         mRegistrar.registerPhoneAccount(account);
         mRegistrar.enablePhoneAccount(account.getAccountHandle(), true);
@@ -681,6 +769,56 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
         assertEquals(PhoneAccount.CAPABILITY_SELF_MANAGED, registeredAccount.getCapabilities());
     }
 
+    /**
+     * Tests that an account which is being replaced stays registered and enabled for readers of
+     * the registrar until its replacement is published.
+     */
+    @MediumTest
+    @Test
+    public void testReadWhileReplacingAccount() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+
+        PhoneAccountHandle selfManagedHandle =  makeQuickAccountHandle(
+                new ComponentName("self", "managed"), "selfie1");
+        PhoneAccount selfManagedAccount = new PhoneAccount.Builder(selfManagedHandle, TEST_LABEL)
+                .setCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED)
+                .build();
+        mRegistrar.registerPhoneAccount(selfManagedAccount);
+
+        // Read the account part way through replacing it, while the app label is looked up...
+        AtomicReference<PhoneAccount> readDuringLookup = new AtomicReference<>();
+        when(mAppLabelProxy.getAppLabel(anyString())).thenAnswer(invocation -> {
+            readDuringLookup.set(mRegistrar.getPhoneAccountUnchecked(selfManagedHandle));
+            return TEST_LABEL;
+        });
+        // ...and from another thread throughout.
+        AtomicBoolean replacing = new AtomicBoolean(true);
+        AtomicInteger badReads = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (replacing.get()) {
+                PhoneAccount account = mRegistrar.getPhoneAccountUnchecked(selfManagedHandle);
+                if (account == null || !account.isEnabled()) {
+                    badReads.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 100; i++) {
+            mRegistrar.registerPhoneAccount(selfManagedAccount.toBuilder()
+                    .setShortDescription("replacement " + i)
+                    .build());
+        }
+        replacing.set(false);
+        reader.join();
+
+        assertNotNull(readDuringLookup.get());
+        assertTrue(readDuringLookup.get().isEnabled());
+        assertEquals(0, badReads.get());
+        assertEquals("replacement 99", mRegistrar.getPhoneAccountUnchecked(selfManagedHandle)
+                .getShortDescription());
+    }
+
     @MediumTest
     @Test
     public void testSortSimFirst() throws Exception {
@@ -948,6 +1086,100 @@ public class PhoneAccountRegistrarTest extends TelecomTestCase {
                 PhoneAccount.CAPABILITY_RTT);
     }
 
+    /**
+     * Tests that lookups reflect registrations and un-registrations made after a previous lookup,
+     * ensuring the account indexes are kept up to date.
+     * @throws Exception
+     */
+    @MediumTest
+    @Test
+    public void testLookupsAfterUnregister() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        registerAndEnableAccount(makeQuickAccountBuilder("id1", 1)
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .setSupportedUriSchemes(Arrays.asList(PhoneAccount.SCHEME_TEL))
+                .build());
+        registerAndEnableAccount(makeQuickAccountBuilder("id2", 2)
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .setSupportedUriSchemes(Arrays.asList(PhoneAccount.SCHEME_TEL,
+                        PhoneAccount.SCHEME_SIP))
+                .build());
+
+        assertEquals(2, mRegistrar.getCallCapablePhoneAccounts(PhoneAccount.SCHEME_TEL,
+                false /* includeDisabled */, Process.myUserHandle()).size());
+        assertEquals(2, mRegistrar.getPhoneAccountsForPackage(
+                makeQuickConnectionServiceComponentName().getPackageName(),
+                Process.myUserHandle()).size());
+
+        mRegistrar.unregisterPhoneAccount(makeQuickAccountHandle("id2"));
+
+        assertNull(mRegistrar.getPhoneAccountUnchecked(makeQuickAccountHandle("id2")));
+        assertNotNull(mRegistrar.getPhoneAccountUnchecked(makeQuickAccountHandle("id1")));
+        assertEquals(1, mRegistrar.getCallCapablePhoneAccounts(PhoneAccount.SCHEME_TEL,
+                false /* includeDisabled */, Process.myUserHandle()).size());
+        assertEquals(0, mRegistrar.getCallCapablePhoneAccounts(PhoneAccount.SCHEME_SIP,
+                false /* includeDisabled */, Process.myUserHandle()).size());
+        assertEquals(1, mRegistrar.getPhoneAccountsForPackage(
+                makeQuickConnectionServiceComponentName().getPackageName(),
+                Process.myUserHandle()).size());
+    }
+
+    /**
+     * Tests that a burst of registrations results in a single write of the state, and that the
+     * state written out by {@link PhoneAccountRegistrar#flush()} can be read back.
+     * @throws Exception
+     */
+    @MediumTest
+    @Test
+    public void testWritesAreCoalesced() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        setupUserSerialNumber();
+        mRegistrar.flush();
+        int writesBefore = mRegistrar.getWritesPerformed();
+
+        for (int i = 0; i < 5; i++) {
+            registerAndEnableAccount(makeQuickAccountBuilder("id" + i, i)
+                    .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                    .build());
+        }
+        mRegistrar.flush();
+
+        assertEquals(writesBefore + 1, mRegistrar.getWritesPerformed());
+        assertTrue(mRegistrar.getWritesRequested() >= 5);
+
+        PhoneAccountRegistrar reloaded = new PhoneAccountRegistrar(
+                mComponentContextFixture.getTestDouble().getApplicationContext(),
+                FILE_NAME, mDefaultDialerCache, mAppLabelProxy);
+        assertEquals(5, reloaded.getAllPhoneAccountsOfCurrentUser().size());
+        reloaded.cleanup();
+    }
+
+    /**
+     * Tests that a user switch writes out pending changes on the writer thread without waiting
+     * for the coalescing window to close.
+     */
+    @MediumTest
+    @Test
+    public void testUserSwitchWritesOnWriterThread() throws Exception {
+        mComponentContextFixture.addConnectionService(makeQuickConnectionServiceComponentName(),
+                Mockito.mock(IConnectionService.class));
+        setupUserSerialNumber();
+        mRegistrar.flush();
+        int writesBefore = mRegistrar.getWritesPerformed();
+
+        registerAndEnableAccount(makeQuickAccountBuilder("id0", 0)
+                .setCapabilities(PhoneAccount.CAPABILITY_CALL_PROVIDER)
+                .build());
+        mRegistrar.setCurrentUserHandle(Process.myUserHandle());
+        // Runs ahead of the write delayed by the coalescing window, so only a write posted by
+        // the switch has happened by now.
+        waitForHandlerAction(mRegistrar.getWriteHandler(), 1000);
+
+        assertEquals(writesBefore + 1, mRegistrar.getWritesPerformed());
+    }
+
     /**
      * Tests {@link PhoneAccount#equals(Object)} operator.
      * @throws Exception
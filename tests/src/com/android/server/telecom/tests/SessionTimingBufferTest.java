@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telecom.TelecomAnalytics.SessionTiming;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.SessionTimingBuffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class SessionTimingBufferTest extends TelecomTestCase {
+    private static final int SESSION_A = SessionTiming.ICA_ANSWER_CALL;
+    private static final int SESSION_B = SessionTiming.CSW_SET_ACTIVE;
+
+    @SmallTest
+    @Test
+    public void testEvictsOldestWhenFull() {
+        SessionTimingBuffer buffer = new SessionTimingBuffer(3);
+        buffer.add(SESSION_A, 10);
+        buffer.add(SESSION_A, 20);
+        buffer.add(SESSION_B, 30);
+        buffer.add(SESSION_B, 40);
+
+        assertEquals(3, buffer.size());
+        assertEquals(20, buffer.getTime(0));
+        assertEquals(SESSION_B, buffer.getSessionId(2));
+        assertEquals(40, buffer.getTime(2));
+        assertEquals(1, buffer.getCount(SESSION_A));
+        assertEquals(2, buffer.getCount(SESSION_B));
+    }
+
+    @SmallTest
+    @Test
+    public void testAveragesMatchFullScan() {
+        SessionTimingBuffer buffer = new SessionTimingBuffer(50);
+        List<SessionTiming> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int sessionId = i % 3 == 0 ? SESSION_A : SESSION_B;
+            buffer.add(sessionId, i * 7 % 113);
+            expected.add(new SessionTiming(sessionId, i * 7 % 113));
+        }
+        expected = expected.subList(expected.size() - 50, expected.size());
+
+        Map<Integer, Double> expectedAverages = SessionTiming.averageTimings(expected);
+        Map<Integer, Double> averages = buffer.getAverageTimings();
+        assertEquals(expectedAverages.keySet(), averages.keySet());
+        for (Map.Entry<Integer, Double> e : expectedAverages.entrySet()) {
+            assertEquals(e.getValue(), averages.get(e.getKey()), 0.0001);
+        }
+        assertEquals(expected.size(), buffer.toSessionTimings().size());
+    }
+
+    @SmallTest
+    @Test
+    public void testPercentiles() {
+        SessionTimingBuffer buffer = new SessionTimingBuffer(100);
+        assertEquals(-1, buffer.getPercentile(SESSION_A, 50));
+        for (int i = 1; i <= 100; i++) {
+            buffer.add(SESSION_A, i);
+        }
+        // The estimates are the upper bounds of the power of two buckets.
+        assertEquals(63, buffer.getPercentile(SESSION_A, 50));
+        assertEquals(127, buffer.getPercentile(SESSION_A, 90));
+        assertEquals(1, buffer.getPercentile(SESSION_A, 0));
+    }
+
+    @SmallTest
+    @Test
+    public void testClear() {
+        SessionTimingBuffer buffer = new SessionTimingBuffer(2);
+        buffer.add(SESSION_A, 10);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getCount(SESSION_A));
+        assertEquals(0, buffer.getAverageTimings().size());
+        buffer.add(SESSION_B, 5);
+        assertEquals(5, buffer.getTime(0));
+    }
+}
@@ -50,7 +50,9 @@ import com.android.server.telecom.Call;
 import com.android.server.telecom.CallIntentProcessor;
 import com.android.server.telecom.CallState;
 import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ClockProxy;
 import com.android.server.telecom.DefaultDialerCache;
+import com.android.server.telecom.PermissionDecisionCache;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.TelecomServiceImpl;
 import com.android.server.telecom.TelecomSystem;
@@ -162,6 +164,7 @@ public class TelecomServiceImplTest extends TelecomTestCase {
     @Mock private CallsManager mFakeCallsManager;
     @Mock private PhoneAccountRegistrar mFakePhoneAccountRegistrar;
     @Mock private TelecomManager mTelecomManager;
+    @Mock private ClockProxy mClockProxy;
     private CallIntentProcessor.Adapter mCallIntentProcessorAdapter =
             spy(new CallIntentProcessAdapterFake());
     @Mock private DefaultDialerCache mDefaultDialerCache;
@@ -222,6 +225,8 @@ public class TelecomServiceImplTest extends TelecomTestCase {
                 mDefaultDialerCache,
                 mSubscriptionManagerAdapter,
                 mSettingsSecureAdapter,
+                new PermissionDecisionCache(),
+                mClockProxy,
                 mLock);
         mTSIBinder = telecomServiceImpl.getBinder();
         mComponentContextFixture.setTelecomManager(mTelecomManager);
@@ -111,7 +111,6 @@ import org.mockito.stubbing.Answer;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -382,12 +381,6 @@ public class TelecomSystemTest extends TelecomTestCase {
     @Override
     public void tearDown() throws Exception {
         mTelecomSystem.getCallsManager().waitOnHandlers();
-        LinkedList<HandlerThread> handlerThreads = mTelecomSystem.getCallsManager()
-                .getGraphHandlerThreads();
-        for (HandlerThread handlerThread : handlerThreads) {
-            handlerThread.quitSafely();
-        }
-        handlerThreads.clear();
         waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
         waitForHandlerAction(mHandlerThread.getThreadHandler(), TEST_TIMEOUT);
         // Bring down the threads that are active.
@@ -411,6 +404,7 @@ public class TelecomSystemTest extends TelecomTestCase {
             Log.w(this, "Active Sessions:\n" + sessions);
         }
 
+        mTelecomSystem.getPhoneAccountRegistrar().cleanup();
         mTelecomSystem = null;
         super.tearDown();
     }
@@ -451,6 +445,13 @@ public class TelecomSystemTest extends TelecomTestCase {
         if (phoneAccountFile.exists()) {
             phoneAccountFile.delete();
         }
+        File phoneAccountBinaryFile =
+                new File(mComponentContextFixture.getTestDouble()
+                        .getApplicationContext().getFilesDir(),
+                        PhoneAccountRegistrar.getBinaryFileName(PhoneAccountRegistrar.FILE_NAME));
+        if (phoneAccountBinaryFile.exists()) {
+            phoneAccountBinaryFile.delete();
+        }
 
         // Use actual implementations instead of mocking the interface out.
         HeadsetMediaButtonFactory headsetMediaButtonFactory =
@@ -35,7 +35,7 @@ public abstract class TelecomTestCase {
     protected Context mContext;
 
     MockitoHelper mMockitoHelper = new MockitoHelper();
-    ComponentContextFixture mComponentContextFixture;
+    protected ComponentContextFixture mComponentContextFixture;
 
     public void setUp() throws Exception {
         Log.setTag(TESTING_TAG);
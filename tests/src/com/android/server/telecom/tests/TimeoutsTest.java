@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.telecom.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ContentResolver;
+import android.content.IContentProvider;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ICancellationSignal;
+import android.provider.Settings;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Timeouts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TimeoutsTest extends TelecomTestCase {
+    private ContentResolver mContentResolver;
+    private IContentProvider mSettingsProvider;
+    private String mCallScreeningTimeout = "1234";
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mContentResolver = mContext.getContentResolver();
+        mSettingsProvider = mContentResolver.acquireProvider(Settings.AUTHORITY);
+        when(mSettingsProvider.query(anyString(), nullable(String.class),
+                nullable(Uri.class), nullable(String[].class), nullable(Bundle.class),
+                nullable(ICancellationSignal.class)))
+                .thenAnswer(invocation -> {
+                    MatrixCursor cursor = new MatrixCursor(new String[] {
+                            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE });
+                    cursor.addRow(new Object[] {
+                            "telecom.call_screening_timeout", mCallScreeningTimeout });
+                    cursor.addRow(new Object[] {
+                            "telecom.delay_between_dtmf_tones_ms", "not a number" });
+                    cursor.addRow(new Object[] { "call_screening_timeout", "1" });
+                    return cursor;
+                });
+        Timeouts.enableCache(mContentResolver);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        Timeouts.disableCache();
+        super.tearDown();
+    }
+
+    @SmallTest
+    @Test
+    public void testValuesReadFromSnapshot() throws Exception {
+        assertEquals(1234L, Timeouts.getCallScreeningTimeoutMillis(mContentResolver));
+        // Unparseable and unset values fall back to their defaults.
+        assertEquals(300L, Timeouts.getDelayBetweenDtmfTonesMillis(mContentResolver));
+        assertEquals(5000L, Timeouts.getBluetoothPendingTimeoutMillis(mContentResolver));
+        assertEquals(1234L, Timeouts.getCallScreeningTimeoutMillis(mContentResolver));
+
+        verifyQueryCount(1);
+    }
+
+    @SmallTest
+    @Test
+    public void testSnapshotReloadedAfterChange() throws Exception {
+        assertEquals(1234L, Timeouts.getCallScreeningTimeoutMillis(mContentResolver));
+        assertNotNull(Timeouts.getContentObserver());
+
+        // Changes to other settings are ignored.
+        Timeouts.getContentObserver().onChange(false,
+                Uri.withAppendedPath(Settings.Secure.CONTENT_URI, "call_screening_timeout"));
+        assertEquals(1234L, Timeouts.getCallScreeningTimeoutMillis(mContentResolver));
+        verifyQueryCount(1);
+
+        mCallScreeningTimeout = "4321";
+        Timeouts.getContentObserver().onChange(false, Uri.withAppendedPath(
+                Settings.Secure.CONTENT_URI, "telecom.call_screening_timeout"));
+        assertEquals(4321L, Timeouts.getCallScreeningTimeoutMillis(mContentResolver));
+        verifyQueryCount(2);
+    }
+
+    private void verifyQueryCount(int count) throws Exception {
+        verify(mSettingsProvider, times(count)).query(anyString(), nullable(String.class),
+                nullable(Uri.class), nullable(String[].class), nullable(Bundle.class),
+                nullable(ICancellationSignal.class));
+    }
+}